@@ -0,0 +1,184 @@
+package zhayi.core3341;
+
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import zhayi.core3341.CoreError.*;
+
+/**
+ * Ahead-of-time compiled program for CORE language for CSE 3341 Project
+ *
+ * Everything needed to run a program without tokenizing or parsing it again: its {@code Bytecode}, and the
+ * JVM class {@code JitCompiler} generates for it unless the program is too large for one. Artifacts are
+ * cached on disk, one file each, named by a SHA-256 of the program text and {@code FORMAT}, so that an
+ * artifact found under a program's key is always up to date with it.
+ *
+ * @author Yi Zhang
+ */
+final class Artifact {
+    private static final int MAGIC = 0xC03E3341;
+
+    /**
+     * Version of the artifact layout and of the code in it; bump whenever {@code Bytecode} or
+     * {@code JitCompiler} output changes, so that older artifacts are no longer found.
+     */
+    private static final int FORMAT = 6;
+
+    private static final String EXTENSION = ".corec";
+
+    /**
+     * Classes already defined by this JVM, by name; a class can only be defined once.
+     */
+    private static final Map<String, MethodHandle> loaded = new ConcurrentHashMap<>();
+
+    private final Bytecode program;
+
+    /**
+     * {@code ProgNode.unassigned} of the program.
+     */
+    private final String unassigned;
+
+    /**
+     * Internal name and class file of the JVM class, both null if there is none.
+     */
+    private final String className;
+    private final byte[] classFile;
+
+    private Artifact(Bytecode program, String unassigned, String className, byte[] classFile) {
+        this.program = program;
+        this.unassigned = unassigned;
+        this.className = className;
+        this.classFile = classFile;
+    }
+
+    /**
+     * @return cache directory used unless another is given, {@code ~/.cache/core3341}
+     */
+    static Path defaultDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".cache", "core3341");
+    }
+
+    /**
+     * Computes the cache key of a program.
+     * @param text program text
+     * @return hex SHA-256 of {@code FORMAT} and the text
+     */
+    static String key(CharBuffer text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(("core3341 artifact " + FORMAT + "\n").getBytes(StandardCharsets.UTF_8));
+            digest.update(StandardCharsets.UTF_8.encode(text.duplicate()));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @param directory cache directory
+     * @param key cache key from {@code key}
+     * @return path of the artifact with that key
+     */
+    static Path path(Path directory, String key) {
+        return directory.resolve(key + EXTENSION);
+    }
+
+    /**
+     * Compiles a parsed program.
+     * @param prog parsed program, its loops optimized
+     * @param key cache key of its text
+     * @return new artifact, not yet saved
+     */
+    static Artifact compile(ProgNode prog, String key) {
+        Bytecode program = prog.compile();
+        String className = "zhayi/core3341/CachedProgram_" + key;
+        byte[] classFile = JitCompiler.generate(program, className);
+        return new Artifact(program, prog.unassigned, classFile == null ? null : className, classFile);
+    }
+
+    /**
+     * Finds a cached artifact.
+     * @param directory cache directory
+     * @param key cache key from {@code key}
+     * @return the artifact, or null if there is none or it cannot be read
+     */
+    static Artifact load(Path directory, String key) {
+        Path path = path(directory, key);
+        if (!Files.isRegularFile(path)) return null;
+        try {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+            if (in.getInt() != MAGIC || in.getInt() != FORMAT) return null;
+            Bytecode program = Bytecode.read(in);
+            String unassigned = in.get() == 0 ? null : Bytecode.readString(in);
+            if (in.get() == 0) return new Artifact(program, unassigned, null, null);
+            String className = Bytecode.readString(in);
+            byte[] classFile = new byte[in.getInt()];
+            in.get(classFile);
+            return new Artifact(program, unassigned, className, classFile);
+        } catch (IOException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Saves this artifact, replacing any with the same key at once so that readers never see part of it.
+     * @param directory cache directory, created if missing
+     * @param key cache key from {@code key}
+     * @return path of the artifact
+     * @throws IOException if the artifact cannot be written
+     */
+    Path save(Path directory, String key) throws IOException {
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, key, ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                program.write(out);
+                out.writeBoolean(unassigned != null);
+                if (unassigned != null) Bytecode.writeString(out, unassigned);
+                out.writeBoolean(classFile != null);
+                if (classFile != null) {
+                    Bytecode.writeString(out, className);
+                    out.writeInt(classFile.length);
+                    out.write(classFile);
+                }
+            }
+            return Files.move(temp, path(directory, key), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * See {@code ProgNode.checkAssigned()}.
+     * @throws UninitializedException if the program reads a variable no path to the read assigns
+     */
+    void checkAssigned() throws UninitializedException {
+        if (unassigned != null) throw new UninitializedException(unassigned);
+    }
+
+    /**
+     * Runs the program, as a JVM class if there is one, else on {@code VirtualMachine}.
+     * @param io frame of the run
+     * @throws InterpreterException on the first runtime error
+     */
+    void run(Frame io) throws InterpreterException {
+        if (classFile == null) {
+            VirtualMachine.run(program, io);
+            return;
+        }
+        JitCompiler.run(loaded.computeIfAbsent(className, name -> JitCompiler.load(classFile)), program, io);
+    }
+}
@@ -0,0 +1,94 @@
+package zhayi.core3341;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import zhayi.core3341.CoreError.*;
+
+/**
+ * Batch runner for CORE language for CSE 3341 Project
+ *
+ * Runs one parsed program over many input vectors, each a line of integers that its read statements take in
+ * order, on a fork-join pool. Every run has a frame of its own, writing into a buffer, so that the program is
+ * parsed and compiled once however many vectors there are, and the results come back in the order of the
+ * vectors whatever order the runs finish in.
+ *
+ * @author Yi Zhang
+ */
+final class Batch {
+    private Batch() {
+    }
+
+    /**
+     * Outcome of one run.
+     */
+    static final class Result {
+        /**
+         * What the program wrote, up to its error if it failed.
+         */
+        final byte[] output;
+
+        /**
+         * Runtime error, or null if the program completed.
+         */
+        final InterpreterException error;
+
+        private Result(byte[] output, InterpreterException error) {
+            this.output = output;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Reads input vectors, one per line.
+     * @param file file of vectors
+     * @return each line as bytes
+     * @throws IOException if the file cannot be read
+     */
+    static byte[][] vectors(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.US_ASCII);
+        byte[][] vectors = new byte[lines.size()][];
+        for (int i = 0; i < vectors.length; i++) vectors[i] = lines.get(i).getBytes(StandardCharsets.US_ASCII);
+        return vectors;
+    }
+
+    /**
+     * Runs a program once per input vector.
+     * @param program program compiled by {@code CoreEngine.compile}, see {@code CoreEngine.CompiledProgram}
+     * @param vectors input vectors
+     * @param format format of written values, one of {@code Output.FORMATS}
+     * @param threads parallelism of the pool
+     * @return result of each vector, in order
+     */
+    static Result[] run(Closure.Stmt program, byte[][] vectors, String format, int threads) {
+        Result[] results = new Result[vectors.length];
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> IntStream.range(0, vectors.length).parallel()
+                    .forEach(i -> results[i] = run(program, vectors[i], format))).join();
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+
+    private static Result run(Closure.Stmt program, byte[] vector, String format) {
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        Frame f = new Frame(Input.text(new ByteArrayInputStream(vector)), Output.of(format, written, false));
+        InterpreterException error = null;
+        try {
+            program.exec(f);
+        } catch (InterpreterException ex) {
+            error = ex;
+        }
+        f.flush();
+        return new Result(written.toByteArray(), error);
+    }
+}
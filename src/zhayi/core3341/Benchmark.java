@@ -0,0 +1,1517 @@
+package zhayi.core3341;
+
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.ref.Reference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Function;
+
+import zhayi.core3341.CoreError.*;
+
+/**
+ * Micro benchmarks for CSE 3341 Project
+ *
+ * Usage: java zhayi.core3341.Benchmark <suite> [statements...]
+ *
+ * @author Yi Zhang
+ */
+public final class Benchmark {
+    /**
+     * Default program sizes, in generated statements.
+     */
+    private static final int[] DEFAULT_SIZES = {10_000, 100_000, 1_000_000};
+
+    private static final int WARMUP = 3;
+    private static final int RUNS = 5;
+
+    private Benchmark() {
+    }
+
+    /**
+     * A single timed run.
+     */
+    interface Task {
+        void run() throws Exception;
+    }
+
+    /**
+     * Runs {@code task} {@code WARMUP} times untimed, then {@code RUNS} times timed.
+     * @param label printed in front of the result
+     * @param task body to time
+     * @return best wall time of all timed runs, in nanoseconds
+     * @throws Exception if any run failed
+     */
+    static long measure(String label, Task task) throws Exception {
+        for (int i = 0; i < WARMUP; i++) task.run();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-40s %10.2f ms%n", label, best / 1e6);
+        return best;
+    }
+
+    /**
+     * Generates a syntactically valid CORE program with roughly {@code statements} statements.
+     * @param statements number of statements in the body
+     * @return program text
+     */
+    static String generate(int statements) {
+        StringBuilder sb = new StringBuilder("program\n  int X, Y, Z;\n  int COUNT1;\nbegin\n");
+        for (int i = 0; i < statements; i++) {
+            switch (i % 4) {
+                case 0:
+                    sb.append("  X = ( Y + 12 ) * Z - COUNT1;\n");
+                    break;
+                case 1:
+                    sb.append("  if [ (X >= Y) and !(Z != 3) ] then Y = Y - 1; else Z = 4; end;\n");
+                    break;
+                case 2:
+                    sb.append("  while (COUNT1 <= 100) loop COUNT1 = COUNT1 + 1; end;\n");
+                    break;
+                default:
+                    sb.append("  write X, Y, Z;\n");
+            }
+        }
+        return sb.append("end\n").toString();
+    }
+
+    /**
+     * Writes {@code text} to a temporary file deleted on exit.
+     * @param text file content
+     * @return path of the file
+     * @throws IOException if the file cannot be written
+     */
+    static String writeTemp(String text) throws IOException {
+        Path path = Files.createTempFile("core-bench", ".core");
+        path.toFile().deleteOnExit();
+        Files.write(path, text.getBytes());
+        return path.toString();
+    }
+
+    /**
+     * Compares the bulk-read {@code Tokenizer} against the original per-character {@code FileReader} lexer.
+     * @param sizes program sizes in statements
+     * @throws Exception if tokenizing failed
+     */
+    private static void tokenize(int[] sizes) throws Exception {
+        for (int size : sizes) {
+            String path = writeTemp(generate(size));
+            System.out.printf("-- %d statements, %d bytes%n", size, new File(path).length());
+            measure("FileReader.read() per char", () -> new LegacyTokenizer().tokenize(path));
+            measure("Tokenizer bulk read", () -> new Tokenizer().tokenize(path));
+        }
+    }
+
+    /**
+     * Reports lexer throughput in tokens per second, before (legacy lexer) and after (table-driven lexer).
+     * @param sizes program sizes in statements
+     * @throws Exception if tokenizing failed
+     */
+    private static void lex(int[] sizes) throws Exception {
+        for (int size : sizes) {
+            String path = writeTemp(generate(size));
+            Tokenizer counted = new Tokenizer();
+            counted.tokenize(path);
+            long tokens = counted.size();
+
+            System.out.printf("-- %d statements, %d tokens%n", size, tokens);
+            long before = measure("legacy lexer", () -> new LegacyTokenizer().tokenize(path));
+            long after = measure("table-driven lexer", () -> new Tokenizer().tokenize(path));
+            System.out.printf("%-40s %10.0f -> %.0f tokens/s%n", "throughput",
+                    tokens * 1e9 / before, tokens * 1e9 / after);
+        }
+    }
+
+    /**
+     * Tokenizes and parses a file, eagerly or lazily.
+     * @param path source file path
+     * @param lazy use {@code Tokenizer.stream} instead of {@code Tokenizer.tokenize}
+     * @return the tokenizer and the parsed program, so both stay reachable
+     * @throws InterpreterException if tokenizing or parsing failed
+     */
+    private static Object[] parse(String path, boolean lazy) throws InterpreterException {
+        return parse(path, lazy, false);
+    }
+
+    /**
+     * Same as {@code parse(String, boolean)}, optionally optimizing loops.
+     * @param path source file path
+     * @param lazy use {@code Tokenizer.stream} instead of {@code Tokenizer.tokenize}
+     * @param optimize whether to optimize loops, as on the way to execution
+     * @return the tokenizer and the parsed program
+     * @throws InterpreterException if tokenizing or parsing failed
+     */
+    private static Object[] parse(String path, boolean lazy, boolean optimize) throws InterpreterException {
+        Tokenizer t = new Tokenizer();
+        if (lazy) t.stream(path);
+        else t.tokenize(path);
+        return new Object[]{t, ProgNode.parseProg(t, optimize)};
+    }
+
+    /**
+     * Heap still reachable after parsing, measured between two full collections.
+     * Includes the AST, which is the same for both modes.
+     * @param path source file path
+     * @param lazy tokenize lazily
+     * @return bytes retained by the tokenizer and the program
+     * @throws InterpreterException if tokenizing or parsing failed
+     */
+    private static long retainedHeap(String path, boolean lazy) throws InterpreterException {
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        long before = rt.totalMemory() - rt.freeMemory();
+        Object[] kept = parse(path, lazy);
+        System.gc();
+        long after = rt.totalMemory() - rt.freeMemory();
+        Reference.reachabilityFence(kept);
+        return after - before;
+    }
+
+    /**
+     * Compares eager and lazy tokenizing: parse time and heap retained at the end of parsing.
+     * @param sizes program sizes in statements
+     * @throws Exception if tokenizing or parsing failed
+     */
+    private static void stream(int[] sizes) throws Exception {
+        for (int size : sizes) {
+            String path = writeTemp(generate(size));
+            System.out.printf("-- %d statements, %d bytes%n", size, new File(path).length());
+            for (boolean lazy : new boolean[]{false, true}) {
+                String mode = lazy ? "lazy" : "eager";
+                measure(mode + " tokenize + parse", () -> parse(path, lazy));
+                System.out.printf("%-40s %10.2f MB%n", mode + " retained heap", retainedHeap(path, lazy) / 1e6);
+            }
+        }
+    }
+
+    /**
+     * Generates a randomly laid out program, optionally with one invalid token somewhere in it.
+     * @param random source of randomness
+     * @param statements number of statements
+     * @param broken whether to insert an invalid token
+     * @return program text
+     */
+    static String generateRandom(Random random, int statements, boolean broken) {
+        String[] pieces = {"X = ( Y + 12 ) * Z - COUNT1;", "if [ (X>=Y) and !(Z!=3) ] then Y=Y-1; else Z=4; end;",
+                "while (COUNT1 <= 100) loop COUNT1 = COUNT1 + 1; end;", "write X,Y,Z;", "read X;"};
+        String[] spaces = {" ", "", "\n", "\t", "  \n\n", "\r\n"};
+        String[] invalid = {"@", "ABCDEFGHIJ", "Ab", "12A", "xyz"};
+        int brokenAt = broken ? random.nextInt(statements) : -1;
+
+        StringBuilder sb = new StringBuilder("program int X, Y, Z; int COUNT1;\nbegin\n");
+        for (int i = 0; i < statements; i++) {
+            if (i == brokenAt) sb.append(invalid[random.nextInt(invalid.length)]).append(' ');
+            sb.append(pieces[random.nextInt(pieces.length)]).append(spaces[random.nextInt(spaces.length)]);
+        }
+        return sb.append("\nend").toString();
+    }
+
+    /**
+     * Tokenizes a file and renders everything observable about the result: every token and the error, if any.
+     * @param path source file path
+     * @param threshold parallel threshold passed to {@code Tokenizer.tokenize}
+     * @return rendering to compare
+     */
+    private static String render(String path, int threshold) {
+        Tokenizer t = new Tokenizer();
+        try {
+            t.tokenize(Source.file(path), threshold);
+        } catch (InvalidTokenException ex) {
+            return ex.getMessage();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < t.size(); i++)
+            sb.append(t.code(i)).append(' ').append(t.line(i)).append(' ').append(t.name(i)).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Checks parallel chunked tokenizing against single-threaded tokenizing over a generated corpus,
+     * half of it containing an invalid token, then times both.
+     * @param sizes program sizes in statements
+     * @throws Exception if the results differ or tokenizing failed
+     */
+    private static void parallel(int[] sizes) throws Exception {
+        Random random = new Random(3341);
+        for (int i = 0; i < 40; i++) {
+            String path = writeTemp(generateRandom(random, 20_000 + random.nextInt(80_000), i % 2 == 1));
+            if (!render(path, Integer.MAX_VALUE).equals(render(path, 0)))
+                throw new AssertionError("Parallel tokenizing differs on " + path);
+            new File(path).delete();
+        }
+        System.out.println("parallel tokenizing matches single-threaded on 40 generated programs");
+
+        for (int size : sizes) {
+            String path = writeTemp(generate(size));
+            System.out.printf("-- %d statements, %d bytes%n", size, new File(path).length());
+            measure("single-threaded", () -> new Tokenizer().tokenize(Source.file(path), Integer.MAX_VALUE));
+            measure("parallel chunks", () -> new Tokenizer().tokenize(Source.file(path), 0));
+        }
+    }
+
+    /**
+     * @return frame discarding what the program writes, with no values to read
+     */
+    private static Frame quiet() {
+        return new Frame(Input.text(InputStream.nullInputStream()), Output.text(OutputStream.nullOutputStream(), false));
+    }
+
+    /**
+     * Generates a CORE program whose time goes into one loop of arithmetic, comparisons and assignments.
+     * @param iterations number of loop iterations, at most 8 digits
+     * @return program text
+     */
+    static String generateLoop(int iterations) {
+        return "program\n  int I, N, X, Y;\nbegin\n" +
+                "  I = 0; Y = 0; N = " + iterations + ";\n" +
+                "  while (I < N) loop\n" +
+                "    X = ( I + 12 ) * 3 - I;\n" +
+                "    if [ (X > I) and !(I == 7) ] then Y = Y + 1; else Y = Y - 1; end;\n" +
+                "    I = I + 1;\n" +
+                "  end;\n" +
+                "end\n";
+    }
+
+    /**
+     * Times each execution engine on a parsed loop program.
+     * @param sizes loop iterations
+     * @throws Exception if parsing or execution failed
+     */
+    private static void exec(int[] sizes) throws Exception {
+        for (int size : sizes) {
+            String path = writeTemp(generateLoop(size));
+            ProgNode prog = (ProgNode) parse(path, false)[1];
+            Frame f = quiet();
+            Bytecode code = prog.compile();
+            System.out.printf("-- %d iterations%n", size);
+            measure("tree walker", () -> prog.execProg(f));
+            ExecNode.RootNode tree = prog.specialize();
+            measure("self-specializing tree", () -> tree.exec(f));
+            Closure.Stmt closure = prog.closure();
+            measure("closures", () -> closure.exec(f));
+            measure("bytecode vm", () -> VirtualMachine.run(code, f));
+            MethodHandle jit = JitCompiler.compile(code);
+            measure("jvm class", () -> JitCompiler.run(jit, code, f));
+            Ir ir = prog.lower();
+            Optimizer.standard().optimize(ir, null);
+            measure("optimized ir", () -> ir.run(f));
+        }
+    }
+
+    /**
+     * Generates a CORE program whose time goes into counting loops that have a summary: one flat, and one
+     * entered again on every iteration of an outer loop that has none.
+     * @param iterations number of iterations of each, at most 8 digits
+     * @return program text
+     */
+    static String generateCounting(int iterations) {
+        return "program\n  int I, J, N, S, T, K;\nbegin\n" +
+                "  I = 0; S = 0; T = 100; K = 3; N = " + iterations + ";\n" +
+                "  while (I < N) loop\n" +
+                "    S = S + K;\n" +
+                "    T = T - 1;\n" +
+                "    I = I + 1;\n" +
+                "  end;\n" +
+                "  J = 0;\n" +
+                "  while (J < N) loop\n" +
+                "    I = 100;\n" +
+                "    while (I > 0) loop S = S - 1; I = I - 1; end;\n" +
+                "    J = J + 100;\n" +
+                "  end;\n" +
+                "end\n";
+    }
+
+    /**
+     * Times counting loops run as usual and through their summaries, checking that both leave the same state.
+     * @param sizes loop iterations
+     * @throws Exception if parsing or execution failed, or the states differ
+     */
+    private static void summarize(int[] sizes) throws Exception {
+        for (int size : sizes) {
+            String path = writeTemp(generateCounting(size));
+            ProgNode[] progs = new ProgNode[2];
+            for (int i = 0; i < 2; i++) {
+                Tokenizer t = new Tokenizer();
+                t.tokenize(path);
+                progs[i] = ProgNode.parseProg(t, i == 1, false);
+            }
+            System.out.printf("-- %d iterations%n", size);
+            for (String engine : new String[]{"tree walker", "self-specializing tree", "closures"}) {
+                int[][] states = new int[2][];
+                for (int i = 0; i < 2; i++) {
+                    ProgNode prog = progs[i];
+                    Frame f = quiet();
+                    ExecNode.RootNode tree = prog.specialize();
+                    Task task = engine.equals("tree walker") ? () -> prog.execProg(f)
+                            : engine.equals("closures") ? () -> prog.closure().exec(f)
+                            : () -> tree.exec(f);
+                    measure(engine + (i == 1 ? " summarized" : ""), task);
+                    states[i] = f.values.clone();
+                }
+                if (!Arrays.equals(states[0], states[1]))
+                    throw new IllegalStateException("Summarized loops left a different state in " + engine);
+            }
+        }
+    }
+
+    /**
+     * Generates a CORE program whose loop recomputes invariant expressions and products of its counter, writing
+     * its results once at the end so that they are not dead.
+     * @param iterations number of loop iterations, at most 8 digits
+     * @return program text
+     */
+    static String generateInvariant(int iterations) {
+        return "program\n  int I, N, A, B, X, Y;\nbegin\n" +
+                "  I = 0; Y = 0; A = 7; B = 11; N = " + iterations + ";\n" +
+                "  while (I < N) loop\n" +
+                "    X = I * 8 + ( A * B - 3 ) * ( A + B );\n" +
+                "    Y = X - I * 8 - A * B * 4;\n" +
+                "    I = I + 1;\n" +
+                "  end;\n" +
+                "  write X, Y;\n" +
+                "end\n";
+    }
+
+    /**
+     * Times each execution engine on a loop program as parsed and with its loops optimized, checking that both
+     * leave the same state.
+     * @param sizes loop iterations
+     * @throws Exception if parsing or execution failed, or the states differ
+     */
+    private static void hoist(int[] sizes) throws Exception {
+        for (int size : sizes) {
+            String path = writeTemp(generateInvariant(size));
+            System.out.printf("-- %d iterations%n", size);
+            ProgNode[] progs = {(ProgNode) parse(path, false)[1], (ProgNode) parse(path, false, true)[1]};
+            String[] engines = {"tree walker", "self-specializing tree", "closures", "bytecode vm", "jvm class",
+                    "optimized ir"};
+            for (String engine : engines) {
+                int[][] states = new int[2][];
+                for (int i = 0; i < 2; i++) {
+                    ProgNode prog = progs[i];
+                    Frame f = quiet();
+                    Task task;
+                    switch (engine) {
+                        case "tree walker":
+                            task = () -> prog.execProg(f);
+                            break;
+                        case "self-specializing tree": {
+                            ExecNode.RootNode tree = prog.specialize();
+                            task = () -> tree.exec(f);
+                            break;
+                        }
+                        case "closures": {
+                            Closure.Stmt closure = prog.closure();
+                            task = () -> closure.exec(f);
+                            break;
+                        }
+                        case "bytecode vm": {
+                            Bytecode code = prog.compile();
+                            task = () -> VirtualMachine.run(code, f);
+                            break;
+                        }
+                        case "jvm class": {
+                            Bytecode code = prog.compile();
+                            MethodHandle jit = JitCompiler.compile(code);
+                            task = () -> JitCompiler.run(jit, code, f);
+                            break;
+                        }
+                        default: {
+                            Ir ir = prog.lower();
+                            Optimizer.standard().optimize(ir, null);
+                            task = () -> ir.run(f);
+                        }
+                    }
+                    measure(engine + (i == 1 ? " optimized loops" : ""), task);
+                    states[i] = Arrays.copyOf(f.values, progs[0].slots.size());
+                }
+                if (!Arrays.equals(states[0], states[1]))
+                    throw new IllegalStateException("Optimized loops left a different state in " + engine);
+            }
+        }
+    }
+
+    /**
+     * Generates a CORE program whose time goes into one long plus/minus chain, with multiplies in its terms.
+     * @param terms number of terms
+     * @return program text
+     */
+    static String generateChain(int terms) {
+        StringBuilder sb = new StringBuilder("program\n  int X, Y;\nbegin\n  X = 1;\n  Y = X");
+        for (int i = 1; i < terms; i++) sb.append(i % 3 == 0 ? " - X" : i % 3 == 1 ? " + X * 2" : " - 3 * X * X");
+        return sb.append(";\n  write Y;\nend\n").toString();
+    }
+
+    /**
+     * Times parsing and each execution engine on one long expression, which no longer takes stack depth along
+     * its length.
+     * @param sizes terms in the expression
+     * @throws Exception if parsing or execution failed
+     */
+    private static void chain(int[] sizes) throws Exception {
+        for (int size : sizes) {
+            String path = writeTemp(generateChain(size));
+            System.out.printf("-- %d terms%n", size);
+            measure("parse", () -> parse(path, false));
+            ProgNode prog = (ProgNode) parse(path, false)[1];
+            Frame f = quiet();
+            measure("tree walker", () -> prog.execProg(f));
+            ExecNode.RootNode tree = prog.specialize();
+            measure("self-specializing tree", () -> tree.exec(f));
+            Closure.Stmt closure = prog.closure();
+            measure("closures", () -> closure.exec(f));
+            Bytecode code = prog.compile();
+            measure("bytecode vm", () -> VirtualMachine.run(code, f));
+            Ir ir = prog.lower();
+            Optimizer.standard().optimize(ir, null);
+            measure("optimized ir", () -> ir.run(f));
+        }
+    }
+
+    /**
+     * Generates a CORE program of ifs nested {@code depth} deep inside a loop, with a loop at the bottom.
+     * @param depth nesting depth
+     * @return program text
+     */
+    static String generateNested(int depth) {
+        StringBuilder sb = new StringBuilder("program\n  int I, J, X;\nbegin\n  I = 0; X = 0;\n  while (I < 3) loop\n");
+        for (int i = 0; i < depth; i++) sb.append("if (X >= 0) then X = X + 1;\n");
+        sb.append("J = 0; while (J < 10) loop J = J + 1; end;\n");
+        for (int i = 0; i < depth; i++) sb.append("end;\n");
+        return sb.append("    I = I + 1;\n  end;\n  write X, J;\nend\n").toString();
+    }
+
+    /**
+     * Runs a task on a new thread of a given stack size, and waits for it.
+     * @param stackSize stack size in bytes
+     * @param task body to run
+     * @throws Exception if the task failed
+     */
+    private static void onStack(long stackSize, Task task) throws Exception {
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        }, "core-bench", stackSize);
+        thread.start();
+        thread.join();
+        if (failure[0] instanceof Exception) throw (Exception) failure[0];
+        if (failure[0] != null) throw (Error) failure[0];
+    }
+
+    /**
+     * Times parsing with its analyses, and the tree walker, on deeply nested statements, the whole way from the
+     * source through loop optimization to execution on a thread with a fixed small stack.
+     * @param sizes nesting depths
+     * @throws Exception if parsing or execution failed
+     */
+    private static void nest(int[] sizes) throws Exception {
+        for (int size : sizes) {
+            String path = writeTemp(generateNested(size));
+            System.out.printf("-- depth %d%n", size);
+            onStack(256 * 1024, () -> {
+                measure("parse and analyses, 256 KB stack", () -> parse(path, false, true));
+                ProgNode prog = (ProgNode) parse(path, false, true)[1];
+                Frame f = quiet();
+                measure("tree walker, 256 KB stack", () -> prog.execProg(f));
+            });
+        }
+    }
+
+    /**
+     * Generates a random CORE program nesting statements, conditions and parenthesized expressions, with every
+     * token spaced apart.
+     * @param random source of randomness
+     * @param depth nesting depth at most
+     * @return program text
+     */
+    static String generateRandomNested(Random random, int depth) {
+        StringBuilder sb = new StringBuilder("program int X , Y ; begin ");
+        randomStmts(random, depth, sb);
+        return sb.append("end").toString();
+    }
+
+    private static void randomStmts(Random random, int depth, StringBuilder sb) {
+        for (int i = random.nextInt(3); i >= 0; i--) {
+            switch (depth > 0 ? random.nextInt(4) : random.nextInt(2)) {
+                case 0:
+                    sb.append(random.nextBoolean() ? "X = " : "Y = ");
+                    randomExp(random, depth, sb);
+                    sb.append("; ");
+                    break;
+                case 1:
+                    sb.append("write X , Y ; ");
+                    break;
+                case 2:
+                    sb.append("if ");
+                    randomCond(random, depth - 1, sb);
+                    sb.append("then ");
+                    randomStmts(random, depth - 1, sb);
+                    if (random.nextBoolean()) {
+                        sb.append("else ");
+                        randomStmts(random, depth - 1, sb);
+                    }
+                    sb.append("end ; ");
+                    break;
+                default:
+                    sb.append("while ");
+                    randomCond(random, depth - 1, sb);
+                    sb.append("loop ");
+                    randomStmts(random, depth - 1, sb);
+                    sb.append("end ; ");
+            }
+        }
+    }
+
+    private static void randomExp(Random random, int depth, StringBuilder sb) {
+        for (int i = random.nextInt(3); i >= 0; i--) {
+            for (int j = random.nextInt(3); j >= 0; j--) {
+                randomFac(random, depth, sb);
+                if (j > 0) sb.append("* ");
+            }
+            if (i > 0) sb.append(random.nextBoolean() ? "+ " : "- ");
+        }
+    }
+
+    private static void randomFac(Random random, int depth, StringBuilder sb) {
+        switch (depth > 0 ? random.nextInt(4) : random.nextInt(3)) {
+            case 0:
+                sb.append("X ");
+                break;
+            case 1:
+                sb.append("Y ");
+                break;
+            case 2:
+                sb.append(random.nextInt(100)).append(' ');
+                break;
+            default:
+                sb.append("( ");
+                randomExp(random, depth - 1, sb);
+                sb.append(") ");
+        }
+    }
+
+    private static void randomCond(Random random, int depth, StringBuilder sb) {
+        switch (depth > 0 ? random.nextInt(3) : 0) {
+            case 0:
+                sb.append("( ");
+                randomFac(random, depth, sb);
+                sb.append(new String[]{"!= ", "== ", ">= ", "<= ", "> ", "< "}[random.nextInt(6)]);
+                randomFac(random, depth, sb);
+                sb.append(") ");
+                break;
+            case 1:
+                sb.append("! ");
+                randomCond(random, depth - 1, sb);
+                break;
+            default:
+                sb.append("[ ");
+                randomCond(random, depth - 1, sb);
+                sb.append(random.nextBoolean() ? "and " : "or ");
+                randomCond(random, depth - 1, sb);
+                sb.append("] ");
+        }
+    }
+
+    /**
+     * Breaks a program with every token spaced apart by dropping a token, or putting another in its place.
+     * @param random source of randomness
+     * @param text program text
+     * @return broken program text
+     */
+    static String breakToken(Random random, String text) {
+        String[] tokens = {"(", ")", "[", "]", ";", "then", "else", "end", "and", "*", "+", "==", "X", "7"};
+        List<String> words = new ArrayList<>(Arrays.asList(text.split(" ")));
+        int i = random.nextInt(words.size());
+        if (random.nextBoolean()) words.remove(i);
+        else words.set(i, tokens[random.nextInt(tokens.length)]);
+        return String.join(" ", words);
+    }
+
+    /**
+     * Parses a file without analyzing it, and renders everything observable about the result: the printed
+     * program, or the error.
+     * @param path source file path
+     * @param recursiveDescent parse with {@code RecursiveDescent} instead of {@code ProgNode} on a {@code Parse}
+     *                         stack
+     * @return rendering to compare
+     */
+    private static String renderParse(String path, boolean recursiveDescent) {
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        try {
+            Tokenizer t = new Tokenizer();
+            t.tokenize(path);
+            if (recursiveDescent) return RecursiveDescent.print(t);
+            ProgNode.parseSyntax(t).print(new PrintStream(printed));
+        } catch (InterpreterException ex) {
+            return ex.getClass().getSimpleName() + ": " + ex.getMessage();
+        }
+        return printed.toString();
+    }
+
+    /**
+     * Recursive descent parser of CORE, as the nodes parsed before they did on a {@code Parse} stack: one Java
+     * call per level of nesting. It prints the program as it goes, the same as {@code ProgNode.print()}, and
+     * fails with the same errors, so that the parse stack is checked and timed against it.
+     */
+    private static final class RecursiveDescent extends CoreNode {
+        private final Tokenizer t;
+        private final StringBuilder sb = new StringBuilder();
+
+        private RecursiveDescent(Tokenizer t) {
+            super(new ProgNode(t.line(t.current())), 1, t.line(t.current()));
+            this.t = t;
+        }
+
+        /**
+         * @param t tokenizer, at its first token
+         * @return printed program
+         * @throws InterpreterException if parsing failed
+         */
+        static String print(Tokenizer t) throws InterpreterException {
+            RecursiveDescent r = new RecursiveDescent(t);
+            r.parseProg();
+            return r.sb.toString();
+        }
+
+        private void parseProg() throws InterpreterException {
+            matchConsume(t, Token.PROGRAM);
+            sb.append("program \n");
+            if (!testConsume(t, Token.INT))
+                throw new EmptySequenceException(String.format(CONTEXT_TEMPLATE, prog.line, "Empty DeclSeq"));
+            while (testConsume(t, Token.INT)) parseDecl();
+            matchConsume(t, Token.BEGIN);
+            sb.append(indent(1)).append("begin\n");
+            if (!parseStmtSeq(2))
+                throw new EmptySequenceException(String.format(CONTEXT_TEMPLATE, prog.line, "Empty StmtSeq"));
+            matchConsume(t, Token.END);
+            matchConsume(t, Token.EOF);
+            sb.append(indent(1)).append("end\n");
+        }
+
+        private void parseDecl() throws InterpreterException {
+            matchConsume(t, Token.INT);
+            List<String> names = new ArrayList<>();
+            int curr = matchConsume(t, Token.ID);
+            while (true) {
+                String name = t.name(curr);
+                if (prog.varsIsFull()) {
+                    String info = String.format(CONTEXT_TEMPLATE, t.line(curr),
+                            "Program symbol table is already full when declaring " + name);
+                    throw new NoMoreDeclException(info);
+                }
+                checkRedeclared(name, t.line(curr));
+                prog.declare(name);
+                names.add(name);
+                if (!testConsume(t, Token.COMMA)) break;
+                matchConsume(t, Token.COMMA);
+                curr = matchConsume(t, Token.ID);
+            }
+            matchConsume(t, Token.SEMICOL);
+            sb.append(indent(1)).append("int ").append(String.join(", ", names)).append(";\n");
+        }
+
+        /**
+         * @param level block level of the statements
+         * @return true if there was any statement
+         */
+        private boolean parseStmtSeq(int level) throws InterpreterException {
+            boolean any = false;
+            while (true) {
+                int curr = t.current();
+                switch (t.code(curr)) {
+                    case Token.IF:
+                    case Token.WHILE:
+                        parseIfLoop(level);
+                        break;
+                    case Token.READ:
+                    case Token.WRITE:
+                        parseInOut(level);
+                        break;
+                    case Token.ID:
+                        parseAssign(level);
+                        break;
+                    case Token.END:
+                    case Token.ELSE:
+                    case Token.EOF:
+                        return any;
+                    default:
+                        raiseUnexpected(t.line(curr), String.format("Expected statement, got '%s'", t.name(curr)));
+                }
+                any = true;
+            }
+        }
+
+        private void parseIfLoop(int level) throws InterpreterException {
+            boolean loop = testConsume(t, Token.WHILE);
+            matchConsume(t, loop ? Token.WHILE : Token.IF);
+            String cond = parseCond();
+            matchConsume(t, loop ? Token.LOOP : Token.THEN);
+            sb.append(indent(level)).append(loop ? "while " : "if ").append(cond).append(loop ? " loop\n" : " then\n");
+            parseStmtSeq(level + 1);
+            if (!loop && testConsume(t, Token.ELSE)) {
+                matchConsume(t, Token.ELSE);
+                sb.append(indent(level)).append("else\n");
+                parseStmtSeq(level + 1);
+            }
+            matchConsume(t, Token.END);
+            matchConsume(t, Token.SEMICOL);
+            sb.append(indent(level)).append("end;\n");
+        }
+
+        private void parseInOut(int level) throws InterpreterException {
+            boolean in = testConsume(t, Token.READ);
+            matchConsume(t, in ? Token.READ : Token.WRITE);
+            List<String> names = new ArrayList<>();
+            do {
+                int curr = matchConsume(t, Token.ID);
+                names.add(t.name(curr));
+                checkUndeclared(t.name(curr), t.line(curr));
+                if (!testConsume(t, Token.COMMA)) break;
+                matchConsume(t, Token.COMMA);
+            } while (testConsume(t, Token.ID));
+            matchConsume(t, Token.SEMICOL);
+            sb.append(indent(level)).append(in ? "read " : "write ").append(String.join(", ", names)).append(";\n");
+        }
+
+        private void parseAssign(int level) throws InterpreterException {
+            int curr = matchConsume(t, Token.ID);
+            checkUndeclared(t.name(curr), t.line(curr));
+            matchConsume(t, Token.ASSIGN);
+            String exp = parseExp();
+            matchConsume(t, Token.SEMICOL);
+            sb.append(indent(level)).append(t.name(curr)).append(" = ").append(exp).append(";\n");
+        }
+
+        private String parseExp() throws InterpreterException {
+            StringBuilder exp = new StringBuilder(parseTerm());
+            while (testConsume(t, Token.PLUS) || testConsume(t, Token.MINUS)) {
+                boolean plus = testConsume(t, Token.PLUS);
+                matchConsume(t, plus ? Token.PLUS : Token.MINUS);
+                exp.append(plus ? " + " : " - ").append(parseTerm());
+            }
+            return exp.toString();
+        }
+
+        private String parseTerm() throws InterpreterException {
+            StringBuilder term = new StringBuilder(parseFac());
+            while (testConsume(t, Token.STAR)) {
+                matchConsume(t, Token.STAR);
+                term.append(" * ").append(parseFac());
+            }
+            return term.toString();
+        }
+
+        private String parseFac() throws InterpreterException {
+            int curr = t.current();
+            switch (t.code(curr)) {
+                case Token.ID:
+                    matchConsume(t, Token.ID);
+                    checkUndeclared(t.name(curr), t.line(curr));
+                    return t.name(curr);
+                case Token.NUM:
+                    matchConsume(t, Token.NUM);
+                    return Integer.toString(Integer.parseInt(t.name(curr)));
+                case Token.LPAREN: {
+                    matchConsume(t, Token.LPAREN);
+                    String exp = parseExp();
+                    matchConsume(t, Token.RPAREN);
+                    return "( " + exp + " )";
+                }
+                default:
+                    raiseUnexpected(t.line(curr), "Expected factor, got " + t.name(curr));
+                    return null;
+            }
+        }
+
+        private String parseCond() throws InterpreterException {
+            if (testConsume(t, Token.LPAREN)) return parseComp();
+            if (testConsume(t, Token.NOT)) {
+                matchConsume(t, Token.NOT);
+                return "!" + parseCond();
+            }
+            if (testConsume(t, Token.LBRACK)) {
+                matchConsume(t, Token.LBRACK);
+                String cond1 = parseCond();
+                String op;
+                if (testConsume(t, Token.AND)) {
+                    matchConsume(t, Token.AND);
+                    op = " and ";
+                } else if (testConsume(t, Token.OR)) {
+                    matchConsume(t, Token.OR);
+                    op = " or ";
+                } else {
+                    int curr = t.next();
+                    raiseUnexpected(t.line(curr), "Expected compound condition operator, got " + t.name(curr));
+                    return null;
+                }
+                String cond2 = parseCond();
+                matchConsume(t, Token.RBRACK);
+                return "[ " + cond1 + op + cond2 + " ]";
+            }
+            int curr = t.current();
+            raiseUnexpected(t.line(curr), "Expected condition, got " + t.name(curr));
+            return null;
+        }
+
+        private String parseComp() throws InterpreterException {
+            matchConsume(t, Token.LPAREN);
+            String fac1 = parseFac();
+            int type = t.code(rangeConsume(t, Token.NEQ, Token.LT));
+            String fac2 = parseFac();
+            matchConsume(t, Token.RPAREN);
+            return "( " + fac1 + " " + Tokenizer.nameOf(type) + " " + fac2 + " )";
+        }
+
+        private static String indent(int level) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < level; i++) sb.append("  ");
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Generates a CORE program nesting a parenthesized expression, a compound condition and if statements
+     * {@code depth} deep each.
+     * @param depth nesting depth
+     * @return program text
+     */
+    static String generateDeep(int depth) {
+        StringBuilder sb = new StringBuilder("program\n  int X;\nbegin\n  X = ");
+        for (int i = 0; i < depth; i++) sb.append('(');
+        sb.append('1');
+        for (int i = 0; i < depth; i++) sb.append(" + X)");
+        sb.append(";\n  if ");
+        for (int i = 0; i < depth; i++) sb.append("[ !(X == 0) and ");
+        sb.append("(X > 0)");
+        for (int i = 0; i < depth; i++) sb.append(" ]");
+        sb.append(" then write X; end;\n");
+        for (int i = 0; i < depth; i++) sb.append("if (X > 0) then\n");
+        sb.append("write X;\n");
+        for (int i = 0; i < depth; i++) sb.append("end;\n");
+        return sb.append("end\n").toString();
+    }
+
+    /**
+     * Generates a CORE program reading X and writing it plus {@code depth / 2}, computed by an expression
+     * parenthesized {@code depth} deep.
+     * @param depth nesting depth
+     * @return program text
+     */
+    static String generateDeepParens(int depth) {
+        StringBuilder sb = new StringBuilder("program\n  int X;\nbegin\n  read X;\n  X = ");
+        for (int i = 0; i < depth; i++) sb.append('(');
+        sb.append('X');
+        for (int i = 0; i < depth; i++) sb.append(i % 2 == 0 ? " + 1)" : " * 1)");
+        return sb.append(";\n  write X;\nend\n").toString();
+    }
+
+    /**
+     * Generates a CORE program reading X and writing it if a condition {@code depth} compound conditions deep
+     * holds, which it does for X from 3 to 8.
+     * @param depth nesting depth
+     * @param left nest each compound condition as the left half of the next, else as the right half
+     * @return program text
+     */
+    static String generateDeepCond(int depth, boolean left) {
+        StringBuilder sb = new StringBuilder("program\n  int X;\nbegin\n  read X;\n  if ");
+        if (left) {
+            for (int i = 0; i < depth; i++) sb.append("[ ");
+            sb.append("(X > 2)");
+            for (int i = 0; i < depth; i++) sb.append(i % 2 == 0 ? " and (X < 9) ]" : " or (X == 0) ]");
+        } else {
+            for (int i = 0; i < depth; i++) sb.append(i % 2 == 0 ? "[ (X < 9) and " : "[ !(X == 0) and ");
+            sb.append("(X > 2)");
+            for (int i = 0; i < depth; i++) sb.append(" ]");
+        }
+        return sb.append(" then write X; end;\nend\n").toString();
+    }
+
+    /**
+     * Checks the parse stack against recursive descent, by the program printed or the syntax error raised, over
+     * generated programs, half of them broken. Then reports both in tokens per second, and times the parse stack
+     * on deeply nested input with a small stack. Last, checks that {@code -i} and {@code -p} take deeply
+     * parenthesized expressions and deeply nested conditions on a small stack.
+     * @param sizes program sizes in statements, and nesting depths
+     * @throws Exception if the results differ or parsing failed
+     */
+    private static void parser(int[] sizes) throws Exception {
+        Random random = new Random(3341);
+        int broken = 0;
+        for (int i = 0; i < 400; i++) {
+            String text = generateRandomNested(random, 1 + random.nextInt(6));
+            String path = writeTemp(i % 2 == 1 ? breakToken(random, text) : text);
+            String expected = renderParse(path, true);
+            if (!expected.equals(renderParse(path, false)))
+                throw new AssertionError("Parse stack differs on " + path);
+            if (expected.contains("Exception: ")) broken++;
+            new File(path).delete();
+        }
+        System.out.printf("parse stack matches recursive descent on 400 generated programs, %d with errors%n", broken);
+
+        for (int size : sizes) {
+            Tokenizer t = new Tokenizer();
+            t.tokenize(writeTemp(generate(size)));
+            long tokens = t.size();
+            System.out.printf("-- %d statements, %d tokens%n", size, tokens);
+            long before = measure("recursive descent", () -> parseSyntax(t, true));
+            long after = measure("parse stack", () -> parseSyntax(t, false));
+            System.out.printf("%-40s %10.0f -> %.0f tokens/s%n", "throughput",
+                    tokens * 1e9 / before, tokens * 1e9 / after);
+
+            Tokenizer deep = new Tokenizer();
+            deep.tokenize(writeTemp(generateDeep(size)));
+            System.out.printf("-- depth %d, %d tokens%n", size, deep.size());
+            onStack(256 * 1024, () -> measure("parse stack, 256 KB stack", () -> parseSyntax(deep, false)));
+            onStack(256 * 1024, () -> {
+                try {
+                    parseSyntax(deep, true);
+                    System.out.printf("%-40s %13s%n", "recursive descent, 256 KB stack", "ok");
+                } catch (StackOverflowError e) {
+                    System.out.printf("%-40s %13s%n", "recursive descent, 256 KB stack", "overflow");
+                }
+            });
+        }
+
+        System.out.println("-- parentheses 3000 deep");
+        deep(generateDeepParens(3000), "X = 1505\n");
+        System.out.println("-- conditions 20000 deep, nested left");
+        deep(generateDeepCond(20000, true), "X = 5\n");
+        System.out.println("-- conditions 20000 deep, nested right");
+        deep(generateDeepCond(20000, false), "X = 5\n");
+    }
+
+    /**
+     * Runs a program through {@code CoreEngine} as {@code -i} does, reading 5, and prints it as {@code -p} does,
+     * on a thread with a 256 KB stack. Checks what it wrote, and that printing what was printed gives it back.
+     * @param text program text
+     * @param expected what the program writes
+     * @throws Exception if the checks failed, or the program did not compile or run
+     */
+    private static void deep(String text, String expected) throws Exception {
+        String path = writeTemp(text);
+        onStack(256 * 1024, () -> {
+            CoreEngine engine = new CoreEngine();
+            ByteArrayOutputStream written = new ByteArrayOutputStream();
+            measure("-i, 256 KB stack", () -> {
+                written.reset();
+                CoreEngine.Result result = engine.run(engine.compile(Source.file(path)),
+                        new ByteArrayInputStream("5\n".getBytes(StandardCharsets.US_ASCII)), written);
+                if (result.error() != null) throw new AssertionError(result.error().toString());
+            });
+            if (!expected.equals(written.toString(StandardCharsets.US_ASCII.name())))
+                throw new AssertionError("-i wrote " + written + " on " + path);
+
+            String[] printed = new String[1];
+            measure("-p, 256 KB stack", () -> printed[0] = print(engine, Source.file(path)));
+            if (!printed[0].equals(print(engine, Source.text(printed[0]))))
+                throw new AssertionError("-p does not print its own output back on " + path);
+        });
+        new File(path).delete();
+    }
+
+    /**
+     * @return what {@code CoreEngine.print} writes to standard output for a program
+     */
+    private static String print(CoreEngine engine, Source source) throws Exception {
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(printed, true, StandardCharsets.UTF_8.name()));
+        try {
+            engine.print(source, null);
+        } finally {
+            System.setOut(out);
+        }
+        return printed.toString(StandardCharsets.UTF_8.name());
+    }
+
+    /**
+     * Parses a tokenized source again from its first token, without analyzing it.
+     * @param t tokenizer, tokenized up front
+     * @param recursiveDescent parse with {@code RecursiveDescent}, printing the program, instead of
+     *                         {@code ProgNode} on a {@code Parse} stack
+     * @throws InterpreterException if parsing failed
+     */
+    private static void parseSyntax(Tokenizer t, boolean recursiveDescent) throws InterpreterException {
+        t.rewind();
+        if (recursiveDescent) {
+            RecursiveDescent.print(t);
+            return;
+        }
+        ProgNode.parseSyntax(t);
+    }
+
+    /**
+     * Generates a CORE program writing two variables on each iteration of a loop, one of them
+     * {@code Integer.MIN_VALUE}.
+     * @param iterations number of loop iterations, at most 8 digits
+     * @return program text
+     */
+    static String generateWrites(int iterations) {
+        return "program\n  int I, X;\nbegin\n  I = 0;\n  X = 0 - 32768;\n  X = X * 65536;\n" +
+                "  while (I < " + iterations + ") loop\n    I = I + 1;\n    write I, X;\n  end;\nend\n";
+    }
+
+    /**
+     * Runs a program with its write statements going to a file through a sink.
+     * @param prog program
+     * @param file file written
+     * @param sink sink over the stream it is given
+     * @throws Exception if execution failed
+     */
+    private static void writeTo(ProgNode prog, File file, Function<PrintStream, Output> sink)
+            throws Exception {
+        try (PrintStream stream = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)), true)) {
+            Frame f = new Frame(Input.text(InputStream.nullInputStream()), sink.apply(stream));
+            prog.execProg(f);
+            f.flush();
+        }
+    }
+
+    /**
+     * Compares each value printed straight to an autoflushing stream, as before, against the buffered sinks, in
+     * writes per second. Checks the buffered text against what was printed.
+     * @param sizes loop iterations, two writes each
+     * @throws Exception if the outputs differ or execution failed
+     */
+    private static void writes(int[] sizes) throws Exception {
+        File file = File.createTempFile("core-bench", ".out");
+        file.deleteOnExit();
+        for (int size : sizes) {
+            ProgNode prog = (ProgNode) parse(writeTemp(generateWrites(size)), false)[1];
+            long writes = 2L * size;
+            System.out.printf("-- %d writes%n", writes);
+            long before = measure("println per value", () -> writeTo(prog, file, Output::println));
+            byte[] printed = Files.readAllBytes(file.toPath());
+            long after = measure("buffered text", () -> writeTo(prog, file, s -> Output.text(s, false)));
+            if (!Arrays.equals(printed, Files.readAllBytes(file.toPath())))
+                throw new AssertionError("Buffered text differs from println");
+            measure("buffered csv", () -> writeTo(prog, file, s -> Output.csv(s, false)));
+            measure("buffered binary", () -> writeTo(prog, file, s -> Output.binary(s, false)));
+            System.out.printf("%-40s %10.0f -> %.0f writes/s%n", "throughput",
+                    writes * 1e9 / before, writes * 1e9 / after);
+        }
+    }
+
+    /**
+     * Generates a CORE program reading a count and then that many values in a loop, and writing their sum.
+     * @return program text
+     */
+    static String generateReads() {
+        return "program\n  int I, N, X, S;\nbegin\n  read N;\n  I = 0;\n  S = 0;\n" +
+                "  while (I < N) loop\n    read X;\n    S = S + X;\n    I = I + 1;\n  end;\n  write S;\nend\n";
+    }
+
+    /**
+     * Runs a program with its read statements taking values from a source.
+     * @param prog program
+     * @param source source for the run
+     * @return what the program wrote
+     * @throws Exception if execution failed
+     */
+    private static String readFrom(ProgNode prog, Input source) throws Exception {
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        Frame f = new Frame(source, Output.text(written, false));
+        prog.execProg(f);
+        f.flush();
+        return written.toString();
+    }
+
+    /**
+     * Compares the interactive source, which parses each line it scans, against the batch sources in reads per
+     * second, and checks that every source reads the same values.
+     * @param sizes values read
+     * @throws Exception if the results differ or execution failed
+     */
+    private static void reads(int[] sizes) throws Exception {
+        ProgNode prog = (ProgNode) parse(writeTemp(generateReads()), false)[1];
+        PrintStream prompts = new PrintStream(OutputStream.nullOutputStream());
+        for (int size : sizes) {
+            StringBuilder text = new StringBuilder().append(size).append('\n');
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream binary = new DataOutputStream(bytes);
+            binary.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                text.append(i % 1000 - 500).append('\n');
+                binary.writeInt(i % 1000 - 500);
+            }
+            Path textFile = Paths.get(writeTemp(text.toString()));
+            Path binaryFile = Files.createTempFile("core-bench", ".bin");
+            binaryFile.toFile().deleteOnExit();
+            Files.write(binaryFile, bytes.toByteArray());
+
+            long reads = size + 1L;
+            System.out.printf("-- %d reads%n", reads);
+            String expected = readFrom(prog, Input.interactive(Files.newInputStream(textFile), prompts, System.err));
+            long before = measure("interactive, line per value", () -> readFrom(prog,
+                    Input.interactive(Files.newInputStream(textFile), prompts, System.err)));
+            long after = measure("text stream", () -> check(expected, readFrom(prog,
+                    Input.text(new FileInputStream(textFile.toFile())))));
+            measure("text mapped", () -> check(expected, readFrom(prog, Input.of("text", textFile))));
+            measure("binary stream", () -> check(expected, readFrom(prog,
+                    Input.binary(new FileInputStream(binaryFile.toFile())))));
+            measure("binary mapped", () -> check(expected, readFrom(prog, Input.of("binary", binaryFile))));
+            System.out.printf("%-40s %10.0f -> %.0f reads/s%n", "throughput",
+                    reads * 1e9 / before, reads * 1e9 / after);
+        }
+    }
+
+    private static void check(String expected, String actual) {
+        if (!expected.equals(actual)) throw new AssertionError("Read " + actual + " instead of " + expected);
+    }
+
+    /**
+     * Generates a CORE program reading a count and a seed, and writing what a loop of that many iterations makes
+     * of the seed.
+     * @return program text
+     */
+    static String generateBatch() {
+        return "program\n  int I, N, X, Y;\nbegin\n  read N, X;\n  I = 0;\n  Y = 0;\n" +
+                "  while (I < N) loop\n    Y = Y + ( X + I ) * 3 - Y * 2;\n    I = I + 1;\n  end;\n" +
+                "  write X, Y;\nend\n";
+    }
+
+    /**
+     * Runs one compiled program over many input vectors on each number of threads up to the processors, checks
+     * that every run writes what the single-threaded one does, and reports the speedup.
+     * @param sizes number of input vectors
+     * @throws Exception if the results differ or execution failed
+     */
+    private static void batch(int[] sizes) throws Exception {
+        ProgNode prog = (ProgNode) parse(writeTemp(generateBatch()), false)[1];
+        Closure.Stmt program = prog.closure();
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int size : sizes) {
+            byte[][] vectors = new byte[size][];
+            for (int i = 0; i < size; i++) vectors[i] = ("2000 " + (i - size / 2)).getBytes(StandardCharsets.US_ASCII);
+
+            System.out.printf("-- %d vectors%n", size);
+            String expected = renderBatch(Batch.run(program, vectors, "text", 1));
+            long single = measure("1 thread", () -> Batch.run(program, vectors, "text", 1));
+            for (int threads = 2; threads <= processors; threads *= 2) {
+                int n = threads;
+                check(expected, renderBatch(Batch.run(program, vectors, "text", n)));
+                long time = measure(n + " threads", () -> Batch.run(program, vectors, "text", n));
+                System.out.printf("%-40s %10.2fx%n", "speedup", (double) single / time);
+            }
+        }
+    }
+
+    /**
+     * @param results results of a batch
+     * @return what each run wrote, in order, failing on any error
+     */
+    private static String renderBatch(Batch.Result[] results) {
+        StringBuilder sb = new StringBuilder();
+        for (Batch.Result result : results) {
+            if (result.error != null) throw new AssertionError(result.error);
+            sb.append(new String(result.output, StandardCharsets.US_ASCII));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Generates a CORE program of straight-line assignments, so that its time goes into the front end.
+     * @param statements number of assignments
+     * @return program text
+     */
+    static String generateStraight(int statements) {
+        StringBuilder sb = new StringBuilder("program\n  int X, Y;\nbegin\n  X = 0;\n");
+        for (int i = 0; i < statements; i++)
+            sb.append(i % 2 == 0 ? "  Y = ( X + 3 ) * 2 - X;\n" : "  X = Y - 5;\n");
+        return sb.append("  write X;\nend\n").toString();
+    }
+
+    /**
+     * Runs the interpreter in a new JVM, as a one-shot command line run would.
+     * @param args interpreter arguments
+     * @throws Exception if the run failed
+     */
+    private static void interpret(String... args) throws Exception {
+        List<String> command = new ArrayList<>(Arrays.asList(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), Interpreter.class.getName()));
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        if (process.waitFor() != 0) throw new IllegalStateException("Interpreter failed: " + command);
+    }
+
+    /**
+     * Compares one-shot command line runs from source with runs from a cached ahead-of-time artifact,
+     * JVM startup included.
+     * @param sizes program sizes in statements
+     * @throws Exception if compiling or execution failed
+     */
+    private static void aot(int[] sizes) throws Exception {
+        String cache = "--cache=" + Files.createTempDirectory("core-bench-cache");
+        for (int size : sizes) {
+            String path = writeTemp(generateStraight(size));
+            interpret("-c", cache, path);
+            System.out.printf("-- %d statements%n", size);
+            measure("java Interpreter -i", () -> interpret("-i", path));
+            measure("java Interpreter -i --engine=aot", () -> interpret("-i", "--engine=aot", cache, path));
+        }
+    }
+
+    /**
+     * Compares end-to-end latency of one-shot command line runs with runs through a warm daemon, from a client
+     * in a new JVM, as a shell would start it, and from one already running.
+     * @param sizes program sizes in statements
+     * @throws Exception if the daemon did not start, or a run failed
+     */
+    private static void daemon(int[] sizes) throws Exception {
+        Path socket = Files.createTempDirectory("core-bench-daemon").resolve("daemon.sock");
+        socket.getParent().toFile().deleteOnExit();
+        Process daemon = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), Interpreter.class.getName(), "--daemon",
+                "--socket=" + socket)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        try {
+            for (int i = 0; i < 100 && !Files.exists(socket); i++) Thread.sleep(50);
+            if (!Files.exists(socket)) throw new IllegalStateException("Daemon did not start");
+            String flag = "--socket=" + socket;
+            for (int size : sizes) {
+                String path = writeTemp(generateStraight(size));
+                System.out.printf("-- %d statements%n", size);
+                measure("java Interpreter -i", () -> interpret("-i", path));
+                measure("java Interpreter --client -i", () -> interpret("--client", flag, "-i", path));
+                measure("client in this JVM", () -> {
+                    int status = Daemon.client(socket, new String[] {"-i", path}, InputStream.nullInputStream(),
+                            OutputStream.nullOutputStream(), System.err);
+                    if (status != 0) throw new IllegalStateException("Daemon run failed: " + status);
+                });
+            }
+        } finally {
+            daemon.destroy();
+            daemon.waitFor();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: java zhayi.core3341.Benchmark <suite> [statements...]\n" +
+                    "where <suite> includes\n" +
+                    "\ttokenize\tBulk-read tokenizer against the per-character reader\n" +
+                    "\tlex\t\tLexer tokens per second before and after\n" +
+                    "\tstream\t\tEager against lazy tokenizing, time and heap\n" +
+                    "\tparallel\tParallel chunked tokenizing, checked against and timed with single-threaded\n" +
+                    "\texec\t\tExecution engines on a loop program, in iterations instead of statements\n" +
+                    "\tsummarize\tCounting loops with and without their summaries, in iterations\n" +
+                    "\thoist\t\tExecution engines on a loop program before and after loop optimization, in iterations\n" +
+                    "\tchain\t\tParsing and execution engines on one long expression, in terms\n" +
+                    "\tnest\t\tParse and tree walker on deeply nested statements with a small stack, in depth\n" +
+                    "\tparse\t\tParse stack checked against and timed with recursive descent, tokens per second, and\n" +
+                    "\t\t\t-i, -p on deep parentheses and conditions with a small stack\n" +
+                    "\twrite\t\tBuffered output sinks against printing each value, writes per second, in iterations\n" +
+                    "\tread\t\tBatch input sources against the interactive one, reads per second, in values\n" +
+                    "\tbatch\t\tOne program over many input vectors on 1 to all processors, in vectors\n" +
+                    "\taot\t\tOne-shot runs from source against runs from a cached ahead-of-time artifact\n" +
+                    "\tdaemon\t\tOne-shot runs against runs through a warm daemon, JVM startup included");
+            System.exit(1);
+        }
+
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) sizes[i - 1] = Integer.parseInt(args[i]);
+        }
+
+        switch (args[0]) {
+            case "tokenize":
+                tokenize(sizes);
+                break;
+            case "lex":
+                lex(sizes);
+                break;
+            case "stream":
+                stream(sizes);
+                break;
+            case "parallel":
+                parallel(sizes);
+                break;
+            case "exec":
+                exec(sizes);
+                break;
+            case "summarize":
+                summarize(sizes);
+                break;
+            case "hoist":
+                hoist(sizes);
+                break;
+            case "chain":
+                chain(sizes);
+                break;
+            case "nest":
+                nest(sizes);
+                break;
+            case "parse":
+                parser(sizes);
+                break;
+            case "write":
+                writes(sizes);
+                break;
+            case "read":
+                reads(sizes);
+                break;
+            case "batch":
+                batch(sizes);
+                break;
+            case "aot":
+                aot(sizes);
+                break;
+            case "daemon":
+                daemon(sizes);
+                break;
+            default:
+                System.err.println("Unknown suite " + args[0]);
+                System.exit(1);
+        }
+    }
+
+    /**
+     * Original tokenizer reading one boxed character at a time through {@code FileReader.read()},
+     * kept verbatim as the baseline for comparison.
+     */
+    static final class LegacyTokenizer {
+        private static List<String> tokenId = Arrays.asList("", "program", "begin", "end", "int", "if", "then",
+                "else", "while", "loop", "read", "write", "and", "or", ";", ",", "=", "!", "[", "]", "(", ")", "+",
+                "-", "*", "!=", "==", ">=", "<=", ">", "<", "NUM", "ID", "~EOF~");
+
+        private final static int MAXLEN_NUM_ID = 8;
+
+        List<Token> tokens = new ArrayList<>();
+        private Character currentChar = null;
+        private int line = 1;
+
+        private int getTokenId(final String token) {
+            return tokenId.indexOf(token);
+        }
+
+        void tokenize(String string) throws InvalidTokenException {
+            FileReader fr;
+            try {
+                fr = new FileReader(string);
+                currentChar = this.nextChar(fr);
+                while (currentChar != null) {
+                    String anToken;
+                    if (currentChar == '\n') {
+                        line++;
+                        currentChar = nextChar(fr);
+                    } else if (Character.isWhitespace(currentChar)) {
+                        currentChar = nextChar(fr);
+                    } else if (Character.isLowerCase(currentChar)) {
+                        anToken = getAlphanumericString(fr);
+                        if (tokenId.indexOf(anToken) < 0)
+                            raiseError("Unknown reserve word " + anToken);
+                        tokens.add(new Token(anToken, line, getTokenId(anToken)));
+                    } else if (Character.isDigit(currentChar) || Character.isUpperCase(currentChar)) {
+                        if (Character.isUpperCase(currentChar)) {
+                            anToken = getAlphanumericString(fr);
+                            if (!anToken.matches("[A-Z][A-Z]*[0-9]*") || anToken.length() > MAXLEN_NUM_ID)
+                                raiseError("Invalid identifier " + anToken);
+                            tokens.add(new Token(anToken, line, Token.ID));
+                        } else {
+                            anToken = getAlphanumericString(fr);
+                            if (!anToken.matches("[0-9][0-9]*") || anToken.length() > MAXLEN_NUM_ID)
+                                raiseError("Invalid numeral " + anToken);
+                            tokens.add(new Token(anToken, line, Token.NUM));
+                        }
+                    } else {
+                        char c;
+                        if (currentChar == '!') {
+                            c = nextChar(fr);
+                            if (c == '=') {
+                                tokens.add(new Token("!=", line, Token.NEQ));
+                                currentChar = nextChar(fr);
+                                continue;
+                            }
+                            tokens.add(new Token("!", line, Token.NOT));
+                            currentChar = c;
+                        } else if (currentChar == '>') {
+                            c = nextChar(fr);
+                            if (c == '=') {
+                                tokens.add(new Token(">=", line, Token.GEQ));
+                                currentChar = nextChar(fr);
+                                continue;
+                            }
+                            tokens.add(new Token(">", line, Token.GT));
+                            currentChar = c;
+                        } else if (currentChar == '<') {
+                            c = nextChar(fr);
+                            if (c == '=') {
+                                this.tokens.add(new Token("<=", line, Token.LEQ));
+                                this.currentChar = this.nextChar(fr);
+                                continue;
+                            }
+                            this.tokens.add(new Token("<", line, Token.LT));
+                            currentChar = c;
+                        } else if (currentChar == '=') {
+                            c = this.nextChar(fr);
+                            if (c == '=') {
+                                tokens.add(new Token("==", line, Token.EQ));
+                                currentChar = nextChar(fr);
+                                continue;
+                            }
+                            tokens.add(new Token("=", line, Token.ASSIGN));
+                            currentChar = c;
+                        } else {
+                            c = currentChar;
+                            if (getTokenId(Character.toString(c)) < 0)
+                                raiseError(String.format("Invalid symbol %s", c));
+                            tokens.add(new Token(Character.toString(c), line, getTokenId(Character.toString(c))));
+                            currentChar = nextChar(fr);
+                        }
+                    }
+                }
+                fr.close();
+            } catch (FileNotFoundException fnfEx) {
+                System.err.printf("File %s not found", string);
+                fnfEx.printStackTrace();
+            } catch (IOException ioEx) {
+                ioEx.printStackTrace();
+            } finally {
+                tokens.add(new Token("~EOF~", line, Token.EOF));
+            }
+        }
+
+        private String getAlphanumericString(FileReader fileReader) {
+            StringBuilder sb = new StringBuilder();
+            while (currentChar != null && Character.isLetterOrDigit(currentChar)) {
+                sb.append(currentChar);
+                currentChar = nextChar(fileReader);
+            }
+            return sb.toString();
+        }
+
+        private void raiseError(String msg) throws InvalidTokenException {
+            String info = String.format("Tokenizer Error: [Line %d] %s", line, msg);
+            throw new InvalidTokenException(info);
+        }
+
+        private Character nextChar(FileReader fileReader) {
+            Character c = null;
+            try {
+                int n = fileReader.read();
+                if (n != -1) c = (char) n;
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            return c;
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package zhayi.core3341;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compiled form of a CORE program for CSE 3341 Project
+ *
+ * A flat {@code int[]} of instructions, each an opcode followed by its operands, run by {@code VirtualMachine}.
+ * Arithmetic and comparisons work on an operand stack; variables are addressed by slot. Everything an error
+ * message needs, the expression text and line of each checked operation and the names in each read or write,
+ * is kept in side tables that instructions point into. The text of a checked operation is only built once it
+ * fails, from the node it was compiled from, see {@code CoreNode.getText}.
+ *
+ * @author Yi Zhang
+ */
+final class Bytecode {
+    /**
+     * {@code CONST value}: push {@code value}.
+     */
+    static final int CONST = 0;
+
+    /**
+     * {@code LOAD slot line}: push a variable, or fail at {@code line} if it is uninitialized.
+     */
+    static final int LOAD = 1;
+
+    /**
+     * {@code STORE slot}: pop into a variable.
+     */
+    static final int STORE = 2;
+
+    /**
+     * {@code ADD check}, {@code SUB check}, {@code MUL check}: pop two operands, push the result, or fail with
+     * the text and line of {@code check} if it does not fit in an int. A {@code check} of {@code UNCHECKED}
+     * marks a result known to fit, see {@code Range}.
+     */
+    static final int ADD = 3;
+    static final int SUB = 4;
+    static final int MUL = 5;
+    static final int UNCHECKED = -1;
+
+    /**
+     * {@code IF_NE target} through {@code IF_LT target}: pop two operands, jump if the comparison holds.
+     * In the same order as {@code Token.NEQ} through {@code Token.LT}.
+     */
+    static final int IF_NE = 6;
+    static final int IF_EQ = 7;
+    static final int IF_GE = 8;
+    static final int IF_LE = 9;
+    static final int IF_GT = 10;
+    static final int IF_LT = 11;
+
+    /**
+     * {@code GOTO target}: jump.
+     */
+    static final int GOTO = 12;
+
+    /**
+     * {@code READ io}, {@code WRITE io}: run the read or write statement {@code io}.
+     */
+    static final int READ = 13;
+    static final int WRITE = 14;
+
+    /**
+     * {@code HALT}: stop.
+     */
+    static final int HALT = 15;
+
+    /**
+     * {@code GET slot}: push a variable known to be initialized, see {@code Flow}.
+     */
+    static final int GET = 16;
+
+    /**
+     * Instruction length of each opcode, operands included.
+     */
+    static final int[] LENGTH = {2, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 1, 2};
+
+    final int[] code;
+    final int maxStack;
+
+    /**
+     * Variable names by slot.
+     */
+    final String[] names;
+
+    /**
+     * Node and index within it of each checked operation, or its text for a program read back by {@code read},
+     * see {@code checkText}.
+     */
+    private final CoreNode[] checkNode;
+    private final int[] checkOp;
+    private final String[] checkSaved;
+
+    /**
+     * Line of each checked operation.
+     */
+    final int[] checkLine;
+
+    /**
+     * Names, slots and line of each read or write statement.
+     */
+    final String[][] ioNames;
+    final int[][] ioSlots;
+    final int[] ioLine;
+
+    private Bytecode(Assembler a) {
+        code = Arrays.copyOf(a.code, a.size);
+        maxStack = a.maxStack;
+        names = a.names;
+        checkNode = a.checkNode.toArray(new CoreNode[0]);
+        checkOp = a.checkOp.stream().mapToInt(Integer::intValue).toArray();
+        checkSaved = null;
+        checkLine = a.checkLine.stream().mapToInt(Integer::intValue).toArray();
+        ioNames = a.ioNames.toArray(new String[0][]);
+        ioSlots = a.ioSlots.toArray(new int[0][]);
+        ioLine = a.ioLine.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private Bytecode(ByteBuffer in) {
+        code = readInts(in);
+        maxStack = in.getInt();
+        names = readStrings(in);
+        checkNode = null;
+        checkOp = null;
+        checkSaved = readStrings(in);
+        checkLine = readInts(in);
+        ioNames = new String[in.getInt()][];
+        for (int i = 0; i < ioNames.length; i++) ioNames[i] = readStrings(in);
+        ioSlots = new int[ioNames.length][];
+        for (int i = 0; i < ioSlots.length; i++) ioSlots[i] = readInts(in);
+        ioLine = readInts(in);
+    }
+
+    /**
+     * Reads a program saved by {@code write}.
+     * @param in buffer positioned at the program, left positioned after it
+     * @return program read
+     * @throws java.nio.BufferUnderflowException if the data is cut short
+     */
+    static Bytecode read(ByteBuffer in) {
+        return new Bytecode(in);
+    }
+
+    /**
+     * Saves this program, to be read back by {@code read}.
+     * @param out stream to write to
+     * @throws IOException if writing failed
+     */
+    void write(DataOutputStream out) throws IOException {
+        writeInts(out, code);
+        out.writeInt(maxStack);
+        writeStrings(out, names);
+        String[] checkText = new String[checkLine.length];
+        for (int i = 0; i < checkText.length; i++) checkText[i] = checkText(i);
+        writeStrings(out, checkText);
+        writeInts(out, checkLine);
+        out.writeInt(ioNames.length);
+        for (String[] io : ioNames) writeStrings(out, io);
+        for (int[] io : ioSlots) writeInts(out, io);
+        writeInts(out, ioLine);
+    }
+
+    /**
+     * @param check index of a checked operation
+     * @return its expression text, for the error message
+     */
+    String checkText(int check) {
+        return checkSaved != null ? checkSaved[check] : checkNode[check].getText(checkOp[check]);
+    }
+
+    private static int[] readInts(ByteBuffer in) {
+        int[] values = new int[in.getInt()];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + values.length * Integer.BYTES);
+        return values;
+    }
+
+    static String readString(ByteBuffer in) {
+        char[] chars = new char[in.getInt()];
+        in.asCharBuffer().get(chars);
+        in.position(in.position() + chars.length * Character.BYTES);
+        return new String(chars);
+    }
+
+    private static String[] readStrings(ByteBuffer in) {
+        String[] values = new String[in.getInt()];
+        for (int i = 0; i < values.length; i++) values[i] = readString(in);
+        return values;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) out.writeInt(value);
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeInt(value.length());
+        out.writeChars(value);
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] values) throws IOException {
+        out.writeInt(values.length);
+        for (String value : values) writeString(out, value);
+    }
+
+    /**
+     * Lists the instructions, one per line, for debugging.
+     * @return disassembly
+     */
+    @Override
+    public String toString() {
+        String[] mnemonic = {"CONST", "LOAD", "STORE", "ADD", "SUB", "MUL", "IF_NE", "IF_EQ", "IF_GE", "IF_LE",
+                "IF_GT", "IF_LT", "GOTO", "READ", "WRITE", "HALT", "GET"};
+        StringBuilder sb = new StringBuilder();
+        for (int pc = 0; pc < code.length; pc += LENGTH[code[pc]]) {
+            sb.append(String.format("%5d  %-6s", pc, mnemonic[code[pc]]));
+            for (int i = 1; i < LENGTH[code[pc]]; i++) sb.append(' ').append(code[pc + i]);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Builds {@code Bytecode}, used by the {@code compile} methods of each node.
+     * Jumps are emitted to labels and patched to addresses once the label is bound.
+     */
+    static final class Assembler {
+        private final String[] names;
+
+        private int[] code = new int[256];
+        private int size;
+        private int depth;
+        private int maxStack;
+
+        private final List<CoreNode> checkNode = new ArrayList<>();
+        private final List<Integer> checkOp = new ArrayList<>();
+        private final List<Integer> checkLine = new ArrayList<>();
+        private final List<String[]> ioNames = new ArrayList<>();
+        private final List<int[]> ioSlots = new ArrayList<>();
+        private final List<Integer> ioLine = new ArrayList<>();
+
+        /**
+         * Address of each label, -1 until bound.
+         */
+        private int[] labels = new int[16];
+        private int labelCount;
+
+        /**
+         * Operands still holding a label instead of an address.
+         */
+        private final List<Integer> fixups = new ArrayList<>();
+
+        /**
+         * @param names variable names by slot
+         */
+        Assembler(String[] names) {
+            this.names = names;
+        }
+
+        private void put(int word) {
+            if (size == code.length) code = Arrays.copyOf(code, size * 2);
+            code[size++] = word;
+        }
+
+        private void stack(int change) {
+            depth += change;
+            maxStack = Math.max(maxStack, depth);
+        }
+
+        void constant(int value) {
+            put(CONST);
+            put(value);
+            stack(1);
+        }
+
+        void load(int slot, int line) {
+            put(LOAD);
+            put(slot);
+            put(line);
+            stack(1);
+        }
+
+        void get(int slot) {
+            put(GET);
+            put(slot);
+            stack(1);
+        }
+
+        void store(int slot) {
+            put(STORE);
+            put(slot);
+            stack(-1);
+        }
+
+        /**
+         * @param op one of {@code ADD}, {@code SUB}, {@code MUL}
+         * @param node node of the operation, for the text of the error message
+         * @param index index of the operation in {@code node}
+         * @param line line number for the error message
+         */
+        void arithmetic(int op, CoreNode node, int index, int line) {
+            put(op);
+            put(checkLine.size());
+            checkNode.add(node);
+            checkOp.add(index);
+            checkLine.add(line);
+            stack(-1);
+        }
+
+        /**
+         * @param op one of {@code ADD}, {@code SUB}, {@code MUL}, whose result is known to fit in an int
+         */
+        void unchecked(int op) {
+            put(op);
+            put(UNCHECKED);
+            stack(-1);
+        }
+
+        /**
+         * @param compare one of {@code Token.NEQ} through {@code Token.LT}
+         * @param label jump target
+         */
+        void branch(int compare, int label) {
+            jump(IF_NE + compare - Token.NEQ, label);
+            stack(-2);
+        }
+
+        void jump(int label) {
+            jump(GOTO, label);
+        }
+
+        private void jump(int op, int label) {
+            put(op);
+            fixups.add(size);
+            put(label);
+        }
+
+        /**
+         * @param op {@code READ} or {@code WRITE}
+         * @param vars variable names
+         * @param slots slots of {@code vars}
+         * @param line line number of the statement
+         */
+        void io(int op, List<String> vars, int[] slots, int line) {
+            put(op);
+            put(ioNames.size());
+            ioNames.add(vars.toArray(new String[0]));
+            ioSlots.add(Arrays.copyOf(slots, vars.size()));
+            ioLine.add(line);
+        }
+
+        void halt() {
+            put(HALT);
+        }
+
+        /**
+         * @return a new unbound label
+         */
+        int label() {
+            if (labelCount == labels.length) labels = Arrays.copyOf(labels, labelCount * 2);
+            labels[labelCount] = -1;
+            return labelCount++;
+        }
+
+        /**
+         * Binds a label to the next instruction.
+         * @param label label from {@code label()}
+         */
+        void bind(int label) {
+            labels[label] = size;
+        }
+
+        Bytecode build() {
+            for (int at : fixups) {
+                assert labels[code[at]] != -1;
+                code[at] = labels[code[at]];
+            }
+            fixups.clear();
+            return new Bytecode(this);
+        }
+    }
+
+    /**
+     * Negates a comparison.
+     * @param compare one of {@code Token.NEQ} through {@code Token.LT}
+     * @return comparison that holds exactly when {@code compare} does not
+     */
+    static int negate(int compare) {
+        switch (compare) {
+            case Token.NEQ:
+                return Token.EQ;
+            case Token.EQ:
+                return Token.NEQ;
+            case Token.GEQ:
+                return Token.LT;
+            case Token.LEQ:
+                return Token.GT;
+            case Token.GT:
+                return Token.LEQ;
+            case Token.LT:
+                return Token.GEQ;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+}
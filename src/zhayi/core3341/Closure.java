@@ -0,0 +1,69 @@
+package zhayi.core3341;
+
+import zhayi.core3341.CoreError.*;
+
+/**
+ * Closure-compiled execution for CORE language for CSE 3341 Project
+ *
+ * Each node is turned once, by its {@code closure} method, into a lambda specialized for its kind, so that
+ * evaluation no longer switches on node types; every call site sees only the lambdas that can reach it.
+ * The lambdas run over a {@code Frame}, with the same checks and messages as the tree walker.
+ *
+ * @author Yi Zhang
+ */
+final class Closure {
+    private Closure() {
+    }
+
+    /**
+     * Compiled expression, term or factor.
+     */
+    interface Int {
+        int eval(Frame frame) throws InterpreterException;
+    }
+
+    /**
+     * Compiled condition or compare.
+     */
+    interface Bool {
+        boolean test(Frame frame) throws InterpreterException;
+    }
+
+    /**
+     * Compiled statement or statement sequence.
+     */
+    interface Stmt {
+        void exec(Frame frame) throws InterpreterException;
+    }
+
+    /**
+     * Narrows the result of an operation done in {@code long}.
+     * @param value exact result
+     * @param text expression text for the error message
+     * @param line line number for the error message
+     * @return {@code value} as an int
+     * @throws InterpreterException if {@code value} does not fit in an int
+     */
+    static int checked(long value, String text, int line) throws InterpreterException {
+        if (value > CoreNode.INT_MAX)
+            CoreNode.raiseInterpreter(line, new OverflowUnderflowException(text + " results in overflow"));
+        else if (value < CoreNode.INT_MIN)
+            CoreNode.raiseInterpreter(line, new OverflowUnderflowException(text + " results in underflow"));
+        return (int) value;
+    }
+
+    /**
+     * Evaluates a flattened expression or term of more than two operands: operands left to right, then operators
+     * from the right.
+     * @param operands compiled operands
+     * @param chain its operators
+     * @param frame frame to evaluate in
+     * @return result
+     * @throws InterpreterException if an operand or an operator fails
+     */
+    static int fold(Int[] operands, CoreNode.Chain chain, Frame frame) throws InterpreterException {
+        int[] values = new int[operands.length];
+        for (int i = 0; i < operands.length; i++) values[i] = operands[i].eval(frame);
+        return chain.fold(values);
+    }
+}
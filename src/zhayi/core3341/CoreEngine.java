@@ -0,0 +1,487 @@
+package zhayi.core3341;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.nio.CharBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import zhayi.core3341.CoreError.*;
+
+/**
+ * Embeddable engine for CORE language for CSE 3341 Project
+ *
+ * Compiles and runs programs inside a JVM that outlives them: nothing here exits the JVM, and every error in a
+ * program comes back as a {@code Diagnostic}, in a {@code CompileException} from {@code compile} or in the
+ * {@code Result} of {@code run}. An engine only holds its settings and a compiled program is only read while it
+ * runs, each run having a {@code Frame} of its own, so both can be shared by any number of threads, and a program
+ * compiled once keeps whatever the JVM made of its code warm across runs. The command line interpreter runs
+ * programs through an engine.
+ *
+ * @author Yi Zhang
+ */
+public final class CoreEngine {
+    /**
+     * Execution engines, see {@code compile}.
+     */
+    public static final List<String> ENGINES =
+            Collections.unmodifiableList(Arrays.asList("tree", "spec", "closure", "vm", "jit", "ir", "aot"));
+
+    /**
+     * Deepest nesting, see {@code ProgNode.depth}, that engines other than {@code tree} take. Their passes recurse
+     * along it, and this keeps the deepest of them at half the nesting that overflows a default 1 MB thread stack
+     * before the JVM compiles any of them.
+     */
+    static final int MAX_DEPTH = 1000;
+
+    private static final Logger log = Logger.getLogger("CoreEngine");
+
+    static {
+        log.setLevel(Level.SEVERE);
+    }
+
+    private final String engine;
+    private final boolean strict;
+    private final boolean lazy;
+    private final Path cache;
+
+    /**
+     * Engine walking the tree, accepting any program that parses.
+     */
+    public CoreEngine() {
+        this("tree", false);
+    }
+
+    /**
+     * @param engine one of {@code ENGINES}, see {@code compile}
+     * @param strict reject programs reading a variable no path to the read assigns
+     */
+    public CoreEngine(String engine, boolean strict) {
+        this(engine, strict, false, Artifact.defaultDirectory());
+    }
+
+    /**
+     * @param engine one of {@code ENGINES}, see {@code compile}
+     * @param strict reject programs reading a variable no path to the read assigns
+     * @param lazy tokenize while parsing instead of before
+     * @param cache directory of ahead-of-time compiled programs, for {@code aot}
+     */
+    CoreEngine(String engine, boolean strict, boolean lazy, Path cache) {
+        if (!ENGINES.contains(engine)) throw new IllegalArgumentException("Unknown engine " + engine);
+        this.engine = engine;
+        this.strict = strict;
+        this.lazy = lazy;
+        this.cache = cache;
+    }
+
+    /**
+     * Error found in a program, split out of its message.
+     */
+    public static final class Diagnostic {
+        private static final Pattern MESSAGE = Pattern.compile("(\\w+) Error: \\[(?:Line|Value) (\\d+)] (.*)",
+                Pattern.DOTALL);
+
+        private final String kind;
+        private final int line;
+        private final String message;
+        private final String text;
+
+        private Diagnostic(String kind, int line, String message, String text) {
+            this.kind = kind;
+            this.line = line;
+            this.message = message;
+            this.text = text;
+        }
+
+        /**
+         * @param ex error raised with one of the {@code CoreNode} or {@code Tokenizer} templates, or any other
+         * @return its diagnostic
+         */
+        static Diagnostic of(Exception ex) {
+            String text = ex instanceof InterpreterException ? ex.getLocalizedMessage() : ex.toString();
+            Matcher m = MESSAGE.matcher(text);
+            if (!m.matches()) return new Diagnostic("Source", 0, text, text);
+            return new Diagnostic(m.group(1), Integer.parseInt(m.group(2)), m.group(3), text);
+        }
+
+        /**
+         * @return {@code Tokenizer}, {@code Syntax} or {@code Context} for a program that does not compile,
+         *         {@code Interpreter} or {@code Input} for a run that fails, or {@code Source} for a program
+         *         that cannot be read
+         */
+        public String kind() {
+            return kind;
+        }
+
+        /**
+         * @return line of the program the error is on, or number of the value read for {@code Input}, or 0
+         */
+        public int line() {
+            return line;
+        }
+
+        /**
+         * @return what is wrong, without the kind and line
+         */
+        public String message() {
+            return message;
+        }
+
+        /**
+         * @return the whole message, as the command line interpreter logs it
+         */
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * Program that did not compile.
+     */
+    public static final class CompileException extends Exception {
+        private final Diagnostic diagnostic;
+        private final int status;
+
+        private CompileException(Diagnostic diagnostic, Exception cause) {
+            super(diagnostic.toString(), cause);
+            this.diagnostic = diagnostic;
+            this.status = cause.hashCode();
+        }
+
+        private CompileException(Exception cause) {
+            this(Diagnostic.of(cause), cause);
+        }
+
+        /**
+         * @return the first error in the program
+         */
+        public Diagnostic diagnostic() {
+            return diagnostic;
+        }
+
+        /**
+         * @return status the command line interpreter exits with for it
+         */
+        public int status() {
+            return status;
+        }
+    }
+
+    /**
+     * Program compiled for an engine, to run any number of times, on any number of threads at once.
+     */
+    public static final class CompiledProgram {
+        final Closure.Stmt program;
+
+        /**
+         * Parsed program, or null if it came from the cache.
+         */
+        private final ProgNode prog;
+
+        private CompiledProgram(Closure.Stmt program, ProgNode prog) {
+            this.program = program;
+            this.prog = prog;
+        }
+
+        /**
+         * Reports the runtime checks analysis removed, unless the program came from the {@code aot} cache.
+         * @param err stream to print to
+         */
+        public void reportChecks(PrintStream err) {
+            if (prog != null) prog.reportChecks(err);
+        }
+    }
+
+    /**
+     * Outcome of one run.
+     */
+    public static final class Result {
+        private static final Result OK = new Result(0, null);
+
+        private final int status;
+        private final Diagnostic error;
+
+        private Result(int status, Diagnostic error) {
+            this.status = status;
+            this.error = error;
+        }
+
+        /**
+         * @return 0 if the program completed, else the status the command line interpreter exits with
+         */
+        public int status() {
+            return status;
+        }
+
+        /**
+         * @return runtime error, or null if the program completed
+         */
+        public Diagnostic error() {
+            return error;
+        }
+    }
+
+    /**
+     * Compiles a program for this engine: {@code tree} walks the tree, {@code spec} a self-specializing copy
+     * of it, {@code closure} compiles it to closures, {@code vm} to {@code Bytecode}, {@code jit} on to a JVM
+     * class, or to the {@code vm} if the program is too large for one, {@code ir} lowers it to {@code Ir} and
+     * optimizes it, and {@code aot} finds it in the cache, or compiles it into the cache. All but {@code tree}
+     * compile a program by recursion along its nesting, and reject one nested deeper than {@code MAX_DEPTH}.
+     * @param text program text
+     * @return the program
+     * @throws CompileException on the first error in the program
+     */
+    public CompiledProgram compile(CharSequence text) throws CompileException {
+        return compile(Source.text(text), null, null);
+    }
+
+    /**
+     * Compiles a program, see {@code compile(CharSequence)}.
+     * @param source program source
+     * @return the program
+     * @throws CompileException on the first error in the program, or if it cannot be read
+     */
+    public CompiledProgram compile(Source source) throws CompileException {
+        return compile(source, null, null);
+    }
+
+    /**
+     * Compiles a program, see {@code compile(CharSequence)}.
+     * @param source program source
+     * @param checks stream to report the runtime checks analysis removed on once parsed, see
+     *               {@code CompiledProgram.reportChecks}, or null
+     * @param dump stream to list the {@code Ir} on before and after each pass, or null
+     * @return the program
+     * @throws CompileException on the first error in the program, or if it cannot be read
+     */
+    CompiledProgram compile(Source source, PrintStream checks, PrintStream dump) throws CompileException {
+        if (engine.equals("aot")) return new CompiledProgram(artifact(source)::run, null);
+
+        ProgNode prog = parse(source, true);
+        if (checks != null) prog.reportChecks(checks);
+        if (!engine.equals("tree")) checkDepth(prog, engine);
+        switch (engine) {
+            case "tree":
+                return new CompiledProgram(prog::execProg, prog);
+            case "spec": {
+                ExecNode.RootNode tree = prog.specialize();
+                return new CompiledProgram(tree::exec, prog);
+            }
+            case "closure":
+                return new CompiledProgram(prog.closure(), prog);
+            case "vm": {
+                Bytecode code = prog.compile();
+                return new CompiledProgram(f -> VirtualMachine.run(code, f), prog);
+            }
+            case "jit": {
+                Bytecode code = prog.compile();
+                MethodHandle run = JitCompiler.compile(code);
+                if (run != null) return new CompiledProgram(f -> JitCompiler.run(run, code, f), prog);
+                return new CompiledProgram(f -> VirtualMachine.run(code, f), prog);
+            }
+            default: {
+                Ir ir = prog.lower();
+                Optimizer.standard().optimize(ir, dump);
+                return new CompiledProgram(ir::run, prog);
+            }
+        }
+    }
+
+    /**
+     * Parses a program and prints it back to standard output, as {@code -p} does, without optimizing its loops.
+     * @param source program source
+     * @param checks stream to report the runtime checks analysis removed on, or null
+     * @throws CompileException on the first error in the program, or if it cannot be read
+     */
+    void print(Source source, PrintStream checks) throws CompileException {
+        ProgNode prog = parse(source, false);
+        if (checks != null) prog.reportChecks(checks);
+        prog.print(System.out);
+    }
+
+    /**
+     * Rejects a program nested deeper than {@code MAX_DEPTH} for an engine that compiles it by recursion.
+     * @param prog parsed program
+     * @param engine engine compiling it
+     * @throws CompileException if it is
+     */
+    private static void checkDepth(ProgNode prog, String engine) throws CompileException {
+        if (prog.depth <= MAX_DEPTH) return;
+        throw new CompileException(new InterpreterException(String.format(CoreNode.CONTEXT_TEMPLATE, prog.deepest,
+                String.format("Nested %d levels deep, more than the %d the %s engine takes", prog.depth, MAX_DEPTH,
+                        engine))));
+    }
+
+    private ProgNode parse(Source source, boolean optimize) throws CompileException {
+        Tokenizer t = new Tokenizer();
+        ProgNode prog;
+        try {
+            if (lazy) t.stream(source);
+            else t.tokenize(source);
+            prog = ProgNode.parseProg(t, optimize);
+            if (strict) prog.checkAssigned();
+        } catch (InterpreterException ex) {
+            throw new CompileException(ex);
+        } finally {
+            t.release();
+        }
+        return prog;
+    }
+
+    /**
+     * Finds the cached artifact of a program, else parses and compiles the program and caches the result.
+     * Tokenizing and parsing only happen on a miss, and a cache that cannot be written only costs the next
+     * run a compile.
+     * @param source program source
+     * @return the artifact
+     * @throws CompileException on the first error in the program, or if it cannot be read
+     */
+    private Artifact artifact(Source source) throws CompileException {
+        CharBuffer text = load(source);
+        try {
+            return artifact(text, Artifact.key(text), false);
+        } finally {
+            Source.release(text);
+        }
+    }
+
+    /**
+     * Compiles a program ahead of time into the cache, as {@code -c} does, unless an up to date artifact is
+     * already there.
+     * @param source program source
+     * @return path of the artifact
+     * @throws CompileException on the first error in the program, or if it cannot be read, or the artifact
+     *         cannot be written
+     */
+    public Path compileToCache(Source source) throws CompileException {
+        CharBuffer text = load(source);
+        String key = Artifact.key(text);
+        try {
+            artifact(text, key, true);
+        } finally {
+            Source.release(text);
+        }
+        return Artifact.path(cache, key);
+    }
+
+    /**
+     * @param text program text
+     * @param key key of {@code text}
+     * @param save whether an artifact that cannot be saved fails, rather than being logged
+     * @return the cached artifact, else the one compiled and cached
+     * @throws CompileException on the first error in the program, or if it must be saved and cannot be
+     */
+    private Artifact artifact(CharBuffer text, String key, boolean save) throws CompileException {
+        Artifact artifact = Artifact.load(cache, key);
+        if (artifact == null) {
+            ProgNode prog = parse(Source.text(text), true);
+            checkDepth(prog, "aot");
+            artifact = Artifact.compile(prog, key);
+            try {
+                artifact.save(cache, key);
+            } catch (IOException ex) {
+                if (save) throw new CompileException(ex);
+                log.severe("Cannot save compiled program: " + ex);
+            }
+        } else if (strict) {
+            try {
+                artifact.checkAssigned();
+            } catch (UninitializedException ex) {
+                throw new CompileException(ex);
+            }
+        }
+        return artifact;
+    }
+
+    private static CharBuffer load(Source source) throws CompileException {
+        try {
+            return source.load();
+        } catch (IOException ex) {
+            throw new CompileException(ex);
+        }
+    }
+
+    /**
+     * Runs a program, reading integers from text and writing {@code X = 5} lines.
+     * @param program compiled program
+     * @param input where read statements take values from
+     * @param output where write statements go, flushed once the program ends
+     * @return outcome of the run
+     */
+    public Result run(CompiledProgram program, InputStream input, OutputStream output) {
+        return run(program, "text", input, "text", output);
+    }
+
+    /**
+     * Runs a program, see {@code Input} and {@code Output} for the formats.
+     * @param program compiled program
+     * @param inputFormat {@code interactive}, prompting for each value on {@code output}, {@code text} or
+     *                    {@code binary}
+     * @param input where read statements take values from
+     * @param outputFormat {@code text}, {@code csv} or {@code binary}
+     * @param output where write statements go, flushed once the program ends
+     * @return outcome of the run
+     */
+    public Result run(CompiledProgram program, String inputFormat, InputStream input, String outputFormat,
+                      OutputStream output) {
+        PrintStream prompts = new PrintStream(output, true);
+        return run(program, new Frame(Input.of(inputFormat, input, prompts, prompts),
+                Output.of(outputFormat, output, false)));
+    }
+
+    /**
+     * Runs a program over a frame, flushing what it wrote whether it completes or fails.
+     * @param program compiled program
+     * @param f frame of the run
+     * @return outcome of the run
+     */
+    Result run(CompiledProgram program, Frame f) {
+        try {
+            program.program.exec(f);
+            f.flush();
+        } catch (InterpreterException ex) {
+            return failed(f, ex);
+        } catch (NoSuchElementException ex) {
+            return failed(f, runError("No more input"));
+        } catch (UncheckedIOException ex) {
+            return failed(f, runError(ex.getCause().toString()));
+        }
+        return Result.OK;
+    }
+
+    /**
+     * Error for a run that fails outside the program, with input or output.
+     * @param message what failed
+     * @return the error, on no line of the program
+     */
+    private static InterpreterException runError(String message) {
+        return new InterpreterException(String.format(CoreNode.INTERPRET_TEMPLATE, 0, message));
+    }
+
+    /**
+     * Ends a run that failed, flushing what it wrote as far as the output takes it.
+     * @param f frame of the run
+     * @param ex error
+     * @return outcome of the run
+     */
+    private static Result failed(Frame f, InterpreterException ex) {
+        try {
+            f.flush();
+        } catch (UncheckedIOException ignored) {
+            // the output failed, after the error or as it
+        }
+        return new Result(ex.hashCode(), Diagnostic.of(ex));
+    }
+}
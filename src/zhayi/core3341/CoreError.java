@@ -57,6 +57,12 @@ public class CoreError {
         }
     }
 
+    static class InputException extends InterpreterException {
+        InputException(String msg) {
+            super(msg);
+        }
+    }
+
     static class InterpreterException extends Exception {
         InterpreterException(String msg) {
             super(msg);
@@ -2,8 +2,12 @@ package zhayi.core3341;
 
 import java.io.PrintStream;
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 import zhayi.core3341.CoreError.*;
+import zhayi.core3341.ExecNode.*;
 
 /**
  * Node Implementation of CORE language for CSE 3341 Project PA2
@@ -33,53 +37,57 @@ public abstract class CoreNode {
      * Interpreter error reporting template.
      * raiseInterpreter
      */
-    private static final String INTERPRET_TEMPLATE = "Interpreter Error: [Line %d] %s";
+    static final String INTERPRET_TEMPLATE = "Interpreter Error: [Line %d] %s";
 
     private static final String INTERNAL_TEMPLATE = "Internal Error: [%s] %s";
 
+    /**
+     * Levels of parenthesized expressions or conditions nested in one that the tree walker evaluates by recursion;
+     * one nested deeper is evaluated on an {@code Eval} stack.
+     */
+    static final int SHALLOW = 64;
+
     /**
      * Indent style, i.e. two whitespaces by assignment statement.
      */
-    private String indent;
+    private final String indent;
 
     /**
      * Code block level.
      */
-    int level;
+    final int level;
 
     /**
      * Line number of the first matching token in original code.
      */
-    int line;
+    final int line;
 
     /**
      * Reference to root {@code ProgNode} for accessing symbol table.
      */
-    ProgNode prog;
-
-    /**
-     * Extends the ability to output result to stream other than {@code System.out}.
-     */
-    PrintStream out;
-
-    PrintStream err;
+    final ProgNode prog;
 
     /**
-     * Default constructor.
+     * Constructor of the root {@code ProgNode}, which is its own root.
+     * @param line line number of its first token
      */
-    CoreNode() {
+    CoreNode(int line) {
         indent = "  ";
         level = 1;
-        out = System.out;
-        err = System.err;
+        this.line = line;
+        prog = (ProgNode) this;
     }
 
     /**
      * Adds access to symbol table.
      * @param p Top level {@code ProgNode}
+     * @param level code block level
+     * @param line line number of its first token, the current one when the node is made
      */
-    CoreNode(ProgNode p) {
-        this();
+    CoreNode(ProgNode p, int level, int line) {
+        indent = "  ";
+        this.level = level;
+        this.line = line;
         prog = p;
     }
 
@@ -94,6 +102,18 @@ public abstract class CoreNode {
         return sb.toString();
     }
 
+    /**
+     * Builds text on a {@code Walk} of its own, so that the text of a node of any nesting takes no Java stack.
+     * @param text appends the text to the builder it is given, leaving steps on the walk for what it nests
+     * @return the text
+     */
+    static String text(BiConsumer<Walk, StringBuilder> text) {
+        StringBuilder sb = new StringBuilder();
+        Walk w = new Walk();
+        w.run(() -> text.accept(w, sb));
+        return sb.toString();
+    }
+
     /**
      * NOTE:    All consume methods asserts {@code Tokenizer} instance not null.
      *          If a parse method (uses {@code Tokenizer}) first calls to any consume method,
@@ -102,20 +122,20 @@ public abstract class CoreNode {
      * Consume one token and try match its code. Moves to the next token on success.
      * @param t {@code Tokenizer} instance
      * @param code {@code Token} type to be matched
-     * @return {@code t.getCurrent()} if {@code t.getCurrent().code == code}
+     * @return {@code t.current()} if {@code t.code(t.current()) == code}
      * @throws InterpreterException either {@code UnexpectedTokenException} if encountered EOF
      *          or {@code ConsumeMismatchException}
      */
-    Token matchConsume(Tokenizer t, int code) throws InterpreterException {
+    int matchConsume(Tokenizer t, int code) throws InterpreterException {
         assert(t != null);
 
-        Token curr = t.getCurrent();
-        if (code != Token.EOF && curr.code == Token.EOF) {
-            raiseUnexpected(curr.line, "Unexpected EOF while scanning for " + code);
+        int curr = t.current();
+        if (code != Token.EOF && t.code(curr) == Token.EOF) {
+            raiseUnexpected(t.line(curr), "Unexpected EOF while scanning for " + code);
         }
-        if (curr.code != code) {
-            String info = String.format("Expected token %d, got '%s'", code, curr.name);
-            raiseConsumeMismatch(curr.line, info);
+        if (t.code(curr) != code) {
+            String info = String.format("Expected token %d, got '%s'", code, t.name(curr));
+            raiseConsumeMismatch(t.line(curr), info);
         }
         t.next();
         return curr;
@@ -125,12 +145,12 @@ public abstract class CoreNode {
      * Test (peek) if the next token matches given code. Does not move to the next token.
      * @param t {@code Tokenizer} instance
      * @param code {@code Token} type to be matched
-     * @return true if {@code t.getCurrent().code == code} else false
+     * @return true if {@code t.code(t.current()) == code} else false
      */
     boolean testConsume(Tokenizer t, int code) {
         assert(t != null);
 
-        return t.getCurrent().code == code;
+        return t.code(t.current()) == code;
     }
 
     /**
@@ -139,21 +159,22 @@ public abstract class CoreNode {
      * @param t {@code Tokenizer} instance
      * @param min lower range
      * @param max higher range, inclusive
-     * @return {@code t.getCurrent()} if {@code t.getCurrent().code >= min && t.getCurrent().code <= max}
+     * @return {@code t.current()} if {@code t.code(t.current()) >= min && t.code(t.current()) <= max}
      * @throws InterpreterException either {@code UnexpectedTokenException} if encountered EOF
      *          or {@code ConsumeMismatchException}
      */
-    Token rangeConsume(Tokenizer t, int min, int max) throws InterpreterException {
+    int rangeConsume(Tokenizer t, int min, int max) throws InterpreterException {
         assert(t != null);
 
-        Token curr = t.getCurrent();
-        if (curr.code < min || curr.code > max) {
-            if (curr.code == Token.EOF) {
+        int curr = t.current();
+        int code = t.code(curr);
+        if (code < min || code > max) {
+            if (code == Token.EOF) {
                 String info = String.format("Unexpected EOF while scanning for token between %d and %d", min, max);
-                raiseUnexpected(curr.line, info);
+                raiseUnexpected(t.line(curr), info);
             }
-            String info = String.format("Expected token between %d and %d, got %d", min, max, curr.code);
-            raiseConsumeMismatch(t.getCurrent().line, info);
+            String info = String.format("Expected token between %d and %d, got %d", min, max, code);
+            raiseConsumeMismatch(t.line(curr), info);
         }
         t.next();
         return curr;
@@ -178,7 +199,7 @@ public abstract class CoreNode {
      * @param ex {@code InterpreterException} that contains the error message
      * @throws InterpreterException a new instance of {@code ex} using {@code INTERPRET_TEMPLATE}
      */
-    void raiseInterpreter(int line, InterpreterException ex) throws InterpreterException {
+    static void raiseInterpreter(int line, InterpreterException ex) throws InterpreterException {
         String info = String.format(INTERPRET_TEMPLATE, line, ex.getMessage());
         throw new InterpreterException(info);
         /*
@@ -215,32 +236,105 @@ public abstract class CoreNode {
 
     /**
      * Throws exception if a symbol has been already declared.
-     * @param curr {@code Token} with type {@code Token.ID}
-     * @throws RedeclaredException if {@code prog.vars.containsKey(curr.name)}
+     * @param name name of a {@code Token.ID} token
+     * @param line line number of the token
+     * @throws RedeclaredException if {@code prog.slots.containsKey(name)}
      */
-    void checkRedeclared(Token curr) throws RedeclaredException {
-        assert(curr != null);
+    void checkRedeclared(String name, int line) throws RedeclaredException {
+        assert(name != null);
 
-        if (prog.vars.containsKey(curr.name)) {
-            String declared = String.format("%s already declared", curr.name);
-            String info = String.format(CONTEXT_TEMPLATE, curr.line, declared);
+        if (prog.slots.containsKey(name)) {
+            String declared = String.format("%s already declared", name);
+            String info = String.format(CONTEXT_TEMPLATE, line, declared);
             throw new RedeclaredException(info);
         }
     }
 
     /**
-     * Throws exception if a symbol has not been declared.
-     * @param curr {@code Token} with type {@code Token.ID}
-     * @throws UndeclaredException if {@code !prog.vars.containsKey(curr.name)}
+     * Throws exception if a symbol has not been declared, else resolves it.
+     * @param name name of a {@code Token.ID} token
+     * @param line line number of the token
+     * @return slot of the symbol in {@code prog.values}
+     * @throws UndeclaredException if {@code !prog.slots.containsKey(name)}
      */
-    void checkUndeclared(Token curr) throws UndeclaredException {
-        assert(curr != null);
+    int checkUndeclared(String name, int line) throws UndeclaredException {
+        assert(name != null);
 
-        if (!prog.vars.containsKey(curr.name)) {
-            String undeclared = String.format("Using undeclared variable %s", curr.name);
-            String info = String.format(CONTEXT_TEMPLATE, curr.line, undeclared);
+        Integer slot = prog.slots.get(name);
+        if (slot == null) {
+            String undeclared = String.format("Using undeclared variable %s", name);
+            String info = String.format(CONTEXT_TEMPLATE, line, undeclared);
             throw new UndeclaredException(info);
         }
+        return slot;
+    }
+
+    /**
+     * Analyzes a read of a variable, see {@code Flow}. Records the first read of a variable not assigned on any
+     * path to it in {@code prog.unassigned}.
+     * @param f state before the read, updated to after it
+     * @param slot slot of the variable
+     * @param name name of the variable
+     * @param line line number of the read
+     * @return true if the variable is assigned on every path to the read, so that the read needs no check
+     */
+    boolean analyzeUse(Flow f, int slot, String name, int line) {
+        boolean proven = (f.must & 1 << slot) != 0;
+        prog.readChecks++;
+        if (proven) prog.readChecksRemoved++;
+        if ((f.may & 1 << slot) == 0 && prog.unassigned == null) {
+            String uninitialized = String.format("Using uninitialized variable %s", name);
+            prog.unassigned = String.format(CONTEXT_TEMPLATE, line, uninitialized);
+        }
+        f.assign(slot);
+        return proven;
+    }
+
+    /**
+     * Sets whether an operation of {@code this} is known not to overflow, see {@code Range}.
+     * @param op index of the operation
+     * @param safe true if its result always fits in an int
+     */
+    void setSafe(int op, boolean safe) {
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Text of the part of {@code this} an operation groups, for its overflow message. Compiled programs keep the
+     * node and index of each checked operation instead of its text, and only ask for it once the operation fails.
+     * @param op index of the operation
+     * @return its text
+     */
+    String getText(int op) {
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Operators of a flattened expression or term, for the engines that evaluate its operands themselves.
+     */
+    interface Chain {
+        /**
+         * Applies one operator, failing with the text and line of the part of the chain it groups if its result
+         * does not fit in an int and it is not known safe.
+         * @param i index of the operator, the same as of its left operand
+         * @param left value of its left operand
+         * @param right value of everything to its right
+         * @return result
+         * @throws InterpreterException if the result overflows or underflows
+         */
+        int apply(int i, int left, int right) throws InterpreterException;
+
+        /**
+         * Combines the operands from the right, as the grammar groups them.
+         * @param values value of each operand, left to right
+         * @return result
+         * @throws InterpreterException if an operator overflows or underflows
+         */
+        default int fold(int[] values) throws InterpreterException {
+            int value = values[values.length - 1];
+            for (int i = values.length - 2; i >= 0; i--) value = apply(i, values[i], value);
+            return value;
+        }
     }
 }
 
@@ -253,6 +347,11 @@ final class ProgNode extends CoreNode {
      */
     private static final int MAX_CAPACITY = 20;
 
+    /**
+     * Max of variables and hidden variables together, as bitmasks over slots are ints.
+     */
+    static final int MAX_SLOTS = Integer.SIZE;
+
     /**
      * Declaration sequence node.
      */
@@ -264,53 +363,163 @@ final class ProgNode extends CoreNode {
     private StmtSeqNode stmts;
 
     /**
-     * Program symbol table.
+     * Program symbol table, maps each declared name to its slot. Only used while parsing; nodes that
+     * access a variable hold its slot.
+     */
+    HashMap<String, Integer> slots;
+
+    /**
+     * Error for the first read of a variable that no path to it assigns, or null. Found while parsing,
+     * raised by {@code checkAssigned()}.
+     */
+    String unassigned;
+
+    /**
+     * Runtime checks in the program, and how many of them analysis found unneeded: reads of a possibly
+     * uninitialized variable, and arithmetic that may overflow.
+     */
+    int readChecks, readChecksRemoved, arithmeticChecks, arithmeticChecksRemoved;
+
+    /**
+     * Levels of statements, conditions and parenthesized expressions nested in one another at the deepest, found
+     * by analysis and kept as a bound by loop optimization: how deep the engines that compile the program by
+     * recursion go, see {@code CoreEngine.MAX_DEPTH}.
+     */
+    int depth;
+
+    /**
+     * Line of the statement {@code depth} was reached in.
      */
-    HashMap<String, Integer> vars;
+    int deepest;
 
     /**
-     * Default constructor.
+     * Starts a program, to be filled by {@code parseSyntax(Tokenizer)}.
+     * @param line line number of its first token
      */
-    ProgNode() {
-        vars = new HashMap<>();
-        prog = this;
+    ProgNode(int line) {
+        super(line);
+        slots = new HashMap<>();
     }
 
     /**
-     * Prints the program by recursively calling print.
+     * Prints the program, its statements on a {@code Walk}.
+     * @param out stream to print to
      */
-    void print() {
+    void print(PrintStream out) {
         assert(decls != null && stmts != null);
 
         out.println("program ");
-        decls.print();
+        decls.print(out);
         out.printf("%sbegin\n", getIndent());
-        stmts.print();
+        Walk w = new Walk();
+        w.run(() -> stmts.print(w, out));
         out.printf("%send\n", getIndent());
     }
 
+    /**
+     * Records how deep a statement nests, see {@code depth}.
+     * @param depth levels down to the statement, plus those nested in its condition or expression
+     * @param line line of the statement
+     */
+    void nest(int depth, int line) {
+        if (depth <= this.depth) return;
+        this.depth = depth;
+        deepest = line;
+    }
+
     /**
      * Test if program symbol table is full.
-     * @return true if {@code this.vars.size() >= MAX_CAPACITY}, else false
+     * @return true if {@code this.slots.size() >= MAX_CAPACITY}, else false
      */
     boolean varsIsFull() {
-        return vars.size() >= MAX_CAPACITY;
+        return slots.size() >= MAX_CAPACITY;
     }
 
     /**
-     * Fills content of {@code this.decls, this.stmts, this.vars} by consuming {@code Tokenizer}.
-     * @param t {@code Tokenizer} instance
-     * @throws InterpreterException if any recursive parse call or {@code matchConsume(Tokenizer, int)} failed
+     * Declares a variable in the next free slot.
+     * @param name name of the variable, not yet declared
+     */
+    void declare(String name) {
+        assert !slots.containsKey(name) && !varsIsFull();
+
+        slots.put(name, slots.size());
+    }
+
+    /**
+     * Declares a hidden variable to hold an expression, see {@code Hoist}, unless one already does.
+     * @param text text of the expression, never an identifier
+     * @return slot of the hidden variable, or -1 if every slot is taken
+     */
+    int temp(String text) {
+        Integer slot = slots.get(text);
+        if (slot != null) return slot;
+        if (slots.size() >= MAX_SLOTS) return -1;
+        slots.put(text, slots.size());
+        return slots.size() - 1;
+    }
+
+    /**
+     * Parses a program by consuming {@code Tokenizer}, then analyzes it. The program does not change once
+     * returned, so one parse can be run any number of times, at once.
+     * @param t {@code Tokenizer} instance, at the first token
+     * @param optimize whether to move invariant expressions out of loops and turn products of induction variables
+     *                 into additions, see {@code Hoist}; false to print the program as written
+     * @return the program
+     * @throws InterpreterException if any parse call or {@code matchConsume(Tokenizer, int)} failed
+     */
+    static ProgNode parseProg(Tokenizer t, boolean optimize) throws InterpreterException {
+        return parseProg(t, true, optimize);
+    }
+
+    /**
+     * Same as {@code parseProg(Tokenizer, boolean)}, optionally without summarizing loops.
+     * @param t {@code Tokenizer} instance, at the first token
+     * @param summarize whether loops skip ahead through their summary, see {@code Summary}; false to time them
+     *                  without
+     * @param optimize whether to optimize loops
+     * @return the program
+     * @throws InterpreterException if any parse call or {@code matchConsume(Tokenizer, int)} failed
+     */
+    static ProgNode parseProg(Tokenizer t, boolean summarize, boolean optimize) throws InterpreterException {
+        ProgNode prog = parseSyntax(t);
+        StmtSeqNode stmts = prog.stmts;
+        Walk w = new Walk();
+        w.run(() -> stmts.analyzeStmtSeq(w, new Flow()));
+        Range r = new Range(prog.slots.size());
+        w.run(() -> stmts.rangeStmtSeq(w, new Range[]{r}));
+        int[] count = r.finish();
+        prog.arithmeticChecks = count[0];
+        prog.arithmeticChecksRemoved = count[1];
+        if (summarize) w.run(() -> stmts.summarizeStmtSeq(w));
+        if (optimize) w.run(() -> stmts.optimizeStmtSeq(w));
+        return prog;
+    }
+
+    /**
+     * Parses a program by consuming {@code Tokenizer}, statements on a {@code Parse} stack, without analyzing it.
+     * @param t {@code Tokenizer} instance, at the first token
+     * @return the program
+     * @throws InterpreterException if any parse call or {@code matchConsume(Tokenizer, int)} failed
      */
-    void parseProg(Tokenizer t) throws InterpreterException {
+    static ProgNode parseSyntax(Tokenizer t) throws InterpreterException {
         assert(t != null);
 
-        line = matchConsume(t, Token.PROGRAM).line;
-        decls = new DeclSeqNode(this);
+        ProgNode prog = new ProgNode(t.line(t.current()));
+        prog.parseBody(t);
+        return prog;
+    }
+
+    /**
+     * Fills content of {@code this.decls, this.stmts, this.slots} by consuming {@code Tokenizer}.
+     */
+    private void parseBody(Tokenizer t) throws InterpreterException {
+        matchConsume(t, Token.PROGRAM);
+        decls = new DeclSeqNode(this, t.line(t.current()));
         decls.parseDeclSeq(t);
         matchConsume(t, Token.BEGIN);
-        stmts = new StmtSeqNode(this, level);
-        stmts.parseStmtSeq(t);
+        stmts = new StmtSeqNode(this, level, t.line(t.current()));
+        Parse p = new Parse(t);
+        p.run(() -> stmts.parseStmtSeq(p));
         if (stmts.isEmpty()) {
             String info = String.format(CONTEXT_TEMPLATE, prog.line, "Empty StmtSeq");
             throw new EmptySequenceException(info);
@@ -319,12 +528,76 @@ final class ProgNode extends CoreNode {
         matchConsume(t, Token.EOF);
     }
 
+    /**
+     * Reports the runtime checks analysis removed, for {@code --report-checks}.
+     * @param err stream to print to
+     */
+    void reportChecks(PrintStream err) {
+        err.printf("Uninitialized checks: %d of %d removed\n", readChecksRemoved, readChecks);
+        err.printf("Overflow checks: %d of %d removed\n", arithmeticChecksRemoved, arithmeticChecks);
+    }
+
+    /**
+     * Rejects a program that reads a variable no path to the read assigns, which always fails once reached.
+     * @throws UninitializedException if {@code this.unassigned} is set
+     */
+    void checkAssigned() throws UninitializedException {
+        if (unassigned != null) throw new UninitializedException(unassigned);
+    }
+
     /**
      * Starts execution of {@code this.stmts}.
-     * @throws InterpreterException if any recursive execution call failed
+     * @param f frame of the run
+     * @throws InterpreterException if any execution call failed
+     */
+    public void execProg(Frame f) throws InterpreterException {
+        this.stmts.execStmtSeq(f);
+    }
+
+    /**
+     * Builds a self-specializing execution tree for {@code this.stmts}, run over any number of frames.
+     * @return root of the tree
+     */
+    RootNode specialize() {
+        return new RootNode(stmts.specializeStmtSeq());
+    }
+
+    /**
+     * Compiles {@code this.stmts} into closures, run over any number of frames.
+     * @return compiled program
+     */
+    Closure.Stmt closure() {
+        return stmts.closureStmtSeq();
+    }
+
+    /**
+     * Compiles {@code this.stmts} for {@code VirtualMachine}.
+     * @return compiled program
+     */
+    Bytecode compile() {
+        Bytecode.Assembler a = new Bytecode.Assembler(names());
+        stmts.compileStmtSeq(a);
+        a.halt();
+        return a.build();
+    }
+
+    /**
+     * Lowers {@code this.stmts} into {@code Ir}, run over any number of frames.
+     * @return lowered program, not yet optimized
+     */
+    Ir lower() {
+        Ir.Builder b = new Ir.Builder(names());
+        stmts.lowerStmtSeq(b);
+        return b.build();
+    }
+
+    /**
+     * @return variable names by slot
      */
-    public void execProg() throws InterpreterException {
-        this.stmts.execStmtSeq();
+    private String[] names() {
+        String[] names = new String[slots.size()];
+        for (Map.Entry<String, Integer> e : slots.entrySet()) names[e.getValue()] = e.getKey();
+        return names;
     }
 }
 
@@ -345,18 +618,19 @@ final class DeclSeqNode extends CoreNode {
     /**
      * Constructor must be called with {@code ProgNode} to reference symbol table.
      * @param p Root {@code ProgNode}
+     * @param l line number of its first token
      */
-    DeclSeqNode(ProgNode p) {
-        super(p);
-        level = DEFAULT_LEVEL;
+    DeclSeqNode(ProgNode p, int l) {
+        super(p, DEFAULT_LEVEL, l);
         decls = new ArrayList<>();
     }
 
     /**
-     * Calls {@code print()} for each {@code DeclNode} in {@code this.decls}.
+     * Calls {@code print(PrintStream)} for each {@code DeclNode} in {@code this.decls}.
+     * @param out stream to print to
      */
-    void print() {
-        for (DeclNode n: decls) n.print();
+    void print(PrintStream out) {
+        for (DeclNode n: decls) n.print(out);
     }
 
     /**
@@ -367,7 +641,7 @@ final class DeclSeqNode extends CoreNode {
      */
     void parseDeclSeq(Tokenizer t) throws InterpreterException {
         while (testConsume(t, Token.INT)) {
-            DeclNode curr = new DeclNode(prog);
+            DeclNode curr = new DeclNode(prog, t.line(t.current()));
             curr.parseDecl(t);
             decls.add(curr);
         }
@@ -391,17 +665,18 @@ final class DeclNode extends CoreNode {
     /**
      * Constructor must be called with {@code ProgNode} to reference symbol table.
      * @param p Root {@code ProgNode}
+     * @param l line number of its first token
      */
-    DeclNode(ProgNode p) {
-        super(p);
-        level = DeclSeqNode.DEFAULT_LEVEL;
+    DeclNode(ProgNode p, int l) {
+        super(p, DeclSeqNode.DEFAULT_LEVEL, l);
         lineVars = new ArrayList<>();
     }
 
     /**
      * Print declaration line. All symbols declared on this line will be shown.
+     * @param out stream to print to
      */
-    void print() {
+    void print(PrintStream out) {
         out.printf("%sint %s;\n", getIndent(), String.join(", ", lineVars));
     }
 
@@ -416,18 +691,18 @@ final class DeclNode extends CoreNode {
     void parseDecl(Tokenizer t) throws InterpreterException {
         matchConsume(t, Token.INT);
 
-        Token curr = matchConsume(t, Token.ID);
-        line = curr.line;
+        int curr = matchConsume(t, Token.ID);
         do {
+            String name = t.name(curr);
             if (prog.varsIsFull()) {
-                String info = String.format(CONTEXT_TEMPLATE, curr.line,
-                        "Program symbol table is already full when declaring " + curr.name);
+                String info = String.format(CONTEXT_TEMPLATE, t.line(curr),
+                        "Program symbol table is already full when declaring " + name);
                 throw new NoMoreDeclException(info);
             }
 
-            checkRedeclared(curr);
-            prog.vars.put(curr.name, null);
-            lineVars.add(curr.name);
+            checkRedeclared(name, t.line(curr));
+            prog.declare(name);
+            lineVars.add(name);
 
             if (!testConsume(t, Token.COMMA)) break;
             matchConsume(t, Token.COMMA);
@@ -453,23 +728,20 @@ final class StmtSeqNode extends CoreNode {
     private ArrayList<StmtNode> stmts;
 
     /**
-     * Constructor must be called with {@code ProgNode} to reference symbol table.
-     * @param p Root {@code ProgNode}
+     * Bitmask of the variables any statement in {@code this} may assign, set by {@code endStmtSeq()} once the
+     * statements are complete, and again whenever loop optimization changes them.
      */
-    private StmtSeqNode(ProgNode p) {
-        super(p);
-        level = DEFAULT_LEVEL;
-        stmts = new ArrayList<>();
-    }
+    private int assigns;
 
     /**
-     * Constructor with alternate block level.
+     * Constructor must be called with {@code ProgNode} to reference symbol table.
      * @param p Root {@code ProgNode}
-     * @param l alternate block level
+     * @param l block level
+     * @param line line number of its first token
      */
-    StmtSeqNode(ProgNode p, int l) {
-        this(p);
-        level = l;
+    StmtSeqNode(ProgNode p, int l, int line) {
+        super(p, l, line);
+        stmts = new ArrayList<>();
     }
 
     /**
@@ -481,65 +753,293 @@ final class StmtSeqNode extends CoreNode {
     }
 
     /**
-     * Calls {@code print()} for each {@code StmtNode} in {@code this.stmts}.
+     * Prints each {@code StmtNode} in {@code this.stmts}.
+     * @param w {@code Walk} instance
+     * @param out stream to print to
+     */
+    void print(Walk w, PrintStream out) {
+        walkStmtSeq(w, 0, n -> n.print(w, out));
+    }
+
+    /**
+     * Creates and parses {@code StmtNode} until a terminating {@code Token} is reached, on a {@code Parse} stack.
+     * @param p {@code Parse} instance
+     * @return true if done, false if steps left on the stack finish it
+     * @throws InterpreterException if any parse call fails
      */
-    void print() {
-        for (StmtNode n: stmts) n.print();
+    boolean parseStmtSeq(Parse p) throws InterpreterException {
+        return parseStmts(p);
     }
 
     /**
-     * Iteratively creates and calls to parse {@code StmtNode} until a terminating {@code Token} is reached.
+     * Parses statements from the next one on, those after one that leaves steps once they are done.
+     */
+    private boolean parseStmts(Parse p) throws InterpreterException {
+        StmtNode stmt;
+        while ((stmt = nextStmt(p.t)) != null) {
+            stmts.add(stmt);
+            int mark = p.mark();
+            if (!stmt.parseStmt(p)) {
+                p.resume(mark, () -> parseStmts(p));
+                return false;
+            }
+        }
+        endStmtSeq();
+        return true;
+    }
+
+    /**
+     * Sets {@code assigns} from the statements, those of each sequence within having theirs already.
+     */
+    private void endStmtSeq() {
+        assigns = 0;
+        for (StmtNode n: stmts)
+            assigns |= n.assignsStmt();
+    }
+
+    /**
+     * Creates the statement the current token starts.
      * @param t {@code Tokenizer} instance
-     * @throws InterpreterException if any recursive parse call fails;
-     *          or any {@code curr} isn't a {@code StmtNode} starting or {@code StmtSeqNode} terminating {@code Token}
-     * @throws EmptySequenceException if {@code this.stmts.isEmpty()} after parsing
+     * @return new statement, or null if the current token ends the sequence
+     * @throws UnexpectedTokenException if the current token neither starts a statement nor ends the sequence
+     */
+    private StmtNode nextStmt(Tokenizer t) throws UnexpectedTokenException {
+        int curr = t.current();
+        switch (t.code(curr)) {
+            case Token.IF:
+                return new StmtNode(prog, StmtNode.StmtType.IF, level + 1, t.line(curr));
+            case Token.WHILE:
+                return new StmtNode(prog, StmtNode.StmtType.LOOP, level + 1, t.line(curr));
+            case Token.READ:
+                return new StmtNode(prog, StmtNode.StmtType.IN, level + 1, t.line(curr));
+            case Token.WRITE:
+                return new StmtNode(prog, StmtNode.StmtType.OUT, level + 1, t.line(curr));
+            case Token.ID:
+                return new StmtNode(prog, StmtNode.StmtType.ASSIGN, level + 1, t.line(curr));
+            case Token.END:
+            case Token.ELSE:
+            case Token.EOF:
+                return null;
+            default:
+                this.raiseUnexpected(t.line(curr), String.format("Expected statement, got '%s'", t.name(curr)));
+                return null;
+        }
+    }
+
+    /**
+     * Executes all {@code StmtNode} by order, and those of every sequence they enter. The sequences entered are
+     * kept on an explicit stack rather than the Java stack, so that nesting depth is bounded by the heap alone:
+     * each entry is a sequence, the index of its next statement, and the statement that entered it, run again by
+     * {@code repeatStmt(Frame)} once the sequence is done. The innermost entry is kept in locals.
+     * @param f frame of the run
+     * @throws InterpreterException if any execution or evaluation failed
+     */
+    void execStmtSeq(Frame f) throws InterpreterException {
+        StmtSeqNode[] seqs = new StmtSeqNode[8];
+        StmtNode[] owners = new StmtNode[8];
+        int[] nexts = new int[8];
+        int depth = 0;
+
+        StmtSeqNode seq = this;
+        StmtNode owner = null;
+        int next = 0;
+        while (true) {
+            if (next == seq.stmts.size()) {
+                StmtSeqNode again = owner == null ? null : owner.repeatStmt(f);
+                if (again != null) {
+                    next = 0;
+                    continue;
+                }
+                if (depth == 0) return;
+                depth--;
+                seq = seqs[depth];
+                owner = owners[depth];
+                next = nexts[depth];
+                continue;
+            }
+
+            StmtNode stmt = seq.stmts.get(next++);
+            StmtSeqNode enter = stmt.execStmt(f);
+            if (enter == null) continue;
+            if (depth == seqs.length) {
+                seqs = Arrays.copyOf(seqs, depth * 2);
+                owners = Arrays.copyOf(owners, depth * 2);
+                nexts = Arrays.copyOf(nexts, depth * 2);
+            }
+            seqs[depth] = seq;
+            owners[depth] = owner;
+            nexts[depth] = next;
+            depth++;
+            seq = enter;
+            owner = stmt;
+            next = 0;
+        }
+    }
+
+    /**
+     * Builds the execution node of this sequence.
+     * @return the only statement's node, or a block of all of them
      */
-    void parseStmtSeq(Tokenizer t) throws InterpreterException {
-        assert(t != null);
+    RunNode specializeStmtSeq() {
+        RunNode[] body = new RunNode[stmts.size()];
+        for (int i = 0; i < body.length; i++) body[i] = stmts.get(i).specializeStmt();
+        return body.length == 1 ? body[0] : new BlockNode(body);
+    }
+
+    /**
+     * Compiles all {@code StmtNode} into one closure running them by order.
+     * @return compiled sequence
+     */
+    Closure.Stmt closureStmtSeq() {
+        Closure.Stmt[] body = new Closure.Stmt[stmts.size()];
+        for (int i = 0; i < body.length; i++) body[i] = stmts.get(i).closureStmt();
+
+        if (body.length == 1) return body[0];
+        if (body.length == 2) {
+            Closure.Stmt first = body[0], second = body[1];
+            return f -> {
+                first.exec(f);
+                second.exec(f);
+            };
+        }
+        return f -> {
+            for (Closure.Stmt stmt : body) stmt.exec(f);
+        };
+    }
+
+    /**
+     * Compiles all {@code StmtNode} by order.
+     * @param a {@code Bytecode.Assembler} instance
+     */
+    void compileStmtSeq(Bytecode.Assembler a) {
+        for (StmtNode n: stmts)
+            n.compileStmt(a);
+    }
+
+    /**
+     * Lowers all {@code StmtNode} by order.
+     * @param b {@code Ir.Builder} instance
+     */
+    void lowerStmtSeq(Ir.Builder b) {
+        for (StmtNode n: stmts)
+            n.lowerStmt(b);
+    }
 
-        Token curr = t.getCurrent();
-        line = curr.line;
-        while (curr.code != Token.EOF) {
-            StmtNode stmt = null;
-            switch (curr.code) {
-                case Token.IF:
-                    stmt = new StmtNode(prog, StmtNode.StmtType.IF, level + 1);
-                    stmt.parseIfLoop(t);
-                    break;
-                case Token.WHILE:
-                    stmt = new StmtNode(prog, StmtNode.StmtType.LOOP, level + 1);
-                    stmt.parseIfLoop(t);
-                    break;
-                case Token.READ:
-                    stmt = new StmtNode(prog, StmtNode.StmtType.IN, level + 1);
-                    stmt.parseInOut(t);
-                    break;
-                case Token.WRITE:
-                    stmt = new StmtNode(prog, StmtNode.StmtType.OUT, level + 1);
-                    stmt.parseInOut(t);
-                    break;
-                case Token.ID:
-                    stmt = new StmtNode(prog, StmtNode.StmtType.ASSIGN, level + 1);
-                    stmt.parseAssign(t);
-                    break;
-                case Token.END:
-                case Token.ELSE:
-                    return;
-                default:
-                    this.raiseUnexpected(curr.line, String.format("Expected statement, got '%s'", curr.name));
+    /**
+     * Visits all {@code StmtNode} by order, from {@code from} on, on a {@code Walk}: a visit may leave steps, for
+     * the sequences within an if or a while or for what an expression or condition nests, and the statements after
+     * it are visited once those are done.
+     * @param w {@code Walk} instance
+     * @param from index of the first statement to visit
+     * @param visit visit to each statement
+     */
+    private void walkStmtSeq(Walk w, int from, Consumer<StmtNode> visit) {
+        for (int i = from; i < stmts.size(); i++) {
+            int mark = w.mark();
+            visit.accept(stmts.get(i));
+            if (w.mark() > mark) {
+                int next = i + 1;
+                if (next < stmts.size()) w.resume(mark, () -> walkStmtSeq(w, next, visit));
+                return;
             }
-            stmts.add(stmt);
-            curr = t.getCurrent();
         }
     }
 
     /**
-     * Recursively executes all {@code StmtNode} by order.
-     * @throws InterpreterException if any recursive execution call failed
+     * Analyzes definite assignment through all {@code StmtNode} by order.
+     * @param w {@code Walk} instance
+     * @param f state before {@code this}, updated to after it once the steps left on {@code w} are done
+     */
+    void analyzeStmtSeq(Walk w, Flow f) {
+        walkStmtSeq(w, 0, n -> n.analyzeStmt(w, f));
+    }
+
+    /**
+     * Analyzes value ranges through all {@code StmtNode} by order.
+     * @param w {@code Walk} instance
+     * @param r holds the state before {@code this}, and after it once the steps left on {@code w} are done
+     */
+    void rangeStmtSeq(Walk w, Range[] r) {
+        walkStmtSeq(w, 0, n -> n.rangeStmt(w, r));
+    }
+
+    /**
+     * Optimizes the loops in all {@code StmtNode}, innermost first.
+     * @param w {@code Walk} instance
+     */
+    void optimizeStmtSeq(Walk w) {
+        w.push(this::endStmtSeq);
+        walkStmtSeq(w, 0, n -> n.optimizeStmt(w));
+    }
+
+    /**
+     * Hoists from this sequence as the body of a loop, then moves each hidden variable of a product right after
+     * the step of its induction variable.
+     * @param w {@code Walk} instance
+     * @param h {@code Hoist} instance
+     */
+    void hoistBody(Walk w, Hoist h) {
+        for (StmtNode n: stmts)
+            n.inductionStmt(h);
+        w.push(() -> {
+            ArrayList<StmtNode> body = new ArrayList<>();
+            for (StmtNode n: stmts) {
+                body.add(n);
+                if (n.stepSlot() >= 0) body.addAll(h.after(n.stepSlot()));
+            }
+            stmts = body;
+            endStmtSeq();
+        });
+        hoistStmtSeq(w, h);
+    }
+
+    /**
+     * Hoists from all {@code StmtNode}.
+     * @param w {@code Walk} instance
+     * @param h {@code Hoist} instance
+     */
+    void hoistStmtSeq(Walk w, Hoist h) {
+        walkStmtSeq(w, 0, n -> n.hoistStmt(w, h));
+    }
+
+    /**
+     * Builds a sequence of statements made while optimizing.
+     * @param p Root {@code ProgNode}
+     * @param l block level
+     * @param stmts statements by order
+     * @return new sequence
+     */
+    static StmtSeqNode of(ProgNode p, int l, List<StmtNode> stmts) {
+        StmtSeqNode seq = new StmtSeqNode(p, l, stmts.get(0).line);
+        seq.stmts.addAll(stmts);
+        seq.endStmtSeq();
+        return seq;
+    }
+
+    /**
+     * Summarizes the loops in all {@code StmtNode}.
+     * @param w {@code Walk} instance
+     */
+    void summarizeStmtSeq(Walk w) {
+        walkStmtSeq(w, 0, n -> n.summarizeStmt(w));
+    }
+
+    /**
+     * Records all {@code StmtNode} as the body of a loop to summarize.
+     * @param s {@code Summary.Builder} instance
+     * @return true if every statement adds to its variable
      */
-    void execStmtSeq() throws InterpreterException {
+    boolean stepStmtSeq(Summary.Builder s) {
         for (StmtNode n: stmts)
-            n.execStmt();
+            if (!n.stepStmt(s)) return false;
+        return true;
+    }
+
+    /**
+     * @return bitmask of the variables any statement in {@code this} may assign
+     */
+    int assignsStmtSeq() {
+        return assigns;
     }
 }
 
@@ -557,6 +1057,11 @@ final class StmtNode extends CoreNode {
      */
     private String assignId;
 
+    /**
+     * Assign type statement slot of {@code assignId}.
+     */
+    private int assignSlot;
+
     /**
      * Assign type statement expression.
      */
@@ -583,31 +1088,48 @@ final class StmtNode extends CoreNode {
     private ArrayList<String> in_outIdList;
 
     /**
-     * Constructor must be called with {@code ProgNode} to reference symbol table.
-     * @param p Root {@code ProgNode}
-     * @param t Type of statement
+     * Slots of {@code in_outIdList}, in the same order.
      */
-    private StmtNode(ProgNode p, StmtType t) {
-        super(p);
-        level = StmtSeqNode.DEFAULT_LEVEL;
-        type = t;
-    }
+    private int[] in_outSlots;
+
+    /**
+     * Out type statement, whether each of {@code in_outIdList} is assigned on every path to it.
+     */
+    private boolean[] in_outProven;
+
+    /**
+     * Loop type statement closed form, or null if it has none.
+     */
+    private Summary summary;
 
     /**
-     * Constructor with alternate level.
+     * Loop type statement, bitmask of the variables assigned on every path into the body.
+     */
+    private int bodyMust;
+
+    /**
+     * Loop type statement, range state at the loop head.
+     */
+    private Range head;
+
+    /**
+     * Constructor must be called with {@code ProgNode} to reference symbol table.
      * @param p Root {@code ProgNode}
      * @param t Type of statement
-     * @param l Alternate level
+     * @param l Block level
+     * @param line line number of its first token
      */
-    StmtNode(ProgNode p, StmtType t, int l) {
-        this(p, t);
-        level = l;
+    StmtNode(ProgNode p, StmtType t, int l, int line) {
+        super(p, l, line);
+        type = t;
     }
 
     /**
-     * Print statement. If statement contains {@code StmtSeqNode}, recursively call print to that node.
+     * Print statement. If statement contains {@code StmtSeqNode}, leaves a step to print that node.
+     * @param w {@code Walk} instance
+     * @param out stream to print to
      */
-    void print() {
+    void print(Walk w, PrintStream out) {
         assert(type != null);
 
         switch (type) {
@@ -616,17 +1138,17 @@ final class StmtNode extends CoreNode {
                 break;
             case IF:
                 out.printf("%sif %s then\n", getIndent(), if_loopCond.getCond());
-                this.if_loopStmtSeq.print();
+                w.push(() -> out.printf("%send;\n", getIndent()));
                 if (this.elseStmtSeq != null) {
-                    out.printf("%selse\n", getIndent());
-                    this.elseStmtSeq.print();
+                    w.push(() -> this.elseStmtSeq.print(w, out));
+                    w.push(() -> out.printf("%selse\n", getIndent()));
                 }
-                out.printf("%send;\n", getIndent());
+                w.push(() -> this.if_loopStmtSeq.print(w, out));
                 break;
             case LOOP:
                 out.printf("%swhile %s loop\n", getIndent(), if_loopCond.getCond());
-                this.if_loopStmtSeq.print();
-                out.printf("%send;\n", getIndent());
+                w.push(() -> out.printf("%send;\n", getIndent()));
+                w.push(() -> this.if_loopStmtSeq.print(w, out));
                 break;
             case IN:
                 out.printf("%sread %s;\n", getIndent(), String.join(", ", in_outIdList));
@@ -640,36 +1162,69 @@ final class StmtNode extends CoreNode {
     }
 
     /**
-     * Parse if type statement.
-     * @param t {@code Tokenizer} instance
-     * @throws InterpreterException if any {@code matchConsume()} failed or any recursive parse call failed.
+     * Parse statement by {@code type}, on a {@code Parse} stack.
+     * @param p {@code Parse} instance
+     * @return true if done, false if steps left on the stack finish it
+     * @throws InterpreterException if any {@code matchConsume()} failed or any parse call failed.
      */
-    void parseIfLoop(Tokenizer t) throws InterpreterException {
-        assert type == StmtType.IF || type == StmtType.LOOP;
-
-        Token tt;
-
-        if (type == StmtType.IF) tt = matchConsume(t, Token.IF);
-        else tt = matchConsume(t, Token.WHILE);
-        line = tt.line;
+    boolean parseStmt(Parse p) throws InterpreterException {
+        switch (type) {
+            case IF:
+            case LOOP:
+                return parseIfLoop(p);
+            case IN:
+            case OUT:
+                parseInOut(p.t);
+                return true;
+            case ASSIGN:
+                return parseAssign(p);
+            default:
+                throw new IllegalStateException();
+        }
+    }
 
-        if_loopCond = new CondNode(prog);
-        if_loopCond.parseCond(t);
+    /**
+     * Parse if or loop type statement, on a {@code Parse} stack: its sequences are always left to it.
+     * @param p {@code Parse} instance
+     * @return false, steps left on the stack finish it
+     * @throws InterpreterException if any {@code matchConsume()} failed or any parse call failed.
+     */
+    boolean parseIfLoop(Parse p) throws InterpreterException {
+        assert type == StmtType.IF || type == StmtType.LOOP;
 
-        if (type == StmtType.IF) matchConsume(t, Token.THEN);
-        else matchConsume(t, Token.LOOP);
+        Tokenizer t = p.t;
+        matchConsume(t, type == StmtType.IF ? Token.IF : Token.WHILE);
 
-        if_loopStmtSeq = new StmtSeqNode(prog, level);
-        if_loopStmtSeq.parseStmtSeq(t);
+        if_loopCond = new CondNode(prog, t.line(t.current()));
+        int mark = p.mark();
+        if (!if_loopCond.parseCond(p)) p.resume(mark, () -> parseBody(p));
+        else parseBody(p);
+        return false;
+    }
 
-        if (type == StmtType.IF && testConsume(t, Token.ELSE)) {
-            matchConsume(t, Token.ELSE);
-            elseStmtSeq = new StmtSeqNode(prog, level);
-            elseStmtSeq.parseStmtSeq(t);
-        }
+    /**
+     * Parses the rest of an if or a while statement after its condition.
+     */
+    private void parseBody(Parse p) throws InterpreterException {
+        Tokenizer t = p.t;
+        matchConsume(t, type == StmtType.IF ? Token.THEN : Token.LOOP);
 
-        matchConsume(t, Token.END);
-        matchConsume(t, Token.SEMICOL);
+        if_loopStmtSeq = new StmtSeqNode(prog, level, t.line(t.current()));
+        p.push(() -> {
+            if (type == StmtType.IF && testConsume(t, Token.ELSE)) {
+                matchConsume(t, Token.ELSE);
+                elseStmtSeq = new StmtSeqNode(prog, level, t.line(t.current()));
+                p.push(() -> {
+                    matchConsume(t, Token.END);
+                    matchConsume(t, Token.SEMICOL);
+                });
+                p.push(() -> elseStmtSeq.parseStmtSeq(p));
+            } else {
+                matchConsume(t, Token.END);
+                matchConsume(t, Token.SEMICOL);
+            }
+        });
+        p.push(() -> if_loopStmtSeq.parseStmtSeq(p));
     }
 
     /**
@@ -680,18 +1235,19 @@ final class StmtNode extends CoreNode {
     void parseInOut(Tokenizer t) throws InterpreterException {
         assert type == StmtType.IN || type == StmtType.OUT;
 
-        Token tt;
-
-        if (type == StmtType.IN) tt = matchConsume(t, Token.READ);
-        else tt = matchConsume(t, Token.WRITE);
-        line = tt.line;
+        if (type == StmtType.IN) matchConsume(t, Token.READ);
+        else matchConsume(t, Token.WRITE);
 
         in_outIdList = new ArrayList<>();
+        in_outSlots = new int[4];
 
         do {
-            Token curr = matchConsume(t, Token.ID);
-            checkUndeclared(curr);
-            in_outIdList.add(curr.name);
+            int curr = matchConsume(t, Token.ID);
+            String name = t.name(curr);
+            if (in_outIdList.size() == in_outSlots.length)
+                in_outSlots = Arrays.copyOf(in_outSlots, in_outSlots.length * 2);
+            in_outSlots[in_outIdList.size()] = checkUndeclared(name, t.line(curr));
+            in_outIdList.add(name);
 
             if (!testConsume(t, Token.COMMA)) break;
             matchConsume(t, Token.COMMA);
@@ -701,95 +1257,556 @@ final class StmtNode extends CoreNode {
     }
 
     /**
-     * Parse assign type statement.
-     * @param t {@code Tokenizer} instance
-     * @throws InterpreterException if any {@code matchConsume()} failed or any recursive parse call failed.
+     * Parse assign type statement, on a {@code Parse} stack.
+     * @param p {@code Parse} instance
+     * @return true if done, false if steps left on the stack finish it
+     * @throws InterpreterException if any {@code matchConsume()} failed or any parse call failed.
      */
-    void parseAssign(Tokenizer t) throws InterpreterException {
+    boolean parseAssign(Parse p) throws InterpreterException {
         assert type == StmtType.ASSIGN;
 
-        Token curr = matchConsume(t, Token.ID);
-        checkUndeclared(curr);
-        assignId = curr.name;
-        line = curr.line;
+        Tokenizer t = p.t;
+        int curr = matchConsume(t, Token.ID);
+        assignId = t.name(curr);
+        assignSlot = checkUndeclared(assignId, line);
 
         matchConsume(t, Token.ASSIGN);
 
-        assignExp = new ExpNode(prog);
-        assignExp.parseExp(t);
-
+        assignExp = new ExpNode(prog, t.line(t.current()));
+        int mark = p.mark();
+        if (!assignExp.parseExp(p)) {
+            p.resume(mark, () -> matchConsume(t, Token.SEMICOL));
+            return false;
+        }
         matchConsume(t, Token.SEMICOL);
+        return true;
     }
 
     /**
-     * Recursively execute by {@code type}.
-     * @throws InterpreterException if any recursive execution or evaluation failed
+     * Execute by {@code type}, up to the sequence an if or a while enters, which {@code StmtSeqNode.execStmtSeq(Frame)}
+     * runs.
+     * @param f frame of the run
+     * @return sequence to run next, or null if none
+     * @throws InterpreterException if any execution or evaluation failed
      */
-    void execStmt() throws InterpreterException {
+    StmtSeqNode execStmt(Frame f) throws InterpreterException {
         switch (type) {
             case IF:
                 assert if_loopCond != null;
 
-                if (if_loopCond.evalCond())
-                    if_loopStmtSeq.execStmtSeq();
-                else if (elseStmtSeq != null)
-                    elseStmtSeq.execStmtSeq();
-                break;
+                return if_loopCond.evalCond(f) ? if_loopStmtSeq : elseStmtSeq;
             case LOOP:
                 assert if_loopCond != null;
 
-                while (if_loopCond.evalCond())
-                    if_loopStmtSeq.execStmtSeq();
-                break;
+                if (summary != null) summary.advance(f);
+                return repeatStmt(f);
             case IN:
                 assert in_outIdList != null;
 
-                Scanner sc = new Scanner(System.in);
-                for (String var: in_outIdList) {
-                    assert prog.vars.containsKey(var);
-
-                    String input;
-                    int value;
-                    do {
-                        out.print(var + " =? ");
-                        input = sc.nextLine();
-                        try {
-                            value = Integer.parseInt(input.trim()); // not utf-8 safe
-                            break;
-                        } catch (NumberFormatException e) {
-                            err.println("Invalid input, please enter integer from " + INT_MIN +
-                                    " to " + INT_MAX + " inclusive" );
-                        }
-                    } while (true);
-                    prog.vars.put(var, value);
-                }
+                int[] values = f.read(in_outIdList.toArray(new String[0]));
+                for (int i = 0; i < values.length; i++)
+                    f.store(in_outSlots[i], values[i]);
                 break;
             case OUT:
                 assert in_outIdList != null;
 
-                for (String var: in_outIdList) {
-                    assert prog.vars.containsKey(var);
-
-                    if (prog.vars.get(var) != null) out.println(var + " = " + prog.vars.get(var));
-                    else raiseInterpreter(line, new UninitializedException("Using uninitialized variable " + var));
+                for (int i = 0; i < in_outIdList.size(); i++) {
+                    String var = in_outIdList.get(i);
+                    f.write(var, in_outProven[i] ? f.values[in_outSlots[i]] : f.load(in_outSlots[i], var, line));
                 }
                 break;
             case ASSIGN:
-                assert prog.vars.containsKey(assignId);
-
-                prog.vars.put(assignId, assignExp.evalExp());
+                f.store(assignSlot, assignExp.evalExp(f));
                 break;
             default:
                 throw new IllegalStateException();
         }
+        return null;
     }
 
     /**
-     * Statement type enums as defined by CORE specification.
+     * Runs statement again once the sequence it entered is done: a while tests its condition again.
+     * @param f frame of the run
+     * @return sequence to run next, or null if none
+     * @throws InterpreterException if the condition failed
      */
-    enum StmtType {
-        ASSIGN,
-        IF,
+    StmtSeqNode repeatStmt(Frame f) throws InterpreterException {
+        return type == StmtType.LOOP && if_loopCond.evalCond(f) ? if_loopStmtSeq : null;
+    }
+
+    /**
+     * Builds the execution node for {@code type}. {@code X = X + c} and {@code X = X - c} become increments.
+     * @return execution node
+     */
+    RunNode specializeStmt() {
+        switch (type) {
+            case IF:
+                return new IfNode(if_loopCond.specializeCond(), if_loopStmtSeq.specializeStmtSeq(),
+                        elseStmtSeq == null ? null : elseStmtSeq.specializeStmtSeq());
+            case LOOP:
+                if (summary != null)
+                    return new SummaryWhileNode(summary, if_loopCond.specializeCond(),
+                            if_loopStmtSeq.specializeStmtSeq());
+                return new WhileNode(if_loopCond.specializeCond(), if_loopStmtSeq.specializeStmtSeq());
+            case IN:
+                return new ReadNode(in_outIdList.toArray(new String[0]), Arrays.copyOf(in_outSlots, in_outIdList.size()));
+            case OUT:
+                return new WriteNode(in_outIdList.toArray(new String[0]),
+                        Arrays.copyOf(in_outSlots, in_outIdList.size()), in_outProven, line);
+            case ASSIGN: {
+                ExprNode exp = assignExp.specializeExp();
+                boolean add = exp instanceof AddNode || exp instanceof IntAddNode;
+                boolean sub = exp instanceof SubNode || exp instanceof IntSubNode;
+                if ((add || sub) && ((ArithNode) exp).right instanceof ConstFac) {
+                    ArithNode op = (ArithNode) exp;
+                    int c = ((ConstFac) op.right).value;
+                    int delta = add ? c : -c;
+                    boolean checked = exp instanceof AddNode || exp instanceof SubNode;
+                    if (op.left instanceof VarFac && ((VarFac) op.left).slot == assignSlot)
+                        return new IncrementNode((VarFac) op.left, delta, op.text, op.line);
+                    if (op.left instanceof InitVarFac && ((InitVarFac) op.left).slot == assignSlot)
+                        return checked ? new InitIncrementNode(assignSlot, delta, op.text, op.line)
+                                : new IntIncrementNode(assignSlot, delta);
+                }
+                return new AssignNode(assignSlot, exp);
+            }
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Compiles into a closure for {@code type}.
+     * @return compiled statement
+     */
+    Closure.Stmt closureStmt() {
+        switch (type) {
+            case IF: {
+                Closure.Bool cond = if_loopCond.closureCond();
+                Closure.Stmt then = if_loopStmtSeq.closureStmtSeq();
+                if (elseStmtSeq == null) return f -> {
+                    if (cond.test(f)) then.exec(f);
+                };
+                Closure.Stmt otherwise = elseStmtSeq.closureStmtSeq();
+                return f -> {
+                    if (cond.test(f)) then.exec(f);
+                    else otherwise.exec(f);
+                };
+            }
+            case LOOP: {
+                Closure.Bool cond = if_loopCond.closureCond();
+                Closure.Stmt body = if_loopStmtSeq.closureStmtSeq();
+                if (summary != null) {
+                    Summary s = summary;
+                    return f -> {
+                        s.advance(f);
+                        while (cond.test(f)) body.exec(f);
+                    };
+                }
+                return f -> {
+                    while (cond.test(f)) body.exec(f);
+                };
+            }
+            case IN: {
+                String[] names = in_outIdList.toArray(new String[0]);
+                int[] slots = Arrays.copyOf(in_outSlots, names.length);
+                return f -> {
+                    int[] values = f.read(names);
+                    for (int i = 0; i < values.length; i++) f.store(slots[i], values[i]);
+                };
+            }
+            case OUT: {
+                String[] names = in_outIdList.toArray(new String[0]);
+                int[] slots = Arrays.copyOf(in_outSlots, names.length);
+                boolean[] proven = in_outProven;
+                int l = line;
+                return f -> {
+                    for (int i = 0; i < names.length; i++)
+                        f.write(names[i], proven[i] ? f.values[slots[i]] : f.load(slots[i], names[i], l));
+                };
+            }
+            case ASSIGN: {
+                Closure.Int exp = assignExp.closureExp();
+                int slot = assignSlot;
+                return f -> f.store(slot, exp.eval(f));
+            }
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Compiles by {@code type}. A loop tests its condition at the bottom, so each iteration takes one branch.
+     * @param a {@code Bytecode.Assembler} instance
+     */
+    void compileStmt(Bytecode.Assembler a) {
+        switch (type) {
+            case IF: {
+                int otherwise = a.label();
+                int end = a.label();
+                if_loopCond.compileCond(a, otherwise, false);
+                if_loopStmtSeq.compileStmtSeq(a);
+                if (elseStmtSeq != null) {
+                    a.jump(end);
+                    a.bind(otherwise);
+                    elseStmtSeq.compileStmtSeq(a);
+                } else {
+                    a.bind(otherwise);
+                }
+                a.bind(end);
+                break;
+            }
+            case LOOP: {
+                int body = a.label();
+                int test = a.label();
+                a.jump(test);
+                a.bind(body);
+                if_loopStmtSeq.compileStmtSeq(a);
+                a.bind(test);
+                if_loopCond.compileCond(a, body, true);
+                break;
+            }
+            case IN:
+                a.io(Bytecode.READ, in_outIdList, in_outSlots, line);
+                break;
+            case OUT:
+                a.io(Bytecode.WRITE, in_outIdList, in_outSlots, line);
+                break;
+            case ASSIGN:
+                assignExp.compileExp(a);
+                a.store(assignSlot);
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Lowers statement. A write loads and writes its variables one at a time, as {@code execStmt(Frame)} does.
+     * @param b {@code Ir.Builder} instance
+     */
+    void lowerStmt(Ir.Builder b) {
+        switch (type) {
+            case IF: {
+                Ir.Cond cond = if_loopCond.lowerCond(b);
+                b.open();
+                if_loopStmtSeq.lowerStmtSeq(b);
+                Ir.Block then = b.close();
+                b.open();
+                if (elseStmtSeq != null) elseStmtSeq.lowerStmtSeq(b);
+                Ir.Block otherwise = b.close();
+                b.add(new Ir.If(cond, then, otherwise));
+                break;
+            }
+            case LOOP: {
+                Ir.Cond cond = if_loopCond.lowerCond(b);
+                b.open();
+                if_loopStmtSeq.lowerStmtSeq(b);
+                b.add(new Ir.While(cond, b.close()));
+                break;
+            }
+            case IN:
+                b.add(new Ir.Read(in_outIdList.toArray(new String[0]), Arrays.copyOf(in_outSlots, in_outIdList.size())));
+                break;
+            case OUT:
+                for (int i = 0; i < in_outIdList.size(); i++)
+                    b.write(in_outSlots[i], b.load(in_outSlots[i], line, !in_outProven[i]), line);
+                break;
+            case ASSIGN:
+                b.store(assignSlot, assignExp.lowerExp(b), line);
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Analyzes definite assignment through statement, marking the reads that need no check. A loop body starts
+     * from the state after the condition, plus every variable it may assign for {@code may}; variables
+     * assigned on every path before the loop stay so on every later iteration.
+     * @param w {@code Walk} instance
+     * @param f state before {@code this}, updated to after it once the steps left on {@code w} are done
+     */
+    void analyzeStmt(Walk w, Flow f) {
+        prog.nest(level, line);
+        switch (type) {
+            case IF: {
+                int mark = w.mark();
+                if_loopCond.analyzeCond(w, f);
+                w.then(mark, () -> {
+                    prog.nest(level + if_loopCond.depth, line);
+                    Flow then = f.copy();
+                    Flow otherwise = f.copy();
+                    w.push(() -> f.join(then, otherwise));
+                    if (elseStmtSeq != null) w.push(() -> elseStmtSeq.analyzeStmtSeq(w, otherwise));
+                    w.push(() -> if_loopStmtSeq.analyzeStmtSeq(w, then));
+                });
+                break;
+            }
+            case LOOP: {
+                f.loop = if_loopStmtSeq.assignsStmtSeq();
+                int mark = w.mark();
+                if_loopCond.analyzeCond(w, f);
+                w.then(mark, () -> {
+                    prog.nest(level + if_loopCond.depth, line);
+                    f.may |= f.loop;
+                    f.loop = 0;
+                    bodyMust = f.must;
+                    Flow body = f.copy();
+                    w.push(() -> if_loopStmtSeq.analyzeStmtSeq(w, body));
+                });
+                break;
+            }
+            case IN:
+                for (int i = 0; i < in_outIdList.size(); i++)
+                    f.assign(in_outSlots[i]);
+                break;
+            case OUT:
+                in_outProven = new boolean[in_outIdList.size()];
+                for (int i = 0; i < in_outProven.length; i++)
+                    in_outProven[i] = analyzeUse(f, in_outSlots[i], in_outIdList.get(i), line);
+                break;
+            case ASSIGN: {
+                int mark = w.mark();
+                assignExp.analyzeExp(w, f);
+                w.then(mark, () -> {
+                    prog.nest(level + assignExp.depth, line);
+                    f.assign(assignSlot);
+                });
+                break;
+            }
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Analyzes value ranges through statement, marking the arithmetic that cannot overflow, see {@code Range}.
+     * @param w {@code Walk} instance
+     * @param r holds the state before {@code this}, and after it once the steps left on {@code w} are done
+     */
+    void rangeStmt(Walk w, Range[] r) {
+        switch (type) {
+            case IF: {
+                Range[] c = new Range[2];
+                int mark = w.mark();
+                if_loopCond.rangeCond(w, r[0], c);
+                w.then(mark, () -> {
+                    Range[] then = {c[0]}, otherwise = {c[1]};
+                    w.push(() -> r[0] = Range.join(then[0], otherwise[0]));
+                    if (elseStmtSeq != null) w.push(() -> elseStmtSeq.rangeStmtSeq(w, otherwise));
+                    w.push(() -> if_loopStmtSeq.rangeStmtSeq(w, then));
+                });
+                break;
+            }
+            case LOOP:
+                r[0].loop(if_loopStmtSeq.assignsStmtSeq(), (head, done) -> {
+                    this.head = head;
+                    Range[] c = new Range[2];
+                    int mark = w.mark();
+                    if_loopCond.rangeCond(w, head, c);
+                    w.then(mark, () -> {
+                        Range[] body = {c[0]};
+                        w.push(() -> done.accept(new Range[]{c[1], body[0]}));
+                        w.push(() -> if_loopStmtSeq.rangeStmtSeq(w, body));
+                    });
+                }, after -> r[0] = after);
+                break;
+            case IN: {
+                Range after = r[0].copy();
+                after.havoc(assignsStmt());
+                r[0] = after;
+                break;
+            }
+            case OUT:
+                break;
+            case ASSIGN: {
+                long[][] v = new long[1][];
+                int mark = w.mark();
+                assignExp.rangeExp(w, r[0], v, 0);
+                w.then(mark, () -> {
+                    Range after = r[0].copy();
+                    after.set(assignSlot, v[0]);
+                    r[0] = after;
+                });
+                break;
+            }
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Builds an assign type statement made while optimizing.
+     * @param p Root {@code ProgNode}
+     * @param slot variable assigned
+     * @param name its name
+     * @param exp expression assigned
+     * @return new statement
+     */
+    static StmtNode assign(ProgNode p, int slot, String name, ExpNode exp) {
+        StmtNode stmt = new StmtNode(p, StmtType.ASSIGN, StmtSeqNode.DEFAULT_LEVEL, exp.line);
+        stmt.assignId = name;
+        stmt.assignSlot = slot;
+        stmt.assignExp = exp;
+        return stmt;
+    }
+
+    /**
+     * Optimizes the loops inside, then loop type statement, see {@code Hoist}. A loop with anything to compute
+     * first becomes {@code if cond then <computations> while cond loop <body> end; end;}. A loop with a summary
+     * is left alone.
+     * @param w {@code Walk} instance
+     */
+    void optimizeStmt(Walk w) {
+        switch (type) {
+            case IF:
+                if (elseStmtSeq != null) w.push(() -> elseStmtSeq.optimizeStmtSeq(w));
+                w.push(() -> if_loopStmtSeq.optimizeStmtSeq(w));
+                break;
+            case LOOP:
+                if (summary == null && head != null) w.push(() -> optimizeLoop(w));
+                w.push(() -> if_loopStmtSeq.optimizeStmtSeq(w));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Optimizes loop type statement, once the loops inside are.
+     * @param w {@code Walk} instance
+     */
+    private void optimizeLoop(Walk w) {
+        Range[] c = new Range[2];
+        int mark = w.mark();
+        if_loopCond.rangeCond(w, head, c);
+        w.then(mark, () -> hoistLoop(w, new Hoist(prog, if_loopStmtSeq.assignsStmtSeq(), bodyMust, head, c[0])));
+    }
+
+    /**
+     * Hoists from the body of loop type statement, and puts what is hoisted before it.
+     * @param w {@code Walk} instance
+     * @param h {@code Hoist} instance, over the states entering the loop
+     */
+    private void hoistLoop(Walk w, Hoist h) {
+        w.push(() -> {
+            if (h.pre.isEmpty()) return;
+
+            prog.depth++; // the loop and all it nests go one level down, under the if
+            StmtNode loop = new StmtNode(prog, StmtType.LOOP, level, line);
+            loop.if_loopCond = if_loopCond;
+            loop.if_loopStmtSeq = if_loopStmtSeq;
+            List<StmtNode> then = new ArrayList<>(h.pre);
+            then.add(loop);
+            type = StmtType.IF;
+            if_loopStmtSeq = StmtSeqNode.of(prog, level, then);
+        });
+        w.push(() -> if_loopStmtSeq.hoistBody(w, h));
+    }
+
+    /**
+     * Records statement as one of the body of a loop to optimize.
+     * @param h {@code Hoist} instance
+     */
+    void inductionStmt(Hoist h) {
+        int slot = stepSlot();
+        h.statement(slot, slot < 0 ? 0 : assignExp.stepValue(), assignsStmt());
+    }
+
+    /**
+     * @return slot of the variable if {@code this} adds a constant to it or subtracts one from it, else -1
+     */
+    int stepSlot() {
+        return type == StmtType.ASSIGN && assignExp.isStep(assignSlot) ? assignSlot : -1;
+    }
+
+    /**
+     * Hoists from the expressions in statement, see {@code Hoist}.
+     * @param w {@code Walk} instance
+     * @param h {@code Hoist} instance
+     */
+    void hoistStmt(Walk w, Hoist h) {
+        switch (type) {
+            case IF:
+                if (elseStmtSeq != null) w.push(() -> elseStmtSeq.hoistStmtSeq(w, h));
+                w.push(() -> if_loopStmtSeq.hoistStmtSeq(w, h));
+                break;
+            case LOOP:
+                w.push(() -> if_loopStmtSeq.hoistStmtSeq(w, h));
+                break;
+            case ASSIGN: {
+                boolean[] invariant = new boolean[1];
+                int mark = w.mark();
+                assignExp.hoistExp(w, h, invariant, 0);
+                w.then(mark, () -> {
+                    if (invariant[0]) assignExp.hoistOut(w, h);
+                });
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Summarizes loop type statement if it has a closed form, see {@code Summary}, and the loops inside.
+     * @param w {@code Walk} instance
+     */
+    void summarizeStmt(Walk w) {
+        switch (type) {
+            case IF:
+                if (elseStmtSeq != null) w.push(() -> elseStmtSeq.summarizeStmtSeq(w));
+                w.push(() -> if_loopStmtSeq.summarizeStmtSeq(w));
+                break;
+            case LOOP:
+                w.push(() -> {
+                    Summary.Builder s = new Summary.Builder();
+                    if (if_loopCond.summarizeCond(s) && if_loopStmtSeq.stepStmtSeq(s)) summary = s.build();
+                });
+                w.push(() -> if_loopStmtSeq.summarizeStmtSeq(w));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Records statement as part of the body of a loop to summarize.
+     * @param s {@code Summary.Builder} instance
+     * @return true if {@code this} assigns its variable plus or minus a constant or variable
+     */
+    boolean stepStmt(Summary.Builder s) {
+        return type == StmtType.ASSIGN && assignExp.stepExp(assignSlot, s);
+    }
+
+    /**
+     * @return bitmask of the variables {@code this} may assign
+     */
+    int assignsStmt() {
+        switch (type) {
+            case IF:
+                return if_loopStmtSeq.assignsStmtSeq() | (elseStmtSeq == null ? 0 : elseStmtSeq.assignsStmtSeq());
+            case LOOP:
+                return if_loopStmtSeq.assignsStmtSeq();
+            case IN: {
+                int mask = 0;
+                for (int i = 0; i < in_outIdList.size(); i++) mask |= 1 << in_outSlots[i];
+                return mask;
+            }
+            case ASSIGN:
+                return 1 << assignSlot;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Statement type enums as defined by CORE specification.
+     */
+    enum StmtType {
+        ASSIGN,
+        IF,
         LOOP,
         IN,
         OUT
@@ -797,230 +1814,880 @@ final class StmtNode extends CoreNode {
 }
 
 /**
- * Sub-line level expression node.
+ * Sub-line level expression node. The right recursive plus/minus chain of the grammar is kept flat, terms in one
+ * array and the operator after each in another, so that no pass over it recurses along its length. It still
+ * groups from the right: terms are evaluated left to right, then each operator from the last one back applies to
+ * its term and the result of everything to its right, and fails with the text of that part.
+ */
+final class ExpNode extends CoreNode implements CoreNode.Chain, Eval.Node {
+    /**
+     * Terms, left to right.
+     */
+    private TermNode[] terms;
+
+    /**
+     * Operator after each term but the last, plus or minus.
+     */
+    private ExpType[] ops;
+
+    /**
+     * Whether each plus/minus is known not to overflow, see {@code Range}.
+     */
+    private boolean[] safe;
+
+    /**
+     * Levels of parenthesized expressions nested in this one, set by {@code analyzeExp}, and kept as a bound by
+     * the parts hoisting makes of it.
+     */
+    int depth;
+
+    /**
+     * Constructor must be called with root {@code ProgNode} to access symbol table.
+     * @param p Root {@code ProgNode}
+     * @param l line number of its first token
+     */
+    ExpNode(ProgNode p, int l) {
+        super(p, 1, l);
+    }
+
+    /**
+     * Return a sub-line string representation of {@code this}
+     * @return formatted expression representation defined by PA2 statement
+     */
+    String getExp() {
+        assert(terms != null);
+
+        return getExp(0);
+    }
+
+    /**
+     * @param from index of a term
+     * @return text of the expression the grammar makes of the terms from {@code from} on
+     */
+    private String getExp(int from) {
+        return text((w, sb) -> textExp(w, sb, from));
+    }
+
+    /**
+     * Appends the text of the expression the terms from {@code from} on make.
+     * @param w {@code Walk} instance
+     * @param sb text so far, appended to once the steps left on {@code w} are done
+     * @param from index of a term
+     */
+    void textExp(Walk w, StringBuilder sb, int from) {
+        walkExp(w, from, i -> {
+            if (i > from) sb.append(ops[i - 1] == ExpType.PLUS ? " + " : " - ");
+            terms[i].textTerm(w, sb, 0);
+        });
+    }
+
+    /**
+     * Visits the terms by order, from {@code from} on, on a {@code Walk}: a visit may leave steps for the
+     * parenthesized expressions within its term, and the terms after it are visited once those are done.
+     * @param w {@code Walk} instance
+     * @param from index of the first term to visit
+     * @param visit visit to each term, by index
+     */
+    private void walkExp(Walk w, int from, IntConsumer visit) {
+        for (int i = from; i < terms.length; i++) {
+            int mark = w.mark();
+            visit.accept(i);
+            if (w.mark() > mark) {
+                int next = i + 1;
+                if (next < terms.length) w.resume(mark, () -> walkExp(w, next, visit));
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getExp();
+    }
+
+    /**
+     * Parse expression node, one term after another, on a {@code Parse} stack.
+     * @param p {@code Parse} instance
+     * @return true if done, false if steps left on the stack finish it
+     * @throws InterpreterException if {@code matchConsume()} failed or any term parse call failed.
+     */
+    boolean parseExp(Parse p) throws InterpreterException {
+        return parseTerms(p, new ArrayList<>(), new ArrayList<>());
+    }
+
+    /**
+     * Parses terms from the next one on, those after one that leaves steps once they are done.
+     */
+    private boolean parseTerms(Parse p, List<TermNode> terms, List<ExpType> ops) throws InterpreterException {
+        do {
+            TermNode term = new TermNode(prog, p.t.line(p.t.current()));
+            terms.add(term);
+            int mark = p.mark();
+            if (!term.parseTerm(p)) {
+                p.resume(mark, () -> {
+                    if (moreTerms(p.t, ops)) parseTerms(p, terms, ops);
+                    else endExp(terms, ops);
+                });
+                return false;
+            }
+        } while (moreTerms(p.t, ops));
+        endExp(terms, ops);
+        return true;
+    }
+
+    /**
+     * Consumes the operator before another term, if any.
+     * @return true if one was consumed, and added to {@code ops}
+     */
+    private boolean moreTerms(Tokenizer t, List<ExpType> ops) throws InterpreterException {
+        if (testConsume(t, Token.PLUS)) {
+            ops.add(ExpType.PLUS);
+            matchConsume(t, Token.PLUS);
+        } else if (testConsume(t, Token.MINUS)) {
+            ops.add(ExpType.MINUS);
+            matchConsume(t, Token.MINUS);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private void endExp(List<TermNode> terms, List<ExpType> ops) {
+        this.terms = terms.toArray(new TermNode[0]);
+        this.ops = ops.toArray(new ExpType[0]);
+        safe = new boolean[this.ops.length];
+    }
+
+    /**
+     * Evaluates expression, terms left to right and then operators from the right, on an {@code Eval} stack if
+     * nested deeper than {@code SHALLOW}.
+     * @param f frame of the run
+     * @return int value from evaluation
+     * @throws InterpreterException if overflow or underflow occurred during evaluation,
+     *                              or any term evaluation failed.
+     */
+    int evalExp(Frame f) throws InterpreterException {
+        if (depth > SHALLOW) return new Eval(f).run(this);
+        if (ops.length == 0) return terms[0].evalTerm(f);
+        if (ops.length == 1) {
+            int left = terms[0].evalTerm(f);
+            return apply(0, left, terms[1].evalTerm(f));
+        }
+
+        int[] values = new int[terms.length];
+        for (int i = 0; i < terms.length; i++) values[i] = terms[i].evalTerm(f);
+        return fold(values);
+    }
+
+    @Override
+    public void resume(Eval e, int at) throws InterpreterException {
+        for (int i = at; i < terms.length; i++) {
+            if (terms[i].depth > SHALLOW) {
+                e.call(i + 1, terms[i]);
+                return;
+            }
+            e.push(terms[i].evalTerm(e.f));
+        }
+        e.done(fold(e.pop(terms.length)));
+    }
+
+    @Override
+    public int apply(int i, int left, int right) throws InterpreterException {
+        if (safe[i]) return ops[i] == ExpType.PLUS ? left + right : left - right;
+        long value = ops[i] == ExpType.PLUS ? (long) left + right : (long) left - right;
+
+        if (value > INT_MAX)
+            raiseInterpreter(terms[i].line, new OverflowUnderflowException(getExp(i) + " results in overflow"));
+        else if (value < INT_MIN)
+            raiseInterpreter(terms[i].line, new OverflowUnderflowException(getExp(i) + " results in underflow"));
+        return (int) value;
+    }
+
+    /**
+     * Builds the execution node of this expression: a binary node for one operator, a {@code ChainNode} for more.
+     * @return execution node
+     */
+    ExprNode specializeExp() {
+        if (ops.length == 0) return terms[0].specializeTerm();
+        if (ops.length == 1) {
+            ExprNode left = terms[0].specializeTerm(), right = terms[1].specializeTerm();
+            if (ops[0] == ExpType.PLUS)
+                return safe[0] ? new IntAddNode(left, right, getExp(), line) : new AddNode(left, right, getExp(), line);
+            return safe[0] ? new IntSubNode(left, right, getExp(), line) : new SubNode(left, right, getExp(), line);
+        }
+
+        ExprNode[] operands = new ExprNode[terms.length];
+        for (int i = 0; i < terms.length; i++) operands[i] = terms[i].specializeTerm();
+        return new ChainNode(operands, this);
+    }
+
+    /**
+     * Compiles expression into a closure, evaluating operands left to right like {@code evalExp(Frame)}.
+     * @return compiled expression
+     */
+    Closure.Int closureExp() {
+        if (ops.length == 0) return terms[0].closureTerm();
+        if (ops.length > 1) {
+            Closure.Int[] operands = new Closure.Int[terms.length];
+            for (int i = 0; i < terms.length; i++) operands[i] = terms[i].closureTerm();
+            return f -> Closure.fold(operands, this, f);
+        }
+
+        Closure.Int left = terms[0].closureTerm(), right = terms[1].closureTerm();
+        if (safe[0])
+            return ops[0] == ExpType.PLUS ? f -> left.eval(f) + right.eval(f) : f -> left.eval(f) - right.eval(f);
+        String text = getExp();
+        int l = line;
+        if (ops[0] == ExpType.PLUS)
+            return f -> Closure.checked((long) left.eval(f) + right.eval(f), text, l);
+        return f -> Closure.checked((long) left.eval(f) - right.eval(f), text, l);
+    }
+
+    /**
+     * Compiles expression. Operands are pushed left to right and combined from the right, as {@code evalExp(Frame)} does.
+     * @param a {@code Bytecode.Assembler} instance
+     */
+    void compileExp(Bytecode.Assembler a) {
+        for (TermNode term : terms) term.compileTerm(a);
+        for (int i = ops.length - 1; i >= 0; i--) {
+            int op = ops[i] == ExpType.PLUS ? Bytecode.ADD : Bytecode.SUB;
+            if (safe[i]) a.unchecked(op);
+            else a.arithmetic(op, this, i, terms[i].line);
+        }
+    }
+
+    /**
+     * Lowers expression, in the same order as {@code compileExp()}. Only checked operations carry {@code this}, for
+     * the text of their message.
+     * @param b {@code Ir.Builder} instance
+     * @return register holding the result
+     */
+    int lowerExp(Ir.Builder b) {
+        int[] operands = new int[terms.length];
+        for (int i = 0; i < terms.length; i++) operands[i] = terms[i].lowerTerm(b);
+        int value = operands[ops.length];
+        for (int i = ops.length - 1; i >= 0; i--)
+            value = b.arithmetic(ops[i] == ExpType.PLUS ? Ir.ADD : Ir.SUB, operands[i], value,
+                    safe[i] ? null : this, i, terms[i].line, !safe[i]);
+        return value;
+    }
+
+    /**
+     * Analyzes definite assignment through expression, operands left to right, and sets {@code depth}.
+     * @param w {@code Walk} instance
+     * @param f state before {@code this}, updated to after it once the steps left on {@code w} are done
+     */
+    void analyzeExp(Walk w, Flow f) {
+        int mark = w.mark();
+        walkExp(w, 0, i -> terms[i].analyzeTerm(w, f));
+        w.then(mark, () -> {
+            for (TermNode term : terms) depth = Math.max(depth, term.depth);
+        });
+    }
+
+    /**
+     * Analyzes the value range of expression, marking each plus/minus safe if it cannot overflow.
+     * @param w {@code Walk} instance
+     * @param r state before {@code this}
+     * @param out holds the interval of the result at {@code at} once the steps left on {@code w} are done
+     * @param at index into {@code out}
+     */
+    void rangeExp(Walk w, Range r, long[][] out, int at) {
+        long[][] operands = new long[terms.length][];
+        int mark = w.mark();
+        walkExp(w, 0, i -> terms[i].rangeTerm(w, r, operands, i));
+        w.then(mark, () -> {
+            long[] value = operands[ops.length];
+            for (int i = ops.length - 1; i >= 0; i--) {
+                long[] v = ops[i] == ExpType.PLUS ? Range.add(operands[i], value) : Range.sub(operands[i], value);
+                r.mark(this, i, v);
+                value = Range.clamp(v);
+            }
+            out[at] = value;
+        });
+    }
+
+    /**
+     * Analyzes the value range of expression on a {@code Walk} of its own.
+     * @param r state before {@code this}
+     * @return interval of the result
+     */
+    long[] rangeExp(Range r) {
+        long[][] out = new long[1][];
+        Walk w = new Walk();
+        w.run(() -> rangeExp(w, r, out, 0));
+        return out[0];
+    }
+
+    @Override
+    void setSafe(int op, boolean safe) {
+        this.safe[op] = safe;
+    }
+
+    @Override
+    String getText(int op) {
+        return getExp(op);
+    }
+
+    /**
+     * Hoists the invariant parts of expression out of a loop, see {@code Hoist}.
+     * @param w {@code Walk} instance
+     * @param h {@code Hoist} instance
+     * @param out holds at {@code at}, once the steps left on {@code w} are done, true if all of {@code this} is
+     *            invariant, for the caller to hoist
+     * @param at index into {@code out}
+     */
+    void hoistExp(Walk w, Hoist h, boolean[] out, int at) {
+        boolean[] invariant = new boolean[terms.length];
+        int mark = w.mark();
+        walkExp(w, 0, i -> terms[i].hoistTerm(w, h, invariant, i));
+        w.then(mark, () -> {
+            int from = terms.length;
+            while (from > 0 && invariant[from - 1]) from--;
+            out[at] = from == 0;
+            if (from == 0) return;
+            for (int i = 0; i < from; i++) {
+                int term = i;
+                if (invariant[i]) w.push(() -> terms[term].hoistOut(w, h));
+            }
+            int rest = from;
+            if (from < terms.length) w.push(() -> hoistOut(w, h, rest));
+        });
+    }
+
+    /**
+     * Replaces invariant expression with a read of a hidden variable computed before the loop, or failing that
+     * the largest parts of it that can be.
+     * @param w {@code Walk} instance
+     * @param h {@code Hoist} instance
+     */
+    void hoistOut(Walk w, Hoist h) {
+        hoistOut(w, h, 0);
+    }
+
+    /**
+     * Does {@code hoistOut} for the invariant expression the terms from {@code from} on make.
+     */
+    private void hoistOut(Walk w, Hoist h, int from) {
+        for (int i = from; i < ops.length; i++) {
+            ExpNode moved = moved(i);
+            int slot = h.hoist(moved, moved);
+            if (slot >= 0) {
+                String text = moved.getExp();
+                int l = terms[i].line;
+                terms = Arrays.copyOf(terms, i + 1);
+                terms[i] = TermNode.of(prog, FacNode.temp(prog, slot, text, l));
+                ops = Arrays.copyOf(ops, i);
+                safe = Arrays.copyOf(safe, i);
+                return;
+            }
+            int mark = w.mark();
+            terms[i].hoistOut(w, h);
+            if (w.mark() > mark) {
+                int next = i + 1;
+                w.resume(mark, () -> hoistOut(w, h, next));
+                return;
+            }
+        }
+        terms[ops.length].hoistOut(w, h);
+    }
+
+    /**
+     * @return expression of the terms from {@code from} on, taking them over
+     */
+    private ExpNode moved(int from) {
+        ExpNode moved = new ExpNode(prog, terms[from].line);
+        moved.terms = Arrays.copyOfRange(terms, from, terms.length);
+        moved.ops = Arrays.copyOfRange(ops, from, ops.length);
+        moved.safe = Arrays.copyOfRange(safe, from, safe.length);
+        moved.depth = depth;
+        return moved;
+    }
+
+    /**
+     * @param slot variable assigned
+     * @return true if {@code this} is the variable plus or minus a constant
+     */
+    boolean isStep(int slot) {
+        if (terms.length != 2) return false;
+        FacNode left = terms[0].factor(), right = terms[1].factor();
+        return left != null && left.variable() == slot && right != null && right.isNumber();
+    }
+
+    /**
+     * @return constant added if {@code isStep}, negated if subtracted
+     */
+    int stepValue() {
+        int value = terms[1].factor().number();
+        return ops[0] == ExpType.PLUS ? value : -value;
+    }
+
+    /**
+     * Builds an expression made while optimizing.
+     * @param p Root {@code ProgNode}
+     * @param term its only term
+     * @return new expression
+     */
+    static ExpNode of(ProgNode p, TermNode term) {
+        ExpNode exp = new ExpNode(p, term.line);
+        exp.terms = new TermNode[]{term};
+        exp.ops = new ExpType[0];
+        exp.safe = new boolean[0];
+        exp.depth = term.depth;
+        return exp;
+    }
+
+    /**
+     * Builds the expression moving the hidden variable of a product with its induction variable.
+     * @param p Root {@code ProgNode}
+     * @param slot hidden variable
+     * @param text text of its product
+     * @param step constant added, known to keep the result in an int
+     * @return new expression
+     */
+    static ExpNode increment(ProgNode p, int slot, String text, int step) {
+        ExpNode exp = of(p, TermNode.of(p, FacNode.temp(p, slot, text, 0)));
+        exp.terms = new TermNode[]{exp.terms[0], TermNode.of(p, FacNode.number(p, step))};
+        exp.ops = new ExpType[]{ExpType.PLUS};
+        exp.safe = new boolean[]{true};
+        return exp;
+    }
+
+    /**
+     * Records expression as the value assigned to a variable in the body of a loop to summarize.
+     * @param slot variable assigned
+     * @param s {@code Summary.Builder} instance
+     * @return true if {@code this} is the variable plus or minus a factor, or a factor plus the variable
+     */
+    boolean stepExp(int slot, Summary.Builder s) {
+        if (terms.length != 2) return false;
+        FacNode left = terms[0].factor(), right = terms[1].factor();
+        if (left == null || right == null) return false;
+        if (left.variable() == slot) return s.step(slot, right, ops[0] == ExpType.MINUS);
+        if (ops[0] == ExpType.PLUS && right.variable() == slot) return s.step(slot, left, false);
+        return false;
+    }
+
+    /**
+     * @return the only factor of a single term expression, else null
+     */
+    FacNode factor() {
+        return ops.length == 0 ? terms[0].factor() : null;
+    }
+
+    /**
+     * Expression operator enums as defined in CORE specification.
+     */
+    enum ExpType {
+        PLUS,
+        MINUS
+    }
+}
+
+/**
+ * Sub-line level term node. Like {@code ExpNode}, the right recursive multiply chain of the grammar is kept flat,
+ * factors in one array, and grouped from the right.
  */
-final class ExpNode extends CoreNode {
+final class TermNode extends CoreNode implements CoreNode.Chain, Eval.Node {
     /**
-     * Expression type as defined by CORE specification.
+     * Factors, left to right.
      */
-    private ExpType type;
+    private FacNode[] facs;
 
     /**
-     * Only term node, or left hand side term node.
+     * Whether the multiply after each factor but the last is known not to overflow, see {@code Range}.
      */
-    private TermNode term;
+    private boolean[] safe;
 
     /**
-     * Right hand side expression node for plus/minus type expression.
+     * Levels of parenthesized expressions nested in this term, set by {@code analyzeTerm}.
      */
-    private ExpNode exp;
+    int depth;
 
     /**
      * Constructor must be called with root {@code ProgNode} to access symbol table.
      * @param p Root {@code ProgNode}
+     * @param l line number of its first token
      */
-    ExpNode(ProgNode p) {
-        super(p);
+    TermNode(ProgNode p, int l) {
+        super(p, 1, l);
     }
 
     /**
      * Return a sub-line string representation of {@code this}
-     * @return formatted expression representation defined by PA2 statement
+     * @return formatted term representation defined by PA2 statement
      */
-    String getExp() {
-        assert(type != null);
+    String getTerm() {
+        assert(facs != null);
 
-        switch (this.type) {
-            case TERM:
-                return this.term.getTerm();
-            case PLUS:
-                return String.format("%s + %s", this.term.getTerm(), this.exp.getExp());
-            case MINUS:
-                return String.format("%s - %s", this.term.getTerm(), this.exp.getExp());
-            default:
-                throw new IllegalStateException();
+        return getTerm(0);
+    }
+
+    /**
+     * @param from index of a factor
+     * @return text of the term the grammar makes of the factors from {@code from} on
+     */
+    private String getTerm(int from) {
+        return text((w, sb) -> textTerm(w, sb, from));
+    }
+
+    /**
+     * Appends the text of the term the factors from {@code from} on make.
+     * @param w {@code Walk} instance
+     * @param sb text so far, appended to once the steps left on {@code w} are done
+     * @param from index of a factor
+     */
+    void textTerm(Walk w, StringBuilder sb, int from) {
+        walkTerm(w, from, i -> {
+            if (i > from) sb.append(" * ");
+            facs[i].textFac(w, sb);
+        });
+    }
+
+    /**
+     * Visits the factors by order, from {@code from} on, as {@code ExpNode} visits its terms.
+     */
+    private void walkTerm(Walk w, int from, IntConsumer visit) {
+        for (int i = from; i < facs.length; i++) {
+            int mark = w.mark();
+            visit.accept(i);
+            if (w.mark() > mark) {
+                int next = i + 1;
+                if (next < facs.length) w.resume(mark, () -> walkTerm(w, next, visit));
+                return;
+            }
         }
     }
 
     @Override
     public String toString() {
-        return getExp();
+        return getTerm();
     }
 
     /**
-     * Parse expression node.
-     * @param t {@code Tokenizer} instance
-     * @throws InterpreterException if {@code matchConsume()} failed or any recursive parse call failed.
+     * Parse term node, one factor after another, on a {@code Parse} stack.
+     * @param p {@code Parse} instance
+     * @return true if done, false if steps left on the stack finish it
+     * @throws InterpreterException if {@code matchConsume()} failed or any factor parse call failed.
      */
-    void parseExp(Tokenizer t) throws InterpreterException {
-        term = new TermNode(prog);
-        term.parseTerm(t);
-        line = term.line;
+    boolean parseTerm(Parse p) throws InterpreterException {
+        return parseFacs(p, new ArrayList<>());
+    }
 
-        if (testConsume(t, Token.PLUS)) {
-            type = ExpType.PLUS;
-            matchConsume(t, Token.PLUS);
-            exp = new ExpNode(prog);
-            exp.parseExp(t);
-        } else if (testConsume(t, Token.MINUS)) {
-            type = ExpType.MINUS;
-            matchConsume(t, Token.MINUS);
-            exp = new ExpNode(prog);
-            exp.parseExp(t);
-        } else {
-            type = ExpType.TERM;
-        }
+    /**
+     * Parses factors from the next one on, those after one that leaves steps once they are done.
+     */
+    private boolean parseFacs(Parse p, List<FacNode> facs) throws InterpreterException {
+        do {
+            FacNode fac = new FacNode(prog, p.t.line(p.t.current()));
+            facs.add(fac);
+            int mark = p.mark();
+            if (!fac.parseFac(p)) {
+                p.resume(mark, () -> {
+                    if (moreFacs(p.t)) parseFacs(p, facs);
+                    else endTerm(facs);
+                });
+                return false;
+            }
+        } while (moreFacs(p.t));
+        endTerm(facs);
+        return true;
     }
 
     /**
-     * Recursively evaluates expression.
-     * @return int value from evaluation
-     * @throws InterpreterException if overflow or underflow occurred during evaluation,
-     *                              or any recursive evaluation call failed.
+     * Consumes the operator before another factor, if any.
+     * @return true if one was consumed
      */
-    int evalExp() throws InterpreterException {
-        assert term != null;
-        long value;
+    private boolean moreFacs(Tokenizer t) throws InterpreterException {
+        if (!testConsume(t, Token.STAR)) return false;
+        matchConsume(t, Token.STAR);
+        return true;
+    }
 
-        switch (type) {
-            case TERM:
-                return term.evalTerm();
-            case PLUS:
-                assert exp != null;
-                value = (long) term.evalTerm() + exp.evalExp();
-
-                if (value > INT_MAX)
-                    raiseInterpreter(line, new OverflowUnderflowException(getExp() + " results in overflow"));
-                else if (value < INT_MIN)
-                    raiseInterpreter(line, new OverflowUnderflowException(getExp() + " results in underflow"));
-                else return (int) value;
-            case MINUS:
-                assert exp != null;
-                value = (long) term.evalTerm() - exp.evalExp();
+    private void endTerm(List<FacNode> facs) {
+        this.facs = facs.toArray(new FacNode[0]);
+        safe = new boolean[this.facs.length - 1];
+    }
 
-                if (value > INT_MAX)
-                    raiseInterpreter(line, new OverflowUnderflowException(getExp() + " results in overflow"));
-                else if (value < INT_MIN)
-                    raiseInterpreter(line, new OverflowUnderflowException(getExp() + " results in underflow"));
-                else return (int) value;
-            default:
-                throw new IllegalStateException();
+    /**
+     * Evaluates term, factors left to right and then multiplies from the right.
+     * @param f frame of the run
+     * @return int value from evaluation
+     * @throws InterpreterException if multiplication resulted in overflow or underflow, or factor evaluation failed.
+     */
+    int evalTerm(Frame f) throws InterpreterException {
+        if (depth > SHALLOW) return new Eval(f).run(this);
+        if (facs.length == 1) return facs[0].evalFac(f);
+        if (facs.length == 2) {
+            int left = facs[0].evalFac(f);
+            return apply(0, left, facs[1].evalFac(f));
         }
+
+        int[] values = new int[facs.length];
+        for (int i = 0; i < facs.length; i++) values[i] = facs[i].evalFac(f);
+        return fold(values);
+    }
+
+    @Override
+    public void resume(Eval e, int at) throws InterpreterException {
+        for (int i = at; i < facs.length; i++)
+            if (!facs[i].evalFac(e, i + 1)) return;
+        e.done(fold(e.pop(facs.length)));
+    }
+
+    @Override
+    public int apply(int i, int left, int right) throws InterpreterException {
+        if (safe[i]) return left * right;
+        long value = (long) left * right;
+
+        if (INT_MIN > value)
+            raiseInterpreter(facs[i].line, new OverflowUnderflowException(getTerm(i) + " results in underflow"));
+        else if (value > INT_MAX)
+            raiseInterpreter(facs[i].line, new OverflowUnderflowException(getTerm(i) + " results in overflow"));
+        return (int) value;
     }
 
     /**
-     * Expression type enums as defined in CORE specification.
+     * Builds the execution node of this term: a binary node for one multiply, a {@code ChainNode} for more.
+     * @return execution node
      */
-    enum ExpType {
-        TERM,
-        PLUS,
-        MINUS
+    ExprNode specializeTerm() {
+        if (facs.length == 1) return facs[0].specializeFac();
+        if (facs.length == 2) {
+            ExprNode left = facs[0].specializeFac(), right = facs[1].specializeFac();
+            if (safe[0]) return new IntMulNode(left, right, getTerm(), line);
+            return new MulNode(left, right, getTerm(), line);
+        }
+
+        ExprNode[] operands = new ExprNode[facs.length];
+        for (int i = 0; i < facs.length; i++) operands[i] = facs[i].specializeFac();
+        return new ChainNode(operands, this);
     }
-}
 
-/**
- * Sub-line level term node.
- */
-final class TermNode extends CoreNode {
     /**
-     * Term type as defined by CORE specification.
+     * Compiles term into a closure.
+     * @return compiled term
      */
-    private TermType type;
+    Closure.Int closureTerm() {
+        if (facs.length == 1) return facs[0].closureFac();
+        if (facs.length > 2) {
+            Closure.Int[] operands = new Closure.Int[facs.length];
+            for (int i = 0; i < facs.length; i++) operands[i] = facs[i].closureFac();
+            return f -> Closure.fold(operands, this, f);
+        }
+
+        Closure.Int left = facs[0].closureFac(), right = facs[1].closureFac();
+        if (safe[0]) return f -> left.eval(f) * right.eval(f);
+        String text = getTerm();
+        int l = line;
+        return f -> Closure.checked((long) left.eval(f) * right.eval(f), text, l);
+    }
 
     /**
-     * Factor node.
+     * Compiles term.
+     * @param a {@code Bytecode.Assembler} instance
      */
-    private FacNode fac;
+    void compileTerm(Bytecode.Assembler a) {
+        for (FacNode fac : facs) fac.compileFac(a);
+        for (int i = safe.length - 1; i >= 0; i--) {
+            if (safe[i]) a.unchecked(Bytecode.MUL);
+            else a.arithmetic(Bytecode.MUL, this, i, facs[i].line);
+        }
+    }
 
     /**
-     * Trail term node for multiply type term.
+     * Lowers term.
+     * @param b {@code Ir.Builder} instance
+     * @return register holding the result
      */
-    private TermNode term;
+    int lowerTerm(Ir.Builder b) {
+        int[] operands = new int[facs.length];
+        for (int i = 0; i < facs.length; i++) operands[i] = facs[i].lowerFac(b);
+        int value = operands[safe.length];
+        for (int i = safe.length - 1; i >= 0; i--)
+            value = b.arithmetic(Ir.MUL, operands[i], value, safe[i] ? null : this, i, facs[i].line, !safe[i]);
+        return value;
+    }
 
     /**
-     * Constructor must be called with root {@code ProgNode} to access symbol table.
-     * @param p Root {@code ProgNode}
+     * Analyzes definite assignment through term, and sets {@code depth}.
+     * @param w {@code Walk} instance
+     * @param f state before {@code this}, updated to after it once the steps left on {@code w} are done
      */
-    TermNode(ProgNode p) {
-        super(p);
+    void analyzeTerm(Walk w, Flow f) {
+        int mark = w.mark();
+        walkTerm(w, 0, i -> facs[i].analyzeFac(w, f));
+        w.then(mark, () -> {
+            for (FacNode fac : facs) depth = Math.max(depth, fac.depth());
+        });
     }
 
     /**
-     * Return a sub-line string representation of {@code this}
-     * @return formatted term representation defined by PA2 statement
+     * Analyzes the value range of term, marking each multiply safe if it cannot overflow.
+     * @param w {@code Walk} instance
+     * @param r state before {@code this}
+     * @param out holds the interval of the result at {@code at} once the steps left on {@code w} are done
+     * @param at index into {@code out}
      */
-    String getTerm() {
-        assert(type != null);
+    void rangeTerm(Walk w, Range r, long[][] out, int at) {
+        long[][] operands = new long[facs.length][];
+        int mark = w.mark();
+        walkTerm(w, 0, i -> facs[i].rangeFac(w, r, operands, i));
+        w.then(mark, () -> {
+            long[] value = operands[safe.length];
+            for (int i = safe.length - 1; i >= 0; i--) {
+                long[] v = Range.mul(operands[i], value);
+                r.mark(this, i, v);
+                value = Range.clamp(v);
+            }
+            out[at] = value;
+        });
+    }
 
-        switch (this.type) {
-            case FAC:
-                return this.fac.getFac();
-            case MUL:
-                return String.format("%s * %s", this.fac.getFac(), this.term.getTerm());
-            default:
-                throw new IllegalStateException();
-        }
+    @Override
+    void setSafe(int op, boolean safe) {
+        this.safe[op] = safe;
     }
 
     @Override
-    public String toString() {
-        return getTerm();
+    String getText(int op) {
+        return getTerm(op);
+    }
+
+    /**
+     * Hoists the invariant parts of term out of a loop, see {@code Hoist}. A product of an induction variable and
+     * a constant, as the last two factors, becomes a read of a hidden variable moved along with it.
+     * @param w {@code Walk} instance
+     * @param h {@code Hoist} instance
+     * @param out holds at {@code at}, once the steps left on {@code w} are done, true if all of {@code this} is
+     *            invariant, for the caller to hoist
+     * @param at index into {@code out}
+     */
+    void hoistTerm(Walk w, Hoist h, boolean[] out, int at) {
+        boolean[] invariant = new boolean[facs.length];
+        int mark = w.mark();
+        hoistFacs(w, h, invariant, 0);
+        w.then(mark, () -> {
+            int from = facs.length;
+            while (from > 0 && invariant[from - 1]) from--;
+            out[at] = from == 0;
+            if (from == 0) return;
+            for (int i = 0; i < from; i++) {
+                int fac = i;
+                if (invariant[i]) w.push(() -> facs[fac].hoistOut(w, h));
+            }
+            int rest = from;
+            if (from < facs.length) w.push(() -> hoistOut(w, h, rest));
+        });
     }
 
     /**
-     * Parse term node.
-     * @param t {@code Tokenizer} instance
-     * @throws InterpreterException if {@code matchConsume()} failed or any recursive parse call failed.
+     * Hoists the factors by order from {@code from} on, as {@code walkTerm} visits them, until the last two are
+     * reduced.
      */
-    void parseTerm(Tokenizer t) throws InterpreterException {
-        assert t != null;
+    private void hoistFacs(Walk w, Hoist h, boolean[] invariant, int from) {
+        for (int i = from; i < facs.length; i++) {
+            if (i == facs.length - 2 && reduce(h)) return;
+            int mark = w.mark();
+            facs[i].hoistFac(w, h, invariant, i);
+            if (w.mark() > mark) {
+                int next = i + 1;
+                if (next < facs.length) w.resume(mark, () -> hoistFacs(w, h, invariant, next));
+                return;
+            }
+        }
+    }
 
-        fac = new FacNode(prog);
-        fac.parseFac(t);
-        line = fac.line;
+    /**
+     * Turns the product of the last two factors, if an induction variable and a constant, into a read of a hidden
+     * variable moved along with the variable.
+     * @param h {@code Hoist} instance
+     * @return true if it did
+     */
+    private boolean reduce(Hoist h) {
+        int i = facs.length - 2;
+        FacNode var = facs[i].isNumber() ? facs[i + 1] : facs[i], factor = facs[i].isNumber() ? facs[i] : facs[i + 1];
+        if (var.variable() < 0 || !factor.isNumber() || !h.induction(var.variable())) return false;
 
-        if (testConsume(t, Token.STAR)) {
-            type = TermType.MUL;
-            matchConsume(t, Token.STAR);
-            term = new TermNode(prog);
-            term.parseTerm(t);
-        } else {
-            type = TermType.FAC;
-        }
+        String text = getTerm(i);
+        int slot = h.reduce(var.variable(), factor.number(), ExpNode.of(prog, moved(i)), text);
+        if (slot < 0) return false;
+        becomeTemp(i, slot, text);
+        return true;
     }
 
     /**
-     * Recursively evaluates term.
-     * @return int value from evaluation
-     * @throws InterpreterException if multiplication resulted in overflow or underflow, or factor evaluation failed.
+     * Replaces invariant term with a read of a hidden variable computed before the loop, or failing that the
+     * largest parts of it that can be.
+     * @param w {@code Walk} instance
+     * @param h {@code Hoist} instance
      */
-    int evalTerm() throws InterpreterException {
-        long value;
+    void hoistOut(Walk w, Hoist h) {
+        hoistOut(w, h, 0);
+    }
 
-        switch (type) {
-            case FAC:
-                assert fac != null;
-                return fac.evalFac();
-            case MUL:
-                assert fac != null && term != null;
-                value = (long) fac.evalFac() * term.evalTerm();
-
-                if (INT_MIN > value)
-                    raiseInterpreter(line, new OverflowUnderflowException(getTerm() + " results in underflow"));
-                else if (value > INT_MAX)
-                    raiseInterpreter(line, new OverflowUnderflowException(getTerm() + " results in overflow"));
-                else return (int) value;
-            default:
-                throw new IllegalStateException();
+    /**
+     * Does {@code hoistOut} for the invariant term the factors from {@code from} on make.
+     */
+    private void hoistOut(Walk w, Hoist h, int from) {
+        for (int i = from; i < safe.length; i++) {
+            TermNode moved = moved(i);
+            int slot = h.hoist(ExpNode.of(prog, moved), moved);
+            if (slot >= 0) {
+                becomeTemp(i, slot, moved.getTerm());
+                return;
+            }
+            int mark = w.mark();
+            facs[i].hoistOut(w, h);
+            if (w.mark() > mark) {
+                int next = i + 1;
+                w.resume(mark, () -> hoistOut(w, h, next));
+                return;
+            }
         }
+        facs[safe.length].hoistOut(w, h);
+    }
+
+    /**
+     * @return term of the factors from {@code from} on, taking them over
+     */
+    private TermNode moved(int from) {
+        TermNode moved = new TermNode(prog, facs[from].line);
+        moved.facs = Arrays.copyOfRange(facs, from, facs.length);
+        moved.safe = Arrays.copyOfRange(safe, from, safe.length);
+        moved.depth = depth;
+        return moved;
+    }
+
+    /**
+     * Replaces the factors from {@code from} on with a read of a hidden variable.
+     */
+    private void becomeTemp(int from, int slot, String text) {
+        int l = facs[from].line;
+        facs = Arrays.copyOf(facs, from + 1);
+        facs[from] = FacNode.temp(prog, slot, text, l);
+        safe = Arrays.copyOf(safe, from);
+    }
+
+    /**
+     * Builds a term made while optimizing.
+     * @param p Root {@code ProgNode}
+     * @param fac its only factor
+     * @return new term
+     */
+    static TermNode of(ProgNode p, FacNode fac) {
+        TermNode term = new TermNode(p, fac.line);
+        term.facs = new FacNode[]{fac};
+        term.safe = new boolean[0];
+        term.depth = fac.depth();
+        return term;
     }
 
     /**
-     * Term type enums as defined in CORE specification.
+     * @return the only factor of a single factor term, else null
      */
-    enum TermType {
-        FAC,
-        MUL
+    FacNode factor() {
+        return facs.length == 1 ? facs[0] : null;
     }
 }
 
@@ -1038,6 +2705,11 @@ final class FacNode extends CoreNode {
      */
     private String id;
 
+    /**
+     * Slot of {@code id} for id type factor.
+     */
+    private int slot;
+
     /**
      * Integer value for numeric type factor.
      */
@@ -1048,12 +2720,18 @@ final class FacNode extends CoreNode {
      */
     private ExpNode exp;
 
+    /**
+     * Whether id type factor is assigned on every path to it, so that reading it needs no check.
+     */
+    private boolean proven;
+
     /**
      * Constructor must be called with root {@code ProgNode} to access symbol table.
      * @param p Root {@code ProgNode}
+     * @param l line number of its first token
      */
-    FacNode(ProgNode p) {
-        super(p);
+    FacNode(ProgNode p, int l) {
+        super(p, 1, l);
     }
 
     /**
@@ -1063,80 +2741,335 @@ final class FacNode extends CoreNode {
     String getFac() {
         assert (type != null);
 
+        return text(this::textFac);
+    }
+
+    /**
+     * Appends the text of factor, leaving a parenthesized expression to steps.
+     * @param w {@code Walk} instance
+     * @param sb text so far, appended to once the steps left on {@code w} are done
+     */
+    void textFac(Walk w, StringBuilder sb) {
         switch (type) {
             case ID:
-                return id;
+                sb.append(id);
+                break;
             case NUM:
-                return Integer.toString(value);
+                sb.append(value);
+                break;
             case EXP:
-                return String.format("( %s )", exp.getExp());
+                sb.append("( ");
+                w.push(() -> sb.append(" )"));
+                w.push(() -> exp.textExp(w, sb, 0));
+                break;
             default:
                 throw new IllegalStateException();
         }
     }
 
+    /**
+     * @return levels of parenthesized expressions in factor, set once analyzed
+     */
+    int depth() {
+        return type == FacType.EXP ? exp.depth + 1 : 0;
+    }
+
     @Override
     public String toString() {
         return getFac();
     }
 
     /**
-     * Parse factor node.
+     * Parse id or numeric type factor.
      * @param t {@code Tokenizer} instance
-     * @throws InterpreterException if {@code matchConsume()} failed or any recursive parse call failed.
+     * @throws InterpreterException if {@code matchConsume()} failed, or the current token starts no factor
      */
-    void parseFac(Tokenizer t) throws InterpreterException {
-        assert(t != null);
-
-        Token curr = t.getCurrent();
-        line = curr.line;
+    private void parseLeaf(Tokenizer t) throws InterpreterException {
+        int curr = t.current();
 
-        switch (curr.code) {
+        switch (t.code(curr)) {
             case Token.ID:
                 type = FacType.ID;
                 matchConsume(t, Token.ID);
-                checkUndeclared(curr);
-                id = curr.name;
+                id = t.name(curr);
+                slot = checkUndeclared(id, line);
                 break;
             case Token.NUM:
                 type = FacType.NUM;
                 matchConsume(t, Token.NUM);
-                value = Integer.parseInt(curr.name);
+                value = Integer.parseInt(t.name(curr));
+                break;
+            default:
+                raiseUnexpected(line, "Expected factor, got " + t.name(curr));
+        }
+    }
+
+    /**
+     * Parse factor node, on a {@code Parse} stack: a parenthesized expression is left to it.
+     * @param p {@code Parse} instance
+     * @return true if done, false if steps left on the stack finish it
+     * @throws InterpreterException if {@code matchConsume()} failed or any parse call failed.
+     */
+    boolean parseFac(Parse p) throws InterpreterException {
+        Tokenizer t = p.t;
+        if (!testConsume(t, Token.LPAREN)) {
+            parseLeaf(t);
+            return true;
+        }
+
+        type = FacType.EXP;
+        matchConsume(t, Token.LPAREN);
+        exp = new ExpNode(prog, t.line(t.current()));
+        p.push(() -> matchConsume(t, Token.RPAREN));
+        p.push(() -> exp.parseExp(p));
+        return false;
+    }
+
+    /**
+     * Recursively evaluates factor.
+     * @param f frame of the run
+     * @return int value from evaluation
+     * @throws InterpreterException if evaluating uninitialized variable, or expression evaluation failed.
+     */
+    int evalFac(Frame f) throws InterpreterException {
+        switch (type) {
+            case NUM:
+                return value;
+            case ID:
+                return proven ? f.values[slot] : f.load(slot, id, line);
+            case EXP:
+                assert exp != null;
+                return exp.evalExp(f);
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Evaluates factor as an operand on an {@code Eval} stack: inline, or if an expression nested deeper than
+     * {@code SHALLOW}, by a call.
+     * @param e {@code Eval} instance
+     * @param at index the caller resumes at after a call
+     * @return true if done inline, false if called
+     * @throws InterpreterException if evaluation failed
+     */
+    boolean evalFac(Eval e, int at) throws InterpreterException {
+        if (type == FacType.EXP && exp.depth > SHALLOW) {
+            e.call(at, exp);
+            return false;
+        }
+        e.push(evalFac(e.f));
+        return true;
+    }
+
+    /**
+     * Builds the execution node of this factor.
+     * @return execution node
+     */
+    ExprNode specializeFac() {
+        switch (type) {
+            case NUM:
+                return new ConstFac(value);
+            case ID:
+                return proven ? new InitVarFac(slot) : new VarFac(slot, id, line);
+            case EXP:
+                return exp.specializeExp();
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Compiles factor into a closure.
+     * @return compiled factor
+     */
+    Closure.Int closureFac() {
+        switch (type) {
+            case NUM: {
+                int v = value;
+                return f -> v;
+            }
+            case ID: {
+                int s = slot;
+                String name = id;
+                int l = line;
+                if (proven) return f -> f.values[s];
+                return f -> f.load(s, name, l);
+            }
+            case EXP:
+                return exp.closureExp();
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Compiles factor.
+     * @param a {@code Bytecode.Assembler} instance
+     */
+    void compileFac(Bytecode.Assembler a) {
+        switch (type) {
+            case NUM:
+                a.constant(value);
                 break;
-            case Token.LPAREN:
-                type = FacType.EXP;
-                matchConsume(t, Token.LPAREN);
-                exp = new ExpNode(prog);
-                exp.parseExp(t);
-                matchConsume(t, Token.RPAREN);
+            case ID:
+                if (proven) a.get(slot);
+                else a.load(slot, line);
+                break;
+            case EXP:
+                exp.compileExp(a);
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Lowers factor.
+     * @param b {@code Ir.Builder} instance
+     * @return register holding the result
+     */
+    int lowerFac(Ir.Builder b) {
+        switch (type) {
+            case NUM:
+                return b.constant(value);
+            case ID:
+                return b.load(slot, line, !proven);
+            case EXP:
+                return exp.lowerExp(b);
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Analyzes definite assignment through factor, leaving a parenthesized expression to a step.
+     * @param w {@code Walk} instance
+     * @param f state before {@code this}, updated to after it once the steps left on {@code w} are done
+     */
+    void analyzeFac(Walk w, Flow f) {
+        if (type == FacType.ID) proven = analyzeUse(f, slot, id, line);
+        else if (type == FacType.EXP) w.push(() -> exp.analyzeExp(w, f));
+    }
+
+    /**
+     * Analyzes the value range of factor, leaving a parenthesized expression to a step.
+     * @param w {@code Walk} instance
+     * @param r state before {@code this}
+     * @param out holds the interval of the result at {@code at} once the steps left on {@code w} are done
+     * @param at index into {@code out}
+     */
+    void rangeFac(Walk w, Range r, long[][] out, int at) {
+        switch (type) {
+            case NUM:
+                out[at] = Range.of(value);
+                break;
+            case ID:
+                out[at] = r.get(slot);
+                break;
+            case EXP:
+                w.push(() -> exp.rangeExp(w, r, out, at));
                 break;
             default:
-                raiseUnexpected(curr.line, "Expected factor, got " + curr.name);
+                throw new IllegalStateException();
         }
     }
 
     /**
-     * Recursively evaluates factor.
-     * @return int value from evaluation
-     * @throws InterpreterException if evaluating uninitialized variable, or expression evaluation failed.
+     * @return slot of the variable for id type factor, else -1
+     */
+    int variable() {
+        return type == FacType.ID ? slot : -1;
+    }
+
+    /**
+     * @return true if {@code this} is numeric type factor
+     */
+    boolean isNumber() {
+        return type == FacType.NUM;
+    }
+
+    /**
+     * @return value of numeric type factor
+     */
+    int number() {
+        return value;
+    }
+
+    /**
+     * Hoisting out of a loop, see {@code Hoist}, leaving a parenthesized expression to a step.
+     * @param w {@code Walk} instance
+     * @param h {@code Hoist} instance
+     * @param out holds at {@code at}, once the steps left on {@code w} are done, true if {@code this} is
+     *            invariant, for the caller to hoist
+     * @param at index into {@code out}
      */
-    int evalFac() throws InterpreterException {
+    void hoistFac(Walk w, Hoist h, boolean[] out, int at) {
         switch (type) {
             case NUM:
-                return value;
+                out[at] = true;
+                break;
             case ID:
-                assert prog.vars.containsKey(id);
-
-                if (prog.vars.get(id) != null) return prog.vars.get(id);
-                else raiseInterpreter(line, new UninitializedException("Using uninitialized variable " + id));
+                out[at] = h.invariant(slot);
+                break;
             case EXP:
-                assert exp != null;
-                return exp.evalExp();
+                w.push(() -> exp.hoistExp(w, h, out, at));
+                break;
             default:
                 throw new IllegalStateException();
         }
     }
 
+    /**
+     * Replaces invariant expression type factor with a read of a hidden variable computed before the loop, or
+     * failing that the largest parts of it that can be.
+     * @param w {@code Walk} instance
+     * @param h {@code Hoist} instance
+     */
+    void hoistOut(Walk w, Hoist h) {
+        if (type != FacType.EXP) return;
+        int s = h.hoist(exp, this);
+        if (s < 0) {
+            w.push(() -> exp.hoistOut(w, h));
+            return;
+        }
+        id = getFac();
+        type = FacType.ID;
+        slot = s;
+        proven = true;
+        exp = null;
+    }
+
+    /**
+     * Builds the read of a hidden variable, see {@code Hoist}.
+     * @param p Root {@code ProgNode}
+     * @param slot hidden variable, always assigned where read
+     * @param text text of the expression it holds, in place of a name
+     * @param l line number
+     * @return new factor
+     */
+    static FacNode temp(ProgNode p, int slot, String text, int l) {
+        FacNode fac = new FacNode(p, l);
+        fac.type = FacType.ID;
+        fac.id = text;
+        fac.slot = slot;
+        fac.proven = true;
+        return fac;
+    }
+
+    /**
+     * Builds a numeric factor made while optimizing.
+     * @param p Root {@code ProgNode}
+     * @param value any int
+     * @return new factor
+     */
+    static FacNode number(ProgNode p, int value) {
+        FacNode fac = new FacNode(p, 0);
+        fac.type = FacType.NUM;
+        fac.value = value;
+        return fac;
+    }
+
     /**
      * Factor type enums as defined in CORE specification.
      */
@@ -1150,7 +3083,7 @@ final class FacNode extends CoreNode {
 /**
  * Sub-line level condition node.
  */
-final class CondNode extends CoreNode {
+final class CondNode extends CoreNode implements Eval.Node {
     /**
      * Condition type as defined by CORE specification.
      */
@@ -1171,12 +3104,18 @@ final class CondNode extends CoreNode {
      */
     private CondNode cond2;
 
+    /**
+     * Levels of conditions and parenthesized expressions nested in this condition, set by {@code analyzeCond}.
+     */
+    int depth;
+
     /**
      * Constructor must be called with root {@code ProgNode} to access symbol table.
      * @param p Root {@code ProgNode}
+     * @param l line number of its first token
      */
-    CondNode(ProgNode p) {
-        super(p);
+    CondNode(ProgNode p, int l) {
+        super(p, 1, l);
     }
 
     /**
@@ -1186,15 +3125,32 @@ final class CondNode extends CoreNode {
     String getCond() {
         assert (type != null);
 
+        return text(this::textCond);
+    }
+
+    /**
+     * Appends the text of condition, leaving the conditions within to steps.
+     * @param w {@code Walk} instance
+     * @param sb text so far, appended to once the steps left on {@code w} are done
+     */
+    void textCond(Walk w, StringBuilder sb) {
         switch (type) {
             case COMP:
-                return comp.getComp();
+                comp.textComp(w, sb);
+                break;
             case NOT:
-                return String.format("!%s", cond1.getCond());
+                sb.append('!');
+                w.push(() -> cond1.textCond(w, sb));
+                break;
             case AND:
-                return String.format("[ %s and %s ]", cond1.getCond(), cond2.getCond());
             case OR:
-                return String.format("[ %s or %s ]", cond1.getCond(), cond2.getCond());
+                String op = type == CondType.AND ? " and " : " or ";
+                sb.append("[ ");
+                w.push(() -> sb.append(" ]"));
+                w.push(() -> cond2.textCond(w, sb));
+                w.push(() -> sb.append(op));
+                w.push(() -> cond1.textCond(w, sb));
+                break;
             default:
                 throw new IllegalStateException();
         }
@@ -1206,67 +3162,302 @@ final class CondNode extends CoreNode {
     }
 
     /**
-     * Parse condition node.
-     * @param t {@code Tokenizer} instance
-     * @throws InterpreterException if {@code matchConsume()} failed or any recursive parse call failed.
+     * Parse condition node, on a {@code Parse} stack: conditions within are left to it.
+     * @param p {@code Parse} instance
+     * @return true if done, false if steps left on the stack finish it
+     * @throws InterpreterException if {@code matchConsume()} failed or any parse call failed.
      */
-    void parseCond(Tokenizer t) throws InterpreterException {
+    boolean parseCond(Parse p) throws InterpreterException {
+        Tokenizer t = p.t;
         if (testConsume(t, Token.LPAREN)) {
             type = CondType.COMP;
-            comp = new CompNode(prog);
-            comp.parseComp(t);
+            comp = new CompNode(prog, t.line(t.current()));
+            return comp.parseComp(p);
         } else if (testConsume(t, Token.NOT)) {
             type = CondType.NOT;
             matchConsume(t, Token.NOT);
-            cond1 = new CondNode(prog);
-            cond1.parseCond(t);
+            cond1 = new CondNode(prog, t.line(t.current()));
+            p.push(() -> cond1.parseCond(p));
         } else if (testConsume(t, Token.LBRACK)) {
             matchConsume(t, Token.LBRACK);
-            cond1 = new CondNode(prog);
-            cond1.parseCond(t);
-            if (testConsume(t, Token.AND)) {
-                type = CondType.AND;
-                matchConsume(t, Token.AND);
-            } else if (testConsume(t, Token.OR)) {
-                type = CondType.OR;
-                matchConsume(t, Token.OR);
-            } else {
-                Token curr = t.next();
-                raiseUnexpected(curr.line, "Expected compound condition operator, got " + curr.name);
-            }
-            cond2 = new CondNode(prog);
-            cond2.parseCond(t);
-            matchConsume(t, Token.RBRACK);
+            cond1 = new CondNode(prog, t.line(t.current()));
+            p.push(() -> {
+                parseOperator(t);
+                cond2 = new CondNode(prog, t.line(t.current()));
+                p.push(() -> matchConsume(t, Token.RBRACK));
+                p.push(() -> cond2.parseCond(p));
+            });
+            p.push(() -> cond1.parseCond(p));
+        } else {
+            int curr = t.current();
+            raiseUnexpected(t.line(curr), "Expected condition, got " + t.name(curr));
+        }
+        return false;
+    }
+
+    /**
+     * Consumes the operator of a compound condition, and sets {@code type} by it.
+     */
+    private void parseOperator(Tokenizer t) throws InterpreterException {
+        if (testConsume(t, Token.AND)) {
+            type = CondType.AND;
+            matchConsume(t, Token.AND);
+        } else if (testConsume(t, Token.OR)) {
+            type = CondType.OR;
+            matchConsume(t, Token.OR);
         } else {
-            Token curr = t.getCurrent();
-            raiseUnexpected(curr.line, "Expected condition, got " + curr.name);
+            int curr = t.next();
+            raiseUnexpected(t.line(curr), "Expected compound condition operator, got " + t.name(curr));
         }
     }
 
     /**
-     * Recursively evaluates condition.
+     * Recursively evaluates condition, on an {@code Eval} stack if nested deeper than {@code SHALLOW}.
+     * @param f frame of the run
      * @return boolean value from evaluation
      * @throws InterpreterException if any recursive evaluation call failed.
      */
-    boolean evalCond() throws InterpreterException {
+    boolean evalCond(Frame f) throws InterpreterException {
+        if (depth > SHALLOW) return new Eval(f).run(this) != 0;
         switch (type) {
             case COMP:
                 assert comp != null;
-                return comp.evalComp();
+                return comp.evalComp(f);
             case NOT:
                 assert cond1 != null;
-                return !cond1.evalCond();
+                return !cond1.evalCond(f);
             case AND:
                 assert cond1 != null && cond2 != null;
-                return cond1.evalCond() && cond2.evalCond();
+                return cond1.evalCond(f) && cond2.evalCond(f);
             case OR:
                 assert cond1 != null && cond2 != null;
-                return cond1.evalCond() || cond2.evalCond();
+                return cond1.evalCond(f) || cond2.evalCond(f);
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    @Override
+    public void resume(Eval e, int at) throws InterpreterException {
+        switch (type) {
+            case COMP:
+                comp.evalComp(e, at);
+                break;
+            case NOT:
+                if (at == 0 && !evalCond(e, 1, cond1)) return;
+                e.done(e.pop() ^ 1);
+                break;
+            case AND:
+            case OR:
+                if (at == 0 && !evalCond(e, 1, cond1)) return;
+                if (at <= 1) {
+                    int first = e.pop();
+                    if ((first == 1) == (type == CondType.OR)) {
+                        e.done(first);
+                        return;
+                    }
+                    if (!evalCond(e, 2, cond2)) return;
+                }
+                e.done(e.pop());
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Evaluates a condition within as an operand on an {@code Eval} stack, 1 where it holds and 0 where it fails.
+     * @return true if done inline, false if called
+     */
+    private static boolean evalCond(Eval e, int at, CondNode cond) throws InterpreterException {
+        if (cond.depth > SHALLOW) {
+            e.call(at, cond);
+            return false;
+        }
+        e.push(cond.evalCond(e.f) ? 1 : 0);
+        return true;
+    }
+
+    /**
+     * Builds the execution node of this condition.
+     * @return execution node
+     */
+    TestNode specializeCond() {
+        switch (type) {
+            case COMP:
+                return comp.specializeComp();
+            case NOT:
+                return new NotNode(cond1.specializeCond());
+            case AND:
+                return new AndNode(cond1.specializeCond(), cond2.specializeCond());
+            case OR:
+                return new OrNode(cond1.specializeCond(), cond2.specializeCond());
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Compiles condition into a closure, short-circuiting {@code and} and {@code or} like {@code evalCond(Frame)}.
+     * @return compiled condition
+     */
+    Closure.Bool closureCond() {
+        switch (type) {
+            case COMP:
+                return comp.closureComp();
+            case NOT: {
+                Closure.Bool c = cond1.closureCond();
+                return f -> !c.test(f);
+            }
+            case AND: {
+                Closure.Bool c1 = cond1.closureCond(), c2 = cond2.closureCond();
+                return f -> c1.test(f) && c2.test(f);
+            }
+            case OR: {
+                Closure.Bool c1 = cond1.closureCond(), c2 = cond2.closureCond();
+                return f -> c1.test(f) || c2.test(f);
+            }
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Compiles condition into a branch, short-circuiting {@code and} and {@code or} like {@code evalCond(Frame)}.
+     * @param a {@code Bytecode.Assembler} instance
+     * @param label jump target
+     * @param when jump if the condition evaluates to this, fall through otherwise
+     */
+    void compileCond(Bytecode.Assembler a, int label, boolean when) {
+        switch (type) {
+            case COMP:
+                comp.compileComp(a, label, when);
+                break;
+            case NOT:
+                cond1.compileCond(a, label, !when);
+                break;
+            case AND:
+            case OR:
+                if (when == (type == CondType.OR)) {
+                    cond1.compileCond(a, label, when);
+                    cond2.compileCond(a, label, when);
+                } else {
+                    int skip = a.label();
+                    cond1.compileCond(a, skip, !when);
+                    cond2.compileCond(a, label, when);
+                    a.bind(skip);
+                }
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Lowers condition.
+     * @param b {@code Ir.Builder} instance
+     * @return lowered condition
+     */
+    Ir.Cond lowerCond(Ir.Builder b) {
+        switch (type) {
+            case COMP:
+                return comp.lowerComp(b);
+            case NOT:
+                return new Ir.Not(cond1.lowerCond(b));
+            case AND:
+            case OR:
+                return new Ir.Logic(type == CondType.AND, cond1.lowerCond(b), cond2.lowerCond(b));
             default:
                 throw new IllegalStateException();
         }
     }
 
+    /**
+     * Analyzes definite assignment through condition, and sets {@code depth}. What the second half of
+     * {@code and}, {@code or} reads is only read on some paths.
+     * @param w {@code Walk} instance
+     * @param f state before {@code this}, updated to after it once the steps left on {@code w} are done
+     */
+    void analyzeCond(Walk w, Flow f) {
+        int mark = w.mark();
+        switch (type) {
+            case COMP:
+                comp.analyzeComp(w, f);
+                break;
+            case NOT:
+                w.push(() -> cond1.analyzeCond(w, f));
+                break;
+            case AND:
+            case OR:
+                w.push(() -> {
+                    Flow second = f.copy();
+                    second.may |= second.loop;
+                    cond2.analyzeCond(w, second);
+                });
+                w.push(() -> cond1.analyzeCond(w, f));
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+        w.then(mark, () -> {
+            if (type == CondType.COMP) depth = comp.depth();
+            else if (type == CondType.NOT) depth = cond1.depth + 1;
+            else depth = Math.max(cond1.depth, cond2.depth) + 1;
+        });
+    }
+
+    /**
+     * Analyzes value ranges through condition.
+     * @param w {@code Walk} instance
+     * @param r state before {@code this}
+     * @param out holds the states where {@code this} holds and where it fails once the steps left on {@code w}
+     *            are done
+     */
+    void rangeCond(Walk w, Range r, Range[] out) {
+        Range[] c1 = new Range[2], c2 = new Range[2];
+        switch (type) {
+            case COMP:
+                comp.rangeComp(w, r, out);
+                break;
+            case NOT:
+                w.push(() -> {
+                    out[0] = c1[1];
+                    out[1] = c1[0];
+                });
+                w.push(() -> cond1.rangeCond(w, r, c1));
+                break;
+            case AND:
+                w.push(() -> {
+                    out[0] = c2[0];
+                    out[1] = Range.join(c1[1], c2[1]);
+                });
+                w.push(() -> cond2.rangeCond(w, c1[0], c2));
+                w.push(() -> cond1.rangeCond(w, r, c1));
+                break;
+            case OR:
+                w.push(() -> {
+                    out[0] = Range.join(c1[0], c2[0]);
+                    out[1] = c2[1];
+                });
+                w.push(() -> cond2.rangeCond(w, c1[1], c2));
+                w.push(() -> cond1.rangeCond(w, r, c1));
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Records condition as the condition of a loop to summarize.
+     * @param s {@code Summary.Builder} instance
+     * @return true if {@code this} is a single compare
+     */
+    boolean summarizeCond(Summary.Builder s) {
+        if (type != CondType.COMP) return false;
+        comp.summarizeComp(s);
+        return true;
+    }
+
     /**
      * Condition type enums as defined in CORE specification.
      */
@@ -1283,9 +3474,9 @@ final class CondNode extends CoreNode {
  */
 final class CompNode extends CoreNode {
     /**
-     * Compare type as defined by CORE specification.
+     * Compare type as defined by CORE specification, one of {@code Token.NEQ} through {@code Token.LT}.
      */
-    private Token type;
+    private int type;
 
     /**
      * Left hand side factor node.
@@ -1300,9 +3491,10 @@ final class CompNode extends CoreNode {
     /**
      * Constructor must be called with root {@code ProgNode} to access symbol table.
      * @param p Root {@code ProgNode}
+     * @param l line number of its first token
      */
-    CompNode(ProgNode p) {
-        super(p);
+    CompNode(ProgNode p, int l) {
+        super(p, 1, l);
     }
 
     /**
@@ -1310,9 +3502,29 @@ final class CompNode extends CoreNode {
      * @return formatted compare representation defined by PA2 statement
      */
     String getComp() {
-        assert (type != null);
+        assert (type != 0);
+
+        return text(this::textComp);
+    }
+
+    /**
+     * Appends the text of compare, leaving the factors to steps.
+     * @param w {@code Walk} instance
+     * @param sb text so far, appended to once the steps left on {@code w} are done
+     */
+    void textComp(Walk w, StringBuilder sb) {
+        sb.append("( ");
+        w.push(() -> sb.append(" )"));
+        w.push(() -> fac2.textFac(w, sb));
+        w.push(() -> sb.append(' ').append(Tokenizer.nameOf(type)).append(' '));
+        w.push(() -> fac1.textFac(w, sb));
+    }
 
-        return String.format("( %s %s %s )", fac1.getFac(), type.name, fac2.getFac());
+    /**
+     * @return levels of parenthesized expressions in compare, set once analyzed
+     */
+    int depth() {
+        return Math.max(fac1.depth(), fac2.depth());
     }
 
     @Override
@@ -1321,42 +3533,230 @@ final class CompNode extends CoreNode {
     }
 
     /**
-     * Parse compare node.
-     * @param t {@code Tokenizer} instance
-     * @throws InterpreterException if {@code matchConsume()} failed or any recursive parse call failed
-     */
-    void parseComp(Tokenizer t) throws InterpreterException {
-        Token tt = matchConsume(t, Token.LPAREN);
-        line = tt.line;
-        fac1 = new FacNode(prog);
-        fac1.parseFac(t);
-        type = rangeConsume(t, Token.NEQ, Token.LT);
-        fac2 = new FacNode(prog);
-        fac2.parseFac(t);
+     * Parse compare node, on a {@code Parse} stack.
+     * @param p {@code Parse} instance
+     * @return true if done, false if steps left on the stack finish it
+     * @throws InterpreterException if {@code matchConsume()} failed or any parse call failed
+     */
+    boolean parseComp(Parse p) throws InterpreterException {
+        Tokenizer t = p.t;
+        matchConsume(t, Token.LPAREN);
+        fac1 = new FacNode(prog, t.line(t.current()));
+        int mark = p.mark();
+        if (!fac1.parseFac(p)) {
+            p.resume(mark, () -> parseRight(p));
+            return false;
+        }
+        return parseRight(p);
+    }
+
+    /**
+     * Parses the rest of a compare after its left side.
+     */
+    private boolean parseRight(Parse p) throws InterpreterException {
+        Tokenizer t = p.t;
+        type = t.code(rangeConsume(t, Token.NEQ, Token.LT));
+        fac2 = new FacNode(prog, t.line(t.current()));
+        int mark = p.mark();
+        if (!fac2.parseFac(p)) {
+            p.resume(mark, () -> matchConsume(t, Token.RPAREN));
+            return false;
+        }
         matchConsume(t, Token.RPAREN);
+        return true;
     }
 
     /**
      * Recursively evaluates compare.
+     * @param f frame of the run
      * @return boolean value from evaluation
      * @throws InterpreterException if any recursive evaluation call failed.
      */
-    boolean evalComp() throws InterpreterException {
-        switch (type.code) {
+    boolean evalComp(Frame f) throws InterpreterException {
+        return compare(fac1.evalFac(f), fac2.evalFac(f));
+    }
+
+    /**
+     * Evaluates compare for the condition it makes, on an {@code Eval} stack.
+     * @param e {@code Eval} instance
+     * @param at index of the next factor, as given to {@code Eval.Node.resume}
+     * @throws InterpreterException if any evaluation failed
+     */
+    void evalComp(Eval e, int at) throws InterpreterException {
+        if (at == 0 && !fac1.evalFac(e, 1)) return;
+        if (at <= 1 && !fac2.evalFac(e, 2)) return;
+        int y = e.pop(), x = e.pop();
+        e.done(compare(x, y) ? 1 : 0);
+    }
+
+    /**
+     * Applies the operator of this compare.
+     */
+    private boolean compare(int x, int y) {
+        switch (type) {
+            case Token.NEQ:
+                return x != y;
+            case Token.EQ:
+                return x == y;
+            case Token.GEQ:
+                return x >= y;
+            case Token.LEQ:
+                return x <= y;
+            case Token.GT:
+                return x > y;
+            case Token.LT:
+                return x < y;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Builds the execution node for the operator of this compare.
+     * @return execution node
+     */
+    TestNode specializeComp() {
+        ExprNode a = fac1.specializeFac(), b = fac2.specializeFac();
+        switch (type) {
+            case Token.NEQ:
+                return new NeqNode(a, b);
+            case Token.EQ:
+                return new EqNode(a, b);
+            case Token.GEQ:
+                return new GeqNode(a, b);
+            case Token.LEQ:
+                return new LeqNode(a, b);
+            case Token.GT:
+                return new GtNode(a, b);
+            case Token.LT:
+                return new LtNode(a, b);
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Compiles compare into a closure for its operator.
+     * @return compiled compare
+     */
+    Closure.Bool closureComp() {
+        Closure.Int a = fac1.closureFac(), b = fac2.closureFac();
+        switch (type) {
+            case Token.NEQ:
+                return f -> a.eval(f) != b.eval(f);
+            case Token.EQ:
+                return f -> a.eval(f) == b.eval(f);
+            case Token.GEQ:
+                return f -> a.eval(f) >= b.eval(f);
+            case Token.LEQ:
+                return f -> a.eval(f) <= b.eval(f);
+            case Token.GT:
+                return f -> a.eval(f) > b.eval(f);
+            case Token.LT:
+                return f -> a.eval(f) < b.eval(f);
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Compiles compare into a branch.
+     * @param a {@code Bytecode.Assembler} instance
+     * @param label jump target
+     * @param when jump if the compare evaluates to this, fall through otherwise
+     */
+    void compileComp(Bytecode.Assembler a, int label, boolean when) {
+        fac1.compileFac(a);
+        fac2.compileFac(a);
+        a.branch(when ? type : Bytecode.negate(type), label);
+    }
+
+    /**
+     * Lowers compare, with the instructions computing its factors.
+     * @param b {@code Ir.Builder} instance
+     * @return lowered compare
+     */
+    Ir.Cond lowerComp(Ir.Builder b) {
+        b.open();
+        int x = fac1.lowerFac(b);
+        int y = fac2.lowerFac(b);
+        return new Ir.Test(b.close(), type, x, y);
+    }
+
+    /**
+     * Analyzes definite assignment through compare.
+     * @param w {@code Walk} instance
+     * @param f state before {@code this}, updated to after it once the steps left on {@code w} are done
+     */
+    void analyzeComp(Walk w, Flow f) {
+        int mark = w.mark();
+        fac1.analyzeFac(w, f);
+        w.then(mark, () -> fac2.analyzeFac(w, f));
+    }
+
+    /**
+     * Analyzes value ranges through compare, narrowing the variables compared.
+     * @param w {@code Walk} instance
+     * @param r state before {@code this}
+     * @param out holds the states where {@code this} holds and where it fails once the steps left on {@code w}
+     *            are done
+     */
+    void rangeComp(Walk w, Range r, Range[] out) {
+        long[][] v = new long[2][];
+        int mark = w.mark();
+        fac1.rangeFac(w, r, v, 0);
+        fac2.rangeFac(w, r, v, 1);
+        w.then(mark, () -> {
+            out[0] = narrow(r, type, v[0], v[1]);
+            out[1] = narrow(r, Bytecode.negate(type), v[0], v[1]);
+        });
+    }
+
+    /**
+     * @param compare one of {@code Token.NEQ} through {@code Token.LT}, assumed to hold
+     * @return copy of {@code r} with the operands narrowed
+     */
+    private Range narrow(Range r, int compare, long[] x, long[] y) {
+        Range out = r.copy();
+        int a = fac1.variable(), b = fac2.variable();
+        switch (compare) {
             case Token.NEQ:
-                return fac1.evalFac() != fac2.evalFac();
+                if (y[0] == y[1] && x[0] == y[0]) out.narrow(a, x, x[0] + 1, INT_MAX);
+                else if (y[0] == y[1] && x[1] == y[0]) out.narrow(a, x, INT_MIN, x[1] - 1);
+                if (x[0] == x[1] && y[0] == x[0]) out.narrow(b, y, y[0] + 1, INT_MAX);
+                else if (x[0] == x[1] && y[1] == x[0]) out.narrow(b, y, INT_MIN, y[1] - 1);
+                break;
             case Token.EQ:
-                return fac1.evalFac() == fac2.evalFac();
+                out.narrow(a, x, y[0], y[1]);
+                out.narrow(b, y, x[0], x[1]);
+                break;
             case Token.GEQ:
-                return fac1.evalFac() >= fac2.evalFac();
+                out.narrow(a, x, y[0], INT_MAX);
+                out.narrow(b, y, INT_MIN, x[1]);
+                break;
             case Token.LEQ:
-                return fac1.evalFac() <= fac2.evalFac();
+                out.narrow(a, x, INT_MIN, y[1]);
+                out.narrow(b, y, x[0], INT_MAX);
+                break;
             case Token.GT:
-                return fac1.evalFac() > fac2.evalFac();
+                out.narrow(a, x, y[0] + 1, INT_MAX);
+                out.narrow(b, y, INT_MIN, x[1] - 1);
+                break;
             case Token.LT:
-                return fac1.evalFac() < fac2.evalFac();
+                out.narrow(a, x, INT_MIN, y[1] - 1);
+                out.narrow(b, y, x[0] + 1, INT_MAX);
+                break;
             default:
                 throw new IllegalStateException();
         }
+        return out;
+    }
+
+    /**
+     * Records compare as the condition of a loop to summarize.
+     * @param s {@code Summary.Builder} instance
+     */
+    void summarizeComp(Summary.Builder s) {
+        s.test(type, fac1, fac2);
     }
 }
@@ -0,0 +1,318 @@
+package zhayi.core3341;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Daemon for CORE language for CSE 3341 Project
+ *
+ * Keeps one JVM running {@code -i} for clients, so that a run pays neither JVM startup nor a cold
+ * {@code Tokenizer} and {@code CoreNode}, and a program run again is not even parsed: compiled programs are kept
+ * by their settings and the SHA-256 of their text, the least recently used dropped first. The daemon listens on
+ * a Unix-domain socket and serves each client on a thread of its own.
+ *
+ * A client sends its directory and arguments. The daemon sends back what the run writes, each chunk tagged
+ * {@code OUT} or {@code ERR} with its length, and {@code IN} with a length whenever the run reads, which the client
+ * answers with at most that many bytes of its standard input and their count, or -1 once it ends; finally
+ * {@code EXIT} with the status the client exits with. Standard input is only read as the run asks for it, so
+ * that the client never leaves a thread blocked on it.
+ *
+ * @author Yi Zhang
+ */
+final class Daemon {
+    private static final byte EXIT = 0;
+    private static final byte OUT = 1;
+    private static final byte ERR = 2;
+    private static final byte IN = 3;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Compiled programs kept at most.
+     */
+    private static final int MAX_PROGRAMS = 256;
+
+    private static final Logger log = Logger.getLogger("Daemon");
+
+    static {
+        log.setLevel(Level.SEVERE);
+    }
+
+    /**
+     * Compiled programs by settings and key of their text, in order of last use.
+     */
+    private final Map<String, CoreEngine.CompiledProgram> programs =
+            new LinkedHashMap<String, CoreEngine.CompiledProgram>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CoreEngine.CompiledProgram> eldest) {
+                    return size() > MAX_PROGRAMS;
+                }
+            };
+
+    private Daemon() {
+    }
+
+    /**
+     * @return socket used unless another is given, {@code daemon.sock} in {@code Artifact.defaultDirectory()}
+     */
+    static Path defaultSocket() {
+        return Artifact.defaultDirectory().resolve("daemon.sock");
+    }
+
+    /**
+     * Runs {@code --daemon} or {@code --client} from the command line.
+     * @param args command line arguments, the first of them {@code --daemon} or {@code --client}
+     * @param usage usage of the interpreter
+     * @return status to exit with
+     */
+    static int main(String[] args, String usage) {
+        Path socket = defaultSocket();
+        int i = 1;
+        if (i < args.length && args[i].startsWith("--socket=")) socket = Paths.get(args[i++].substring(9));
+        try {
+            if (args[0].equals("--daemon")) {
+                if (i != args.length) throw new IllegalArgumentException("Unknown flag " + args[i] + "\n" + usage);
+                new Daemon().serve(socket);
+                return 0;
+            }
+            return client(socket, Arrays.copyOfRange(args, i, args.length), System.in, System.out, System.err);
+        } catch (IOException | IllegalArgumentException ex) {
+            log.severe(ex.getLocalizedMessage());
+            return ex.hashCode();
+        }
+    }
+
+    /**
+     * Listens on a socket until the JVM is stopped.
+     * @param socket path of the socket, replaced if a daemon no longer listens on it
+     * @throws IOException if the socket cannot be bound, or another daemon listens on it
+     */
+    private void serve(Path socket) throws IOException {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socket);
+        if (Files.exists(socket)) {
+            boolean live;
+            try {
+                SocketChannel.open(address).close();
+                live = true;
+            } catch (IOException ex) {
+                live = false;
+            }
+            if (live) throw new IOException("Daemon already listening on " + socket);
+            Files.delete(socket);
+        }
+        if (socket.getParent() != null) Files.createDirectories(socket.getParent());
+
+        ExecutorService pool = Executors.newCachedThreadPool();
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(address);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> socket.toFile().delete()));
+            while (true) {
+                SocketChannel client = server.accept();
+                pool.execute(() -> handle(client));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Serves one client, see above.
+     * @param client connection of the client
+     */
+    private void handle(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            DataInputStream request = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel),
+                    BUFFER_SIZE));
+            Path dir = Paths.get(request.readUTF());
+            String[] args = new String[request.readInt()];
+            for (int i = 0; i < args.length; i++) args[i] = request.readUTF();
+
+            OutputStream response = Channels.newOutputStream(channel);
+            PrintStream out = new PrintStream(new BufferedOutputStream(new Chunks(response, OUT), BUFFER_SIZE));
+            PrintStream err = new PrintStream(new BufferedOutputStream(new Chunks(response, ERR), BUFFER_SIZE));
+            int status;
+            try {
+                status = Interpreter.serve(this, args, dir, new Stdin(request, response, out), out, err);
+            } catch (RuntimeException ex) {
+                ex.printStackTrace(err);
+                status = 1;
+            }
+            out.flush();
+            err.flush();
+            response.write(header(EXIT, status));
+        } catch (IOException | UncheckedIOException ex) {
+            log.severe("Client lost: " + ex);
+        }
+    }
+
+    /**
+     * Finds a program among those compiled, else compiles and keeps it.
+     * @param core engine of the request
+     * @param settings everything of the request that {@code core} compiles differently by
+     * @param source program source
+     * @param checks see {@code CoreEngine.compile}; reported from the kept program on a hit
+     * @param dump see {@code CoreEngine.compile}; listed only when compiled
+     * @return the program
+     * @throws CoreEngine.CompileException on the first error in the program
+     * @throws IOException if the program cannot be read
+     */
+    CoreEngine.CompiledProgram compile(CoreEngine core, String settings, Source source, PrintStream checks,
+                                       PrintStream dump) throws CoreEngine.CompileException, IOException {
+        CharBuffer text = source.load();
+        try {
+            String key = settings + " " + Artifact.key(text);
+            CoreEngine.CompiledProgram program;
+            synchronized (programs) {
+                program = programs.get(key);
+            }
+            if (program != null) {
+                if (checks != null) program.reportChecks(checks);
+                return program;
+            }
+            program = core.compile(Source.text(text), checks, dump);
+            synchronized (programs) {
+                programs.put(key, program);
+            }
+            return program;
+        } finally {
+            Source.release(text);
+        }
+    }
+
+    /**
+     * Runs {@code -i} in a daemon, see above.
+     * @param socket path of the socket of the daemon
+     * @param args arguments for the daemon, from {@code -i} on
+     * @param stdin read as the run asks for it
+     * @param stdout what the run writes to standard output
+     * @param stderr what the run writes to standard error
+     * @return status of the run
+     * @throws IOException if the daemon cannot be reached, or fails before the run ends
+     */
+    static int client(Path socket, String[] args, InputStream stdin, OutputStream stdout, OutputStream stderr)
+            throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel),
+                    BUFFER_SIZE));
+            request.writeUTF(Paths.get("").toAbsolutePath().toString());
+            request.writeInt(args.length);
+            for (String arg : args) request.writeUTF(arg);
+            request.flush();
+
+            DataInputStream response = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel),
+                    BUFFER_SIZE));
+            byte[] buf = new byte[BUFFER_SIZE];
+            while (true) {
+                int tag = response.read();
+                if (tag < 0) throw new EOFException("Daemon closed the connection");
+                int length = response.readInt();
+                if (tag == EXIT) return length;
+                if (tag == IN) {
+                    int n = stdin.read(buf, 0, Math.min(length, buf.length));
+                    request.writeInt(n);
+                    if (n > 0) request.write(buf, 0, n);
+                    request.flush();
+                    continue;
+                }
+                OutputStream to = tag == OUT ? stdout : stderr;
+                for (; length > 0; length -= buf.length) {
+                    int n = Math.min(length, buf.length);
+                    response.readFully(buf, 0, n);
+                    to.write(buf, 0, n);
+                }
+                to.flush();
+            }
+        }
+    }
+
+    /**
+     * @param tag one of the tags
+     * @param value length, or status for {@code EXIT}
+     * @return tag followed by the value as a big-endian int
+     */
+    private static byte[] header(byte tag, int value) {
+        return new byte[] {tag, (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    /**
+     * Standard input of the client, asked for as the run reads it.
+     */
+    private static final class Stdin extends InputStream {
+        private final DataInputStream request;
+        private final OutputStream response;
+
+        /**
+         * Standard output of the run, flushed before the client is asked, so that a prompt comes first.
+         */
+        private final PrintStream out;
+
+        private boolean ended;
+
+        Stdin(DataInputStream request, OutputStream response, PrintStream out) {
+            this.request = request;
+            this.response = response;
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (ended) return -1;
+            out.flush();
+            response.write(header(IN, len));
+            int n = request.readInt();
+            if (n < 0) {
+                ended = true;
+                return -1;
+            }
+            request.readFully(b, off, n);
+            return n;
+        }
+    }
+
+    /**
+     * Stream sending each write to the client as one chunk with a tag.
+     */
+    private static final class Chunks extends OutputStream {
+        private final OutputStream response;
+        private final byte tag;
+
+        Chunks(OutputStream response, byte tag) {
+            this.response = response;
+            this.tag = tag;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            response.write(header(tag, len));
+            response.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package zhayi.core3341;
+
+import java.util.Arrays;
+
+import zhayi.core3341.CoreError.*;
+
+/**
+ * Evaluation stack for CORE language for CSE 3341 Project
+ *
+ * Evaluates, for the tree walker, an expression or a condition nested deeper than it evaluates by recursion, see
+ * {@code CoreNode.SHALLOW}, so that evaluating one takes no Java stack along nesting. Each entry is a node and the
+ * index of the next of its operands, and the values of the operands done are kept on a value stack, a condition
+ * being 1 where it holds and 0 where it fails. A node evaluates inline the operands nested no deeper than that,
+ * by recursion, and calls on this stack the others.
+ *
+ * @author Yi Zhang
+ */
+final class Eval {
+    /**
+     * Expression, term or condition evaluated on the stack.
+     */
+    interface Node {
+        /**
+         * Goes on evaluating the node, ending in a {@code call} of an operand or in {@code done}.
+         * @param e {@code Eval} instance
+         * @param at index of the next operand, 0 at first, then as given to {@code call}
+         * @throws InterpreterException if any evaluation failed
+         */
+        void resume(Eval e, int at) throws InterpreterException;
+    }
+
+    /**
+     * Frame of the run.
+     */
+    final Frame f;
+
+    private Node[] nodes = new Node[16];
+    private int[] ats = new int[16];
+    private int depth;
+
+    private int[] values = new int[16];
+    private int size;
+
+    /**
+     * @param f frame of the run
+     */
+    Eval(Frame f) {
+        this.f = f;
+    }
+
+    /**
+     * Evaluates a node and every operand it calls.
+     * @param root node
+     * @return its value
+     * @throws InterpreterException if any evaluation failed
+     */
+    int run(Node root) throws InterpreterException {
+        enter(root);
+        while (depth > 0)
+            nodes[depth - 1].resume(this, ats[depth - 1]);
+        return values[--size];
+    }
+
+    /**
+     * Evaluates an operand next, then resumes the node calling it.
+     * @param at index the caller resumes at
+     * @param operand operand
+     */
+    void call(int at, Node operand) {
+        ats[depth - 1] = at;
+        enter(operand);
+    }
+
+    private void enter(Node node) {
+        if (depth == nodes.length) {
+            nodes = Arrays.copyOf(nodes, depth * 2);
+            ats = Arrays.copyOf(ats, depth * 2);
+        }
+        nodes[depth] = node;
+        ats[depth] = 0;
+        depth++;
+    }
+
+    /**
+     * Ends the node being evaluated.
+     * @param value its value
+     */
+    void done(int value) {
+        nodes[--depth] = null;
+        push(value);
+    }
+
+    /**
+     * Adds the value of an operand done inline.
+     * @param value value
+     */
+    void push(int value) {
+        if (size == values.length) values = Arrays.copyOf(values, size * 2);
+        values[size++] = value;
+    }
+
+    /**
+     * @return value of the last operand done
+     */
+    int pop() {
+        return values[--size];
+    }
+
+    /**
+     * @param n number of operands
+     * @return values of the last {@code n} operands done, left to right
+     */
+    int[] pop(int n) {
+        size -= n;
+        return Arrays.copyOfRange(values, size, size + n);
+    }
+}
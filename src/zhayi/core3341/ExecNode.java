@@ -0,0 +1,687 @@
+package zhayi.core3341;
+
+import zhayi.core3341.CoreError.*;
+
+/**
+ * Self-specializing execution tree for CORE language for CSE 3341 Project
+ *
+ * Built from a parsed program by the {@code specialize} methods of each {@code CoreNode}: one final class per
+ * kind of statement, expression and condition, so that execution never switches on a node type. Nodes rewrite
+ * themselves in place once they learn something that makes a simpler form valid.
+ *
+ * A tree is built once per compiled program and shared by all of its runs, which may be concurrent, so all
+ * per-run state stays in the {@code Frame} and a rewrite must be valid for every run, not only the one that made
+ * it. A read or an increment that has seen its variable initialized therefore replaces itself with a form that
+ * tests the frame's initialized bit inline and keeps the checked path only for a frame where the variable is not
+ * yet set, which always ends in an error. Only reads proven initialized by {@code analyzeProg} skip the test. Two
+ * runs making the same rewrite at once replace a node with equivalent nodes, so whichever write wins is correct.
+ *
+ * @author Yi Zhang
+ */
+abstract class ExecNode {
+    ExecNode parent;
+
+    /**
+     * Makes {@code this} the parent of a new child.
+     * @param child child node
+     * @return {@code child}
+     */
+    <T extends ExecNode> T adopt(T child) {
+        if (child != null) child.parent = this;
+        return child;
+    }
+
+    /**
+     * Replaces {@code this} with {@code node} in its parent.
+     * @param node replacement
+     * @return {@code node}
+     */
+    <T extends ExecNode> T replace(T node) {
+        node.parent = parent;
+        parent.replaceChild(this, node);
+        return node;
+    }
+
+    /**
+     * Swaps one child for another, doing nothing if {@code child} was already replaced by another run.
+     * @param child current child
+     * @param node replacement
+     */
+    void replaceChild(ExecNode child, ExecNode node) {
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Executable expression, term or factor.
+     */
+    abstract static class ExprNode extends ExecNode {
+        abstract int eval(Frame f) throws InterpreterException;
+    }
+
+    /**
+     * Executable condition or compare.
+     */
+    abstract static class TestNode extends ExecNode {
+        abstract boolean test(Frame f) throws InterpreterException;
+    }
+
+    /**
+     * Executable statement or statement sequence.
+     */
+    abstract static class RunNode extends ExecNode {
+        abstract void exec(Frame f) throws InterpreterException;
+    }
+
+    /**
+     * Root of an execution tree.
+     */
+    static final class RootNode extends ExecNode {
+        private RunNode body;
+
+        RootNode(RunNode body) {
+            this.body = adopt(body);
+        }
+
+        void exec(Frame f) throws InterpreterException {
+            body.exec(f);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode node) {
+            if (body == child) body = (RunNode) node;
+        }
+    }
+
+    static final class ConstFac extends ExprNode {
+        final int value;
+
+        ConstFac(int value) {
+            this.value = value;
+        }
+
+        @Override
+        int eval(Frame f) {
+            return value;
+        }
+    }
+
+    /**
+     * Variable read not yet seen initialized.
+     */
+    static final class VarFac extends ExprNode {
+        final int slot;
+        final String name;
+        final int line;
+
+        VarFac(int slot, String name, int line) {
+            this.slot = slot;
+            this.name = name;
+            this.line = line;
+        }
+
+        @Override
+        int eval(Frame f) throws InterpreterException {
+            int value = f.load(slot, name, line);
+            replace(new SeenVarFac(slot, name, line));
+            return value;
+        }
+    }
+
+    /**
+     * Variable read seen initialized by some run, testing the bit inline.
+     */
+    static final class SeenVarFac extends ExprNode {
+        final int slot;
+        private final int mask;
+        private final String name;
+        private final int line;
+
+        SeenVarFac(int slot, String name, int line) {
+            this.slot = slot;
+            mask = 1 << slot;
+            this.name = name;
+            this.line = line;
+        }
+
+        @Override
+        int eval(Frame f) throws InterpreterException {
+            return (f.initialized & mask) != 0 ? f.values[slot] : f.load(slot, name, line);
+        }
+    }
+
+    /**
+     * Variable read proven initialized, without the check.
+     */
+    static final class InitVarFac extends ExprNode {
+        final int slot;
+
+        InitVarFac(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        int eval(Frame f) {
+            return f.values[slot];
+        }
+    }
+
+    /**
+     * Checked binary operation, keeping the expression text and line of its error message.
+     */
+    abstract static class ArithNode extends ExprNode {
+        ExprNode left;
+        ExprNode right;
+        final String text;
+        final int line;
+
+        ArithNode(ExprNode left, ExprNode right, String text, int line) {
+            this.left = adopt(left);
+            this.right = adopt(right);
+            this.text = text;
+            this.line = line;
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode node) {
+            if (left == child) left = (ExprNode) node;
+            else if (right == child) right = (ExprNode) node;
+        }
+    }
+
+    static final class AddNode extends ArithNode {
+        AddNode(ExprNode left, ExprNode right, String text, int line) {
+            super(left, right, text, line);
+        }
+
+        @Override
+        int eval(Frame f) throws InterpreterException {
+            return Closure.checked((long) left.eval(f) + right.eval(f), text, line);
+        }
+    }
+
+    static final class SubNode extends ArithNode {
+        SubNode(ExprNode left, ExprNode right, String text, int line) {
+            super(left, right, text, line);
+        }
+
+        @Override
+        int eval(Frame f) throws InterpreterException {
+            return Closure.checked((long) left.eval(f) - right.eval(f), text, line);
+        }
+    }
+
+    static final class MulNode extends ArithNode {
+        MulNode(ExprNode left, ExprNode right, String text, int line) {
+            super(left, right, text, line);
+        }
+
+        @Override
+        int eval(Frame f) throws InterpreterException {
+            return Closure.checked((long) left.eval(f) * right.eval(f), text, line);
+        }
+    }
+
+    /**
+     * Addition known not to overflow, see {@code Range}.
+     */
+    static final class IntAddNode extends ArithNode {
+        IntAddNode(ExprNode left, ExprNode right, String text, int line) {
+            super(left, right, text, line);
+        }
+
+        @Override
+        int eval(Frame f) throws InterpreterException {
+            return left.eval(f) + right.eval(f);
+        }
+    }
+
+    static final class IntSubNode extends ArithNode {
+        IntSubNode(ExprNode left, ExprNode right, String text, int line) {
+            super(left, right, text, line);
+        }
+
+        @Override
+        int eval(Frame f) throws InterpreterException {
+            return left.eval(f) - right.eval(f);
+        }
+    }
+
+    static final class IntMulNode extends ArithNode {
+        IntMulNode(ExprNode left, ExprNode right, String text, int line) {
+            super(left, right, text, line);
+        }
+
+        @Override
+        int eval(Frame f) throws InterpreterException {
+            return left.eval(f) * right.eval(f);
+        }
+    }
+
+    /**
+     * Expression or term of more than two operands, kept flat so that its depth does not grow with its length: the
+     * operands are evaluated left to right, then combined by the operators of the node it was built from.
+     */
+    static final class ChainNode extends ExprNode {
+        private final ExprNode[] operands;
+        private final CoreNode.Chain chain;
+
+        ChainNode(ExprNode[] operands, CoreNode.Chain chain) {
+            this.operands = operands;
+            for (ExprNode operand : operands) adopt(operand);
+            this.chain = chain;
+        }
+
+        @Override
+        int eval(Frame f) throws InterpreterException {
+            int[] values = new int[operands.length];
+            for (int i = 0; i < operands.length; i++) values[i] = operands[i].eval(f);
+            return chain.fold(values);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode node) {
+            for (int i = 0; i < operands.length; i++)
+                if (operands[i] == child) operands[i] = (ExprNode) node;
+        }
+    }
+
+    /**
+     * Compare of two factors.
+     */
+    abstract static class CompareNode extends TestNode {
+        ExprNode left;
+        ExprNode right;
+
+        CompareNode(ExprNode left, ExprNode right) {
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode node) {
+            if (left == child) left = (ExprNode) node;
+            else if (right == child) right = (ExprNode) node;
+        }
+    }
+
+    static final class NeqNode extends CompareNode {
+        NeqNode(ExprNode left, ExprNode right) {
+            super(left, right);
+        }
+
+        @Override
+        boolean test(Frame f) throws InterpreterException {
+            return left.eval(f) != right.eval(f);
+        }
+    }
+
+    static final class EqNode extends CompareNode {
+        EqNode(ExprNode left, ExprNode right) {
+            super(left, right);
+        }
+
+        @Override
+        boolean test(Frame f) throws InterpreterException {
+            return left.eval(f) == right.eval(f);
+        }
+    }
+
+    static final class GeqNode extends CompareNode {
+        GeqNode(ExprNode left, ExprNode right) {
+            super(left, right);
+        }
+
+        @Override
+        boolean test(Frame f) throws InterpreterException {
+            return left.eval(f) >= right.eval(f);
+        }
+    }
+
+    static final class LeqNode extends CompareNode {
+        LeqNode(ExprNode left, ExprNode right) {
+            super(left, right);
+        }
+
+        @Override
+        boolean test(Frame f) throws InterpreterException {
+            return left.eval(f) <= right.eval(f);
+        }
+    }
+
+    static final class GtNode extends CompareNode {
+        GtNode(ExprNode left, ExprNode right) {
+            super(left, right);
+        }
+
+        @Override
+        boolean test(Frame f) throws InterpreterException {
+            return left.eval(f) > right.eval(f);
+        }
+    }
+
+    static final class LtNode extends CompareNode {
+        LtNode(ExprNode left, ExprNode right) {
+            super(left, right);
+        }
+
+        @Override
+        boolean test(Frame f) throws InterpreterException {
+            return left.eval(f) < right.eval(f);
+        }
+    }
+
+    static final class NotNode extends TestNode {
+        private TestNode cond;
+
+        NotNode(TestNode cond) {
+            this.cond = adopt(cond);
+        }
+
+        @Override
+        boolean test(Frame f) throws InterpreterException {
+            return !cond.test(f);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode node) {
+            if (cond == child) cond = (TestNode) node;
+        }
+    }
+
+    static final class AndNode extends TestNode {
+        private TestNode cond1;
+        private TestNode cond2;
+
+        AndNode(TestNode cond1, TestNode cond2) {
+            this.cond1 = adopt(cond1);
+            this.cond2 = adopt(cond2);
+        }
+
+        @Override
+        boolean test(Frame f) throws InterpreterException {
+            return cond1.test(f) && cond2.test(f);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode node) {
+            if (cond1 == child) cond1 = (TestNode) node;
+            else if (cond2 == child) cond2 = (TestNode) node;
+        }
+    }
+
+    static final class OrNode extends TestNode {
+        private TestNode cond1;
+        private TestNode cond2;
+
+        OrNode(TestNode cond1, TestNode cond2) {
+            this.cond1 = adopt(cond1);
+            this.cond2 = adopt(cond2);
+        }
+
+        @Override
+        boolean test(Frame f) throws InterpreterException {
+            return cond1.test(f) || cond2.test(f);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode node) {
+            if (cond1 == child) cond1 = (TestNode) node;
+            else if (cond2 == child) cond2 = (TestNode) node;
+        }
+    }
+
+    static final class BlockNode extends RunNode {
+        private final RunNode[] stmts;
+
+        BlockNode(RunNode[] stmts) {
+            this.stmts = stmts;
+            for (RunNode stmt : stmts) adopt(stmt);
+        }
+
+        @Override
+        void exec(Frame f) throws InterpreterException {
+            for (RunNode stmt : stmts) stmt.exec(f);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode node) {
+            for (int i = 0; i < stmts.length; i++)
+                if (stmts[i] == child) stmts[i] = (RunNode) node;
+        }
+    }
+
+    static final class AssignNode extends RunNode {
+        private final int slot;
+        private ExprNode exp;
+
+        AssignNode(int slot, ExprNode exp) {
+            this.slot = slot;
+            this.exp = adopt(exp);
+        }
+
+        @Override
+        void exec(Frame f) throws InterpreterException {
+            f.store(slot, exp.eval(f));
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode node) {
+            if (exp == child) exp = (ExprNode) node;
+        }
+    }
+
+    /**
+     * {@code X = X + c} or {@code X = X - c}, with {@code X} not yet seen initialized.
+     */
+    static final class IncrementNode extends RunNode {
+        private final int slot;
+        private final String name;
+        private final int varLine;
+        private final int delta;
+        private final String text;
+        private final int line;
+
+        /**
+         * @param var the variable, read and assigned
+         * @param delta constant added, negative for a subtraction
+         * @param text expression text for the error message
+         * @param line line number for the error message
+         */
+        IncrementNode(VarFac var, int delta, String text, int line) {
+            slot = var.slot;
+            name = var.name;
+            varLine = var.line;
+            this.delta = delta;
+            this.text = text;
+            this.line = line;
+        }
+
+        @Override
+        void exec(Frame f) throws InterpreterException {
+            int value = f.load(slot, name, varLine);
+            f.store(slot, Closure.checked((long) value + delta, text, line));
+            replace(new SeenIncrementNode(this));
+        }
+    }
+
+    /**
+     * Increment with the variable seen initialized by some run, testing the bit inline.
+     */
+    static final class SeenIncrementNode extends RunNode {
+        private final int slot;
+        private final int mask;
+        private final String name;
+        private final int varLine;
+        private final int delta;
+        private final String text;
+        private final int line;
+
+        SeenIncrementNode(IncrementNode node) {
+            slot = node.slot;
+            mask = 1 << slot;
+            name = node.name;
+            varLine = node.varLine;
+            delta = node.delta;
+            text = node.text;
+            line = node.line;
+        }
+
+        @Override
+        void exec(Frame f) throws InterpreterException {
+            if ((f.initialized & mask) == 0) f.load(slot, name, varLine);
+            f.values[slot] = Closure.checked((long) f.values[slot] + delta, text, line);
+        }
+    }
+
+    /**
+     * Increment with the variable proven initialized, without the check.
+     */
+    static final class InitIncrementNode extends RunNode {
+        private final int slot;
+        private final int delta;
+        private final String text;
+        private final int line;
+
+        InitIncrementNode(int slot, int delta, String text, int line) {
+            this.slot = slot;
+            this.delta = delta;
+            this.text = text;
+            this.line = line;
+        }
+
+        @Override
+        void exec(Frame f) throws InterpreterException {
+            f.values[slot] = Closure.checked((long) f.values[slot] + delta, text, line);
+        }
+    }
+
+    /**
+     * Increment with the variable proven initialized and the result known to fit in an int.
+     */
+    static final class IntIncrementNode extends RunNode {
+        private final int slot;
+        private final int delta;
+
+        IntIncrementNode(int slot, int delta) {
+            this.slot = slot;
+            this.delta = delta;
+        }
+
+        @Override
+        void exec(Frame f) {
+            f.values[slot] += delta;
+        }
+    }
+
+    static final class IfNode extends RunNode {
+        private TestNode cond;
+        private RunNode then;
+        private RunNode otherwise;
+
+        IfNode(TestNode cond, RunNode then, RunNode otherwise) {
+            this.cond = adopt(cond);
+            this.then = adopt(then);
+            this.otherwise = adopt(otherwise);
+        }
+
+        @Override
+        void exec(Frame f) throws InterpreterException {
+            if (cond.test(f)) then.exec(f);
+            else if (otherwise != null) otherwise.exec(f);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode node) {
+            if (cond == child) cond = (TestNode) node;
+            else if (then == child) then = (RunNode) node;
+            else if (otherwise == child) otherwise = (RunNode) node;
+        }
+    }
+
+    static final class WhileNode extends RunNode {
+        private TestNode cond;
+        private RunNode body;
+
+        WhileNode(TestNode cond, RunNode body) {
+            this.cond = adopt(cond);
+            this.body = adopt(body);
+        }
+
+        @Override
+        void exec(Frame f) throws InterpreterException {
+            while (cond.test(f)) body.exec(f);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode node) {
+            if (cond == child) cond = (TestNode) node;
+            else if (body == child) body = (RunNode) node;
+        }
+    }
+
+    /**
+     * Loop that first skips the iterations its summary covers.
+     */
+    static final class SummaryWhileNode extends RunNode {
+        private final Summary summary;
+        private TestNode cond;
+        private RunNode body;
+
+        SummaryWhileNode(Summary summary, TestNode cond, RunNode body) {
+            this.summary = summary;
+            this.cond = adopt(cond);
+            this.body = adopt(body);
+        }
+
+        @Override
+        void exec(Frame f) throws InterpreterException {
+            summary.advance(f);
+            while (cond.test(f)) body.exec(f);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode node) {
+            if (cond == child) cond = (TestNode) node;
+            else if (body == child) body = (RunNode) node;
+        }
+    }
+
+    static final class ReadNode extends RunNode {
+        private final String[] names;
+        private final int[] slots;
+
+        ReadNode(String[] names, int[] slots) {
+            this.names = names;
+            this.slots = slots;
+        }
+
+        @Override
+        void exec(Frame f) throws InterpreterException {
+            int[] values = f.read(names);
+            for (int i = 0; i < values.length; i++) f.store(slots[i], values[i]);
+        }
+    }
+
+    static final class WriteNode extends RunNode {
+        private final String[] names;
+        private final int[] slots;
+        private final boolean[] proven;
+        private final int line;
+
+        /**
+         * @param proven whether each variable is known to be initialized, so that it is written without a check
+         */
+        WriteNode(String[] names, int[] slots, boolean[] proven, int line) {
+            this.names = names;
+            this.slots = slots;
+            this.proven = proven;
+            this.line = line;
+        }
+
+        @Override
+        void exec(Frame f) throws InterpreterException {
+            for (int i = 0; i < names.length; i++)
+                f.write(names[i], proven[i] ? f.values[slots[i]] : f.load(slots[i], names[i], line));
+        }
+    }
+}
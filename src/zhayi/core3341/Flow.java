@@ -0,0 +1,60 @@
+package zhayi.core3341;
+
+/**
+ * Definite assignment state for CORE language for CSE 3341 Project
+ *
+ * Carried through a parsed program in execution order by the {@code analyze} methods of each node, as two
+ * bitmasks over variable slots. Execution only goes on past a read of a variable if the variable was
+ * initialized, so a read counts as an assignment for everything after it.
+ *
+ * @author Yi Zhang
+ */
+final class Flow {
+    /**
+     * Variables assigned on every path to this point.
+     */
+    int must;
+
+    /**
+     * Variables assigned on some path to this point.
+     */
+    int may;
+
+    /**
+     * While analyzing the condition of a loop, the variables its body may assign. Only the first compare of a
+     * loop condition surely runs in its first evaluation; the rest may first run after the body.
+     */
+    int loop;
+
+    Flow() {
+    }
+
+    private Flow(int must, int may, int loop) {
+        this.must = must;
+        this.may = may;
+        this.loop = loop;
+    }
+
+    Flow copy() {
+        return new Flow(must, may, loop);
+    }
+
+    /**
+     * Marks a variable assigned.
+     * @param slot slot of the variable
+     */
+    void assign(int slot) {
+        must |= 1 << slot;
+        may |= 1 << slot;
+    }
+
+    /**
+     * Sets this to the state where two paths meet.
+     * @param a state at the end of one path
+     * @param b state at the end of the other
+     */
+    void join(Flow a, Flow b) {
+        must = a.must & b.must;
+        may = a.may | b.may;
+    }
+}
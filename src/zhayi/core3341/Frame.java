@@ -0,0 +1,100 @@
+package zhayi.core3341;
+
+import zhayi.core3341.CoreError.*;
+
+/**
+ * Execution frame for CORE language for CSE 3341 Project
+ *
+ * Everything one run of a program changes: the values of its variables, which of them are assigned, and where its
+ * read and write statements go. The parsed program, once its loops are optimized, is only read while it runs,
+ * so any number of frames can run it at once, each on its own thread. Every engine runs over a frame.
+ *
+ * @author Yi Zhang
+ */
+final class Frame {
+    /**
+     * Variable values by slot.
+     */
+    final int[] values = new int[ProgNode.MAX_SLOTS];
+
+    /**
+     * Bit {@code 1 << slot} is set once the variable in that slot has been assigned.
+     */
+    int initialized;
+
+    /**
+     * Where read statements take values from, and write statements go.
+     */
+    private final Input input;
+    private final Output output;
+
+    /**
+     * Frame over standard input and output: prompting for each value, and writing text.
+     */
+    Frame() {
+        this(Input.interactive(System.in, System.out, System.err), Output.text(System.out, false));
+    }
+
+    /**
+     * @param input where read statements take values from
+     * @param output where write statements go
+     */
+    Frame(Input input, Output output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * Reads a variable.
+     * @param slot slot of the variable
+     * @param name name of the variable, for the error message
+     * @param line line number of the access, for the error message
+     * @return value of the variable
+     * @throws InterpreterException if the variable has not been assigned
+     */
+    int load(int slot, String name, int line) throws InterpreterException {
+        if ((initialized & 1 << slot) == 0)
+            CoreNode.raiseInterpreter(line, new UninitializedException("Using uninitialized variable " + name));
+        return values[slot];
+    }
+
+    /**
+     * Assigns a variable.
+     * @param slot slot of the variable
+     * @param value new value
+     */
+    void store(int slot, int value) {
+        values[slot] = value;
+        initialized |= 1 << slot;
+    }
+
+    /**
+     * Reads the variables of one read statement from {@code input}, flushing what was written first if it is
+     * interactive.
+     * @param vars variable names in statement order
+     * @return values read, in the same order
+     * @throws InputException if a batch input has no integer for a variable
+     */
+    int[] read(String[] vars) throws InputException {
+        if (input.interactive()) flush();
+        int[] values = new int[vars.length];
+        for (int i = 0; i < vars.length; i++) values[i] = input.read(vars[i]);
+        return values;
+    }
+
+    /**
+     * Writes one variable for a write statement.
+     * @param var variable name
+     * @param value variable value
+     */
+    void write(String var, int value) {
+        output.write(var, value);
+    }
+
+    /**
+     * Hands everything written so far to its stream, once the program ends or before it blocks on a read.
+     */
+    void flush() {
+        output.flush();
+    }
+}
@@ -0,0 +1,159 @@
+package zhayi.core3341;
+
+import java.util.*;
+
+/**
+ * Loop optimization state for CORE language for CSE 3341 Project
+ *
+ * Carried through the body of one while loop by the {@code hoist} methods of each node, once the program is
+ * about to run. An expression reading only variables the loop does not assign is computed once before the loop,
+ * into a hidden variable. A product {@code I * c} of an induction variable, one the body moves by a constant step
+ * {@code d} in one statement of its own, is kept in a hidden variable that moves by {@code d * c} right after
+ * that statement. Either is computed before the loop only behind a first test of its condition, and only where
+ * every variable it reads is assigned on every path into the body and range analysis shows that it cannot
+ * overflow from any state entering the body, so that it never fails where the loop would not have.
+ *
+ * A hidden variable is named after the text of the expression it holds, which is never an identifier, so that the
+ * same expression anywhere shares it. Read back, it keeps that text for the messages of the operations around it.
+ *
+ * @author Yi Zhang
+ */
+final class Hoist {
+    private final ProgNode prog;
+
+    /**
+     * Bitmask of the variables the loop may assign.
+     */
+    private final int assigns;
+
+    /**
+     * Bitmask of the variables assigned on every path into the body.
+     */
+    private final int must;
+
+    /**
+     * Range states at the loop head, and entering the body.
+     */
+    private final Range head, body;
+
+    /**
+     * Bitmasks of the variables each statement of the body itself may assign: seen once as a step, or otherwise.
+     */
+    private int stepped, others;
+
+    /**
+     * Step of each variable in {@code stepped}.
+     */
+    private final int[] steps = new int[Integer.SIZE];
+
+    /**
+     * Hidden variables taken out of this loop, by the text of their expression.
+     */
+    private final Map<String, Integer> temps = new HashMap<>();
+
+    /**
+     * Statements to run before the loop, behind a first test of its condition.
+     */
+    final List<StmtNode> pre = new ArrayList<>();
+
+    /**
+     * Statements to run after the step of each induction variable, by slot.
+     */
+    private final Map<Integer, List<StmtNode>> post = new HashMap<>();
+
+    /**
+     * @param prog root node, to declare hidden variables
+     * @param assigns bitmask of the variables the loop may assign
+     * @param must bitmask of the variables assigned on every path into the body
+     * @param head range state at the loop head
+     * @param body range state entering the body
+     */
+    Hoist(ProgNode prog, int assigns, int must, Range head, Range body) {
+        this.prog = prog;
+        this.assigns = assigns;
+        this.must = must;
+        this.head = head;
+        this.body = body;
+    }
+
+    /**
+     * Records a statement of the body itself, before any is hoisted from.
+     * @param slot variable moved if the statement is a step, else -1
+     * @param step constant added
+     * @param assigns bitmask of the variables the statement may assign
+     */
+    void statement(int slot, int step, int assigns) {
+        if (slot >= 0 && ((stepped | others) & 1 << slot) == 0) {
+            stepped |= 1 << slot;
+            steps[slot] = step;
+        } else {
+            others |= assigns;
+        }
+    }
+
+    /**
+     * @return true if the variable keeps its value through the loop, and surely has one entering it
+     */
+    boolean invariant(int slot) {
+        return (assigns & 1 << slot) == 0 && (must & 1 << slot) != 0;
+    }
+
+    /**
+     * @return true if the variable is an induction variable, and surely has a value entering the loop
+     */
+    boolean induction(int slot) {
+        return (stepped & ~others & 1 << slot) != 0 && (must & 1 << slot) != 0;
+    }
+
+    /**
+     * Takes an invariant expression out of the loop. Its text is only built once it is known not to fail, as the
+     * caller tries every part of a long expression in turn.
+     * @param exp expression, no longer used where it was if this succeeds
+     * @param named node of the expression as written, whose text names the hidden variable
+     * @return hidden variable holding it, or -1 if it may fail or no slot is left
+     */
+    int hoist(ExpNode exp, CoreNode named) {
+        Range r = body.probe();
+        exp.rangeExp(r);
+        if (!r.fits()) return -1;
+        String text = named.toString();
+        Integer temp = temps.get(text);
+        if (temp != null) return temp;
+        return declare(text, exp);
+    }
+
+    /**
+     * Keeps the product of an induction variable and a constant in a hidden variable moved with it.
+     * @param slot induction variable
+     * @param factor constant
+     * @param product expression of the product, no longer used where it was if this succeeds
+     * @param text its text
+     * @return hidden variable holding it, or -1 if it may overflow anywhere in the loop or no slot is left
+     */
+    int reduce(int slot, int factor, ExpNode product, String text) {
+        Integer temp = temps.get(text);
+        if (temp != null) return temp;
+        long step = (long) steps[slot] * factor;
+        if (!Range.fits(Range.mul(head.get(slot), Range.of(factor))) || step != (int) step) return -1;
+        int t = declare(text, product);
+        if (t >= 0)
+            post.computeIfAbsent(slot, s -> new ArrayList<>()).add(StmtNode.assign(prog, t, text,
+                    ExpNode.increment(prog, t, text, (int) step)));
+        return t;
+    }
+
+    private int declare(String text, ExpNode exp) {
+        int temp = prog.temp(text);
+        if (temp < 0) return -1;
+        temps.put(text, temp);
+        pre.add(StmtNode.assign(prog, temp, text, exp));
+        return temp;
+    }
+
+    /**
+     * @return statements to run after the step of a variable
+     */
+    List<StmtNode> after(int slot) {
+        return post.getOrDefault(slot, Collections.emptyList());
+    }
+}
@@ -0,0 +1,242 @@
+package zhayi.core3341;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Scanner;
+
+import zhayi.core3341.CoreError.*;
+
+/**
+ * Input source for CORE language for CSE 3341 Project
+ *
+ * Where read statements take their values from, one variable at a time, kept by {@code Frame} for the whole
+ * run so that nothing buffered for one read is lost to the next. The interactive source prompts for each value
+ * and asks again until it gets an integer, for terminal use. The batch sources never prompt: text parses
+ * integers separated by whitespace or commas straight from bytes, and binary takes big-endian four byte ints as
+ * {@code DataOutput.writeInt} writes them. Either reads a stream through a buffer, or a file mapped into memory.
+ * A batch source fails on input that is not an integer, or when it runs out.
+ *
+ * @author Yi Zhang
+ */
+abstract class Input {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final String INPUT_TEMPLATE = "Input Error: [Value %d] %s";
+
+    /**
+     * Input formats selectable by {@code --input}.
+     */
+    static final String[] FORMATS = {"interactive", "text", "binary"};
+
+    /**
+     * Reads the value of one variable.
+     * @param var variable name
+     * @return value read
+     * @throws InputException if a batch source has no integer for it
+     */
+    abstract int read(String var) throws InputException;
+
+    /**
+     * @return true if reading may wait on a person, so that what was written should be flushed first
+     */
+    boolean interactive() {
+        return false;
+    }
+
+    /**
+     * @param in stream read
+     * @param out stream prompted on
+     * @param err stream invalid input is reported on
+     * @return source prompting for each value and asking again until the line entered is an integer
+     */
+    static Input interactive(InputStream in, PrintStream out, PrintStream err) {
+        Scanner sc = new Scanner(in);
+        return new Input() {
+            @Override
+            int read(String var) {
+                do {
+                    out.print(var + " =? ");
+                    out.flush();
+                    String input = sc.nextLine();
+                    try {
+                        return Integer.parseInt(input.trim()); // not utf-8 safe
+                    } catch (NumberFormatException e) {
+                        err.println("Invalid input, please enter integer from " + CoreNode.INT_MIN +
+                                " to " + CoreNode.INT_MAX + " inclusive" );
+                    }
+                } while (true);
+            }
+
+            @Override
+            boolean interactive() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param in stream read
+     * @return source parsing integers from the stream, see above
+     */
+    static Input text(InputStream in) {
+        return new Text(buffer(), Channels.newChannel(in));
+    }
+
+    /**
+     * @param in stream read
+     * @return source taking big-endian ints from the stream
+     */
+    static Input binary(InputStream in) {
+        return new Binary(buffer(), Channels.newChannel(in));
+    }
+
+    /**
+     * Opens a file for a batch source, mapped into memory unless it is too large for one buffer.
+     * @param format {@code text} or {@code binary}
+     * @param file file read
+     * @return source over the file
+     * @throws IOException if the file cannot be opened
+     */
+    static Input of(String format, Path file) throws IOException {
+        ByteBuffer buf;
+        ReadableByteChannel channel;
+        try (FileChannel mapped = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (mapped.size() <= Integer.MAX_VALUE) {
+                buf = mapped.map(FileChannel.MapMode.READ_ONLY, 0, mapped.size());
+                channel = null;
+            } else {
+                buf = buffer();
+                channel = FileChannel.open(file, StandardOpenOption.READ);
+            }
+        }
+        return format.equals("binary") ? new Binary(buf, channel) : new Text(buf, channel);
+    }
+
+    /**
+     * @param format one of {@code FORMATS}
+     * @param in stream read
+     * @param out stream prompted on
+     * @param err stream invalid input is reported on
+     * @return source of that format over the stream
+     */
+    static Input of(String format, InputStream in, PrintStream out, PrintStream err) {
+        switch (format) {
+            case "interactive":
+                return interactive(in, out, err);
+            case "text":
+                return text(in);
+            case "binary":
+                return binary(in);
+            default:
+                throw new IllegalArgumentException("Unknown input format " + format);
+        }
+    }
+
+    private static ByteBuffer buffer() {
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Batch source over a buffer, refilled from a channel unless the buffer maps the whole file.
+     */
+    private abstract static class Batch extends Input {
+        final ByteBuffer buf;
+        private final ReadableByteChannel channel;
+
+        /**
+         * Values read so far.
+         */
+        int count;
+
+        Batch(ByteBuffer buf, ReadableByteChannel channel) {
+            this.buf = buf;
+            this.channel = channel;
+        }
+
+        /**
+         * Reads more of the channel after what is left in the buffer.
+         * @return false if nothing more was read
+         */
+        boolean fill() {
+            if (channel == null) return false;
+            buf.compact();
+            try {
+                int n;
+                do {
+                    n = channel.read(buf);
+                } while (n == 0);
+                return n > 0;
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } finally {
+                buf.flip();
+            }
+        }
+
+        InputException error(String msg) {
+            return new InputException(String.format(INPUT_TEMPLATE, count + 1, msg));
+        }
+    }
+
+    private static final class Text extends Batch {
+        Text(ByteBuffer buf, ReadableByteChannel channel) {
+            super(buf, channel);
+        }
+
+        /**
+         * @return next byte, or -1 at the end of input
+         */
+        private int next() {
+            if (!buf.hasRemaining() && !fill()) return -1;
+            return buf.get() & 0xff;
+        }
+
+        @Override
+        int read(String var) throws InputException {
+            int c = next();
+            while (c == ' ' || c == ',' || c >= '\t' && c <= '\r') c = next();
+            if (c == -1) throw error("No more input for " + var);
+
+            boolean negative = c == '-';
+            if (c == '-' || c == '+') c = next();
+            if (c < '0' || c > '9') throw error("Expected integer for " + var);
+            long value = 0;
+            do {
+                value = value * 10 + (c - '0');
+                if (value > (negative ? -(long) CoreNode.INT_MIN : CoreNode.INT_MAX))
+                    throw error("Integer for " + var + " is out of range");
+                c = next();
+            } while (c >= '0' && c <= '9');
+            if (c != -1 && c != ' ' && c != ',' && (c < '\t' || c > '\r'))
+                throw error("Expected integer for " + var);
+
+            count++;
+            return (int) (negative ? -value : value);
+        }
+    }
+
+    private static final class Binary extends Batch {
+        Binary(ByteBuffer buf, ReadableByteChannel channel) {
+            super(buf, channel);
+        }
+
+        @Override
+        int read(String var) throws InputException {
+            while (buf.remaining() < Integer.BYTES) {
+                if (!fill()) throw error(buf.hasRemaining() ? "Incomplete int for " + var : "No more input for " + var);
+            }
+            count++;
+            return buf.getInt();
+        }
+    }
+}
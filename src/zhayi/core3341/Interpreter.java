@@ -1,8 +1,18 @@
 package zhayi.core3341;
 import zhayi.core3341.CoreError.InterpreterException;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+import java.util.logging.StreamHandler;
 
 /**
  * Interpreter entry point for CSE 3341 Project PA3
@@ -11,10 +21,123 @@ import java.util.logging.Logger;
  */
 public final class Interpreter {
 
+    private static final String USAGE =
+            "Usage: java -jar Core.jar <option> [<flag>...] <test-file>\n" +
+            "   or: java -jar Core.jar --daemon [--socket=<path>]\n" +
+            "   or: java -jar Core.jar --client [--socket=<path>] -i [<flag>...] <test-file>\n" +
+            "where <test-file> is a path, or - to read the program from standard input, and <option> includes\n" +
+            "\t-t\tRun tokenizer only\n" +
+            "\t-p\tRun parser only\n" +
+            "\t-i\tRun the full interpreter\n" +
+            "\t-c\tCompile ahead of time into the cache and print the path of the artifact\n" +
+            "\t--daemon\tServe -i runs to clients on a Unix-domain socket, keeping compiled programs warm\n" +
+            "\t--client\tRun -i in the daemon, forwarding the arguments, standard input and output\n" +
+            "and <flag> includes\n" +
+            "\t--lazy\tTokenize while parsing instead of before (-p, -i)\n" +
+            "\t--engine=<engine>\tExecute with tree (default), spec, closure, vm, jit, ir to optimize first, or aot\n" +
+            "\t\t\tto run from the cache, compiling into it first if needed (-i)\n" +
+            "\t--dump-ir\tList the IR to standard error before and after each optimizer pass, with its time\n" +
+            "\t\t\t(-i with --engine=ir)\n" +
+            "\t--report-checks\tPrint to standard error how many uninitialized and overflow checks analysis\n" +
+            "\t\t\tremoved (-p, -i except with --engine=aot)\n" +
+            "\t--strict\tReject a program reading a variable that no path to the read assigns (-p, -i, -c)\n" +
+            "\t--cache=<dir>\tCache directory instead of ~/.cache/core3341 (-c, -i)\n" +
+            "\t--output=<format>\tWrite values as text (default), csv rows, or binary records (-i)\n" +
+            "\t--flush=<policy>\tFlush written values when the buffer is full (default), or after each one (-i)\n" +
+            "\t--input=<format>\tRead values with a prompt for each (interactive, default), or without prompts as\n" +
+            "\t\t\tintegers in text or big-endian ints in binary (-i)\n" +
+            "\t--input-file=<file>\tRead values from a file instead of standard input (-i with --input=text or binary)\n" +
+            "\t--batch=<file>\tRun once per line of the file, reading the line as text, and write the output of\n" +
+            "\t\t\teach run in order (-i)\n" +
+            "\t--threads=<n>\tRuns at once for --batch, instead of one per processor (-i with --batch)\n" +
+            "\t--socket=<path>\tSocket of the daemon instead of ~/.cache/core3341/daemon.sock (--daemon, --client)";
+
+    /**
+     * Flush policies selectable by {@code --flush}.
+     */
+    private static final List<String> FLUSH = Arrays.asList("full", "each");
+
     private Logger interpreterLog;
 
     private Tokenizer tokenizer;
-    private Parser parser;
+
+    /**
+     * Tokenize lazily while parsing.
+     */
+    private boolean lazy;
+
+    /**
+     * Execution engine, one of {@code CoreEngine.ENGINES}.
+     */
+    private String engine = "tree";
+
+    /**
+     * Reject programs that read a variable before any assignment.
+     */
+    private boolean strict;
+
+    /**
+     * List the IR while optimizing it.
+     */
+    private boolean dumpIr;
+
+    /**
+     * Report the runtime checks removed once parsed.
+     */
+    private boolean reportChecks;
+
+    /**
+     * Format of written values, one of {@code Output.FORMATS}.
+     */
+    private String output = "text";
+
+    /**
+     * Flush after every written value.
+     */
+    private boolean flushEach;
+
+    /**
+     * Format of read values, one of {@code Input.FORMATS}.
+     */
+    private String input = "interactive";
+
+    /**
+     * File to read values from instead of standard input, or null.
+     */
+    private Path inputFile;
+
+    /**
+     * File of input vectors to run the program once per line of, or null.
+     */
+    private Path batch;
+
+    /**
+     * Runs at once for {@code batch}, or 0 for one per processor.
+     */
+    private int threads;
+
+    /**
+     * Directory of ahead-of-time compiled programs.
+     */
+    private Path cache = Artifact.defaultDirectory();
+
+    /**
+     * Where a run reads values, writes them and reports errors: the standard streams, or those of a daemon
+     * request.
+     */
+    private final InputStream in;
+    private final PrintStream out;
+    private final PrintStream err;
+
+    /**
+     * Directory paths in the arguments are relative to.
+     */
+    private final Path dir;
+
+    /**
+     * Daemon keeping compiled programs across requests, or null.
+     */
+    private final Daemon daemon;
 
     /**
      * Setup logger
@@ -23,6 +146,215 @@ public final class Interpreter {
         interpreterLog = Logger.getLogger("Interpreter");
         interpreterLog.setLevel(Level.SEVERE);
         interpreterLog.fine("Interpreter logger created");
+        in = System.in;
+        out = System.out;
+        err = System.err;
+        dir = Paths.get("");
+        daemon = null;
+    }
+
+    /**
+     * Interpreter for one daemon request.
+     * @param log logger writing to {@code err}
+     * @param dir directory of the client
+     * @param in standard input of the client
+     * @param out standard output of the client
+     * @param err standard error of the client
+     * @param daemon daemon serving the request
+     */
+    private Interpreter(Logger log, Path dir, InputStream in, PrintStream out, PrintStream err, Daemon daemon) {
+        interpreterLog = log;
+        this.in = in;
+        this.out = out;
+        this.err = err;
+        this.dir = dir;
+        this.daemon = daemon;
+    }
+
+    /**
+     * Reads the flags between the option and the test file.
+     * @param args command line arguments
+     * @throws InterpreterException if a flag is not recognized
+     */
+    private void parseFlags(String[] args) throws InterpreterException {
+        for (int i = 1; i < args.length - 1; i++) {
+            if (args[i].equals("--lazy")) {
+                lazy = true;
+            } else if (args[i].startsWith("--engine=") && CoreEngine.ENGINES.contains(args[i].substring(9))) {
+                engine = args[i].substring(9);
+            } else if (args[i].equals("--strict")) {
+                strict = true;
+            } else if (args[i].equals("--dump-ir")) {
+                dumpIr = true;
+            } else if (args[i].equals("--report-checks")) {
+                reportChecks = true;
+            } else if (args[i].startsWith("--cache=")) {
+                cache = dir.resolve(args[i].substring(8));
+            } else if (args[i].startsWith("--output=") && Arrays.asList(Output.FORMATS).contains(args[i].substring(9))) {
+                output = args[i].substring(9);
+            } else if (args[i].startsWith("--flush=") && FLUSH.contains(args[i].substring(8))) {
+                flushEach = args[i].substring(8).equals("each");
+            } else if (args[i].startsWith("--input=") && Arrays.asList(Input.FORMATS).contains(args[i].substring(8))) {
+                input = args[i].substring(8);
+            } else if (args[i].startsWith("--input-file=")) {
+                inputFile = dir.resolve(args[i].substring(13));
+            } else if (args[i].startsWith("--batch=")) {
+                batch = dir.resolve(args[i].substring(8));
+            } else if (args[i].matches("--threads=[1-9][0-9]{0,3}")) {
+                threads = Integer.parseInt(args[i].substring(10));
+            } else {
+                throw new InterpreterException("Unknown flag " + args[i] + "\n" + USAGE);
+            }
+        }
+        if (dumpIr && !engine.equals("ir"))
+            throw new InterpreterException("--dump-ir needs --engine=ir\n" + USAGE);
+        if (reportChecks && engine.equals("aot"))
+            throw new InterpreterException("--report-checks needs a program parsed, not --engine=aot\n" + USAGE);
+        if (inputFile != null && input.equals("interactive"))
+            throw new InterpreterException("--input-file needs --input=text or binary\n" + USAGE);
+        if (batch != null && (inputFile != null || !input.equals("interactive")))
+            throw new InterpreterException("--batch reads its input vectors, not --input\n" + USAGE);
+        if (threads != 0 && batch == null)
+            throw new InterpreterException("--threads needs --batch\n" + USAGE);
+    }
+
+    /**
+     * Compiles the program through a {@code CoreEngine} and runs it over {@code in} and {@code out}, or once per
+     * input vector of {@code batch}.
+     * @param source program source
+     * @return 0, or the status of the first error
+     */
+    private int exec(Source source) {
+        CoreEngine core = new CoreEngine(engine, strict, lazy, cache);
+        Frame f = null;
+        if (batch == null) {
+            Input values;
+            if (inputFile == null) {
+                values = Input.of(input, in, out, err);
+            } else {
+                try {
+                    values = Input.of(input, inputFile);
+                } catch (IOException ex) {
+                    interpreterLog.severe("Cannot open input " + ex);
+                    return ex.hashCode();
+                }
+            }
+            f = new Frame(values, Output.of(output, out, flushEach));
+        }
+
+        CoreEngine.CompiledProgram program;
+        try {
+            PrintStream checks = reportChecks ? err : null, dump = dumpIr ? err : null;
+            program = daemon == null ? core.compile(source, checks, dump)
+                    : daemon.compile(core, engine + " " + strict + " " + cache, source, checks, dump);
+        } catch (CoreEngine.CompileException ex) {
+            interpreterLog.severe(ex.getLocalizedMessage());
+            return ex.status();
+        } catch (IOException ex) {
+            interpreterLog.severe(ex.toString());
+            return ex.hashCode();
+        }
+
+        if (batch != null) return execBatch(program);
+        CoreEngine.Result result = core.run(program, f);
+        if (result.error() != null) interpreterLog.severe(result.error().toString());
+        return result.status();
+    }
+
+    /**
+     * Parses the program through a {@code CoreEngine} and prints it to standard output.
+     * @param source program source
+     * @return 0, or the status of the first error
+     */
+    private int print(Source source) {
+        try {
+            new CoreEngine(engine, strict, lazy, cache).print(source, reportChecks ? err : null);
+        } catch (CoreEngine.CompileException ex) {
+            interpreterLog.severe(ex.getLocalizedMessage());
+            return ex.status();
+        }
+        return 0;
+    }
+
+    /**
+     * Compiles the program through a {@code CoreEngine} into the cache and prints the path of the artifact.
+     * @param source program source
+     * @return 0, or the status of the first error
+     */
+    private int compileToCache(Source source) {
+        try {
+            out.println(new CoreEngine("aot", strict, lazy, cache).compileToCache(source));
+        } catch (CoreEngine.CompileException ex) {
+            interpreterLog.severe(ex.getLocalizedMessage());
+            return ex.status();
+        }
+        return 0;
+    }
+
+    /**
+     * Runs a program once per input vector of {@code batch}, see {@code Batch}, and writes what each run wrote
+     * to {@code out} in the order of the vectors. A run that fails has its error logged after its output, and
+     * the others still run.
+     * @param program compiled program
+     * @return 0, or the status of the first failure
+     */
+    private int execBatch(CoreEngine.CompiledProgram program) {
+        Batch.Result[] results;
+        try {
+            int n = threads != 0 ? threads : Runtime.getRuntime().availableProcessors();
+            results = Batch.run(program.program, Batch.vectors(batch), output, n);
+        } catch (IOException ex) {
+            interpreterLog.severe("Cannot read input vectors " + ex);
+            return ex.hashCode();
+        }
+
+        InterpreterException failed = null;
+        for (int i = 0; i < results.length; i++) {
+            out.write(results[i].output, 0, results[i].output.length);
+            if (results[i].error != null) {
+                out.flush();
+                interpreterLog.severe(String.format("[Vector %d] %s", i + 1, results[i].error.getLocalizedMessage()));
+                if (failed == null) failed = results[i].error;
+            }
+        }
+        out.flush();
+        return failed == null ? 0 : failed.hashCode();
+    }
+
+    /**
+     * Serves one daemon request, as {@code main} would run its arguments with {@code -i}.
+     * @param daemon daemon serving the request
+     * @param args command line arguments of the client
+     * @param dir directory of the client
+     * @param in standard input of the client
+     * @param out standard output of the client
+     * @param err standard error of the client
+     * @return status the client exits with
+     */
+    static int serve(Daemon daemon, String[] args, Path dir, InputStream in, PrintStream out, PrintStream err) {
+        Logger log = Logger.getAnonymousLogger();
+        log.setUseParentHandlers(false);
+        log.setLevel(Level.SEVERE);
+        StreamHandler handler = new StreamHandler(err, new SimpleFormatter()) {
+            @Override
+            public synchronized void publish(LogRecord record) {
+                super.publish(record);
+                flush();
+            }
+        };
+        log.addHandler(handler);
+
+        Interpreter interpreter = new Interpreter(log, dir, in, out, err, daemon);
+        try {
+            if (args.length < 2 || !args[0].equals("-i"))
+                throw new InterpreterException("The daemon runs -i only\n" + USAGE);
+            interpreter.parseFlags(args);
+            String path = args[args.length - 1];
+            return interpreter.exec(path.equals("-") ? Source.stream(in) : Source.file(dir.resolve(path).toString()));
+        } catch (InterpreterException ex) {
+            log.severe(ex.getLocalizedMessage());
+            return ex.hashCode();
+        }
     }
 
     /**
@@ -30,46 +362,33 @@ public final class Interpreter {
      * @param args command line arguments
      */
     public static void main(String[] args) {
+        if (args.length > 0 && (args[0].equals("--daemon") || args[0].equals("--client"))) {
+            System.exit(Daemon.main(args, USAGE));
+        }
         Interpreter interpreter = new Interpreter();
 
         try {
             if (args.length < 2) {
-                throw new InterpreterException(
-                        "Invalid number of arguments\n" +
-                                "Usage: java -jar Core.jar <option> <test-file>\n" +
-                                "where <option> includes\n" +
-                                "\t-t\tRun tokenizer only\n" +
-                                "\t-p\tRun parser only\n" +
-                                "\t-i\tRun the full interpreter"
-                );
+                throw new InterpreterException("Invalid number of arguments\n" + USAGE);
             }
+            interpreter.parseFlags(args);
+            Source source = Source.fromArgument(args[args.length - 1]);
 
             switch (args[0]) {
                 case "-t":
                     interpreter.tokenizer = new Tokenizer();
-                    interpreter.tokenizer.tokenize(args[1]);
-                    for (Token token : interpreter.tokenizer)
-                        System.out.println(token);
+                    interpreter.tokenizer.tokenize(source);
+                    for (int i = 0; i < interpreter.tokenizer.size(); i++)
+                        System.out.println(interpreter.tokenizer.code(i));
                     System.exit(0);
                 case "-p":
-                    interpreter.parser = new Parser();
-                    interpreter.parser.parse(args[1]);
-                    interpreter.parser.printParser();
-                    System.exit(0);
+                    System.exit(interpreter.print(source));
                 case "-i":
-                    interpreter.parser = new Parser();
-                    interpreter.parser.parse(args[1]);
-                    interpreter.parser.execProg(interpreter.interpreterLog);
-                    System.exit(0);
+                    System.exit(interpreter.exec(source));
+                case "-c":
+                    System.exit(interpreter.compileToCache(source));
                 default:
-                    throw new InterpreterException(
-                            "Invalid number of arguments\n" +
-                                    "Usage: java -jar Core.jar <option> <test-file>\n" +
-                                    "where <option> includes\n" +
-                                    "\t-t\tRun tokenizer only\n" +
-                                    "\t-p\tRun parser only\n" +
-                                    "\t-i\tRun the full interpreter"
-                    );
+                    throw new InterpreterException("Invalid number of arguments\n" + USAGE);
             }
         } catch (InterpreterException ex) {
             interpreter.interpreterLog.severe(ex.getLocalizedMessage());
@@ -0,0 +1,565 @@
+package zhayi.core3341;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import zhayi.core3341.CoreError.*;
+
+/**
+ * Three-address intermediate representation for CORE language for CSE 3341 Project
+ *
+ * Lowered from a parsed program by the {@code lower} methods of each node, rewritten by the passes of
+ * {@code Optimizer}, and run directly. Statements stay structured, as blocks of instructions nested in if and
+ * while nodes, and conditions keep their short-circuit shape, each compare carrying the instructions that
+ * compute its operands. Every value lives in a register, numbered from 0 and assigned by exactly one
+ * instruction, which always runs before any instruction using it; variables are only touched by
+ * {@code LOAD}, {@code STORE}, {@code WRITE} and read nodes.
+ *
+ * @author Yi Zhang
+ */
+final class Ir {
+    /**
+     * {@code dest = const a}
+     */
+    static final int CONST = 0;
+
+    /**
+     * {@code dest = load a}: read variable {@code a}, failing at {@code line} if it is uninitialized and
+     * {@code checked} is set.
+     */
+    static final int LOAD = 1;
+
+    /**
+     * {@code store a, b}: assign register {@code b} to variable {@code a}.
+     */
+    static final int STORE = 2;
+
+    /**
+     * {@code dest = copy a}
+     */
+    static final int COPY = 3;
+
+    /**
+     * {@code dest = add a, b}, {@code sub}, {@code mul}: operation on registers, failing with the text of
+     * {@code node} and {@code line} if the result does not fit in an int. Without {@code checked} the result is known to fit, so
+     * that the operation cannot fail; it still runs the same way, the check being cheaper than a branch on it.
+     */
+    static final int ADD = 4;
+    static final int SUB = 5;
+    static final int MUL = 6;
+
+    /**
+     * {@code write a, b}: write variable {@code a}, whose value is in register {@code b}.
+     */
+    static final int WRITE = 7;
+
+    private static final String[] MNEMONIC = {"const", "load", "store", "copy", "add", "sub", "mul", "write"};
+
+    /**
+     * Comparison symbols, from {@code Token.NEQ} on.
+     */
+    private static final String[] COMPARE = {"!=", "==", ">=", "<=", ">", "<"};
+
+    /**
+     * Variable names by slot.
+     */
+    final String[] names;
+
+    final Block body;
+
+    /**
+     * Number of registers.
+     */
+    final int registers;
+
+    Ir(String[] names, Block body, int registers) {
+        this.names = names;
+        this.body = body;
+        this.registers = registers;
+    }
+
+    /**
+     * Runs the program.
+     * @param f frame of the run
+     * @throws InterpreterException on the first runtime error
+     */
+    void run(Frame f) throws InterpreterException {
+        body.exec(f, new int[registers]);
+    }
+
+    /**
+     * Lists the program, one instruction per line, for {@code --dump-ir}.
+     * @return listing
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        body.print(sb, 1);
+        return sb.toString();
+    }
+
+    private static void indent(StringBuilder sb, int level) {
+        for (int i = 0; i < level; i++) sb.append("  ");
+    }
+
+    /**
+     * Statement level node.
+     */
+    abstract static class Node {
+        abstract void exec(Frame f, int[] r) throws InterpreterException;
+
+        abstract void print(StringBuilder sb, int level);
+    }
+
+    /**
+     * Sequence of nodes, run by order.
+     */
+    static final class Block {
+        final List<Node> nodes = new ArrayList<>();
+
+        void exec(Frame f, int[] r) throws InterpreterException {
+            for (Node node : nodes) node.exec(f, r);
+        }
+
+        void print(StringBuilder sb, int level) {
+            for (Node node : nodes) node.print(sb, level);
+        }
+    }
+
+    static final class Insn extends Node {
+        int op;
+        int dest;
+        int a;
+        int b;
+
+        /**
+         * Variable name of {@code LOAD}, {@code STORE} and {@code WRITE}.
+         */
+        String text;
+        int line;
+
+        /**
+         * Node and index within it of checked arithmetic, whose text is only built once it fails, see
+         * {@code CoreNode.getText}.
+         */
+        CoreNode node;
+        int index;
+
+        /**
+         * Whether a {@code LOAD} checks that its variable is initialized, or arithmetic that its result fits in
+         * an int.
+         */
+        boolean checked = true;
+
+        Insn(int op, int dest, int a, int b, String text, int line) {
+            this.op = op;
+            this.dest = dest;
+            this.a = a;
+            this.b = b;
+            this.text = text;
+            this.line = line;
+        }
+
+        /**
+         * @return true if this is {@code ADD}, {@code SUB} or {@code MUL}
+         */
+        boolean isArithmetic() {
+            return op == ADD || op == SUB || op == MUL;
+        }
+
+        /**
+         * Turns this into {@code dest = const value}.
+         */
+        void constant(int value) {
+            op = CONST;
+            a = value;
+        }
+
+        /**
+         * Turns this into {@code dest = copy src}.
+         */
+        void copy(int src) {
+            op = COPY;
+            a = src;
+        }
+
+        @Override
+        void exec(Frame f, int[] r) throws InterpreterException {
+            switch (op) {
+                case CONST:
+                    r[dest] = a;
+                    break;
+                case LOAD:
+                    r[dest] = checked ? f.load(a, text, line) : f.values[a];
+                    break;
+                case STORE:
+                    f.store(a, r[b]);
+                    break;
+                case COPY:
+                    r[dest] = r[a];
+                    break;
+                case ADD:
+                    r[dest] = checked((long) r[a] + r[b]);
+                    break;
+                case SUB:
+                    r[dest] = checked((long) r[a] - r[b]);
+                    break;
+                case MUL:
+                    r[dest] = checked((long) r[a] * r[b]);
+                    break;
+                case WRITE:
+                    f.write(text, r[b]);
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+
+        private int checked(long value) throws InterpreterException {
+            return value == (int) value ? (int) value : Closure.checked(value, node.getText(index), line);
+        }
+
+        @Override
+        void print(StringBuilder sb, int level) {
+            indent(sb, level);
+            switch (op) {
+                case CONST:
+                    sb.append(String.format("r%d = const %d", dest, a));
+                    break;
+                case LOAD:
+                    sb.append(String.format("r%d = load %s%s", dest, text, checked ? "" : " (unchecked)"));
+                    break;
+                case STORE:
+                case WRITE:
+                    sb.append(String.format("%s %s, r%d", MNEMONIC[op], text, b));
+                    break;
+                case COPY:
+                    sb.append(String.format("r%d = copy r%d", dest, a));
+                    break;
+                default:
+                    sb.append(String.format("r%d = %s r%d, r%d%s", dest, MNEMONIC[op], a, b, checked ? "" : " (unchecked)"));
+                    if (node != null) sb.append("    ; ").append(node.getText(index));
+            }
+            if (line > 0) sb.append(String.format("    [line %d]", line));
+            sb.append('\n');
+        }
+    }
+
+    /**
+     * Read statement, assigning all its variables.
+     */
+    static final class Read extends Node {
+        final String[] names;
+        final int[] slots;
+
+        Read(String[] names, int[] slots) {
+            this.names = names;
+            this.slots = slots;
+        }
+
+        @Override
+        void exec(Frame f, int[] r) throws InterpreterException {
+            int[] values = f.read(names);
+            for (int i = 0; i < values.length; i++) f.store(slots[i], values[i]);
+        }
+
+        @Override
+        void print(StringBuilder sb, int level) {
+            indent(sb, level);
+            sb.append("read ").append(String.join(", ", names)).append('\n');
+        }
+    }
+
+    static final class If extends Node {
+        Cond cond;
+        final Block then;
+
+        /**
+         * Else branch, empty if there is none.
+         */
+        final Block otherwise;
+
+        If(Cond cond, Block then, Block otherwise) {
+            this.cond = cond;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        void exec(Frame f, int[] r) throws InterpreterException {
+            if (cond.test(f, r)) then.exec(f, r);
+            else otherwise.exec(f, r);
+        }
+
+        @Override
+        void print(StringBuilder sb, int level) {
+            indent(sb, level);
+            sb.append("if\n");
+            cond.print(sb, level + 1);
+            indent(sb, level);
+            sb.append("then\n");
+            then.print(sb, level + 1);
+            if (!otherwise.nodes.isEmpty()) {
+                indent(sb, level);
+                sb.append("else\n");
+                otherwise.print(sb, level + 1);
+            }
+            indent(sb, level);
+            sb.append("end\n");
+        }
+    }
+
+    static final class While extends Node {
+        Cond cond;
+        final Block body;
+
+        While(Cond cond, Block body) {
+            this.cond = cond;
+            this.body = body;
+        }
+
+        @Override
+        void exec(Frame f, int[] r) throws InterpreterException {
+            while (cond.test(f, r)) body.exec(f, r);
+        }
+
+        @Override
+        void print(StringBuilder sb, int level) {
+            indent(sb, level);
+            sb.append("while\n");
+            cond.print(sb, level + 1);
+            indent(sb, level);
+            sb.append("loop\n");
+            body.print(sb, level + 1);
+            indent(sb, level);
+            sb.append("end\n");
+        }
+    }
+
+    /**
+     * Condition, evaluated with short-circuit.
+     */
+    abstract static class Cond {
+        abstract boolean test(Frame f, int[] r) throws InterpreterException;
+
+        abstract void print(StringBuilder sb, int level);
+    }
+
+    /**
+     * Compare of two registers, computed by {@code prelude} first.
+     */
+    static final class Test extends Cond {
+        final Block prelude;
+
+        /**
+         * One of {@code Token.NEQ} through {@code Token.LT}.
+         */
+        final int compare;
+        int a;
+        int b;
+
+        Test(Block prelude, int compare, int a, int b) {
+            this.prelude = prelude;
+            this.compare = compare;
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        boolean test(Frame f, int[] r) throws InterpreterException {
+            prelude.exec(f, r);
+            return holds(compare, r[a], r[b]);
+        }
+
+        @Override
+        void print(StringBuilder sb, int level) {
+            prelude.print(sb, level);
+            indent(sb, level);
+            sb.append(String.format("r%d %s r%d\n", a, COMPARE[compare - Token.NEQ], b));
+        }
+    }
+
+    /**
+     * Condition whose result is known, once {@code prelude} has run.
+     */
+    static final class Known extends Cond {
+        final Block prelude;
+        final boolean value;
+
+        Known(Block prelude, boolean value) {
+            this.prelude = prelude;
+            this.value = value;
+        }
+
+        @Override
+        boolean test(Frame f, int[] r) throws InterpreterException {
+            prelude.exec(f, r);
+            return value;
+        }
+
+        @Override
+        void print(StringBuilder sb, int level) {
+            prelude.print(sb, level);
+            indent(sb, level);
+            sb.append(value).append('\n');
+        }
+    }
+
+    static final class Not extends Cond {
+        Cond cond;
+
+        Not(Cond cond) {
+            this.cond = cond;
+        }
+
+        @Override
+        boolean test(Frame f, int[] r) throws InterpreterException {
+            return !cond.test(f, r);
+        }
+
+        @Override
+        void print(StringBuilder sb, int level) {
+            indent(sb, level);
+            sb.append("not\n");
+            cond.print(sb, level + 1);
+        }
+    }
+
+    /**
+     * {@code and} if {@code and} is set, else {@code or}.
+     */
+    static final class Logic extends Cond {
+        final boolean and;
+        Cond cond1;
+        Cond cond2;
+
+        Logic(boolean and, Cond cond1, Cond cond2) {
+            this.and = and;
+            this.cond1 = cond1;
+            this.cond2 = cond2;
+        }
+
+        @Override
+        boolean test(Frame f, int[] r) throws InterpreterException {
+            return and ? cond1.test(f, r) && cond2.test(f, r) : cond1.test(f, r) || cond2.test(f, r);
+        }
+
+        @Override
+        void print(StringBuilder sb, int level) {
+            indent(sb, level);
+            sb.append(and ? "and\n" : "or\n");
+            cond1.print(sb, level + 1);
+            cond2.print(sb, level + 1);
+        }
+    }
+
+    /**
+     * Evaluates a comparison.
+     * @param compare one of {@code Token.NEQ} through {@code Token.LT}
+     * @param x left operand
+     * @param y right operand
+     * @return result
+     */
+    static boolean holds(int compare, int x, int y) {
+        switch (compare) {
+            case Token.NEQ:
+                return x != y;
+            case Token.EQ:
+                return x == y;
+            case Token.GEQ:
+                return x >= y;
+            case Token.LEQ:
+                return x <= y;
+            case Token.GT:
+                return x > y;
+            case Token.LT:
+                return x < y;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Builds {@code Ir}, used by the {@code lower} methods of each node. Instructions go to the innermost
+     * open block.
+     */
+    static final class Builder {
+        private final String[] names;
+        private final List<Block> open = new ArrayList<>();
+        private int registers;
+
+        /**
+         * @param names variable names by slot
+         */
+        Builder(String[] names) {
+            this.names = names;
+            open.add(new Block());
+        }
+
+        private Insn emit(int op, int a, int b, String text, int line) {
+            Insn insn = new Insn(op, op == STORE || op == WRITE ? -1 : registers++, a, b, text, line);
+            add(insn);
+            return insn;
+        }
+
+        int constant(int value) {
+            return emit(CONST, value, 0, null, 0).dest;
+        }
+
+        /**
+         * @param checked whether the variable may be uninitialized, so that the load needs a check
+         */
+        int load(int slot, int line, boolean checked) {
+            Insn insn = emit(LOAD, slot, 0, names[slot], line);
+            insn.checked = checked;
+            return insn.dest;
+        }
+
+        void store(int slot, int src, int line) {
+            emit(STORE, slot, src, names[slot], line);
+        }
+
+        void write(int slot, int src, int line) {
+            emit(WRITE, slot, src, names[slot], line);
+        }
+
+        /**
+         * @param op one of {@code ADD}, {@code SUB}, {@code MUL}
+         * @param node node of the operation, for the text of the error message, or null if unchecked
+         * @param index index of the operation in {@code node}
+         * @param line line number for the error message
+         * @param checked whether the result may not fit in an int, so that the operation needs a check
+         * @return result register
+         */
+        int arithmetic(int op, int a, int b, CoreNode node, int index, int line, boolean checked) {
+            Insn insn = emit(op, a, b, null, line);
+            insn.node = node;
+            insn.index = index;
+            insn.checked = checked;
+            return insn.dest;
+        }
+
+        void add(Node node) {
+            open.get(open.size() - 1).nodes.add(node);
+        }
+
+        /**
+         * Opens a block, receiving instructions until closed.
+         */
+        void open() {
+            open.add(new Block());
+        }
+
+        /**
+         * @return the innermost open block, now closed
+         */
+        Block close() {
+            return open.remove(open.size() - 1);
+        }
+
+        Ir build() {
+            assert open.size() == 1;
+            return new Ir(names, open.get(0), registers);
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package zhayi.core3341;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import zhayi.core3341.CoreError.*;
+
+/**
+ * JVM backend for CORE language for CSE 3341 Project
+ *
+ * Translates {@code Bytecode} into a JVM class with one static method {@code run(Frame, Bytecode)}, so that
+ * HotSpot compiles the CORE program itself. Variables become JVM locals, alongside one more local holding the
+ * bitmask of initialized variables; branches and loops become JVM branches. Checked arithmetic calls the small
+ * static helpers below, which use {@code Math.addExact} and friends and raise the same line-tagged error as the
+ * tree walker, its text taken from the {@code Bytecode} passed in only then; HotSpot inlines them.
+ *
+ * Class files are written as version 49, which needs no stack map frames, and are defined in this package
+ * through {@code MethodHandles.Lookup.defineClass}. A JVM method is limited to 64 KiB of code and 16 bit
+ * branch offsets; programs past that are not translated, and {@code compile} returns null.
+ *
+ * @author Yi Zhang
+ */
+final class JitCompiler {
+    private static final int CLASS_VERSION = 49;
+    private static final int MAX_CODE = 65535;
+
+    private static final String FRAME = "zhayi/core3341/Frame";
+    private static final String PROGRAM = "zhayi/core3341/Bytecode";
+    private static final String RUNTIME = "zhayi/core3341/JitCompiler";
+    private static final MethodType RUN_TYPE = MethodType.methodType(void.class, Frame.class, Bytecode.class);
+
+    private static final AtomicInteger classCount = new AtomicInteger();
+
+    /**
+     * JVM opcodes used.
+     */
+    private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13, ILOAD = 0x15,
+            ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, IALOAD = 0x2e, ISTORE = 0x36, AASTORE = 0x53, POP = 0x57, DUP = 0x59, IADD = 0x60,
+            ISUB = 0x64, IMUL = 0x68, IAND = 0x7e, IOR = 0x80, IFNE = 0x9a, IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0,
+            IF_ICMPLT = 0xa1, IF_ICMPGE = 0xa2, IF_ICMPGT = 0xa3, IF_ICMPLE = 0xa4, GOTO = 0xa7, RETURN = 0xb1,
+            INVOKEVIRTUAL = 0xb6, INVOKESTATIC = 0xb8, ANEWARRAY = 0xbd;
+
+    private JitCompiler() {
+    }
+
+    /**
+     * Translates and loads a compiled program.
+     * @param program compiled program
+     * @return handle of type {@code (Frame, Bytecode)void} running the program, or null if it is too large for one
+     * method
+     */
+    static MethodHandle compile(Bytecode program) {
+        byte[] bytes = generate(program, "zhayi/core3341/CompiledProgram" + classCount.incrementAndGet());
+        return bytes == null ? null : load(bytes);
+    }
+
+    /**
+     * Loads a class generated by {@code generate}.
+     * @param bytes class file
+     * @return handle of type {@code (Frame, Bytecode)void} running the program
+     */
+    static MethodHandle load(byte[] bytes) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            return lookup.findStatic(lookup.defineClass(bytes), "run", RUN_TYPE);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Runs a program loaded by {@code compile} or {@code load}.
+     * @param run handle of the program
+     * @param program program it was generated from, for the text of its error messages
+     * @param io frame of the run
+     * @throws InterpreterException on the first runtime error
+     */
+    static void run(MethodHandle run, Bytecode program, Frame io) throws InterpreterException {
+        try {
+            run.invokeExact(io, program);
+        } catch (InterpreterException | RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Writes the class file for a compiled program.
+     * @param program compiled program
+     * @param className internal name of the class, in this package
+     * @return class file, or null if the program is too large for one method
+     */
+    static byte[] generate(Bytecode program, String className) {
+        ConstantPool pool = new ConstantPool();
+        byte[] code = new CodeWriter(program, pool).translate();
+        if (code == null) return null;
+
+        int thisClass = pool.classRef(className);
+        int superClass = pool.classRef("java/lang/Object");
+        int name = pool.utf8("run");
+        int descriptor = pool.utf8("(L" + FRAME + ";L" + PROGRAM + ";)V");
+        int codeAttribute = pool.utf8("Code");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(code.length + 1024);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASS_VERSION);
+            pool.write(out);
+            out.writeShort(0x0030); // ACC_FINAL | ACC_SUPER
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(1); // methods
+            out.writeShort(0x0009); // ACC_PUBLIC | ACC_STATIC
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1); // attributes
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + code.length);
+            out.writeShort(program.maxStack + 5); // a read holds five while building its array of names
+            out.writeShort(program.names.length + 3);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+            out.writeShort(0); // class attributes
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Checked addition for generated code.
+     * @param a left operand
+     * @param b right operand
+     * @param program program run, for the error message
+     * @param check index of the checked operation in {@code program}
+     * @return {@code a + b}
+     * @throws InterpreterException if the sum does not fit in an int
+     */
+    static int add(int a, int b, Bytecode program, int check) throws InterpreterException {
+        try {
+            return Math.addExact(a, b);
+        } catch (ArithmeticException ex) {
+            overflow((long) a + b, program, check);
+            throw ex;
+        }
+    }
+
+    /**
+     * Checked subtraction for generated code, see {@code add}.
+     */
+    static int sub(int a, int b, Bytecode program, int check) throws InterpreterException {
+        try {
+            return Math.subtractExact(a, b);
+        } catch (ArithmeticException ex) {
+            overflow((long) a - b, program, check);
+            throw ex;
+        }
+    }
+
+    /**
+     * Checked multiplication for generated code, see {@code add}.
+     */
+    static int mul(int a, int b, Bytecode program, int check) throws InterpreterException {
+        try {
+            return Math.multiplyExact(a, b);
+        } catch (ArithmeticException ex) {
+            overflow((long) a * b, program, check);
+            throw ex;
+        }
+    }
+
+    /**
+     * Raises the uninitialized variable error for generated code.
+     * @param name variable name
+     * @param line line number of the access
+     * @throws InterpreterException always
+     */
+    static void uninitialized(String name, int line) throws InterpreterException {
+        CoreNode.raiseInterpreter(line, new UninitializedException("Using uninitialized variable " + name));
+    }
+
+    private static void overflow(long value, Bytecode program, int check) throws InterpreterException {
+        String result = value > CoreNode.INT_MAX ? " results in overflow" : " results in underflow";
+        CoreNode.raiseInterpreter(program.checkLine[check],
+                new OverflowUnderflowException(program.checkText(check) + result));
+    }
+
+    /**
+     * Constant pool of the class being written, entries shared by value.
+     */
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        private int entry(String key, int tag, int a, int b) {
+            Integer index = entries.get(key);
+            if (index != null) return index;
+            try {
+                out.writeByte(tag);
+                if (tag == 3) out.writeInt(a);
+                else if (tag == 7 || tag == 8) out.writeShort(a);
+                else { out.writeShort(a); out.writeShort(b); }
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+            entries.put(key, count);
+            return count++;
+        }
+
+        int utf8(String s) {
+            String key = "U" + s;
+            Integer index = entries.get(key);
+            if (index != null) return index;
+            try {
+                out.writeByte(1);
+                out.writeUTF(s);
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+            entries.put(key, count);
+            return count++;
+        }
+
+        int integer(int value) {
+            return entry("I" + value, 3, value, 0);
+        }
+
+        int string(String s) {
+            return entry("S" + s, 8, utf8(s), 0);
+        }
+
+        int classRef(String name) {
+            return entry("C" + name, 7, utf8(name), 0);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            int nameAndType = entry("N" + name + descriptor, 12, utf8(name), utf8(descriptor));
+            return entry("M" + owner + "." + name + descriptor, 10, classRef(owner), nameAndType);
+        }
+
+        void write(DataOutputStream to) throws IOException {
+            to.writeShort(count);
+            out.flush();
+            bytes.writeTo(to);
+        }
+    }
+
+    /**
+     * Translates the instructions of one program into the code of the {@code run} method.
+     * Local 0 is the {@code Frame}, local 1 the {@code Bytecode}, locals 2 to n + 1 the variables by slot, local
+     * n + 2 the bitmask.
+     */
+    private static final class CodeWriter {
+        private final Bytecode program;
+        private final ConstantPool pool;
+        private final int mask;
+
+        private byte[] code = new byte[1024];
+        private int size;
+
+        /**
+         * JVM offset of each {@code Bytecode} address, -1 where no instruction starts.
+         */
+        private final int[] offsets;
+
+        /**
+         * Each jump as the JVM offset of its opcode followed by its {@code Bytecode} target.
+         */
+        private final List<int[]> jumps = new ArrayList<>();
+
+        CodeWriter(Bytecode program, ConstantPool pool) {
+            this.program = program;
+            this.pool = pool;
+            mask = program.names.length + 2;
+            offsets = new int[program.code.length + 1];
+            Arrays.fill(offsets, -1);
+        }
+
+        private void u1(int b) {
+            if (size == code.length) code = Arrays.copyOf(code, size * 2);
+            code[size++] = (byte) b;
+        }
+
+        private void u2(int op, int operand) {
+            u1(op);
+            u1(operand >> 8);
+            u1(operand);
+        }
+
+        private void pushInt(int v) {
+            if (v >= -1 && v <= 5) u1(ICONST_0 + v);
+            else if (v == (byte) v) { u1(BIPUSH); u1(v); }
+            else if (v == (short) v) u2(SIPUSH, v);
+            else u2(LDC_W, pool.integer(v));
+        }
+
+        private void pushString(String s) {
+            u2(LDC_W, pool.string(s));
+        }
+
+        private void local(int op, int index) {
+            u1(op);
+            u1(index);
+        }
+
+        /**
+         * Raises the uninitialized error unless the variable in {@code slot} is initialized.
+         */
+        private void checkInitialized(int slot, String name, int line) {
+            local(ILOAD, mask);
+            pushInt(1 << slot);
+            u1(IAND);
+            u2(IFNE, 3 + 3 + lengthOfPush(line) + 3);
+            pushString(name);
+            pushInt(line);
+            u2(INVOKESTATIC, pool.methodRef(RUNTIME, "uninitialized", "(Ljava/lang/String;I)V"));
+        }
+
+        private static int lengthOfPush(int v) {
+            if (v >= -1 && v <= 5) return 1;
+            if (v == (byte) v) return 2;
+            return 3;
+        }
+
+        private void setInitialized(int bits) {
+            local(ILOAD, mask);
+            pushInt(bits);
+            u1(IOR);
+            local(ISTORE, mask);
+        }
+
+        private void jump(int op, int target) {
+            jumps.add(new int[]{size, target});
+            u2(op, 0);
+        }
+
+        /**
+         * @return code of the {@code run} method, or null if it does not fit in one method
+         */
+        byte[] translate() {
+            int[] vm = program.code;
+
+            for (int local = 2; local <= mask; local++) {
+                u1(ICONST_0);
+                local(ISTORE, local);
+            }
+
+            for (int pc = 0; pc < vm.length; pc += Bytecode.LENGTH[vm[pc]]) {
+                offsets[pc] = size;
+                switch (vm[pc]) {
+                    case Bytecode.CONST:
+                        pushInt(vm[pc + 1]);
+                        break;
+                    case Bytecode.LOAD:
+                        checkInitialized(vm[pc + 1], program.names[vm[pc + 1]], vm[pc + 2]);
+                        local(ILOAD, vm[pc + 1] + 2);
+                        break;
+                    case Bytecode.GET:
+                        local(ILOAD, vm[pc + 1] + 2);
+                        break;
+                    case Bytecode.STORE:
+                        local(ISTORE, vm[pc + 1] + 2);
+                        setInitialized(1 << vm[pc + 1]);
+                        break;
+                    case Bytecode.ADD:
+                    case Bytecode.SUB:
+                    case Bytecode.MUL: {
+                        if (vm[pc + 1] == Bytecode.UNCHECKED) {
+                            u1(vm[pc] == Bytecode.ADD ? IADD : vm[pc] == Bytecode.SUB ? ISUB : IMUL);
+                            break;
+                        }
+                        String helper = vm[pc] == Bytecode.ADD ? "add" : vm[pc] == Bytecode.SUB ? "sub" : "mul";
+                        u1(ALOAD_1);
+                        pushInt(vm[pc + 1]);
+                        u2(INVOKESTATIC, pool.methodRef(RUNTIME, helper, "(IIL" + PROGRAM + ";I)I"));
+                        break;
+                    }
+                    case Bytecode.IF_NE:
+                        jump(IF_ICMPNE, vm[pc + 1]);
+                        break;
+                    case Bytecode.IF_EQ:
+                        jump(IF_ICMPEQ, vm[pc + 1]);
+                        break;
+                    case Bytecode.IF_GE:
+                        jump(IF_ICMPGE, vm[pc + 1]);
+                        break;
+                    case Bytecode.IF_LE:
+                        jump(IF_ICMPLE, vm[pc + 1]);
+                        break;
+                    case Bytecode.IF_GT:
+                        jump(IF_ICMPGT, vm[pc + 1]);
+                        break;
+                    case Bytecode.IF_LT:
+                        jump(IF_ICMPLT, vm[pc + 1]);
+                        break;
+                    case Bytecode.GOTO:
+                        jump(GOTO, vm[pc + 1]);
+                        break;
+                    case Bytecode.READ: {
+                        String[] names = program.ioNames[vm[pc + 1]];
+                        int[] slots = program.ioSlots[vm[pc + 1]];
+                        u1(ALOAD_0);
+                        pushInt(names.length);
+                        u2(ANEWARRAY, pool.classRef("java/lang/String"));
+                        for (int i = 0; i < names.length; i++) {
+                            u1(DUP);
+                            pushInt(i);
+                            pushString(names[i]);
+                            u1(AASTORE);
+                        }
+                        u2(INVOKEVIRTUAL, pool.methodRef(FRAME, "read", "([Ljava/lang/String;)[I"));
+                        int bits = 0;
+                        for (int i = 0; i < slots.length; i++) {
+                            u1(DUP);
+                            pushInt(i);
+                            u1(IALOAD);
+                            local(ISTORE, slots[i] + 2);
+                            bits |= 1 << slots[i];
+                        }
+                        u1(POP);
+                        setInitialized(bits);
+                        break;
+                    }
+                    case Bytecode.WRITE: {
+                        String[] names = program.ioNames[vm[pc + 1]];
+                        int[] slots = program.ioSlots[vm[pc + 1]];
+                        for (int i = 0; i < slots.length; i++) {
+                            checkInitialized(slots[i], names[i], program.ioLine[vm[pc + 1]]);
+                            u1(ALOAD_0);
+                            pushString(names[i]);
+                            local(ILOAD, slots[i] + 2);
+                            u2(INVOKEVIRTUAL, pool.methodRef(FRAME, "write", "(Ljava/lang/String;I)V"));
+                        }
+                        break;
+                    }
+                    case Bytecode.HALT:
+                        u1(RETURN);
+                        break;
+                    default:
+                        throw new IllegalStateException();
+                }
+                if (size > MAX_CODE) return null;
+            }
+
+            for (int[] jump : jumps) {
+                int offset = offsets[jump[1]] - jump[0];
+                if (offset != (short) offset) return null;
+                code[jump[0] + 1] = (byte) (offset >> 8);
+                code[jump[0] + 2] = (byte) offset;
+            }
+            return Arrays.copyOf(code, size);
+        }
+    }
+}
@@ -0,0 +1,629 @@
+package zhayi.core3341;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pass manager over {@code Ir} for CORE language for CSE 3341 Project
+ *
+ * Runs its passes in order, over and over until none of them changes the program or {@code MAX_ROUNDS} is
+ * reached, optionally dumping the program and the time taken after each pass. Every pass keeps the observable
+ * behavior of the program exactly: its output, and the first error it stops at with the same message. So
+ * nothing that may fail, a checked {@code LOAD} or arithmetic that is not known to fit, is ever removed or
+ * moved, only folded once its result is known to fit, or reused when the same operation on the same
+ * registers already succeeded.
+ *
+ * @author Yi Zhang
+ */
+final class Optimizer {
+    private static final int MAX_ROUNDS = 4;
+
+    /**
+     * Rewrites a program in place.
+     */
+    interface Pass {
+        String name();
+
+        /**
+         * @param ir program
+         * @return true if the program changed
+         */
+        boolean run(Ir ir);
+    }
+
+    private final List<Pass> passes = new ArrayList<>();
+
+    /**
+     * @return optimizer running all passes below
+     */
+    static Optimizer standard() {
+        return new Optimizer()
+                .add(new ConstantFolding())
+                .add(new CopyPropagation())
+                .add(new CommonSubexpressions())
+                .add(new DeadCode())
+                .add(new UnreachableBranches());
+    }
+
+    Optimizer add(Pass pass) {
+        passes.add(pass);
+        return this;
+    }
+
+    /**
+     * Optimizes a program.
+     * @param ir program, rewritten in place
+     * @param dump stream to list the program on before and after each pass, with the time taken, or null
+     */
+    void optimize(Ir ir, PrintStream dump) {
+        if (dump != null) dump.printf("== lowered%n%s", ir);
+        long total = System.nanoTime();
+        for (int round = 1; round <= MAX_ROUNDS; round++) {
+            boolean changed = false;
+            for (Pass pass : passes) {
+                long start = System.nanoTime();
+                boolean result = pass.run(ir);
+                long time = System.nanoTime() - start;
+                changed |= result;
+                if (dump == null) continue;
+                dump.printf("== %s, round %d: %.3f ms%s%n", pass.name(), round, time / 1e6,
+                        result ? "" : ", unchanged");
+                if (result) dump.print(ir);
+            }
+            if (!changed) break;
+        }
+        if (dump != null) dump.printf("== optimized in %.3f ms%n", (System.nanoTime() - total) / 1e6);
+    }
+
+    private static int bit(int slot) {
+        return 1 << slot;
+    }
+
+    /**
+     * @return bitmask of the variables a block may assign
+     */
+    private static int assigned(Ir.Block block) {
+        int mask = 0;
+        for (Ir.Node node : block.nodes) {
+            if (node instanceof Ir.Insn && ((Ir.Insn) node).op == Ir.STORE) {
+                mask |= bit(((Ir.Insn) node).a);
+            } else if (node instanceof Ir.Read) {
+                for (int slot : ((Ir.Read) node).slots) mask |= bit(slot);
+            } else if (node instanceof Ir.If) {
+                mask |= assigned(((Ir.If) node).then) | assigned(((Ir.If) node).otherwise);
+            } else if (node instanceof Ir.While) {
+                mask |= assigned(((Ir.While) node).body);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Folds operations on constants whose result fits in an int, operations with an identity operand, and
+     * compares of constants, then conditions made constant by them.
+     */
+    static final class ConstantFolding implements Pass {
+        private int[] value;
+        private boolean[] known;
+        private boolean changed;
+
+        @Override
+        public String name() {
+            return "constant folding";
+        }
+
+        @Override
+        public boolean run(Ir ir) {
+            value = new int[ir.registers];
+            known = new boolean[ir.registers];
+            changed = false;
+            block(ir.body);
+            return changed;
+        }
+
+        private void block(Ir.Block block) {
+            for (Ir.Node node : block.nodes) {
+                if (node instanceof Ir.Insn) {
+                    insn((Ir.Insn) node);
+                } else if (node instanceof Ir.If) {
+                    Ir.If n = (Ir.If) node;
+                    n.cond = cond(n.cond);
+                    block(n.then);
+                    block(n.otherwise);
+                } else if (node instanceof Ir.While) {
+                    Ir.While n = (Ir.While) node;
+                    n.cond = cond(n.cond);
+                    block(n.body);
+                }
+            }
+        }
+
+        private boolean is(int reg, int v) {
+            return known[reg] && value[reg] == v;
+        }
+
+        private void insn(Ir.Insn i) {
+            switch (i.op) {
+                case Ir.CONST:
+                    known[i.dest] = true;
+                    value[i.dest] = i.a;
+                    return;
+                case Ir.COPY: // left to copy propagation, else this and common subexpressions undo each other
+                    known[i.dest] = known[i.a];
+                    value[i.dest] = value[i.a];
+                    return;
+                case Ir.ADD:
+                case Ir.SUB:
+                case Ir.MUL:
+                    break;
+                default:
+                    return;
+            }
+            if (known[i.a] && known[i.b]) {
+                long v = i.op == Ir.ADD ? (long) value[i.a] + value[i.b]
+                        : i.op == Ir.SUB ? (long) value[i.a] - value[i.b] : (long) value[i.a] * value[i.b];
+                if (v == (int) v) fold(i, (int) v);
+            } else if (i.op == Ir.ADD && is(i.b, 0) || i.op == Ir.SUB && is(i.b, 0) || i.op == Ir.MUL && is(i.b, 1)) {
+                i.copy(i.a);
+                changed = true;
+            } else if (i.op == Ir.ADD && is(i.a, 0) || i.op == Ir.MUL && is(i.a, 1)) {
+                i.copy(i.b);
+                changed = true;
+            }
+        }
+
+        private void fold(Ir.Insn i, int v) {
+            i.constant(v);
+            known[i.dest] = true;
+            value[i.dest] = v;
+            changed = true;
+        }
+
+        private Ir.Cond cond(Ir.Cond c) {
+            if (c instanceof Ir.Test) {
+                Ir.Test t = (Ir.Test) c;
+                block(t.prelude);
+                if (!known[t.a] || !known[t.b]) return t;
+                changed = true;
+                return new Ir.Known(t.prelude, Ir.holds(t.compare, value[t.a], value[t.b]));
+            }
+            if (c instanceof Ir.Known) {
+                block(((Ir.Known) c).prelude);
+                return c;
+            }
+            if (c instanceof Ir.Not) {
+                Ir.Not n = (Ir.Not) c;
+                n.cond = cond(n.cond);
+                if (!(n.cond instanceof Ir.Known)) return n;
+                changed = true;
+                return new Ir.Known(((Ir.Known) n.cond).prelude, !((Ir.Known) n.cond).value);
+            }
+            Ir.Logic l = (Ir.Logic) c;
+            l.cond1 = cond(l.cond1);
+            l.cond2 = cond(l.cond2);
+            if (l.cond1 instanceof Ir.Known) {
+                Ir.Known k = (Ir.Known) l.cond1;
+                if (k.value != l.and) { // false and _, true or _: the second condition never runs
+                    changed = true;
+                    return k;
+                }
+                if (k.prelude.nodes.isEmpty()) {
+                    changed = true;
+                    return l.cond2;
+                }
+            }
+            if (l.cond2 instanceof Ir.Known && ((Ir.Known) l.cond2).value == l.and
+                    && ((Ir.Known) l.cond2).prelude.nodes.isEmpty()) {
+                changed = true;
+                return l.cond1;
+            }
+            return l;
+        }
+    }
+
+    /**
+     * Forwards the register last stored into or loaded from each variable to later loads of it, and the source
+     * of each copy to the uses of the copy. Loads of variables assigned on every path to them lose their check.
+     */
+    static final class CopyPropagation implements Pass {
+        private int[] alias;
+        private boolean changed;
+
+        /**
+         * Register holding the value of each variable, or -1, and the variables initialized on every path.
+         */
+        private static final class State {
+            final int[] vars;
+            int initialized;
+
+            State(int[] vars, int initialized) {
+                this.vars = vars;
+                this.initialized = initialized;
+            }
+
+            State copy() {
+                return new State(vars.clone(), initialized);
+            }
+
+            void meet(State a, State b) {
+                for (int slot = 0; slot < vars.length; slot++)
+                    vars[slot] = a.vars[slot] == b.vars[slot] ? a.vars[slot] : -1;
+                initialized = a.initialized & b.initialized;
+            }
+        }
+
+        @Override
+        public String name() {
+            return "copy propagation";
+        }
+
+        @Override
+        public boolean run(Ir ir) {
+            alias = new int[ir.registers];
+            for (int reg = 0; reg < alias.length; reg++) alias[reg] = reg;
+            changed = false;
+            int[] vars = new int[ir.names.length];
+            Arrays.fill(vars, -1);
+            block(ir.body, new State(vars, 0));
+            return changed;
+        }
+
+        private int use(int reg) {
+            if (alias[reg] != reg) changed = true;
+            return alias[reg];
+        }
+
+        private void block(Ir.Block block, State s) {
+            for (Ir.Node node : block.nodes) {
+                if (node instanceof Ir.Insn) {
+                    insn((Ir.Insn) node, s);
+                } else if (node instanceof Ir.Read) {
+                    for (int slot : ((Ir.Read) node).slots) {
+                        s.vars[slot] = -1;
+                        s.initialized |= bit(slot);
+                    }
+                } else if (node instanceof Ir.If) {
+                    Ir.If n = (Ir.If) node;
+                    cond(n.cond, s);
+                    State then = s.copy(), otherwise = s.copy();
+                    block(n.then, then);
+                    block(n.otherwise, otherwise);
+                    s.meet(then, otherwise);
+                } else if (node instanceof Ir.While) {
+                    Ir.While n = (Ir.While) node;
+                    int mask = assigned(n.body);
+                    for (int slot = 0; slot < s.vars.length; slot++)
+                        if ((mask & bit(slot)) != 0) s.vars[slot] = -1;
+                    cond(n.cond, s);
+                    block(n.body, s.copy());
+                }
+            }
+        }
+
+        private void insn(Ir.Insn i, State s) {
+            switch (i.op) {
+                case Ir.LOAD: {
+                    int reg = s.vars[i.a];
+                    if (reg >= 0) {
+                        i.copy(reg);
+                        alias[i.dest] = reg;
+                        changed = true;
+                        return;
+                    }
+                    if (i.checked && (s.initialized & bit(i.a)) != 0) {
+                        i.checked = false;
+                        changed = true;
+                    }
+                    s.vars[i.a] = i.dest;
+                    s.initialized |= bit(i.a);
+                    return;
+                }
+                case Ir.STORE:
+                    i.b = use(i.b);
+                    s.vars[i.a] = i.b;
+                    s.initialized |= bit(i.a);
+                    return;
+                case Ir.WRITE:
+                    i.b = use(i.b);
+                    return;
+                case Ir.COPY:
+                    i.a = use(i.a);
+                    alias[i.dest] = i.a;
+                    return;
+                case Ir.ADD:
+                case Ir.SUB:
+                case Ir.MUL:
+                    i.a = use(i.a);
+                    i.b = use(i.b);
+                    return;
+                default:
+            }
+        }
+
+        /**
+         * Facts learned in the first compare, which always runs, are kept; others are not.
+         */
+        private void cond(Ir.Cond c, State s) {
+            if (c instanceof Ir.Test) {
+                Ir.Test t = (Ir.Test) c;
+                block(t.prelude, s);
+                t.a = use(t.a);
+                t.b = use(t.b);
+            } else if (c instanceof Ir.Known) {
+                block(((Ir.Known) c).prelude, s);
+            } else if (c instanceof Ir.Not) {
+                cond(((Ir.Not) c).cond, s);
+            } else {
+                cond(((Ir.Logic) c).cond1, s);
+                cond(((Ir.Logic) c).cond2, s.copy());
+            }
+        }
+    }
+
+    /**
+     * Replaces a constant or an operation already computed, on the same registers, on every path to it by a
+     * copy of the earlier result. Same operands give the same result, and the earlier operation would have
+     * failed first.
+     */
+    static final class CommonSubexpressions implements Pass {
+        private final List<Map<Long, Integer>> scopes = new ArrayList<>();
+        private boolean changed;
+
+        @Override
+        public String name() {
+            return "common subexpressions";
+        }
+
+        @Override
+        public boolean run(Ir ir) {
+            scopes.clear();
+            changed = false;
+            scoped(() -> block(ir.body));
+            return changed;
+        }
+
+        private void scoped(Runnable r) {
+            scopes.add(new HashMap<>());
+            r.run();
+            scopes.remove(scopes.size() - 1);
+        }
+
+        private static long key(Ir.Insn i) {
+            if (i.op == Ir.CONST) return (long) Ir.CONST << 56 | i.a & 0xFFFFFFFFL;
+            int a = i.a, b = i.b;
+            if (i.op != Ir.SUB && a > b) { a = i.b; b = i.a; }
+            return (long) i.op << 56 | (long) a << 28 | b;
+        }
+
+        private void block(Ir.Block block) {
+            for (Ir.Node node : block.nodes) {
+                if (node instanceof Ir.Insn) {
+                    Ir.Insn i = (Ir.Insn) node;
+                    if (i.op != Ir.CONST && !i.isArithmetic()) continue;
+                    long key = key(i);
+                    Integer earlier = null;
+                    for (int k = scopes.size() - 1; k >= 0 && earlier == null; k--) earlier = scopes.get(k).get(key);
+                    if (earlier != null) {
+                        i.copy(earlier);
+                        changed = true;
+                    } else {
+                        scopes.get(scopes.size() - 1).put(key, i.dest);
+                    }
+                } else if (node instanceof Ir.If) {
+                    Ir.If n = (Ir.If) node;
+                    cond(n.cond);
+                    scoped(() -> block(n.then));
+                    scoped(() -> block(n.otherwise));
+                } else if (node instanceof Ir.While) {
+                    Ir.While n = (Ir.While) node;
+                    scoped(() -> {
+                        cond(n.cond);
+                        scoped(() -> block(n.body));
+                    });
+                }
+            }
+        }
+
+        private void cond(Ir.Cond c) {
+            if (c instanceof Ir.Test) {
+                block(((Ir.Test) c).prelude);
+            } else if (c instanceof Ir.Known) {
+                block(((Ir.Known) c).prelude);
+            } else if (c instanceof Ir.Not) {
+                cond(((Ir.Not) c).cond);
+            } else {
+                cond(((Ir.Logic) c).cond1);
+                scoped(() -> cond(((Ir.Logic) c).cond2));
+            }
+        }
+    }
+
+    /**
+     * Removes stores to variables never read again before being assigned, then instructions that cannot fail
+     * and whose register is never used.
+     */
+    static final class DeadCode implements Pass {
+        private boolean changed;
+
+        @Override
+        public String name() {
+            return "dead code";
+        }
+
+        @Override
+        public boolean run(Ir ir) {
+            changed = false;
+            live(ir.body, 0, true);
+            boolean removed;
+            do {
+                int[] uses = new int[ir.registers];
+                count(ir.body, uses);
+                removed = sweep(ir.body, uses);
+                changed |= removed;
+            } while (removed);
+            return changed;
+        }
+
+        /**
+         * @param out variables live after the block
+         * @param remove whether to remove dead stores
+         * @return variables live before the block
+         */
+        private int live(Ir.Block block, int out, boolean remove) {
+            for (int k = block.nodes.size() - 1; k >= 0; k--) {
+                Ir.Node node = block.nodes.get(k);
+                if (node instanceof Ir.Insn) {
+                    Ir.Insn i = (Ir.Insn) node;
+                    if (i.op == Ir.STORE) {
+                        if (remove && (out & bit(i.a)) == 0) {
+                            block.nodes.remove(k);
+                            changed = true;
+                        }
+                        out &= ~bit(i.a);
+                    } else if (i.op == Ir.LOAD) {
+                        out |= bit(i.a);
+                    }
+                } else if (node instanceof Ir.Read) {
+                    for (int slot : ((Ir.Read) node).slots) out &= ~bit(slot);
+                } else if (node instanceof Ir.If) {
+                    Ir.If n = (Ir.If) node;
+                    out = live(n.cond, live(n.then, out, remove) | live(n.otherwise, out, remove));
+                } else if (node instanceof Ir.While) {
+                    Ir.While n = (Ir.While) node;
+                    int head = live(n.cond, out), next;
+                    while ((next = live(n.cond, out | live(n.body, head, false))) != head) head = next;
+                    live(n.body, head, remove);
+                    out = head;
+                }
+            }
+            return out;
+        }
+
+        private int live(Ir.Cond c, int out) {
+            if (c instanceof Ir.Test) return live(((Ir.Test) c).prelude, out, false);
+            if (c instanceof Ir.Known) return live(((Ir.Known) c).prelude, out, false);
+            if (c instanceof Ir.Not) return live(((Ir.Not) c).cond, out);
+            return live(((Ir.Logic) c).cond1, out) | live(((Ir.Logic) c).cond2, out);
+        }
+
+        private static void count(Ir.Block block, int[] uses) {
+            for (Ir.Node node : block.nodes) {
+                if (node instanceof Ir.Insn) {
+                    Ir.Insn i = (Ir.Insn) node;
+                    if (i.op == Ir.COPY) uses[i.a]++;
+                    else if (i.op == Ir.STORE || i.op == Ir.WRITE) uses[i.b]++;
+                    else if (i.isArithmetic()) { uses[i.a]++; uses[i.b]++; }
+                } else if (node instanceof Ir.If) {
+                    count(((Ir.If) node).cond, uses);
+                    count(((Ir.If) node).then, uses);
+                    count(((Ir.If) node).otherwise, uses);
+                } else if (node instanceof Ir.While) {
+                    count(((Ir.While) node).cond, uses);
+                    count(((Ir.While) node).body, uses);
+                }
+            }
+        }
+
+        private static void count(Ir.Cond c, int[] uses) {
+            if (c instanceof Ir.Test) {
+                count(((Ir.Test) c).prelude, uses);
+                uses[((Ir.Test) c).a]++;
+                uses[((Ir.Test) c).b]++;
+            } else if (c instanceof Ir.Known) {
+                count(((Ir.Known) c).prelude, uses);
+            } else if (c instanceof Ir.Not) {
+                count(((Ir.Not) c).cond, uses);
+            } else {
+                count(((Ir.Logic) c).cond1, uses);
+                count(((Ir.Logic) c).cond2, uses);
+            }
+        }
+
+        private static boolean sweep(Ir.Block block, int[] uses) {
+            boolean removed = block.nodes.removeIf(node -> node instanceof Ir.Insn && pure((Ir.Insn) node)
+                    && uses[((Ir.Insn) node).dest] == 0);
+            for (Ir.Node node : block.nodes) {
+                if (node instanceof Ir.If) {
+                    removed |= sweep(((Ir.If) node).cond, uses);
+                    removed |= sweep(((Ir.If) node).then, uses);
+                    removed |= sweep(((Ir.If) node).otherwise, uses);
+                } else if (node instanceof Ir.While) {
+                    removed |= sweep(((Ir.While) node).cond, uses);
+                    removed |= sweep(((Ir.While) node).body, uses);
+                }
+            }
+            return removed;
+        }
+
+        private static boolean sweep(Ir.Cond c, int[] uses) {
+            if (c instanceof Ir.Test) return sweep(((Ir.Test) c).prelude, uses);
+            if (c instanceof Ir.Known) return sweep(((Ir.Known) c).prelude, uses);
+            if (c instanceof Ir.Not) return sweep(((Ir.Not) c).cond, uses);
+            return sweep(((Ir.Logic) c).cond1, uses) | sweep(((Ir.Logic) c).cond2, uses);
+        }
+
+        /**
+         * @return true if the instruction has no effect but its register, and cannot fail
+         */
+        private static boolean pure(Ir.Insn i) {
+            return i.op == Ir.CONST || i.op == Ir.COPY || (i.op == Ir.LOAD || i.isArithmetic()) && !i.checked;
+        }
+    }
+
+    /**
+     * Replaces an if whose condition is known by the branch taken, and a while whose condition is known false,
+     * or an if with both branches empty and a single compare, by the instructions of its condition.
+     */
+    static final class UnreachableBranches implements Pass {
+        private boolean changed;
+
+        @Override
+        public String name() {
+            return "unreachable branches";
+        }
+
+        @Override
+        public boolean run(Ir ir) {
+            changed = false;
+            block(ir.body);
+            return changed;
+        }
+
+        private void block(Ir.Block block) {
+            List<Ir.Node> nodes = new ArrayList<>(block.nodes.size());
+            for (Ir.Node node : block.nodes) {
+                if (node instanceof Ir.If) {
+                    Ir.If n = (Ir.If) node;
+                    block(n.then);
+                    block(n.otherwise);
+                    if (n.cond instanceof Ir.Known) {
+                        nodes.addAll(((Ir.Known) n.cond).prelude.nodes);
+                        nodes.addAll((((Ir.Known) n.cond).value ? n.then : n.otherwise).nodes);
+                        changed = true;
+                        continue;
+                    }
+                    if (n.cond instanceof Ir.Test && n.then.nodes.isEmpty() && n.otherwise.nodes.isEmpty()) {
+                        nodes.addAll(((Ir.Test) n.cond).prelude.nodes);
+                        changed = true;
+                        continue;
+                    }
+                } else if (node instanceof Ir.While) {
+                    Ir.While n = (Ir.While) node;
+                    block(n.body);
+                    if (n.cond instanceof Ir.Known && !((Ir.Known) n.cond).value) {
+                        nodes.addAll(((Ir.Known) n.cond).prelude.nodes);
+                        changed = true;
+                        continue;
+                    }
+                }
+                nodes.add(node);
+            }
+            block.nodes.clear();
+            block.nodes.addAll(nodes);
+        }
+    }
+}
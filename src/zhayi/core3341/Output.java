@@ -0,0 +1,222 @@
+package zhayi.core3341;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Output sink for CORE language for CSE 3341 Project
+ *
+ * Where the values of write statements go, one variable at a time. The buffered sinks encode each value into a
+ * reusable byte buffer, with no allocation per value, and hand it to the stream when it is full, on
+ * {@code flush()}, or after every value if asked to. {@code Frame} flushes before it blocks on a read, and
+ * whoever runs a program flushes once it ends, whether it completes or fails.
+ *
+ * Identifiers are ASCII, so each of their characters is one byte in every format.
+ *
+ * @author Yi Zhang
+ */
+abstract class Output {
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Longest encoding of an int: a sign and ten digits, or four bytes.
+     */
+    private static final int MAX_INT_LENGTH = 11;
+
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Output formats selectable by {@code --output}.
+     */
+    static final String[] FORMATS = {"text", "csv", "binary"};
+
+    /**
+     * Writes one variable for a write statement.
+     * @param var variable name
+     * @param value variable value
+     */
+    abstract void write(String var, int value);
+
+    /**
+     * Hands everything written so far to the stream, and flushes it.
+     */
+    abstract void flush();
+
+    /**
+     * @param stream stream written to
+     * @param flushEach flush after every value instead of when the buffer is full
+     * @return sink writing {@code X = 5} lines, as the interpreter always has
+     */
+    static Output text(OutputStream stream, boolean flushEach) {
+        return new Buffered(stream, flushEach) {
+            @Override
+            void encode(String var, int value) {
+                ascii(var);
+                ascii(" = ");
+                digits(value);
+                newline();
+            }
+        };
+    }
+
+    /**
+     * @param stream stream written to
+     * @param flushEach flush after every value instead of when the buffer is full
+     * @return sink writing a {@code variable,value} header and then one {@code X,5} row per value
+     */
+    static Output csv(OutputStream stream, boolean flushEach) {
+        Buffered csv = new Buffered(stream, flushEach) {
+            @Override
+            void encode(String var, int value) {
+                ascii(var);
+                buf[size++] = ',';
+                digits(value);
+                newline();
+            }
+        };
+        csv.ascii("variable,value");
+        csv.newline();
+        return csv;
+    }
+
+    /**
+     * @param stream stream written to
+     * @param flushEach flush after every value instead of when the buffer is full
+     * @return sink writing each value as {@code DataOutput.writeUTF} of the name then {@code writeInt} of the value
+     */
+    static Output binary(OutputStream stream, boolean flushEach) {
+        return new Buffered(stream, flushEach) {
+            @Override
+            void encode(String var, int value) {
+                buf[size++] = (byte) (var.length() >>> 8);
+                buf[size++] = (byte) var.length();
+                ascii(var);
+                buf[size++] = (byte) (value >>> 24);
+                buf[size++] = (byte) (value >>> 16);
+                buf[size++] = (byte) (value >>> 8);
+                buf[size++] = (byte) value;
+            }
+        };
+    }
+
+    /**
+     * @param format one of {@code FORMATS}
+     * @param stream stream written to
+     * @param flushEach flush after every value instead of when the buffer is full
+     * @return sink of that format
+     */
+    static Output of(String format, OutputStream stream, boolean flushEach) {
+        switch (format) {
+            case "text":
+                return text(stream, flushEach);
+            case "csv":
+                return csv(stream, flushEach);
+            case "binary":
+                return binary(stream, flushEach);
+            default:
+                throw new IllegalArgumentException("Unknown output format " + format);
+        }
+    }
+
+    /**
+     * @param out stream written to
+     * @return sink printing each value straight to the stream, as before the buffered sinks; kept to time
+     *         them against
+     */
+    static Output println(PrintStream out) {
+        return new Output() {
+            @Override
+            void write(String var, int value) {
+                out.println(var + " = " + value);
+            }
+
+            @Override
+            void flush() {
+                out.flush();
+            }
+        };
+    }
+
+    /**
+     * Sink encoding into a byte buffer, see above.
+     */
+    private abstract static class Buffered extends Output {
+        private final OutputStream stream;
+        private final boolean flushEach;
+
+        byte[] buf = new byte[BUFFER_SIZE];
+        int size;
+
+        /**
+         * Digits of a value, from the last one.
+         */
+        private final byte[] digits = new byte[MAX_INT_LENGTH];
+
+        Buffered(OutputStream stream, boolean flushEach) {
+            this.stream = stream;
+            this.flushEach = flushEach;
+        }
+
+        /**
+         * Encodes one value into {@code buf}, which has room for it.
+         */
+        abstract void encode(String var, int value);
+
+        @Override
+        final void write(String var, int value) {
+            int length = var.length() + 3 + MAX_INT_LENGTH + NEWLINE.length;
+            if (size + length > buf.length) {
+                drain();
+                if (length > buf.length) buf = new byte[length];
+            }
+            encode(var, value);
+            if (flushEach) flush();
+        }
+
+        @Override
+        final void flush() {
+            drain();
+            try {
+                stream.flush();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        private void drain() {
+            if (size == 0) return;
+            try {
+                stream.write(buf, 0, size);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            size = 0;
+        }
+
+        void ascii(String s) {
+            for (int i = 0; i < s.length(); i++) buf[size++] = (byte) s.charAt(i);
+        }
+
+        void newline() {
+            for (byte b : NEWLINE) buf[size++] = b;
+        }
+
+        /**
+         * Encodes a value in decimal, counting down from its negation so that {@code Integer.MIN_VALUE} needs no
+         * special case.
+         */
+        void digits(int value) {
+            int n = 0;
+            int v = value < 0 ? value : -value;
+            do {
+                digits[n++] = (byte) ('0' - v % 10);
+                v /= 10;
+            } while (v != 0);
+            if (value < 0) buf[size++] = '-';
+            while (n > 0) buf[size++] = digits[--n];
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package zhayi.core3341;
+
+import java.util.Arrays;
+
+import zhayi.core3341.CoreError.*;
+
+/**
+ * Parse stack for CORE language for CSE 3341 Project
+ *
+ * Drives the {@code parse} methods of each node that take it instead of a {@code Tokenizer}, so that parsing
+ * takes no Java stack along nesting. Each parses inline what cannot nest, and leaves on the stack a step for each
+ * child that can contain its own kind, a statement sequence, a condition or a parenthesized expression, and for
+ * whatever follows that child. A method returns false when it left steps that finish it, and its caller then
+ * puts a step of its own beneath them, with {@code resume}, to go on once they are done.
+ *
+ * @author Yi Zhang
+ */
+final class Parse {
+    /**
+     * Part of a node left to parse.
+     */
+    interface Step {
+        void run() throws InterpreterException;
+    }
+
+    final Tokenizer t;
+
+    private Step[] steps = new Step[16];
+    private int size;
+
+    /**
+     * @param t {@code Tokenizer} instance, positioned at the first token to parse
+     */
+    Parse(Tokenizer t) {
+        this.t = t;
+    }
+
+    /**
+     * @return position of the top of the stack, for {@code resume}
+     */
+    int mark() {
+        return size;
+    }
+
+    /**
+     * Adds a step to run next.
+     * @param step step
+     */
+    void push(Step step) {
+        resume(size, step);
+    }
+
+    /**
+     * Adds a step to run once those pushed since {@code mark} are done.
+     * @param mark position returned by {@code mark()}
+     * @param step step
+     */
+    void resume(int mark, Step step) {
+        if (size == steps.length) steps = Arrays.copyOf(steps, size * 2);
+        System.arraycopy(steps, mark, steps, mark + 1, size - mark);
+        steps[mark] = step;
+        size++;
+    }
+
+    /**
+     * Runs a step, and every step left on the stack after it.
+     * @param first step
+     * @throws InterpreterException if any step failed
+     */
+    void run(Step first) throws InterpreterException {
+        push(first);
+        while (size > 0) {
+            Step step = steps[--size];
+            steps[size] = null;
+            step.run();
+        }
+    }
+}
@@ -6,62 +6,26 @@ import java.util.logging.Logger;
 /**
  * Parser entry point for CSE 3341 Project PA2
  *
+ * Parses and prints through a {@code CoreEngine}, see {@code CoreEngine.print}.
+ *
  * @author Yi Zhang
  */
 public final class Parser {
-    private ProgNode prog;
-    private Tokenizer tokenizer;
-
-    private static Logger parseLog;
-    private static Logger tokenLog;
+    private static final Logger parseLog = Logger.getLogger("Parser");
 
-    Parser() {
-        prog = new ProgNode();
-        tokenizer = new Tokenizer();
-        parseLog = Logger.getLogger("Parser");
+    static {
         parseLog.setLevel(Level.SEVERE);
-        parseLog.fine("Parser logger created");
-        tokenLog = Logger.getLogger("Tokenizer");
-        tokenLog.setLevel(Level.SEVERE);
-        tokenLog.fine("Tokenizer logger created");
-    }
-
-    private void initTokenStream(String path) {
-        try {
-            tokenizer.tokenize(path);
-        } catch (CoreError.InvalidTokenException ex) {
-            tokenLog.severe(ex.getLocalizedMessage());
-            System.exit(ex.hashCode());
-        }
     }
 
-    void execProg(Logger log) {
-        try {
-            prog.execProg();
-        } catch (CoreError.InterpreterException ex) {
-            log.severe(ex.getLocalizedMessage());
-            System.exit(ex.hashCode());
-        }
+    private Parser() {
     }
 
-    void parse(String path) {
-        initTokenStream(path);
+    public static void main(String[] args) {
         try {
-            prog.parseProg(tokenizer);
-        } catch (CoreError.InterpreterException ex) {
+            new CoreEngine().print(Source.file(args[0]), null);
+        } catch (CoreEngine.CompileException ex) {
             parseLog.severe(ex.getLocalizedMessage());
-            System.exit(ex.hashCode());
+            System.exit(ex.status());
         }
-
-    }
-
-    void printParser() {
-        prog.print();
-    }
-
-    public static void main(String[] args) {
-        Parser parser = new Parser();
-        parser.parse(args[0]);
-        parser.printParser();
     }
 }
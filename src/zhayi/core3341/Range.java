@@ -0,0 +1,305 @@
+package zhayi.core3341;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Integer range state for CORE language for CSE 3341 Project
+ *
+ * Carried through a parsed program by the {@code range} methods of each node: for each variable, an interval
+ * holding every value it may have at that point, or no state at all where the point cannot be reached.
+ * Intervals are {@code long[]{lo, hi}}, empty when {@code lo > hi}. An operation whose result interval fits in
+ * an int cannot overflow and is marked safe, to run as plain int arithmetic, once the whole program has been
+ * analyzed. A loop is iterated until the state at its head stops growing, bounds still growing being widened to
+ * the int limits so that this takes few iterations, then once more from there to narrow it, and a last time to
+ * mark its operations.
+ *
+ * @author Yi Zhang
+ */
+final class Range {
+    /**
+     * Loops nested deeper are not iterated; the variables they assign may hold any value at their head.
+     */
+    private static final int MAX_DEPTH = 6;
+
+    private static final long[] ALL = {CoreNode.INT_MIN, CoreNode.INT_MAX};
+    private static final long[] EMPTY = {1, 0};
+
+    private final long[] lo;
+    private final long[] hi;
+    private boolean unreachable;
+
+    /**
+     * Loop nesting depth.
+     */
+    int depth;
+
+    /**
+     * Whether each operation was found safe in its last visit, shared by all copies.
+     */
+    private final Map<Operation, Boolean> marks;
+
+    /**
+     * @param variables number of variables, each starting with any value
+     */
+    Range(int variables) {
+        lo = new long[variables];
+        hi = new long[variables];
+        Arrays.fill(lo, CoreNode.INT_MIN);
+        Arrays.fill(hi, CoreNode.INT_MAX);
+        marks = new HashMap<>();
+    }
+
+    private Range(Range r, Map<Operation, Boolean> marks) {
+        lo = r.lo.clone();
+        hi = r.hi.clone();
+        unreachable = r.unreachable;
+        depth = r.depth;
+        this.marks = marks;
+    }
+
+    Range copy() {
+        return new Range(this, marks);
+    }
+
+    /**
+     * @return copy whose copies mark apart from this, to check operations without changing what they are marked
+     */
+    Range probe() {
+        return new Range(this, new HashMap<>());
+    }
+
+    /**
+     * @return true if every operation marked from this probe was found safe
+     */
+    boolean fits() {
+        return !marks.containsValue(false);
+    }
+
+    boolean isUnreachable() {
+        return unreachable;
+    }
+
+    /**
+     * @return interval of a variable
+     */
+    long[] get(int slot) {
+        return unreachable ? EMPTY : new long[]{lo[slot], hi[slot]};
+    }
+
+    /**
+     * Assigns a variable; an empty interval makes this unreachable.
+     */
+    void set(int slot, long[] v) {
+        if (v[0] > v[1]) {
+            unreachable = true;
+            return;
+        }
+        lo[slot] = v[0];
+        hi[slot] = v[1];
+    }
+
+    /**
+     * Lets the variables in a bitmask hold any value.
+     */
+    void havoc(int mask) {
+        for (int slot = 0; slot < lo.length; slot++)
+            if ((mask & 1 << slot) != 0) set(slot, ALL);
+    }
+
+    /**
+     * Narrows an operand of a compare to the values that let the compare go the way assumed, making this
+     * unreachable if there are none.
+     * @param slot slot of the operand if it is a variable, else -1
+     * @param v interval of the operand
+     * @param min least value left
+     * @param max greatest value left
+     */
+    void narrow(int slot, long[] v, long min, long max) {
+        long[] left = {Math.max(v[0], min), Math.min(v[1], max)};
+        if (left[0] > left[1]) unreachable = true;
+        else if (slot >= 0 && !unreachable) set(slot, left);
+    }
+
+    /**
+     * @return state where two paths meet
+     */
+    static Range join(Range a, Range b) {
+        if (a.unreachable) return b.copy();
+        Range r = a.copy();
+        if (b.unreachable) return r;
+        for (int slot = 0; slot < r.lo.length; slot++) {
+            r.lo[slot] = Math.min(a.lo[slot], b.lo[slot]);
+            r.hi[slot] = Math.max(a.hi[slot], b.hi[slot]);
+        }
+        return r;
+    }
+
+    /**
+     * @return {@code join(this, next)}, with every bound that grew pushed to the int limit
+     */
+    Range widen(Range next) {
+        if (unreachable) return next.copy();
+        Range r = copy();
+        if (next.unreachable) return r;
+        for (int slot = 0; slot < lo.length; slot++) {
+            if (next.lo[slot] < lo[slot]) r.lo[slot] = CoreNode.INT_MIN;
+            if (next.hi[slot] > hi[slot]) r.hi[slot] = CoreNode.INT_MAX;
+        }
+        return r;
+    }
+
+    /**
+     * @return true if every state of {@code other} is one of this
+     */
+    boolean includes(Range other) {
+        if (other.unreachable) return true;
+        if (unreachable) return false;
+        for (int slot = 0; slot < lo.length; slot++)
+            if (other.lo[slot] < lo[slot] || other.hi[slot] > hi[slot]) return false;
+        return true;
+    }
+
+    /**
+     * One evaluation of the condition of a loop from a state at its head and, where it holds, of the body.
+     */
+    interface Body {
+        /**
+         * Analyzes the evaluation, on the {@code Walk} the loop is analyzed on.
+         * @param head state at the loop head
+         * @param done given the states where the condition fails and after the body, from a step of the walk
+         */
+        void iterate(Range head, Consumer<Range[]> done);
+    }
+
+    /**
+     * Iterates a loop, see above. Each iteration goes on from the step in which the one before is done, so that
+     * loops nested in the body take no Java stack.
+     * @param assigns bitmask of the variables the loop body may assign
+     * @param body evaluation of the condition and the body
+     * @param after given the state after the loop, from a step of the walk
+     */
+    void loop(int assigns, Body body, Consumer<Range> after) {
+        if (unreachable || depth >= MAX_DEPTH) {
+            Range head = copy();
+            head.havoc(assigns);
+            iterate(body, head, out -> after.accept(out[0]));
+            return;
+        }
+        grow(body, this, after);
+    }
+
+    /**
+     * Iterates a loop from a state at its head until that includes the state after another iteration, then
+     * narrows it.
+     */
+    private void grow(Body body, Range head, Consumer<Range> after) {
+        iterate(body, head, out -> {
+            Range next = join(this, out[1]);
+            if (head.includes(next)) narrow(body, head, after);
+            else grow(body, head.widen(next), after);
+        });
+    }
+
+    /**
+     * Iterates a loop once more from a state at its head that includes every one, then a last time from there.
+     */
+    private void narrow(Body body, Range head, Consumer<Range> after) {
+        iterate(body, head, out -> iterate(body, join(this, out[1]), last -> after.accept(last[0])));
+    }
+
+    private void iterate(Body body, Range head, Consumer<Range[]> done) {
+        Range in = head.copy();
+        in.depth++;
+        body.iterate(in, out -> {
+            for (Range r : out) r.depth = depth;
+            done.accept(out);
+        });
+    }
+
+    /**
+     * Records whether an operation is safe, in this visit of it: if {@code v} fits in an int, or this is
+     * unreachable.
+     * @param node node of the operation
+     * @param op index of the operation in {@code node}
+     * @param v exact interval of its result
+     */
+    void mark(CoreNode node, int op, long[] v) {
+        marks.put(new Operation(node, op), fits(v));
+    }
+
+    /**
+     * Tells each operation marked whether it is safe, once the analysis is done.
+     * @return number of operations marked, and of those marked safe
+     */
+    int[] finish() {
+        int safe = 0;
+        for (Map.Entry<Operation, Boolean> e : marks.entrySet()) {
+            e.getKey().node.setSafe(e.getKey().op, e.getValue());
+            if (e.getValue()) safe++;
+        }
+        return new int[]{marks.size(), safe};
+    }
+
+    static long[] add(long[] a, long[] b) {
+        if (a[0] > a[1] || b[0] > b[1]) return EMPTY;
+        return new long[]{a[0] + b[0], a[1] + b[1]};
+    }
+
+    static long[] sub(long[] a, long[] b) {
+        if (a[0] > a[1] || b[0] > b[1]) return EMPTY;
+        return new long[]{a[0] - b[1], a[1] - b[0]};
+    }
+
+    static long[] mul(long[] a, long[] b) {
+        if (a[0] > a[1] || b[0] > b[1]) return EMPTY;
+        long p = a[0] * b[0], q = a[0] * b[1], r = a[1] * b[0], s = a[1] * b[1];
+        return new long[]{Math.min(Math.min(p, q), Math.min(r, s)), Math.max(Math.max(p, q), Math.max(r, s))};
+    }
+
+    /**
+     * @return true if every value of an interval fits in an int, or it is empty
+     */
+    static boolean fits(long[] v) {
+        return v[0] > v[1] || v[0] >= CoreNode.INT_MIN && v[1] <= CoreNode.INT_MAX;
+    }
+
+    /**
+     * @return values of an interval left once the result of an operation is known to fit in an int
+     */
+    static long[] clamp(long[] v) {
+        return new long[]{Math.max(v[0], CoreNode.INT_MIN), Math.min(v[1], CoreNode.INT_MAX)};
+    }
+
+    /**
+     * @return interval of a constant
+     */
+    static long[] of(int value) {
+        return new long[]{value, value};
+    }
+
+    /**
+     * One of the operations of a node, by identity of the node.
+     */
+    private static final class Operation {
+        final CoreNode node;
+        final int op;
+
+        Operation(CoreNode node, int op) {
+            this.node = node;
+            this.op = op;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Operation && ((Operation) o).node == node && ((Operation) o).op == op;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(node) * 31 + op;
+        }
+    }
+}
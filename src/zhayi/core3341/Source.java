@@ -0,0 +1,243 @@
+package zhayi.core3341;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Program source for CORE language for CSE 3341 Project
+ *
+ * Where the text of a program comes from: a file, text or bytes already in memory, or a stream such as
+ * standard input. Eager tokenizing reads the whole text through {@code load()}, lazy tokenizing reads it
+ * piece by piece through {@code open()}. Bytes are decoded with the platform charset, replacing malformed
+ * input, as {@code FileReader} does.
+ *
+ * @author Yi Zhang
+ */
+public abstract class Source {
+    /**
+     * Files at least this many bytes are memory-mapped instead of read through a {@code Reader}.
+     */
+    private static final int MAP_THRESHOLD = 1 << 20;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Buffer each thread reads files below {@code MAP_THRESHOLD} into, lent to one caller of {@code load()} at a
+     * time and given back through {@code release}.
+     */
+    private static final ThreadLocal<Pool> pool = ThreadLocal.withInitial(Pool::new);
+
+    private final String name;
+
+    private Source(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return file path, or a description of where the text comes from
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Reads the whole text. A small file is read into the pooled buffer of this thread unless it is lent already,
+     * see {@code release}.
+     * @return buffer holding the text from its position up to its limit, backed by an array from index 0 unless
+     *         it wraps text already in memory
+     * @throws IOException if the text cannot be read
+     */
+    abstract CharBuffer load() throws IOException;
+
+    /**
+     * Opens the text for reading piece by piece. Sources already in memory just load it.
+     * @return reader over the text
+     * @throws IOException if the text cannot be opened
+     */
+    Reader open() throws IOException {
+        CharBuffer text = load();
+        return new CharArrayReader(text.array(), 0, text.limit());
+    }
+
+    /**
+     * @param path file path
+     * @return source reading the file
+     */
+    public static Source file(String path) {
+        return new Source(path) {
+            @Override
+            CharBuffer load() throws IOException {
+                try (FileInputStream in = new FileInputStream(path); FileChannel channel = in.getChannel()) {
+                    long size = channel.size();
+                    if (size > Integer.MAX_VALUE)
+                        throw new IOException(String.format("File %s is too large", path));
+                    if (size >= MAP_THRESHOLD)
+                        return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+                    return readPooled(new InputStreamReader(in, decoder()), (int) size);
+                }
+            }
+
+            @Override
+            Reader open() throws IOException {
+                return new InputStreamReader(new FileInputStream(path), decoder());
+            }
+        };
+    }
+
+    /**
+     * The text is not copied, and must not change while the source is in use.
+     * @param text program text
+     * @return source over the text
+     */
+    public static Source text(CharSequence text) {
+        return new Source("<text>") {
+            @Override
+            CharBuffer load() {
+                return text instanceof CharBuffer ? ((CharBuffer) text).duplicate() : CharBuffer.wrap(text);
+            }
+
+            @Override
+            Reader open() {
+                return new StringReader(text.toString());
+            }
+        };
+    }
+
+    /**
+     * @param bytes encoded program text
+     * @return source decoding the bytes
+     */
+    public static Source bytes(byte[] bytes) {
+        return bytes(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * @param bytes encoded program text between its position and limit, left untouched
+     * @return source decoding the bytes
+     */
+    public static Source bytes(ByteBuffer bytes) {
+        return new Source("<bytes>") {
+            @Override
+            CharBuffer load() {
+                return decode(bytes.duplicate());
+            }
+        };
+    }
+
+    /**
+     * The stream is read once, by whichever of {@code load()} or {@code open()} is called first, and is not closed.
+     * @param in encoded program text
+     * @return source reading the stream
+     */
+    public static Source stream(InputStream in) {
+        return stream(in, "<stream>");
+    }
+
+    /**
+     * @return source reading standard input
+     */
+    public static Source stdin() {
+        return stream(System.in, "<stdin>");
+    }
+
+    /**
+     * Resolves a command line argument.
+     * @param arg file path, or "-" for standard input
+     * @return matching source
+     */
+    public static Source fromArgument(String arg) {
+        return arg.equals("-") ? stdin() : file(arg);
+    }
+
+    private static Source stream(InputStream in, String name) {
+        return new Source(name) {
+            @Override
+            CharBuffer load() throws IOException {
+                return readAll(open(), new char[BUFFER_SIZE]);
+            }
+
+            @Override
+            Reader open() {
+                return new InputStreamReader(in, decoder());
+            }
+        };
+    }
+
+    /**
+     * @return decoder for the platform charset that replaces malformed input
+     */
+    static CharsetDecoder decoder() {
+        return Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Decodes bytes in one pass, straight into the array that is returned.
+     * @param bytes encoded text, consumed
+     * @return decoded text
+     */
+    private static CharBuffer decode(ByteBuffer bytes) {
+        CharsetDecoder decoder = decoder();
+        char[] chars = new char[(int) Math.ceil(bytes.remaining() * (double) decoder.maxCharsPerByte())];
+        CharBuffer text = CharBuffer.wrap(chars);
+        decoder.decode(bytes, text, true);
+        decoder.flush(text);
+        text.flip();
+        return text;
+    }
+
+    /**
+     * Gives back a buffer {@code load()} returned once nothing reads it any more, so that the next small file
+     * this thread loads reuses it. Any other buffer is left alone.
+     * @param text buffer returned by {@code load()}
+     */
+    static void release(CharBuffer text) {
+        Pool p = pool.get();
+        if (text.hasArray() && text.array() == p.chars) p.lent = false;
+    }
+
+    /**
+     * Reads everything a reader has into the pooled buffer of this thread, or a new one if it is lent already.
+     * @param reader text to read
+     * @param sizeHint expected number of characters
+     * @return text read
+     * @throws IOException if reading failed
+     */
+    private static CharBuffer readPooled(Reader reader, int sizeHint) throws IOException {
+        Pool p = pool.get();
+        if (p.lent) return readAll(reader, new char[sizeHint + 1]);
+        CharBuffer text = readAll(reader, p.chars.length > sizeHint ? p.chars : new char[sizeHint + 1]);
+        p.chars = text.array();
+        p.lent = true;
+        return text;
+    }
+
+    /**
+     * Reads everything a reader has, in bulk.
+     * @param reader text to read
+     * @param chars buffer to read into, replaced by a larger one if the text does not fit
+     * @return text read
+     * @throws IOException if reading failed
+     */
+    private static CharBuffer readAll(Reader reader, char[] chars) throws IOException {
+        int length = 0;
+        int n;
+        while ((n = reader.read(chars, length, chars.length - length)) != -1) {
+            length += n;
+            if (length == chars.length) chars = Arrays.copyOf(chars, chars.length * 2);
+        }
+        return CharBuffer.wrap(chars, 0, length);
+    }
+
+    private static final class Pool {
+        char[] chars = new char[BUFFER_SIZE];
+        boolean lent;
+    }
+}
@@ -0,0 +1,234 @@
+package zhayi.core3341;
+
+import java.util.Arrays;
+
+/**
+ * Loop summary for CORE language for CSE 3341 Project
+ *
+ * Closed form of a while loop whose condition compares one variable, the counter, against a constant or a
+ * variable the loop does not assign, and whose body only adds to or subtracts from each variable it assigns, once,
+ * a constant or a variable the loop does not assign. Every iteration then moves each of those variables by the
+ * same step, so after k iterations it has moved by k steps and the loop can skip ahead.
+ *
+ * {@code advance} skips as many iterations as will run and complete without overflow, once every variable the
+ * loop reads is initialized, and the loop then runs as usual from there. That takes no iteration at all once its
+ * condition fails, or exactly the iteration that overflows, with the same error and the same variables assigned
+ * before it.
+ *
+ * @author Yi Zhang
+ */
+final class Summary {
+    /**
+     * Iteration count of a loop that never ends on its own.
+     */
+    private static final long NEVER = Long.MAX_VALUE;
+
+    /**
+     * Variables assigned, and for each its step: the slot of a variable or -1 for the constant, negated if
+     * subtracted.
+     */
+    private final int[] slots;
+    private final int[] stepSlots;
+    private final int[] steps;
+    private final boolean[] subtract;
+
+    /**
+     * Index of the counter in {@code slots}.
+     */
+    private final int counter;
+
+    /**
+     * Compare of the counter on the left, one of {@code Token.NEQ} through {@code Token.LT}.
+     */
+    private final int compare;
+
+    /**
+     * Right side of the compare: the slot of a variable or -1 for the constant.
+     */
+    private final int boundSlot;
+    private final int bound;
+
+    /**
+     * Bitmask of the variables the loop reads.
+     */
+    private final int reads;
+
+    private Summary(Builder b, int counter, int compare, int boundSlot, int bound) {
+        slots = Arrays.copyOf(b.slots, b.size);
+        stepSlots = Arrays.copyOf(b.stepSlots, b.size);
+        steps = Arrays.copyOf(b.steps, b.size);
+        subtract = Arrays.copyOf(b.subtract, b.size);
+        this.counter = counter;
+        this.compare = compare;
+        this.boundSlot = boundSlot;
+        this.bound = bound;
+        reads = b.assigns | b.stepReads | (boundSlot < 0 ? 0 : 1 << boundSlot);
+    }
+
+    /**
+     * Skips the iterations of the loop that surely complete, see above.
+     * @param f frame at the loop head
+     */
+    void advance(Frame f) {
+        if ((f.initialized & reads) != reads) return;
+
+        long skip = trips(f.values[slots[counter]], step(f, counter), boundSlot < 0 ? bound : f.values[boundSlot]);
+        for (int i = 0; i < slots.length && skip > 0; i++)
+            skip = Math.min(skip, fits(f.values[slots[i]], step(f, i)));
+        if (skip == 0 || skip == NEVER) return;
+
+        for (int i = 0; i < slots.length; i++)
+            f.values[slots[i]] = (int) (f.values[slots[i]] + skip * step(f, i));
+    }
+
+    /**
+     * @return step of the variable {@code slots[i]}, read before any is moved
+     */
+    private long step(Frame f, int i) {
+        long step = stepSlots[i] < 0 ? steps[i] : f.values[stepSlots[i]];
+        return subtract[i] ? -step : step;
+    }
+
+    /**
+     * @param value counter
+     * @param step step of the counter
+     * @param limit right side of the compare
+     * @return number of times the condition holds, ignoring overflow, or {@code NEVER}
+     */
+    private long trips(long value, long step, long limit) {
+        long lo = Long.MIN_VALUE, hi = Long.MAX_VALUE;
+        switch (compare) {
+            case Token.NEQ:
+                if (value == limit) return 0;
+                if (step == 0 || (limit - value) % step != 0 || (limit - value) / step < 0) return NEVER;
+                return (limit - value) / step;
+            case Token.EQ:
+                lo = hi = limit;
+                break;
+            case Token.GEQ:
+                lo = limit;
+                break;
+            case Token.LEQ:
+                hi = limit;
+                break;
+            case Token.GT:
+                lo = limit + 1;
+                break;
+            case Token.LT:
+                hi = limit - 1;
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+        if (value < lo || value > hi) return 0;
+        if (step > 0 && hi != Long.MAX_VALUE) return (hi - value) / step + 1;
+        if (step < 0 && lo != Long.MIN_VALUE) return (value - lo) / -step + 1;
+        return NEVER;
+    }
+
+    /**
+     * @return number of steps from {@code value} that stay in an int, or {@code NEVER}
+     */
+    private static long fits(long value, long step) {
+        if (step > 0) return (CoreNode.INT_MAX - value) / step;
+        if (step < 0) return (value - CoreNode.INT_MIN) / -step;
+        return NEVER;
+    }
+
+    /**
+     * Collects the parts of a loop while its nodes are visited, see {@code StmtNode.summarizeStmt()}.
+     */
+    static final class Builder {
+        private int[] slots = new int[4];
+        private int[] stepSlots = new int[4];
+        private int[] steps = new int[4];
+        private boolean[] subtract = new boolean[4];
+        private int size;
+
+        /**
+         * Bitmasks of the variables assigned, and of those read as a step.
+         */
+        private int assigns, stepReads;
+
+        private int compare;
+        private FacNode left, right;
+
+        /**
+         * Records the loop condition.
+         * @param compare one of {@code Token.NEQ} through {@code Token.LT}
+         * @param left left side factor
+         * @param right right side factor
+         */
+        void test(int compare, FacNode left, FacNode right) {
+            this.compare = compare;
+            this.left = left;
+            this.right = right;
+        }
+
+        /**
+         * Records an assignment adding a factor to its variable.
+         * @param slot variable assigned
+         * @param by factor added
+         * @param subtract whether subtracted instead
+         * @return false if the factor is not a constant or a variable, or the variable is assigned twice
+         */
+        boolean step(int slot, FacNode by, boolean subtract) {
+            if ((assigns & 1 << slot) != 0 || by.variable() < 0 && !by.isNumber()) return false;
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+                stepSlots = Arrays.copyOf(stepSlots, size * 2);
+                steps = Arrays.copyOf(steps, size * 2);
+                this.subtract = Arrays.copyOf(this.subtract, size * 2);
+            }
+            slots[size] = slot;
+            stepSlots[size] = by.variable();
+            steps[size] = by.isNumber() ? by.number() : 0;
+            this.subtract[size] = subtract;
+            size++;
+            assigns |= 1 << slot;
+            if (by.variable() >= 0) stepReads |= 1 << by.variable();
+            return true;
+        }
+
+        /**
+         * @return summary of the loop, or null if it does not have the form above
+         */
+        Summary build() {
+            if (left == null || (stepReads & assigns) != 0) return null;
+            int compare = this.compare;
+            FacNode counter = left, limit = right;
+            if (!assigned(left)) {
+                counter = right;
+                limit = left;
+                compare = mirror(compare);
+            }
+            if (!assigned(counter) || assigned(limit) || limit.variable() < 0 && !limit.isNumber()) return null;
+
+            int index = 0;
+            while (slots[index] != counter.variable()) index++;
+            return new Summary(this, index, compare, limit.variable(), limit.isNumber() ? limit.number() : 0);
+        }
+
+        private boolean assigned(FacNode fac) {
+            return fac.variable() >= 0 && (assigns & 1 << fac.variable()) != 0;
+        }
+
+        /**
+         * @return comparison that holds with the sides swapped exactly when {@code compare} does
+         */
+        private static int mirror(int compare) {
+            switch (compare) {
+                case Token.GEQ:
+                    return Token.LEQ;
+                case Token.LEQ:
+                    return Token.GEQ;
+                case Token.GT:
+                    return Token.LT;
+                case Token.LT:
+                    return Token.GT;
+                default:
+                    return compare;
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package zhayi.core3341;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Compact token storage for CORE language for CSE 3341 Project
+ *
+ * Tokens are kept in parallel primitive arrays indexed by position. Reserved words and symbols are
+ * named by their code alone; the text of identifiers and numerals stays in the source buffer as an
+ * offset and length, and is only turned into a {@code String} when asked for.
+ *
+ * A stream built with a fixed capacity is a ring used by lazy tokenizing: positions keep counting up,
+ * but only the last {@code capacity} tokens can be read, and token text is copied into the ring.
+ *
+ * @author Yi Zhang
+ */
+final class TokenStream {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Source text that {@code start} and {@code length} point into. For a ring, one slot of
+     * {@code width} characters per entry.
+     */
+    private final char[] source;
+
+    /**
+     * Maps a position to its array index, all ones unless this stream is a ring.
+     */
+    private final int mask;
+    private final int width;
+
+    private int[] code;
+    private int[] line;
+    private int[] start;
+    private int[] length;
+    private int size;
+
+    /**
+     * @param source source text the tokens are cut from
+     */
+    TokenStream(char[] source) {
+        this.source = source;
+        mask = -1;
+        width = 0;
+        code = new int[INITIAL_CAPACITY];
+        line = new int[INITIAL_CAPACITY];
+        start = new int[INITIAL_CAPACITY];
+        length = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Creates a ring.
+     * @param capacity number of tokens kept, a power of two
+     * @param width longest token text that can be stored
+     */
+    TokenStream(int capacity, int width) {
+        assert Integer.bitCount(capacity) == 1;
+
+        this.width = width;
+        mask = capacity - 1;
+        source = new char[capacity * width];
+        code = new int[capacity];
+        line = new int[capacity];
+        start = new int[capacity];
+        length = new int[capacity];
+    }
+
+    /**
+     * Joins streams lexed separately from consecutive parts of the same source.
+     * @param source source text all parts point into
+     * @param parts streams in source order
+     * @param lineOffsets amount to add to each part's line numbers
+     * @return one stream holding every token of every part
+     */
+    static TokenStream concat(char[] source, TokenStream[] parts, int[] lineOffsets) {
+        int[] at = new int[parts.length + 1];
+        for (int i = 0; i < parts.length; i++) at[i + 1] = at[i] + parts[i].size;
+
+        TokenStream joined = new TokenStream(source);
+        int capacity = Math.max(at[parts.length], INITIAL_CAPACITY);
+        joined.code = new int[capacity];
+        joined.line = new int[capacity];
+        joined.start = new int[capacity];
+        joined.length = new int[capacity];
+        joined.size = at[parts.length];
+
+        IntStream.range(0, parts.length).parallel().forEach(i -> {
+            TokenStream part = parts[i];
+            System.arraycopy(part.code, 0, joined.code, at[i], part.size);
+            System.arraycopy(part.start, 0, joined.start, at[i], part.size);
+            System.arraycopy(part.length, 0, joined.length, at[i], part.size);
+            for (int j = 0; j < part.size; j++)
+                joined.line[at[i] + j] = part.line[j] + lineOffsets[i];
+        });
+        return joined;
+    }
+
+    /**
+     * Appends one token.
+     * @param c {@code Token} code
+     * @param l line number
+     * @param s offset of the lexeme in the source
+     * @param n length of the lexeme
+     */
+    void add(int c, int l, int s, int n) {
+        if (size == code.length) {
+            int capacity = size * 2;
+            code = Arrays.copyOf(code, capacity);
+            line = Arrays.copyOf(line, capacity);
+            start = Arrays.copyOf(start, capacity);
+            length = Arrays.copyOf(length, capacity);
+        }
+        code[size] = c;
+        line[size] = l;
+        start[size] = s;
+        length[size] = n;
+        size++;
+    }
+
+    /**
+     * Appends one token to a ring, copying its text out of {@code text}.
+     * @param c {@code Token} code
+     * @param l line number
+     * @param text buffer holding the lexeme
+     * @param s offset of the lexeme in {@code text}
+     * @param n length of the lexeme, at most {@code width}
+     */
+    void add(int c, int l, char[] text, int s, int n) {
+        assert mask != -1 && n <= width;
+
+        int i = size & mask;
+        code[i] = c;
+        line[i] = l;
+        start[i] = i * width;
+        length[i] = n;
+        System.arraycopy(text, s, source, i * width, n);
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int code(int i) {
+        return code[i & mask];
+    }
+
+    int line(int i) {
+        return line[i & mask];
+    }
+
+    /**
+     * Materializes the text of a token.
+     * @param i token position
+     * @return lexeme for identifiers and numerals, the fixed spelling for everything else
+     */
+    String name(int i) {
+        i &= mask;
+        if (code[i] == Token.ID || code[i] == Token.NUM)
+            return new String(source, start[i], length[i]);
+        return Tokenizer.nameOf(code[i]);
+    }
+
+    /**
+     * Materializes a whole {@code Token}.
+     * @param i token position
+     * @return new {@code Token} instance
+     */
+    Token get(int i) {
+        return new Token(name(i), line(i), code(i));
+    }
+}
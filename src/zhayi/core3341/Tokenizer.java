@@ -1,10 +1,12 @@
 package zhayi.core3341;
 
 import java.io.*;
+import java.nio.CharBuffer;
 import java.util.*;
-import java.lang.StringBuilder;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 import zhayi.core3341.CoreError.*;
 
@@ -21,148 +23,533 @@ public class Tokenizer implements Iterable<Token> {
 
     private final static int MAXLEN_NUM_ID = 8;
 
-    private List<Token> tokens = new ArrayList<>();
+    /**
+     * Character classes, looked up through {@code charClass} for ASCII and {@code classOf} otherwise.
+     */
+    private final static byte OTHER = 0;
+    private final static byte SPACE = 1;
+    private final static byte NEWLINE = 2;
+    private final static byte LOWER = 3;
+    private final static byte UPPER = 4;
+    private final static byte DIGIT = 5;
+    private final static byte SYMBOL = 6;
+    private final static byte OPERATOR = 7;
+
+    /**
+     * Class of every ASCII character.
+     */
+    private final static byte[] charClass = new byte[128];
+
+    /**
+     * Token code of every single character symbol, and of the one character form of each operator.
+     */
+    private final static byte[] symbolCode = new byte[128];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            if (c == '\n') charClass[c] = NEWLINE;
+            else if (Character.isWhitespace(c)) charClass[c] = SPACE;
+            else if (c >= 'a' && c <= 'z') charClass[c] = LOWER;
+            else if (c >= 'A' && c <= 'Z') charClass[c] = UPPER;
+            else if (c >= '0' && c <= '9') charClass[c] = DIGIT;
+        }
+        for (char c : ";,[]()+-*".toCharArray()) {
+            charClass[c] = SYMBOL;
+            symbolCode[c] = (byte) tokenId.indexOf(Character.toString(c));
+        }
+        for (char c : "!><=".toCharArray()) {
+            charClass[c] = OPERATOR;
+            symbolCode[c] = (byte) tokenId.indexOf(Character.toString(c));
+        }
+    }
+
+    /**
+     * Lazy mode: tokens kept behind the current one, and initial size of the source window.
+     */
+    private final static int WINDOW = 64;
+    private final static int BUFFER_SIZE = 8192;
+
+    /**
+     * Sources of at least this many characters are split into chunks lexed in parallel.
+     */
+    private final static int PARALLEL_THRESHOLD = 1 << 22;
+    private final static int MIN_CHUNK = 1 << 16;
+
+    private TokenStream tokens;
     private int currentIndex = 0;
-    private Character currentChar = null;
     private int line = 1;
 
+    /**
+     * Source text, scanned by index from {@code pos} up to {@code limit}. In eager mode this is the whole
+     * source; in lazy mode it is a window refilled from {@code reader}, and {@code mark} is the start of
+     * the token being scanned.
+     */
+    private char[] buf;
+    private int pos;
+    private int limit;
+    private int mark;
+
+    /**
+     * Eager mode source text as loaded, see {@code release}.
+     */
+    private CharBuffer loaded;
+
+    /**
+     * Lazy mode input, null in eager mode and once the input is exhausted.
+     */
+    private Reader reader;
+
     Tokenizer() {
     }
 
-    public Token getCurrent() {
-        if (currentIndex == tokens.size()) return tokens.get(currentIndex - 1);
-        return tokens.get(currentIndex);
+    /**
+     * Position of the current token. Stays on the last token once the stream is exhausted.
+     * @return index into the token stream
+     */
+    public int current() {
+        if (currentIndex == tokens.size()) return currentIndex - 1;
+        return currentIndex;
     }
 
-    public Token next() {
+    /**
+     * Moves to the next token, scanning it first in lazy mode.
+     * @return position of the new current token
+     * @throws InvalidTokenException if the token scanned in lazy mode is invalid
+     */
+    public int next() throws InvalidTokenException {
         assert (hasNext());
 
         currentIndex++;
-        return getCurrent();
+        if (currentIndex == tokens.size() && reader != null) advance();
+        return current();
+    }
+
+    /**
+     * Moves back to the first token, to parse a source tokenized up front again.
+     */
+    void rewind() {
+        assert reader == null;
+        currentIndex = 0;
     }
 
     public boolean hasNext() {
         return currentIndex < tokens.size();
     }
 
-    private int getTokenId(final String token) {
-        return tokenId.indexOf(token);
+    /**
+     * @return number of tokens, including the trailing EOF; in lazy mode, the number scanned so far
+     */
+    public int size() {
+        return tokens.size();
+    }
+
+    public int code(int i) {
+        return tokens.code(i);
     }
 
+    public int line(int i) {
+        return tokens.line(i);
+    }
+
+    /**
+     * @param i token position
+     * @return token text, materialized on each call
+     */
+    public String name(int i) {
+        return tokens.name(i);
+    }
+
+    /**
+     * Spelling of a fixed token.
+     * @param code {@code Token} code
+     * @return reserved word or symbol, "NUM"/"ID" for the variable tokens
+     */
+    static String nameOf(int code) {
+        return tokenId.get(code);
+    }
+
+    /**
+     * Materializes each token as it is iterated.
+     * @return iterator over {@code Token} instances
+     */
     public Iterator<Token> iterator() {
-        return tokens.iterator();
+        return new Iterator<Token>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < tokens.size();
+            }
+
+            @Override
+            public Token next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return tokens.get(i++);
+            }
+        };
     }
 
     void tokenize(String string) throws InvalidTokenException {
-        FileReader fr;
+        tokenize(Source.file(string));
+    }
+
+    void tokenize(Source source) throws InvalidTokenException {
+        tokenize(source, PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Tokenizes a whole source up front.
+     * @param source program source
+     * @param threshold sources of at least this many characters are lexed in parallel chunks
+     * @throws InvalidTokenException on the first invalid token in source order
+     */
+    void tokenize(Source source, int threshold) throws InvalidTokenException {
         try {
-            fr = new FileReader(string);
-            currentChar = this.nextChar(fr);
-            while (currentChar != null) {
-                String anToken;
-                if (currentChar == '\n') {
-                    line++;
-                    currentChar = nextChar(fr);
-                } else if (Character.isWhitespace(currentChar)) {
-                    currentChar = nextChar(fr);
-                } else if (Character.isLowerCase(currentChar)) {
-                    anToken = getAlphanumericString(fr);
-                    if (tokenId.indexOf(anToken) < 0)
-                        raiseError("Unknown reserve word " + anToken);
-                    tokens.add(new Token(anToken, line, getTokenId(anToken)));
-                } else if (Character.isDigit(currentChar) || Character.isUpperCase(currentChar)) {
-                    if (Character.isUpperCase(currentChar)) {
-                        anToken = getAlphanumericString(fr);
-                        if (!anToken.matches("[A-Z][A-Z]*[0-9]*") || anToken.length() > MAXLEN_NUM_ID)
-                            raiseError("Invalid identifier " + anToken);
-                        tokens.add(new Token(anToken, line, Token.ID));
-                    } else {
-                        anToken = getAlphanumericString(fr);
-                        if (!anToken.matches("[0-9][0-9]*") || anToken.length() > MAXLEN_NUM_ID)
-                            raiseError("Invalid numeral " + anToken);
-                        tokens.add(new Token(anToken, line, Token.NUM));
-                    }
-                } else {
-                    char c;
-                    if (currentChar == '!') {
-                        c = nextChar(fr);
-                        if (c == '=') {
-                            tokens.add(new Token("!=", line, Token.NEQ));
-                            currentChar = nextChar(fr);
-                            continue;
-                        }
-                        tokens.add(new Token("!", line, Token.NOT));
-                        currentChar = c;
-                    } else if (currentChar == '>') {
-                        c = nextChar(fr);
-                        if (c == '=') {
-                            tokens.add(new Token(">=", line, Token.GEQ));
-                            currentChar = nextChar(fr);
-                            continue;
-                        }
-                        tokens.add(new Token(">", line, Token.GT));
-                        currentChar = c;
-                    } else if (currentChar == '<') {
-                        c = nextChar(fr);
-                        if (c == '=') {
-                            this.tokens.add(new Token("<=", line, Token.LEQ));
-                            this.currentChar = this.nextChar(fr);
-                            continue;
-                        }
-                        this.tokens.add(new Token("<", line, Token.LT));
-                        currentChar = c;
-                    } else if (currentChar == '=') {
-                        c = this.nextChar(fr);
-                        if (c == '=') {
-                            tokens.add(new Token("==", line, Token.EQ));
-                            currentChar = nextChar(fr);
-                            continue;
-                        }
-                        tokens.add(new Token("=", line, Token.ASSIGN));
-                        currentChar = c;
-                    } else {
-                        c = currentChar;
-                        if (getTokenId(Character.toString(c)) < 0)
-                            raiseError(String.format("Invalid symbol %s", c));
-                        tokens.add(new Token(Character.toString(c), line, getTokenId(Character.toString(c))));
-                        currentChar = nextChar(fr);
-                    }
-                }
+            load(source);
+            if (limit >= threshold && limit >= 2 * MIN_CHUNK && ForkJoinPool.getCommonPoolParallelism() > 1) {
+                lexParallel();
+            } else {
+                tokens = new TokenStream(buf);
+                while (lex()) ;
             }
-            fr.close();
         } catch (FileNotFoundException fnfEx) {
-            System.err.printf("File %s not found", string);
+            System.err.printf("File %s not found", source.name());
             fnfEx.printStackTrace();
         } catch (IOException ioEx) {
             ioEx.printStackTrace();
         } finally {
-            tokens.add(new Token("~EOF~", line, Token.EOF));
+            if (tokens == null) tokens = new TokenStream(new char[0]);
+            tokens.add(Token.EOF, line, pos, 0);
         }
     }
 
-    private String getAlphanumericString(FileReader fileReader) {
-        StringBuilder sb = new StringBuilder();
-        while (currentChar != null && Character.isLetterOrDigit(currentChar)) {
-            sb.append(currentChar);
-            currentChar = nextChar(fileReader);
+    /**
+     * Splits {@code buf} into chunks right after whitespace or a semicolon, which no token can span,
+     * lexes every chunk on the fork-join pool with lines counted from 1, and joins the chunks with their
+     * line numbers shifted. If a chunk fails, the first failing chunk in source order is lexed again
+     * here with its true starting line, so the error is the one sequential lexing would have raised.
+     * @throws InvalidTokenException on the first invalid token in source order
+     */
+    private void lexParallel() throws InvalidTokenException {
+        int n = Math.min(ForkJoinPool.getCommonPoolParallelism() * 4, limit / MIN_CHUNK);
+        int[] bounds = new int[n + 1];
+        bounds[n] = limit;
+        for (int i = 1; i < n; i++) {
+            int b = Math.max(bounds[i - 1], (int) ((long) limit * i / n));
+            while (b < limit && !isChunkBoundary(b)) b++;
+            bounds[i] = b;
         }
-        return sb.toString();
+
+        Tokenizer[] chunks = new Tokenizer[n];
+        boolean[] failed = new boolean[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            Tokenizer chunk = new Tokenizer();
+            chunk.buf = buf;
+            chunk.pos = bounds[i];
+            chunk.limit = bounds[i + 1];
+            chunk.tokens = new TokenStream(buf);
+            try {
+                while (chunk.lex()) ;
+            } catch (InvalidTokenException ex) {
+                failed[i] = true;
+            }
+            chunks[i] = chunk;
+        });
+
+        TokenStream[] parts = new TokenStream[n];
+        int[] lineOffsets = new int[n];
+        for (int i = 0; i < n; i++) {
+            if (failed[i]) {
+                pos = bounds[i];
+                limit = bounds[i + 1];
+                tokens = new TokenStream(buf);
+                while (lex()) ;
+            }
+            parts[i] = chunks[i].tokens;
+            lineOffsets[i] = line - 1;
+            line += chunks[i].line - 1;
+        }
+        tokens = TokenStream.concat(buf, parts, lineOffsets);
+        pos = limit;
     }
 
-    private void raiseError(String msg) throws InvalidTokenException {
-        String info = String.format("Tokenizer Error: [Line %d] %s", line, msg);
-        throw new InvalidTokenException(info);
+    /**
+     * @param b offset into {@code buf}, greater than zero
+     * @return true if no token can continue from {@code buf[b - 1]} into {@code buf[b]}
+     */
+    private boolean isChunkBoundary(int b) {
+        char c = buf[b - 1];
+        byte cls = c < 128 ? charClass[c] : classOf(c);
+        return c == ';' || cls == SPACE || cls == NEWLINE;
+    }
+
+    void stream(String string) throws InvalidTokenException {
+        stream(Source.file(string));
+    }
+
+    /**
+     * Opens a source for lazy tokenizing. Only the first token is scanned here; every later one is scanned
+     * by {@code next()} when the parser reaches it. The source is read through a small sliding window and
+     * tokens are kept in a ring of {@code WINDOW} entries, so memory does not grow with the input.
+     * Tokenizer errors surface from {@code next()}, at the point the parser reaches them.
+     * @param source program source
+     * @throws InvalidTokenException if the first token is invalid
+     */
+    void stream(Source source) throws InvalidTokenException {
+        tokens = new TokenStream(WINDOW, MAXLEN_NUM_ID);
+        buf = new char[BUFFER_SIZE];
+        pos = limit = mark = 0;
+        try {
+            reader = source.open();
+        } catch (FileNotFoundException fnfEx) {
+            System.err.printf("File %s not found", source.name());
+            fnfEx.printStackTrace();
+        } catch (IOException ioEx) {
+            ioEx.printStackTrace();
+        }
+        advance();
+    }
+
+    /**
+     * Scans one more token in lazy mode, or appends the EOF token and closes the input once it runs out.
+     * @throws InvalidTokenException if the token is invalid
+     */
+    private void advance() throws InvalidTokenException {
+        if (reader != null && lex()) return;
+
+        tokens.add(Token.EOF, line, buf, pos, 0);
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException ioEx) {
+                ioEx.printStackTrace();
+            }
+            reader = null;
+        }
+    }
+
+    /**
+     * Scans up to and including the next token, which is appended to {@code tokens}.
+     * @return false if the input ended before another token
+     * @throws InvalidTokenException if the token is invalid
+     */
+    private boolean lex() throws InvalidTokenException {
+        while (true) {
+            if (pos == limit) {
+                mark = pos;
+                if (!fill()) return false;
+            }
+            char c = buf[pos];
+            mark = pos;
+            switch (c < 128 ? charClass[c] : classOf(c)) {
+                case NEWLINE:
+                    line++;
+                    pos++;
+                    break;
+                case SPACE:
+                    pos++;
+                    break;
+                case LOWER: {
+                    scanAlphanumeric();
+                    int code = keyword(mark, pos - mark);
+                    if (code < 0)
+                        raiseError("Unknown reserve word " + new String(buf, mark, pos - mark));
+                    addToken(code);
+                    return true;
+                }
+                case UPPER:
+                    scanAlphanumeric();
+                    if (!isIdentifier(mark, pos) || pos - mark > MAXLEN_NUM_ID)
+                        raiseError("Invalid identifier " + new String(buf, mark, pos - mark));
+                    addToken(Token.ID);
+                    return true;
+                case DIGIT:
+                    scanAlphanumeric();
+                    if (!isNumeral(mark, pos) || pos - mark > MAXLEN_NUM_ID)
+                        raiseError("Invalid numeral " + new String(buf, mark, pos - mark));
+                    addToken(Token.NUM);
+                    return true;
+                case SYMBOL:
+                    pos++;
+                    addToken(symbolCode[c]);
+                    return true;
+                case OPERATOR: {
+                    int code = symbolCode[c];
+                    pos++;
+                    if ((pos < limit || fill()) && buf[pos] == '=') {
+                        pos++;
+                        switch (c) {
+                            case '!': code = Token.NEQ; break;
+                            case '>': code = Token.GEQ; break;
+                            case '<': code = Token.LEQ; break;
+                            default: code = Token.EQ;
+                        }
+                    }
+                    addToken(code);
+                    return true;
+                }
+                default:
+                    raiseError(String.format("Invalid symbol %s", c));
+            }
+        }
+    }
+
+    /**
+     * Appends the token spanning {@code buf[mark, pos)}. In lazy mode its text is copied into the ring,
+     * since the window will slide past it.
+     * @param code {@code Token} code
+     */
+    private void addToken(int code) {
+        if (reader == null) tokens.add(code, line, mark, pos - mark);
+        else tokens.add(code, line, buf, mark, pos - mark);
     }
 
-    private Character nextChar(FileReader fileReader) {
-        Character c = null;
+    /**
+     * Slides the lazy mode window: drops everything before {@code mark}, then reads more input after it.
+     * The window only grows when a single token is longer than the whole window.
+     * @return false if there is no more input, or in eager mode
+     */
+    private boolean fill() {
+        if (reader == null) return false;
+
+        if (mark > 0) {
+            System.arraycopy(buf, mark, buf, 0, limit - mark);
+            pos -= mark;
+            limit -= mark;
+            mark = 0;
+        }
+        if (limit == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
         try {
-            int n = fileReader.read();
-            if (n != -1) c = (char) n;
-        } catch (IOException ex) {
-            ex.printStackTrace();
+            int n = reader.read(buf, limit, buf.length - limit);
+            if (n <= 0) return false;
+            limit += n;
+            return true;
+        } catch (IOException ioEx) {
+            ioEx.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Reads the whole source into {@code buf}. The buffer is owned by this {@code Tokenizer},
+     * since its {@code TokenStream} points into it. Text that is not already in an array from index 0,
+     * such as a {@code String} source, is copied into one here, as the lexer scans an array.
+     * @param source program source
+     * @throws IOException if the source cannot be read
+     */
+    private void load(Source source) throws IOException {
+        CharBuffer text = source.load();
+        loaded = text;
+        if (text.hasArray() && text.arrayOffset() == 0 && text.position() == 0) {
+            buf = text.array();
+            limit = text.limit();
+        } else {
+            buf = new char[text.remaining()];
+            text.duplicate().get(buf);
+            limit = buf.length;
         }
-        return c;
+        pos = 0;
+    }
+
+    /**
+     * Gives the source text back to {@code Source} for the next small file to be read into, once the tokens are
+     * no longer needed, see {@code Source.release}. Nothing may be read from {@code this} afterwards.
+     */
+    void release() {
+        if (loaded != null) Source.release(loaded);
+        loaded = null;
+    }
+
+    /**
+     * Classifies a non-ASCII character the same way the ASCII table would have, had it been in range.
+     * @param c character at or above 128
+     * @return one of the character classes
+     */
+    private static byte classOf(char c) {
+        if (Character.isWhitespace(c)) return SPACE;
+        if (Character.isLowerCase(c)) return LOWER;
+        if (Character.isUpperCase(c)) return UPPER;
+        if (Character.isDigit(c)) return DIGIT;
+        return OTHER;
+    }
+
+    /**
+     * Advances {@code pos} over a run of letters and digits.
+     */
+    private void scanAlphanumeric() {
+        while (pos < limit || fill()) {
+            char c = buf[pos];
+            if (c < 128 ? charClass[c] < LOWER || charClass[c] > DIGIT : !Character.isLetterOrDigit(c)) break;
+            pos++;
+        }
+    }
+
+    /**
+     * Tests {@code buf[from, to)} against {@code [A-Z][A-Z]*[0-9]*}.
+     */
+    private boolean isIdentifier(int from, int to) {
+        int i = from;
+        while (i < to && buf[i] >= 'A' && buf[i] <= 'Z') i++;
+        if (i == from) return false;
+        while (i < to && buf[i] >= '0' && buf[i] <= '9') i++;
+        return i == to;
+    }
+
+    /**
+     * Tests {@code buf[from, to)} against {@code [0-9][0-9]*}.
+     */
+    private boolean isNumeral(int from, int to) {
+        for (int i = from; i < to; i++)
+            if (buf[i] < '0' || buf[i] > '9') return false;
+        return to > from;
+    }
+
+    /**
+     * Recognizes a reserved word by its length and first character, then confirms the remaining characters.
+     * @param start offset of the word in {@code buf}
+     * @param length length of the word
+     * @return its {@code Token} code, or -1 if it is not a reserved word
+     */
+    private int keyword(int start, int length) {
+        int code;
+        switch (length) {
+            case 2:
+                code = buf[start] == 'i' ? Token.IF : buf[start] == 'o' ? Token.OR : -1;
+                break;
+            case 3:
+                code = buf[start] == 'e' ? Token.END : buf[start] == 'i' ? Token.INT
+                        : buf[start] == 'a' ? Token.AND : -1;
+                break;
+            case 4:
+                switch (buf[start]) {
+                    case 't': code = Token.THEN; break;
+                    case 'e': code = Token.ELSE; break;
+                    case 'l': code = Token.LOOP; break;
+                    case 'r': code = Token.READ; break;
+                    default: code = -1;
+                }
+                break;
+            case 5:
+                code = buf[start] == 'b' ? Token.BEGIN : buf[start] != 'w' ? -1
+                        : buf[start + 1] == 'h' ? Token.WHILE : Token.WRITE;
+                break;
+            case 7:
+                code = Token.PROGRAM;
+                break;
+            default:
+                code = -1;
+        }
+        if (code < 0) return -1;
+
+        String word = tokenId.get(code);
+        for (int i = 0; i < length; i++)
+            if (buf[start + i] != word.charAt(i)) return -1;
+        return code;
+    }
+
+    private void raiseError(String msg) throws InvalidTokenException {
+        String info = String.format("Tokenizer Error: [Line %d] %s", line, msg);
+        throw new InvalidTokenException(info);
     }
 
     public static void main(String[] args) {
@@ -177,8 +564,8 @@ public class Tokenizer implements Iterable<Token> {
             log.severe(invalidTokenException.getLocalizedMessage());
             System.exit(invalidTokenException.hashCode());
         }
-        for (Token t: object) {
-            System.out.println(t);
+        for (int i = 0; i < object.size(); i++) {
+            System.out.println(object.code(i));
         }
     }
 }
@@ -0,0 +1,144 @@
+package zhayi.core3341;
+
+import zhayi.core3341.CoreError.*;
+
+/**
+ * Stack machine for CORE language for CSE 3341 Project
+ *
+ * Runs {@code Bytecode} in a single dispatch loop. Variables live in a local {@code int[]} with a bitmask of
+ * initialized slots, operands on an {@code int[]} stack sized by the compiler. Output, and every error with
+ * its line number, is the same as executing the tree with {@code ProgNode.execProg}.
+ *
+ * @author Yi Zhang
+ */
+final class VirtualMachine {
+    private VirtualMachine() {
+    }
+
+    /**
+     * Runs a compiled program to completion.
+     * @param program compiled program
+     * @param io frame of the run
+     * @throws InterpreterException on the first runtime error
+     */
+    static void run(Bytecode program, Frame io) throws InterpreterException {
+        final int[] code = program.code;
+        final int[] stack = new int[program.maxStack];
+        final int[] vars = new int[program.names.length];
+        int initialized = 0;
+        int sp = 0;
+        int pc = 0;
+        int a, b;
+        long value;
+
+        while (true) {
+            switch (code[pc]) {
+                case Bytecode.CONST:
+                    stack[sp++] = code[pc + 1];
+                    pc += 2;
+                    break;
+                case Bytecode.LOAD:
+                    if ((initialized & 1 << code[pc + 1]) == 0)
+                        uninitialized(program.names[code[pc + 1]], code[pc + 2]);
+                    stack[sp++] = vars[code[pc + 1]];
+                    pc += 3;
+                    break;
+                case Bytecode.GET:
+                    stack[sp++] = vars[code[pc + 1]];
+                    pc += 2;
+                    break;
+                case Bytecode.STORE:
+                    vars[code[pc + 1]] = stack[--sp];
+                    initialized |= 1 << code[pc + 1];
+                    pc += 2;
+                    break;
+                case Bytecode.ADD:
+                    value = (long) stack[sp - 2] + stack[--sp];
+                    if (value != (int) value) overflow(program, code[pc + 1], value);
+                    stack[sp - 1] = (int) value;
+                    pc += 2;
+                    break;
+                case Bytecode.SUB:
+                    value = (long) stack[sp - 2] - stack[--sp];
+                    if (value != (int) value) overflow(program, code[pc + 1], value);
+                    stack[sp - 1] = (int) value;
+                    pc += 2;
+                    break;
+                case Bytecode.MUL:
+                    value = (long) stack[sp - 2] * stack[--sp];
+                    if (value != (int) value) overflow(program, code[pc + 1], value);
+                    stack[sp - 1] = (int) value;
+                    pc += 2;
+                    break;
+                case Bytecode.IF_NE:
+                    b = stack[--sp];
+                    a = stack[--sp];
+                    pc = a != b ? code[pc + 1] : pc + 2;
+                    break;
+                case Bytecode.IF_EQ:
+                    b = stack[--sp];
+                    a = stack[--sp];
+                    pc = a == b ? code[pc + 1] : pc + 2;
+                    break;
+                case Bytecode.IF_GE:
+                    b = stack[--sp];
+                    a = stack[--sp];
+                    pc = a >= b ? code[pc + 1] : pc + 2;
+                    break;
+                case Bytecode.IF_LE:
+                    b = stack[--sp];
+                    a = stack[--sp];
+                    pc = a <= b ? code[pc + 1] : pc + 2;
+                    break;
+                case Bytecode.IF_GT:
+                    b = stack[--sp];
+                    a = stack[--sp];
+                    pc = a > b ? code[pc + 1] : pc + 2;
+                    break;
+                case Bytecode.IF_LT:
+                    b = stack[--sp];
+                    a = stack[--sp];
+                    pc = a < b ? code[pc + 1] : pc + 2;
+                    break;
+                case Bytecode.GOTO:
+                    pc = code[pc + 1];
+                    break;
+                case Bytecode.READ: {
+                    int[] slots = program.ioSlots[code[pc + 1]];
+                    int[] values = io.read(program.ioNames[code[pc + 1]]);
+                    for (int i = 0; i < slots.length; i++) {
+                        vars[slots[i]] = values[i];
+                        initialized |= 1 << slots[i];
+                    }
+                    pc += 2;
+                    break;
+                }
+                case Bytecode.WRITE: {
+                    String[] names = program.ioNames[code[pc + 1]];
+                    int[] slots = program.ioSlots[code[pc + 1]];
+                    for (int i = 0; i < slots.length; i++) {
+                        if ((initialized & 1 << slots[i]) == 0)
+                            uninitialized(names[i], program.ioLine[code[pc + 1]]);
+                        io.write(names[i], vars[slots[i]]);
+                    }
+                    pc += 2;
+                    break;
+                }
+                case Bytecode.HALT:
+                    return;
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+    }
+
+    private static void uninitialized(String name, int line) throws InterpreterException {
+        CoreNode.raiseInterpreter(line, new UninitializedException("Using uninitialized variable " + name));
+    }
+
+    private static void overflow(Bytecode program, int check, long value) throws InterpreterException {
+        String result = value > CoreNode.INT_MAX ? " results in overflow" : " results in underflow";
+        CoreNode.raiseInterpreter(program.checkLine[check],
+                new OverflowUnderflowException(program.checkText(check) + result));
+    }
+}
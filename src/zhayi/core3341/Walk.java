@@ -0,0 +1,70 @@
+package zhayi.core3341;
+
+import java.util.Arrays;
+
+/**
+ * Walk stack for CORE language for CSE 3341 Project
+ *
+ * Drives the analysis, optimization and printing methods of the nodes that take it, so that walking a parsed
+ * program takes no Java stack along nesting, as {@code Parse} does for parsing it. Each node handles inline what
+ * cannot nest, and leaves on the stack a step for each child that can contain its own kind, a statement sequence,
+ * a condition or a parenthesized expression. What follows a child that left steps, and whatever finishes a node
+ * once its children are done, goes beneath them with {@code resume}, or runs right away with {@code then} if
+ * they left none, so that every step runs in the order the recursive walk ran it.
+ *
+ * @author Yi Zhang
+ */
+final class Walk {
+    private Runnable[] steps = new Runnable[16];
+    private int size;
+
+    /**
+     * @return position of the top of the stack, for {@code resume} and {@code then}
+     */
+    int mark() {
+        return size;
+    }
+
+    /**
+     * Adds a step to run next, before those already on the stack.
+     * @param step step
+     */
+    void push(Runnable step) {
+        resume(size, step);
+    }
+
+    /**
+     * Adds a step to run once those pushed since {@code mark} are done.
+     * @param mark position returned by {@code mark()}
+     * @param step step
+     */
+    void resume(int mark, Runnable step) {
+        if (size == steps.length) steps = Arrays.copyOf(steps, size * 2);
+        System.arraycopy(steps, mark, steps, mark + 1, size - mark);
+        steps[mark] = step;
+        size++;
+    }
+
+    /**
+     * Runs a step once those pushed since {@code mark} are done, right away if none were.
+     * @param mark position returned by {@code mark()}
+     * @param step step
+     */
+    void then(int mark, Runnable step) {
+        if (size == mark) step.run();
+        else resume(mark, step);
+    }
+
+    /**
+     * Runs a step, and every step left on the stack after it.
+     * @param first step
+     */
+    void run(Runnable first) {
+        push(first);
+        while (size > 0) {
+            Runnable step = steps[--size];
+            steps[size] = null;
+            step.run();
+        }
+    }
+}